@@ -0,0 +1,38 @@
+package net.jonp.armi.benchmarks;
+
+/**
+ * A small API bound into the registries used by the dispatch benchmarks.
+ */
+public class BenchmarkAPI
+{
+    /**
+     * Return the argument unchanged.
+     * 
+     * @param value The value.
+     * @return The same value.
+     */
+    public Object echo(final Object value)
+    {
+        return value;
+    }
+
+    /**
+     * Add two integers.
+     * 
+     * @param a The first integer.
+     * @param b The second integer.
+     * @return The sum.
+     */
+    public int add(final int a, final int b)
+    {
+        return a + b;
+    }
+
+    /**
+     * Do nothing.
+     */
+    public void noop()
+    {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,34 @@
+package net.jonp.armi.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the ARMI benchmarks. Accepts the same arguments as the standard JMH
+ * launcher, but always attaches the GC profiler (<code>-prof gc</code>), so
+ * every result reports allocation rate alongside throughput.
+ */
+public class BenchmarkMain
+{
+    public static void main(final String[] args)
+        throws RunnerException
+    {
+        final CommandLineOptions cmdOptions;
+        try {
+            cmdOptions = new CommandLineOptions(args);
+        }
+        catch (final CommandLineOptionException cloe) {
+            System.err.println("Error parsing command line: " + cloe.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        final Options options = new OptionsBuilder().parent(cmdOptions).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
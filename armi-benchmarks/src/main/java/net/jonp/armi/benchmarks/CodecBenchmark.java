@@ -0,0 +1,64 @@
+package net.jonp.armi.benchmarks;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the steady-state throughput of sending an object by reflection with
+ * sending it through a codec generated by <code>armi_processor</code>. See
+ * {@link CodecStartupBenchmark} for the cost in a fresh JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CodecBenchmark
+{
+    @Param({
+        "reflection", "generated"
+    })
+    public String codec;
+
+    private ClassRegistry registry;
+    private ValueResponse response;
+    private ResponseParser parser;
+
+    @Setup
+    public void setup()
+        throws IOException, NotBoundException
+    {
+        registry = Payloads.registry();
+        response = new ValueResponse("1", Readings.create("generated".equals(codec)));
+        parser = new ResponseParser(new RepeatingInputStream((response.toStatement(registry) + "\n").getBytes("UTF-8")),
+                                    registry);
+    }
+
+    @Benchmark
+    public String write()
+        throws NotBoundException
+    {
+        return response.toStatement(registry);
+    }
+
+    @Benchmark
+    public Response read()
+        throws IOException, SyntaxException
+    {
+        return parser.readNextResponse();
+    }
+}
@@ -0,0 +1,53 @@
+package net.jonp.armi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the first round trip of an object in a fresh JVM, sent by
+ * reflection or through a generated codec, including the first lookup of its
+ * fields or codec. Each fork measures a single call, so the result is the
+ * average over the forks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class CodecStartupBenchmark
+{
+    @Param({
+        "reflection", "generated"
+    })
+    public String codec;
+
+    @Benchmark
+    public Response roundTrip()
+        throws IOException, NotBoundException, SyntaxException
+    {
+        final ClassRegistry registry = Payloads.registry();
+        final String statement =
+            new ValueResponse("1", Readings.create("generated".equals(codec))).toStatement(registry) + "\n";
+        return new ResponseParser(new ByteArrayInputStream(statement.getBytes("UTF-8")), registry).readNextResponse();
+    }
+}
@@ -0,0 +1,230 @@
+package net.jonp.armi.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.Compression;
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.example.api.ChatMessage;
+import net.jonp.armi.example.api.Chatter;
+import net.jonp.armi.example.api.NameChange;
+import net.jonp.armi.example.chat.Shared;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the CPU cost of compressing the chat example's messages, and the
+ * bytes they take on the wire. Each operation sends one message, as the chat
+ * server would, through the same streams the socket communicators use.
+ * 
+ * The <code>rawBytes</code> and <code>wireBytes</code> counters are reported
+ * as rates alongside the operation rate; divide by it for bytes per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CompressionBenchmark
+{
+    /** Number of distinct messages to cycle through. */
+    private static final int MESSAGES = 64;
+
+    private static final String[] WORDS = {
+        "hello", "anyone", "around", "the", "build", "is", "broken", "again", "I", "think", "it", "was", "my", "change",
+        "sorry", "about", "that", "fixing", "now", "lunch", "?"
+    };
+
+    @Param({
+        "chat", "namechange", "chatters"
+    })
+    public String message;
+
+    /** <code>none</code>, or a {@link java.util.zip.Deflater} level. */
+    @Param({
+        "none", "1", "6"
+    })
+    public String compression;
+
+    /**
+     * Bytes written, before and after compression.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes
+    {
+        public long rawBytes;
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            rawBytes = 0;
+            wireBytes = 0;
+        }
+    }
+
+    // Like the chat server, no short names are registered
+    private final ClassRegistry registry = new DefaultClassRegistry();
+    private final Response[] responses = new Response[MESSAGES];
+    private int next = 0;
+
+    private final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    private final Feed feed = new Feed();
+    private OutputStream out;
+    private InputStream in;
+    private final byte[] readBuf = new byte[65536];
+
+    @Setup
+    public void setup()
+    {
+        for (int i = 0; i < MESSAGES; i++) {
+            responses[i] = create(i);
+        }
+
+        if ("none".equals(compression)) {
+            out = wire;
+            in = feed;
+        }
+        else {
+            out = new Compression(Integer.parseInt(compression), Compression.DEFAULT_THRESHOLD).wrap(wire);
+            in = Compression.wrap(feed);
+        }
+    }
+
+    /**
+     * Serialize and compress one message.
+     */
+    @Benchmark
+    public int send(final Bytes bytes)
+        throws IOException, NotBoundException
+    {
+        return write(bytes);
+    }
+
+    /**
+     * Serialize, compress, and decompress one message.
+     */
+    @Benchmark
+    public int sendAndReceive(final Bytes bytes)
+        throws IOException, NotBoundException
+    {
+        final int raw = write(bytes);
+
+        feed.set(wire.toByteArray());
+        int read = 0;
+        while (read < raw) {
+            read += in.read(readBuf, 0, readBuf.length);
+        }
+
+        return read;
+    }
+
+    private int write(final Bytes bytes)
+        throws IOException, NotBoundException
+    {
+        final byte[] statement = responses[next].toStatement(registry).getBytes(StandardCharsets.UTF_8);
+        next = (next + 1) % MESSAGES;
+
+        wire.reset();
+        out.write(statement);
+        out.write('\n');
+        out.flush();
+
+        bytes.rawBytes += statement.length + 1;
+        bytes.wireBytes += wire.size();
+        return statement.length + 1;
+    }
+
+    private Response create(final int i)
+    {
+        if ("chat".equals(message)) {
+            final ChatMessage chatMessage = new ChatMessage();
+            chatMessage.timestamp = 1300000000000L + i * 1723L;
+            chatMessage.from = "Chatter " + (i % 5);
+            chatMessage.message = sentence(i);
+            return new UnsolicitedResponse(Shared.UNSOL_CHAT, chatMessage);
+        }
+        else if ("namechange".equals(message)) {
+            return new UnsolicitedResponse(Shared.UNSOL_NAMECHANGE, new NameChange("Chatter " + i, WORDS[i % WORDS.length] +
+                                                                                                  i));
+        }
+        else if ("chatters".equals(message)) {
+            final Chatter[] chatters = new Chatter[10];
+            for (int j = 0; j < chatters.length; j++) {
+                chatters[j] = new Chatter();
+                chatters[j].name = "Chatter " + (i + j);
+            }
+
+            return new ValueResponse(Integer.toString(i), chatters);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown message: " + message);
+        }
+    }
+
+    private static String sentence(final int seed)
+    {
+        final StringBuilder buf = new StringBuilder();
+        for (int j = 0; j < 4 + seed % 7; j++) {
+            if (j > 0) {
+                buf.append(' ');
+            }
+
+            buf.append(WORDS[(seed * 7 + j * 3) % WORDS.length]);
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * An input stream over whatever was last written to the wire.
+     */
+    private static class Feed
+        extends InputStream
+    {
+        private byte[] buf = new byte[0];
+        private int pos = 0;
+
+        void set(final byte[] _buf)
+        {
+            buf = _buf;
+            pos = 0;
+        }
+
+        @Override
+        public int read()
+        {
+            return (pos < buf.length ? buf[pos++] & 0xff : -1);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+        {
+            if (pos >= buf.length) {
+                return -1;
+            }
+
+            final int n = Math.min(len, buf.length - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
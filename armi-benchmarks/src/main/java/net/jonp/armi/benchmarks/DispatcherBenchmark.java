@@ -0,0 +1,97 @@
+package net.jonp.armi.benchmarks;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.comm.CommandExecutor;
+import net.jonp.armi.comm.CommunicatorPipe;
+import net.jonp.armi.comm.ResponseDispatcher;
+import net.jonp.armi.comm.SimpleRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures complete {@link ResponseDispatcher#call(CallCommand)} round trips
+ * over a {@link CommunicatorPipe}, with a server thread executing the commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DispatcherBenchmark
+{
+    private CommunicatorPipe pipe;
+    private ResponseDispatcher dispatcher;
+    private Thread server;
+    private Object payload;
+
+    @Setup
+    public void setup()
+    {
+        pipe = new CommunicatorPipe(Payloads.registry(), 0);
+
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("bench", new BenchmarkAPI());
+        final CommandExecutor executor = new CommandExecutor(registry);
+
+        server = new Thread("DispatcherBenchmark server") {
+            @Override
+            public void run()
+            {
+                try {
+                    Command command;
+                    while (null != (command = pipe.readNextCommand())) {
+                        pipe.sendResponse(executor.executeCommand((CallCommand)command));
+                    }
+                }
+                catch (final IOException ioe) {
+                    // Closed
+                }
+            }
+        };
+        server.setDaemon(true);
+        server.start();
+
+        dispatcher = new ResponseDispatcher(pipe);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        payload = Payloads.create("primitive");
+    }
+
+    @TearDown
+    public void tearDown()
+        throws InterruptedException
+    {
+        pipe.close();
+        server.join(1000);
+        dispatcher.join(1000);
+    }
+
+    @Benchmark
+    public Object callNoop()
+        throws RemoteException, IOException, NotBoundException, TimeoutException
+    {
+        return dispatcher.call(new CallCommand(null, "bench", "noop", new Object[0]));
+    }
+
+    @Benchmark
+    public Object callEcho()
+        throws RemoteException, IOException, NotBoundException, TimeoutException
+    {
+        return dispatcher.call(new CallCommand(null, "bench", "echo", new Object[] {
+            payload
+        }));
+    }
+}
@@ -0,0 +1,78 @@
+package net.jonp.armi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.LangAPI;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.comm.CommandExecutor;
+import net.jonp.armi.comm.SimpleRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link CommandExecutor#executeCommand(CallCommand)}: registry
+ * lookup, method lookup, and reflective invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExecutorBenchmark
+{
+    private CommandExecutor executor;
+    private CallCommand noop;
+    private CallCommand add;
+    private CallCommand echo;
+    private CallCommand getMethods;
+
+    @Setup
+    public void setup()
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("lang", new LangAPI(registry));
+        registry.put("bench", new BenchmarkAPI());
+
+        executor = new CommandExecutor(registry);
+
+        noop = new CallCommand("1", "bench", "noop", new Object[0]);
+        add = new CallCommand("1", "bench", "add", new Object[] {
+            3, 4
+        });
+        echo = new CallCommand("1", "bench", "echo", new Object[] {
+            Payloads.create("primitive")
+        });
+        getMethods = new CallCommand("1", "lang", "getMethods", new Object[] {
+            "bench"
+        });
+    }
+
+    @Benchmark
+    public Response executeNoop()
+    {
+        return executor.executeCommand(noop);
+    }
+
+    @Benchmark
+    public Response executeAdd()
+    {
+        return executor.executeCommand(add);
+    }
+
+    @Benchmark
+    public Response executeEcho()
+    {
+        return executor.executeCommand(echo);
+    }
+
+    @Benchmark
+    public Response executeGetMethods()
+    {
+        return executor.executeCommand(getMethods);
+    }
+}
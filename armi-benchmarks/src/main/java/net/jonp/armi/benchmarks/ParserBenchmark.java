@@ -0,0 +1,102 @@
+package net.jonp.armi.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.rmi.NotBoundException;
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing of commands and responses carrying the same payloads as
+ * {@link SerializationBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark
+{
+    @Param({
+        "primitive", "string", "nested", "superclass", "collection", "map", "circular", "doubles"
+    })
+    public String payload;
+
+    private CommandParser commandParser;
+    private ResponseParser responseParser;
+    private ResponseParser lazyResponseParser;
+    private CommandParser bufferParser;
+    private ByteBuffer commandBuffer;
+
+    @Setup
+    public void setup()
+        throws IOException, NotBoundException
+    {
+        final ClassRegistry registry = Payloads.registry();
+        final Object value = Payloads.create(payload);
+
+        final String response = new ValueResponse("1", value).toStatement(registry) + "\n";
+        final String command = new CallCommand("1", "bench", "method", new Object[] {
+            value
+        }).toStatement(registry) + "\n";
+
+        responseParser = new ResponseParser(new RepeatingInputStream(response.getBytes("UTF-8")), registry);
+        lazyResponseParser = new ResponseParser(new RepeatingInputStream(response.getBytes("UTF-8")), registry);
+        lazyResponseParser.setLazy(true);
+        commandParser = new CommandParser(new RepeatingInputStream(command.getBytes("UTF-8")), registry);
+
+        final byte[] commandBytes = command.getBytes("UTF-8");
+        commandBuffer = ByteBuffer.allocateDirect(commandBytes.length);
+        commandBuffer.put(commandBytes).flip();
+        bufferParser = new CommandParser(registry);
+    }
+
+    @Benchmark
+    public Response readNextResponse()
+        throws IOException, SyntaxException
+    {
+        return responseParser.readNextResponse();
+    }
+
+    /**
+     * A relay or label-based filter, which never decodes the value.
+     */
+    @Benchmark
+    public String readNextResponseLazy()
+        throws IOException, SyntaxException
+    {
+        return lazyResponseParser.readNextResponse().getLabel();
+    }
+
+    @Benchmark
+    public Command readNextCommand()
+        throws IOException, SyntaxException
+    {
+        return commandParser.readNextCommand();
+    }
+
+    /**
+     * A non-blocking transport, handing over each statement in a buffer.
+     */
+    @Benchmark
+    public Command parseCommand()
+        throws IOException, SyntaxException
+    {
+        return bufferParser.parseCommand(commandBuffer);
+    }
+}
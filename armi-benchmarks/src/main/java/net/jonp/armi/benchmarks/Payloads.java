@@ -0,0 +1,113 @@
+package net.jonp.armi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.jonp.armi.base.ArrayTestClass;
+import net.jonp.armi.base.CircularReferenceTestClass;
+import net.jonp.armi.base.PrimitiveTestClass;
+import net.jonp.armi.base.SuperclassTestClass;
+import net.jonp.armi.base.TestClass;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+/**
+ * The values serialized and parsed by the benchmarks. Where possible these are
+ * the same objects the unit tests use.
+ */
+public class Payloads
+{
+    /** Number of elements in the large collection and map payloads. */
+    public static final int LARGE_SIZE = 1000;
+
+    private Payloads()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Build the named payload.
+     * 
+     * @param name One of <code>primitive</code>, <code>string</code>,
+     *            <code>nested</code>, <code>superclass</code>,
+     *            <code>collection</code>, <code>map</code>,
+     *            <code>circular</code>, or <code>doubles</code>.
+     * @return A new instance of the payload.
+     */
+    public static Object create(final String name)
+    {
+        if ("primitive".equals(name)) {
+            return new PrimitiveTestClass(true);
+        }
+        else if ("string".equals(name)) {
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                buf.append("A \"quoted\" string with a \\ backslash, ");
+            }
+            return buf.toString();
+        }
+        else if ("nested".equals(name)) {
+            return new ArrayTestClass(true);
+        }
+        else if ("superclass".equals(name)) {
+            return new SuperclassTestClass(true);
+        }
+        else if ("collection".equals(name)) {
+            final List<Object> list = new ArrayList<Object>(LARGE_SIZE);
+            for (int i = 0; i < LARGE_SIZE; i++) {
+                list.add((i % 2 == 0) ? (Object)Integer.valueOf(i) : (Object)("element" + i));
+            }
+            return list;
+        }
+        else if ("map".equals(name)) {
+            final Map<String, Integer> map = new HashMap<String, Integer>();
+            for (int i = 0; i < LARGE_SIZE; i++) {
+                map.put("key" + i, i);
+            }
+            return map;
+        }
+        else if ("circular".equals(name)) {
+            return new CircularReferenceTestClass(true);
+        }
+        else if ("doubles".equals(name)) {
+            // Half readings with a few decimal places, half full-precision
+            // values (which the parser hands off to Double.parseDouble())
+            final Random random = new Random(0);
+            final Double[] doubles = new Double[LARGE_SIZE];
+            for (int i = 0; i < LARGE_SIZE; i++) {
+                if (i % 2 == 0) {
+                    doubles[i] = Math.round(random.nextGaussian() * 1e6) / 1000.0;
+                }
+                else {
+                    doubles[i] = random.nextDouble() * 1e-3;
+                }
+            }
+            return doubles;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown payload: " + name);
+        }
+    }
+
+    /**
+     * Build a class registry that knows the names of all test classes used by
+     * the payloads.
+     * 
+     * @return A new class registry.
+     */
+    public static DefaultClassRegistry registry()
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final TestClass[] tests = new TestClass[] {
+            new PrimitiveTestClass(), new ArrayTestClass(), new SuperclassTestClass(), new CircularReferenceTestClass()
+        };
+
+        for (final TestClass test : tests) {
+            registry.put(test.getName(), test.getClass());
+        }
+
+        return registry;
+    }
+}
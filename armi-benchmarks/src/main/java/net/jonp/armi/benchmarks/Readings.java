@@ -0,0 +1,60 @@
+package net.jonp.armi.benchmarks;
+
+import net.jonp.armi.base.GenerateCodec;
+
+/**
+ * Two otherwise identical payloads for {@link CodecBenchmark}: one sent by
+ * reflection, one with a generated codec.
+ */
+public class Readings
+{
+    private Readings()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Build one of the readings.
+     * 
+     * @param generated True for the reading with a generated codec.
+     * @return A new reading.
+     */
+    public static Object create(final boolean generated)
+    {
+        final Reflected reading = (generated ? new Generated() : new Reflected());
+        reading.sensor = "thermometer-12";
+        reading.unit = "celsius";
+        reading.timestamp = 1300000000000L;
+        reading.value = 21.5;
+        reading.sequence = 1234;
+        reading.channel = 3;
+        reading.valid = true;
+        reading.status = Integer.valueOf(200);
+        return reading;
+    }
+
+    /**
+     * A reading sent by reflection.
+     */
+    public static class Reflected
+    {
+        String sensor;
+        String unit;
+        long timestamp;
+        double value;
+        int sequence;
+        short channel;
+        boolean valid;
+        Integer status;
+    }
+
+    /**
+     * The same reading, with a generated codec.
+     */
+    @GenerateCodec
+    public static class Generated
+        extends Reflected
+    {
+        // Same fields
+    }
+}
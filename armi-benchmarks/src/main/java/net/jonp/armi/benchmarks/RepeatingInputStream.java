@@ -0,0 +1,59 @@
+package net.jonp.armi.benchmarks;
+
+import java.io.InputStream;
+
+/**
+ * An endless stream that repeats the same bytes over and over, so a parser can
+ * be built once and read the same statement as many times as a benchmark
+ * needs.
+ */
+public class RepeatingInputStream
+    extends InputStream
+{
+    private final byte[] _data;
+    private int pos = 0;
+
+    /**
+     * Construct a new {@link RepeatingInputStream}.
+     * 
+     * @param data The bytes to repeat. Must not be empty.
+     */
+    public RepeatingInputStream(final byte[] data)
+    {
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Cannot repeat an empty array");
+        }
+
+        _data = data.clone();
+    }
+
+    @Override
+    public int read()
+    {
+        final int b = _data[pos++] & 0xff;
+        if (pos == _data.length) {
+            pos = 0;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, final int len)
+    {
+        final int count = Math.min(len, _data.length - pos);
+        System.arraycopy(_data, pos, buf, off, count);
+        pos += count;
+        if (pos == _data.length) {
+            pos = 0;
+        }
+
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return _data.length - pos;
+    }
+}
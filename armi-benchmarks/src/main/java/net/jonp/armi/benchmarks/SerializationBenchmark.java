@@ -0,0 +1,75 @@
+package net.jonp.armi.benchmarks;
+
+import java.rmi.NotBoundException;
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.PreparedCall;
+import net.jonp.armi.base.response.ValueResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures serialization (<code>makeArgument()</code>, by way of
+ * <code>toStatement()</code>) of commands and responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerializationBenchmark
+{
+    @Param({
+        "primitive", "string", "nested", "superclass", "collection", "map", "circular", "doubles"
+    })
+    public String payload;
+
+    private ClassRegistry registry;
+    private ValueResponse response;
+    private CallCommand command;
+    private PreparedCall prepared;
+    private Object value;
+
+    @Setup
+    public void setup()
+    {
+        registry = Payloads.registry();
+
+        value = Payloads.create(payload);
+        response = new ValueResponse("1", value);
+        command = new CallCommand("1", "bench", "method", new Object[] {
+            value
+        });
+        prepared = new PreparedCall("bench", "method", value.getClass());
+    }
+
+    @Benchmark
+    public String responseToStatement()
+        throws NotBoundException
+    {
+        return response.toStatement(registry);
+    }
+
+    @Benchmark
+    public String commandToStatement()
+        throws NotBoundException
+    {
+        return command.toStatement(registry);
+    }
+
+    @Benchmark
+    public String preparedToStatement()
+        throws NotBoundException
+    {
+        final CallCommand bound = prepared.bind(value);
+        bound.setLabel("1");
+        return bound.toStatement(registry);
+    }
+}
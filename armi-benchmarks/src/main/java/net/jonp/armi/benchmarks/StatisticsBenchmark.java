@@ -0,0 +1,49 @@
+package net.jonp.armi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.stats.CallStatistics;
+import net.jonp.armi.base.stats.MethodRecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the cost of recording call statistics when many threads call the
+ * same method at once. Run with <code>-t</code> to change the thread count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class StatisticsBenchmark
+{
+    private CallStatistics statistics;
+    private long nanos = 0;
+
+    @Setup
+    public void setup()
+    {
+        statistics = new CallStatistics();
+    }
+
+    @Benchmark
+    public void record()
+    {
+        // The same lookup and record CommandExecutor makes for each call
+        final MethodRecorder recorder = statistics.getRecorder("bench", "noop");
+        recorder.record((nanos++ & 0xffff) + 1000);
+    }
+
+    @Benchmark
+    public void recordError()
+    {
+        statistics.getRecorder("bench", "noop").recordError(1000, IllegalStateException.class);
+    }
+}
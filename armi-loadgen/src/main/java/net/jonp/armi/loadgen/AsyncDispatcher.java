@@ -0,0 +1,128 @@
+package net.jonp.armi.loadgen;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.comm.ResponseDispatcher;
+import net.jonp.armi.comm.client.ClientSideCommunicator;
+
+/**
+ * A {@link ResponseDispatcher} which can send calls without waiting for their
+ * responses, so a single thread can keep many calls outstanding on one
+ * connection.
+ */
+public class AsyncDispatcher
+    extends ResponseDispatcher
+{
+    /**
+     * Receives the response to a call sent with
+     * {@link AsyncDispatcher#call(CallCommand, Callback)}.
+     */
+    public static interface Callback
+    {
+        /**
+         * Called once, from the dispatcher thread, with the first response to
+         * the call, or from {@link AsyncDispatcher#expire()} with
+         * <code>null</code> if none arrived.
+         * 
+         * @param response The response, or <code>null</code>.
+         */
+        public void response(Response response);
+    }
+
+    private final AtomicLong nextLabel = new AtomicLong(0);
+    private final Map<String, Callback> pending = new ConcurrentHashMap<String, Callback>();
+
+    /**
+     * Construct a new AsyncDispatcher.
+     * 
+     * @param comm The {@link ClientSideCommunicator} to use for communications.
+     */
+    public AsyncDispatcher(final ClientSideCommunicator comm)
+    {
+        super(comm);
+    }
+
+    /**
+     * Send a call, and return without waiting for its response.
+     * 
+     * @param cmd The call command to send. Its label is replaced.
+     * @param callback Notified of the response.
+     * @throws IOException If there was an exception sending the command.
+     * @throws NotBoundException If the {@link ClientSideCommunicator} is unable
+     *             to serialize the {@link CallCommand}.
+     */
+    public void call(final CallCommand cmd, final Callback callback)
+        throws IOException, NotBoundException
+    {
+        // Prefixed, so they never collide with the labels of ordinary calls
+        final String label = "a" + nextLabel.getAndIncrement();
+        cmd.setLabel(label);
+
+        pending.put(label, callback);
+        setResponseListener(label, new ResponseListener() {
+            @Override
+            public void response(final Response response)
+            {
+                delResponseListener(label);
+                if (null != pending.remove(label)) {
+                    callback.response(response);
+                }
+            }
+        });
+
+        boolean sent = false;
+        try {
+            getCommunicator().sendCommand(cmd);
+            sent = true;
+        }
+        finally {
+            if (!sent) {
+                delResponseListener(label);
+                pending.remove(label);
+            }
+        }
+    }
+
+    /**
+     * Get the number of calls still waiting for a response.
+     * 
+     * @return The number of outstanding calls.
+     */
+    public int getOutstanding()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Give up on all outstanding calls, notifying each of their callbacks with
+     * <code>null</code>. A response which arrives later is ignored.
+     * 
+     * @return The number of calls given up on.
+     */
+    public int expire()
+    {
+        final List<Callback> expired = new ArrayList<Callback>();
+        for (final String label : new ArrayList<String>(pending.keySet())) {
+            delResponseListener(label);
+
+            final Callback callback = pending.remove(label);
+            if (null != callback) {
+                expired.add(callback);
+            }
+        }
+
+        for (final Callback callback : expired) {
+            callback.response(null);
+        }
+
+        return expired.size();
+    }
+}
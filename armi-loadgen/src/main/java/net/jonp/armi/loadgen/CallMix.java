@@ -0,0 +1,180 @@
+package net.jonp.armi.loadgen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.base.command.PreparedCall;
+
+/**
+ * A weighted mix of calls for a load run.
+ * 
+ * A mix file has one call per line, preceded by its weight:
+ * 
+ * <pre>
+ * # Mostly reads
+ * 9 quotes.get ("ACME")
+ * 1 quotes.update ("ACME", 10.5)
+ * </pre>
+ * 
+ * Calls are written as in a <code>call</code> statement, without the
+ * <code>call</code> keyword or a label. Blank lines and lines starting with
+ * <code>#</code> are ignored. Each call is picked with a probability in
+ * proportion to its weight.
+ */
+public class CallMix
+{
+    private final List<PreparedCall> calls = new ArrayList<PreparedCall>();
+    private final List<Object[]> arguments = new ArrayList<Object[]>();
+    private double[] cumulative = new double[0];
+
+    /**
+     * Read a mix file.
+     * 
+     * @param in The file.
+     * @param registry The class registry used to parse the arguments.
+     * @return The mix.
+     * @throws IOException If there was a problem reading the file.
+     * @throws SyntaxException If a line could not be parsed.
+     */
+    public static CallMix parse(final Reader in, final ClassRegistry registry)
+        throws IOException, SyntaxException
+    {
+        final CallMix mix = new CallMix();
+        final CommandParser parser = new CommandParser(registry);
+        final BufferedReader reader = new BufferedReader(in);
+
+        String line;
+        int lineNumber = 0;
+        while (null != (line = reader.readLine())) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] parts = line.split("\\s+", 2);
+            final double weight;
+            try {
+                weight = Double.parseDouble(parts[0]);
+            }
+            catch (final NumberFormatException nfe) {
+                throw new SyntaxException("Line " + lineNumber + ": bad weight: " + parts[0]);
+            }
+
+            if (parts.length < 2) {
+                throw new SyntaxException("Line " + lineNumber + ": missing call");
+            }
+
+            final Command command;
+            try {
+                command = parser.parseCommand(ByteBuffer.wrap(("call " + parts[1]).getBytes(StandardCharsets.UTF_8)));
+            }
+            catch (final SyntaxException se) {
+                throw new SyntaxException("Line " + lineNumber + ": " + se.getMessage(), se);
+            }
+
+            if (!(command instanceof CallCommand)) {
+                throw new SyntaxException("Line " + lineNumber + ": not a call: " + parts[1]);
+            }
+
+            try {
+                mix.add(weight, (CallCommand)command);
+            }
+            catch (final IllegalArgumentException iae) {
+                throw new SyntaxException("Line " + lineNumber + ": " + iae.getMessage(), iae);
+            }
+        }
+
+        return mix;
+    }
+
+    /**
+     * Add a call to the mix.
+     * 
+     * @param weight The weight of the call, greater than zero.
+     * @param call The call. Its arguments are sent with every copy of it, so
+     *            must not be changed afterwards.
+     */
+    public void add(final double weight, final CallCommand call)
+    {
+        if (!(weight > 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("Bad weight: " + weight);
+        }
+
+        final Object[] args = call.getArguments();
+        final Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = (null == args[i] ? Object.class : args[i].getClass());
+        }
+
+        calls.add(new PreparedCall(call.getObject(), call.getMethod(), types));
+        arguments.add(args);
+
+        final double[] _cumulative = new double[cumulative.length + 1];
+        System.arraycopy(cumulative, 0, _cumulative, 0, cumulative.length);
+        _cumulative[cumulative.length] = (cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1]) + weight;
+        cumulative = _cumulative;
+    }
+
+    /**
+     * Get the number of calls in the mix.
+     * 
+     * @return The number of calls.
+     */
+    public int size()
+    {
+        return calls.size();
+    }
+
+    /**
+     * Get one of the calls in the mix.
+     * 
+     * @param index The index of the call, in the order added.
+     * @return The call.
+     */
+    public PreparedCall getCall(final int index)
+    {
+        return calls.get(index);
+    }
+
+    /**
+     * Pick a call, in proportion to the weights.
+     * 
+     * @param random The source of randomness; each sending thread should have
+     *            its own.
+     * @return A new command for the call, ready to be labelled and sent.
+     */
+    public CallCommand next(final Random random)
+    {
+        final double[] _cumulative = cumulative;
+        if (_cumulative.length == 0) {
+            throw new IllegalStateException("Empty call mix");
+        }
+
+        final double r = random.nextDouble() * _cumulative[_cumulative.length - 1];
+        int low = 0;
+        int high = _cumulative.length - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (_cumulative[mid] > r) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+
+        return calls.get(low).bind(arguments.get(low));
+    }
+}
@@ -0,0 +1,252 @@
+package net.jonp.armi.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.Handshake;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sits between clients and a server, passing traffic through unchanged, and
+ * writes the statements the clients send to a {@link CaptureWriter}.
+ * 
+ * Only plain statements can be captured, so a {@link Handshake} hello from a
+ * client is replaced by one asking for no features; the server's reply tells
+ * the client that none were accepted, and the connection continues without
+ * compression or dictionaries.
+ */
+public class CaptureProxy
+    extends Thread
+    implements Closeable
+{
+    private static final Logger LOG = Logger.getLogger(CaptureProxy.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ServerSocket _listener;
+    private final InetAddress _addr;
+    private final int _port;
+    private final CaptureWriter _writer;
+    private final AtomicInteger nextConnection = new AtomicInteger(0);
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private final byte[] plainHello;
+
+    /**
+     * Construct a new CaptureProxy.
+     * 
+     * @param listener Accepts connections from clients.
+     * @param addr The address of the server.
+     * @param port The port of the server.
+     * @param writer Receives the captured statements.
+     */
+    public CaptureProxy(final ServerSocket listener, final InetAddress addr, final int port, final CaptureWriter writer)
+    {
+        super("CaptureProxy[" + listener.getLocalSocketAddress() + "]");
+
+        _listener = listener;
+        _addr = addr;
+        _port = port;
+        _writer = writer;
+
+        try {
+            plainHello =
+                Handshake.hello(Collections.<String> emptySet(), new DefaultClassRegistry())
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        catch (final NotBoundException nbe) {
+            // Should not happen, the hello only contains a string
+            throw new IllegalStateException("Failed to build hello: " + nbe.getMessage(), nbe);
+        }
+    }
+
+    /**
+     * Get the number of connections accepted so far.
+     * 
+     * @return The number of connections.
+     */
+    public int getConnections()
+    {
+        return nextConnection.get();
+    }
+
+    @Override
+    public void run()
+    {
+        while (!_listener.isClosed()) {
+            final Socket client;
+            try {
+                client = _listener.accept();
+            }
+            catch (final IOException ioe) {
+                if (!_listener.isClosed()) {
+                    LOG.warn("IOException accepting a connection", ioe);
+                }
+
+                continue;
+            }
+
+            final Socket server;
+            try {
+                server = new Socket(_addr, _port);
+            }
+            catch (final IOException ioe) {
+                LOG.warn("Unable to connect to " + _addr + ":" + _port, ioe);
+                close(client);
+                continue;
+            }
+
+            sockets.add(client);
+            sockets.add(server);
+
+            final int connection = nextConnection.getAndIncrement();
+            final Thread upstream = new Thread("CaptureProxy connection " + connection + " upstream") {
+                @Override
+                public void run()
+                {
+                    try {
+                        relayCommands(connection, client.getInputStream(), server.getOutputStream());
+                    }
+                    catch (final IOException ioe) {
+                        LOG.debug("IOException relaying commands on connection " + connection, ioe);
+                    }
+                    finally {
+                        shutdownOutput(server);
+                    }
+                }
+            };
+
+            final Thread downstream = new Thread("CaptureProxy connection " + connection + " downstream") {
+                @Override
+                public void run()
+                {
+                    try {
+                        relayResponses(server.getInputStream(), client.getOutputStream());
+                    }
+                    catch (final IOException ioe) {
+                        LOG.debug("IOException relaying responses on connection " + connection, ioe);
+                    }
+                    finally {
+                        close(client);
+                        close(server);
+                    }
+                }
+            };
+
+            upstream.setDaemon(true);
+            downstream.setDaemon(true);
+            upstream.start();
+            downstream.start();
+        }
+    }
+
+    /**
+     * Stop accepting connections, and close those that are open.
+     */
+    @Override
+    public void close()
+    {
+        try {
+            _listener.close();
+        }
+        catch (final IOException ioe) {
+            LOG.debug("IOException closing listener", ioe);
+        }
+
+        for (final Socket sock : sockets) {
+            close(sock);
+        }
+    }
+
+    /**
+     * Pass statements from a client to the server, one line at a time,
+     * recording each.
+     */
+    private void relayCommands(final int connection, final InputStream _in, final OutputStream out)
+        throws IOException
+    {
+        final InputStream in = new BufferedInputStream(_in, BUFFER_SIZE);
+        byte[] line = new byte[BUFFER_SIZE];
+        boolean first = true;
+
+        while (true) {
+            int length = 0;
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (length == line.length - 1) {
+                    final byte[] _line = new byte[line.length * 2];
+                    System.arraycopy(line, 0, _line, 0, length);
+                    line = _line;
+                }
+
+                line[length++] = (byte)c;
+            }
+
+            if (c == -1) {
+                // Pass on anything left, it was never a whole statement
+                out.write(line, 0, length);
+                return;
+            }
+
+            if (first && Handshake.isHello(new String(line, 0, length, StandardCharsets.UTF_8))) {
+                out.write(plainHello);
+            }
+            else {
+                _writer.write(connection, line, 0, length);
+
+                line[length] = '\n';
+                out.write(line, 0, length + 1);
+            }
+
+            first = false;
+        }
+    }
+
+    /**
+     * Pass everything from the server to a client.
+     */
+    private void relayResponses(final InputStream in, final OutputStream out)
+        throws IOException
+    {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    private void shutdownOutput(final Socket sock)
+    {
+        try {
+            sock.shutdownOutput();
+        }
+        catch (final IOException ioe) {
+            LOG.debug("IOException shutting down output", ioe);
+        }
+    }
+
+    private void close(final Socket sock)
+    {
+        sockets.remove(sock);
+        try {
+            sock.close();
+        }
+        catch (final IOException ioe) {
+            LOG.debug("IOException closing socket", ioe);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package net.jonp.armi.loadgen;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a capture file written by {@link CaptureWriter}.
+ * 
+ * The file is memory-mapped, and each statement is handed out as a slice of
+ * the mapping, so reading a capture costs no copies or system calls once its
+ * pages are resident, and replaying a large capture is not held back by disk
+ * reads. A record cut short at the end of the file (as when a capture is
+ * killed) is treated as the end of the file.
+ * 
+ * Not thread-safe.
+ */
+public class CaptureReader
+    implements Closeable
+{
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    private long time;
+    private int connection;
+    private ByteBuffer statement;
+
+    /**
+     * Construct a new CaptureReader.
+     * 
+     * @param file The capture file.
+     * @throws IOException If the file could not be mapped, or is not a capture
+     *             file.
+     */
+    public CaptureReader(final File file)
+        throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Capture too large to map: " + file);
+            }
+
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < CaptureWriter.HEADER_SIZE || map.getInt() != CaptureWriter.MAGIC) {
+                throw new IOException("Not a capture file: " + file);
+            }
+
+            final int version = map.getInt();
+            if (version != CaptureWriter.VERSION) {
+                throw new IOException("Unsupported capture version " + version + ": " + file);
+            }
+        }
+        catch (final IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Move to the next record.
+     * 
+     * @return True if there was another record, false at the end of the file.
+     */
+    public boolean next()
+    {
+        if (map.remaining() < CaptureWriter.RECORD_HEADER_SIZE) {
+            statement = null;
+            return false;
+        }
+
+        final int start = map.position();
+        time = map.getLong();
+        connection = map.getInt();
+
+        final int length = map.getInt();
+        if (length < 0 || length > map.remaining()) {
+            map.position(start);
+            statement = null;
+            return false;
+        }
+
+        statement = map.duplicate();
+        statement.limit(statement.position() + length);
+        map.position(map.position() + length);
+        return true;
+    }
+
+    /**
+     * Get the time of the current record.
+     * 
+     * @return When the statement was sent, in nanoseconds since the capture
+     *         started.
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Get the connection of the current record.
+     * 
+     * @return The connection number.
+     */
+    public int getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * Get the statement of the current record.
+     * 
+     * @return The UTF-8 statement, without its newline, from the position to
+     *         the limit of a buffer which shares the mapping. Valid until the
+     *         reader is closed.
+     */
+    public ByteBuffer getStatement()
+    {
+        return statement;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        channel.close();
+    }
+}
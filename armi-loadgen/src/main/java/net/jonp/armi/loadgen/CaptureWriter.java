@@ -0,0 +1,110 @@
+package net.jonp.armi.loadgen;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a capture file: the statements sent by clients to a server, with
+ * when and on which connection they were sent, for {@link Replayer} to send
+ * again.
+ * 
+ * The file starts with {@link #MAGIC} and {@link #VERSION} (each an
+ * <code>int</code>), followed by one record per statement: the time it was
+ * sent, in nanoseconds since the capture started (a <code>long</code>), the
+ * connection number (an <code>int</code>), the length of the statement in
+ * bytes (an <code>int</code>), and the UTF-8 statement itself, without its
+ * newline. All numbers are big-endian. Records are in the order of their
+ * times.
+ * 
+ * Thread-safe.
+ */
+public class CaptureWriter
+    implements Closeable
+{
+    /** The first four bytes of a capture file, "ARMC". */
+    public static final int MAGIC = 0x41524D43;
+
+    /** The version of the file format. */
+    public static final int VERSION = 1;
+
+    /** The number of bytes before the first record. */
+    static final int HEADER_SIZE = 8;
+
+    /** The number of bytes before the statement in each record. */
+    static final int RECORD_HEADER_SIZE = 16;
+
+    private final DataOutputStream out;
+    private final long start = System.nanoTime();
+    private long records = 0;
+
+    /**
+     * Construct a new CaptureWriter, replacing any existing file.
+     * 
+     * @param file The file to write.
+     * @throws IOException If the file could not be created.
+     */
+    public CaptureWriter(final File file)
+        throws IOException
+    {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Record a statement, sent now.
+     * 
+     * @param connection The connection number.
+     * @param statement The UTF-8 statement, without its newline.
+     * @param offset The offset of the statement within the array.
+     * @param length The length of the statement, in bytes.
+     * @throws IOException If there was a problem writing.
+     */
+    public synchronized void write(final int connection, final byte[] statement, final int offset, final int length)
+        throws IOException
+    {
+        // Timed under the lock, so the times in the file never go backwards
+        out.writeLong(System.nanoTime() - start);
+        out.writeInt(connection);
+        out.writeInt(length);
+        out.write(statement, offset, length);
+        records++;
+    }
+
+    /**
+     * Get the number of statements written.
+     * 
+     * @return The number of records.
+     */
+    public synchronized long getRecords()
+    {
+        return records;
+    }
+
+    /**
+     * Write out any buffered records.
+     * 
+     * @throws IOException If there was a problem writing.
+     */
+    public synchronized void flush()
+        throws IOException
+    {
+        out.flush();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        out.close();
+    }
+}
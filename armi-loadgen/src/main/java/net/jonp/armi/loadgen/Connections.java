@@ -0,0 +1,111 @@
+package net.jonp.armi.loadgen;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jonp.armi.comm.client.ClientSideCommunicator;
+import net.jonp.armi.comm.client.CommunicatorFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The connections opened for a load run or a replay, each with its own
+ * running {@link AsyncDispatcher}.
+ */
+class Connections
+{
+    private static final Logger LOG = Logger.getLogger(Connections.class);
+
+    /** How often to check for outstanding calls while draining, in milliseconds. */
+    private static final long DRAIN_POLL_MS = 10;
+
+    private final CommunicatorFactory _factory;
+    private final List<AsyncDispatcher> dispatchers = new ArrayList<AsyncDispatcher>();
+
+    /**
+     * Construct a new Connections.
+     * 
+     * @param factory Opens the connections.
+     */
+    Connections(final CommunicatorFactory factory)
+    {
+        _factory = factory;
+    }
+
+    /**
+     * Open a connection and start its dispatcher.
+     * 
+     * @return The dispatcher.
+     * @throws IOException If the connection could not be opened.
+     */
+    AsyncDispatcher open()
+        throws IOException
+    {
+        final ClientSideCommunicator comm = _factory.connect();
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(comm);
+        dispatcher.addSuppressedException(SocketException.class);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        dispatchers.add(dispatcher);
+        return dispatcher;
+    }
+
+    /**
+     * Wait for the outstanding calls on all connections to finish, then give
+     * up on any that have not.
+     * 
+     * @param timeout The longest time to wait, in milliseconds.
+     * @return The number of calls given up on.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    int drain(final long timeout)
+        throws InterruptedException
+    {
+        final long limit = System.currentTimeMillis() + timeout;
+        while (getOutstanding() > 0 && System.currentTimeMillis() < limit) {
+            Thread.sleep(DRAIN_POLL_MS);
+        }
+
+        int expired = 0;
+        for (final AsyncDispatcher dispatcher : dispatchers) {
+            expired += dispatcher.expire();
+        }
+
+        return expired;
+    }
+
+    /**
+     * Close all connections, and wait briefly for their dispatchers to stop.
+     * 
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void close()
+        throws InterruptedException
+    {
+        for (final AsyncDispatcher dispatcher : dispatchers) {
+            try {
+                dispatcher.getCommunicator().close();
+            }
+            catch (final IOException ioe) {
+                LOG.debug("IOException closing " + dispatcher.getCommunicator().getClientSideName(), ioe);
+            }
+        }
+
+        for (final AsyncDispatcher dispatcher : dispatchers) {
+            dispatcher.join(1000);
+        }
+    }
+
+    private int getOutstanding()
+    {
+        int outstanding = 0;
+        for (final AsyncDispatcher dispatcher : dispatchers) {
+            outstanding += dispatcher.getOutstanding();
+        }
+
+        return outstanding;
+    }
+}
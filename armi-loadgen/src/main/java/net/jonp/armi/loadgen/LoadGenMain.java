@@ -0,0 +1,300 @@
+package net.jonp.armi.loadgen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.ResponseDispatcher;
+import net.jonp.armi.comm.client.SocketCommunicatorFactory;
+
+/**
+ * Command-line load generator for ARMI servers.
+ */
+public class LoadGenMain
+{
+    public static final String SERVER = "localhost";
+    public static final int CONNECTIONS = 4;
+    public static final double RATE = 1000;
+    public static final long DURATION = 30;
+    public static final long WARMUP = 5;
+    public static final double SPEED = 1;
+
+    private static void usage(final PrintStream out)
+    {
+        out.println("Usage: LoadGen [OPTION]... run <mix file>");
+        out.println("       LoadGen [OPTION]... capture <capture file>");
+        out.println("       LoadGen [OPTION]... replay <capture file>");
+        out.println();
+        out.println("run      Drive the calls in the mix file against the server, and report");
+        out.println("         throughput and latency");
+        out.println("capture  Listen for clients and pass their traffic on to the server,");
+        out.println("         recording the statements they send, until killed");
+        out.println("replay   Send the statements in a capture file to the server again, and");
+        out.println("         report throughput and latency");
+        out.println();
+        out.println(" -s <addr>      Specify the address of the server");
+        out.println("                Default: " + SERVER);
+        out.println(" -p <port>      Specify the port of the server (required)");
+        out.println(" -c <count>     run: Number of connections to open");
+        out.println("                Default: " + CONNECTIONS);
+        out.println(" -r <rate>      run: Total calls per second, across all connections");
+        out.println("                Default: " + RATE);
+        out.println(" -d <seconds>   run: How long to measure for");
+        out.println("                Default: " + DURATION);
+        out.println(" -w <seconds>   run: How long to send calls before measuring");
+        out.println("                Default: " + WARMUP);
+        out.println(" -x <speed>     replay: How much faster than captured to replay");
+        out.println("                Default: " + SPEED);
+        out.println(" -t <millis>    run, replay: How long to wait for the last responses");
+        out.println("                Default: " + ResponseDispatcher.TIMEOUT_MS);
+        out.println(" -l <port>      capture: Specify the port to listen on (required)");
+        out.println(" -k <name>=<class>");
+        out.println("                Register a class used in arguments, by its language name");
+        out.println(" -h             Display this message and terminate");
+    }
+
+    public static void main(final String[] args)
+    {
+        String server = SERVER;
+        int port = 0;
+        int connections = CONNECTIONS;
+        double rate = RATE;
+        long duration = DURATION;
+        long warmup = WARMUP;
+        double speed = SPEED;
+        long timeout = ResponseDispatcher.TIMEOUT_MS;
+        int listenPort = 0;
+        String mode = null;
+        File file = null;
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-s".equals(args[i])) {
+                    server = args[++i];
+                }
+                else if ("-p".equals(args[i])) {
+                    port = parsePort(args[++i]);
+                }
+                else if ("-l".equals(args[i])) {
+                    listenPort = parsePort(args[++i]);
+                }
+                else if ("-c".equals(args[i])) {
+                    connections = (int)parseLong(args[++i], 1);
+                }
+                else if ("-r".equals(args[i])) {
+                    rate = parseDouble(args[++i]);
+                }
+                else if ("-d".equals(args[i])) {
+                    duration = parseLong(args[++i], 1);
+                }
+                else if ("-w".equals(args[i])) {
+                    warmup = parseLong(args[++i], 0);
+                }
+                else if ("-t".equals(args[i])) {
+                    timeout = parseLong(args[++i], 0);
+                }
+                else if ("-x".equals(args[i])) {
+                    speed = parseDouble(args[++i]);
+                }
+                else if ("-k".equals(args[i])) {
+                    final String[] binding = args[++i].split("=", 2);
+                    if (binding.length != 2) {
+                        throw new Exception("Not <name>=<class>: " + args[i]);
+                    }
+
+                    try {
+                        registry.put(binding[0], Class.forName(binding[1]));
+                    }
+                    catch (final ClassNotFoundException cnfe) {
+                        throw new Exception("Class not found: " + binding[1]);
+                    }
+                }
+                else if ("-h".equals(args[i])) {
+                    usage(System.out);
+                    System.exit(0);
+                }
+                else if (args[i].startsWith("-")) {
+                    throw new Exception("Unrecognized argument: " + args[i]);
+                }
+                else if (null == mode) {
+                    mode = args[i];
+                }
+                else if (null == file) {
+                    file = new File(args[i]);
+                }
+                else {
+                    throw new Exception("Unexpected argument: " + args[i]);
+                }
+            }
+
+            if (null == mode || null == file) {
+                throw new Exception("Missing mode or file");
+            }
+            else if (!"run".equals(mode) && !"capture".equals(mode) && !"replay".equals(mode)) {
+                throw new Exception("Unrecognized mode: " + mode);
+            }
+            else if (0 == port) {
+                throw new Exception("Missing server port (-p)");
+            }
+            else if ("capture".equals(mode) && 0 == listenPort) {
+                throw new Exception("Missing listen port (-l)");
+            }
+        }
+        catch (final ArrayIndexOutOfBoundsException aioobe) {
+            System.err.println("Missing argument");
+            usage(System.err);
+            System.exit(1);
+        }
+        catch (final Exception e) {
+            System.err.println(e.getMessage());
+            usage(System.err);
+            System.exit(1);
+        }
+
+        final InetAddress serverAddr;
+        try {
+            serverAddr = InetAddress.getByName(server);
+        }
+        catch (final UnknownHostException uhe) {
+            System.err.println("Unable to resolve server address: " + uhe.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        final SocketCommunicatorFactory factory = new SocketCommunicatorFactory(serverAddr, port, registry, null);
+        try {
+            if ("run".equals(mode)) {
+                final CallMix mix;
+                final Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+                try {
+                    mix = CallMix.parse(in, registry);
+                }
+                finally {
+                    in.close();
+                }
+
+                if (0 == mix.size()) {
+                    System.err.println("No calls in " + file);
+                    System.exit(1);
+                }
+
+                final LoadRunner runner = new LoadRunner(factory, mix, connections, rate);
+                runner.setTimeout(timeout);
+                runner.run(warmup * 1000, duration * 1000).print(System.out);
+            }
+            else if ("capture".equals(mode)) {
+                capture(new ServerSocket(listenPort), serverAddr, port, file);
+            }
+            else {
+                final Replayer replayer = new Replayer(factory, registry, speed);
+                replayer.setTimeout(timeout);
+
+                final CaptureReader reader = new CaptureReader(file);
+                try {
+                    replayer.replay(reader).print(System.out);
+                }
+                finally {
+                    reader.close();
+                }
+            }
+        }
+        catch (final SyntaxException se) {
+            System.err.println("Unable to read " + file + ": " + se.getMessage());
+            System.exit(1);
+        }
+        catch (final IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        }
+        catch (final InterruptedException ie) {
+            System.err.println("Unexpected thread interruption");
+            System.exit(1);
+        }
+    }
+
+    private static void capture(final ServerSocket listener, final InetAddress serverAddr, final int port,
+                                final File file)
+        throws IOException, InterruptedException
+    {
+        final CaptureWriter writer = new CaptureWriter(file);
+        final CaptureProxy proxy = new CaptureProxy(listener, serverAddr, port, writer);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("LoadGen capture shutdown") {
+            @Override
+            public void run()
+            {
+                proxy.close();
+                try {
+                    writer.close();
+                }
+                catch (final IOException ioe) {
+                    System.err.println("Unable to finish " + file + ": " + ioe.getMessage());
+                }
+
+                System.err.println("Captured " + writer.getRecords() + " statements on " + proxy.getConnections()
+                                   + " connections");
+            }
+        });
+
+        System.err.println("Capturing on port " + listener.getLocalPort() + " to " + file + ", interrupt to stop");
+        proxy.start();
+        proxy.join();
+    }
+
+    private static int parsePort(final String arg)
+        throws Exception
+    {
+        final int port = (int)parseLong(arg, 1);
+        if (port > 65535) {
+            throw new Exception("Port must be in the range [1, 65535]");
+        }
+
+        return port;
+    }
+
+    private static long parseLong(final String arg, final long min)
+        throws Exception
+    {
+        final long value;
+        try {
+            value = Long.parseLong(arg);
+        }
+        catch (final NumberFormatException nfe) {
+            throw new Exception("Not an integer: " + arg);
+        }
+
+        if (value < min || value > Integer.MAX_VALUE) {
+            throw new Exception("Out of range: " + arg);
+        }
+
+        return value;
+    }
+
+    private static double parseDouble(final String arg)
+        throws Exception
+    {
+        final double value;
+        try {
+            value = Double.parseDouble(arg);
+        }
+        catch (final NumberFormatException nfe) {
+            throw new Exception("Not a number: " + arg);
+        }
+
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw new Exception("Must be positive: " + arg);
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,223 @@
+package net.jonp.armi.loadgen;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.stats.LatencyHistogram;
+
+/**
+ * Counts the outcomes and latencies of the calls made during a load run.
+ * 
+ * Each latency is recorded twice: once from the time the call was meant to be
+ * sent, and once from the time it actually was. When the client falls behind
+ * its schedule (because the server, or the connection, is pushing back), calls
+ * go out late; measuring from the actual send time hides the waiting that the
+ * schedule's users would have seen (coordinated omission), so the first
+ * ("corrected") figures are the ones to size a server by. A large gap between
+ * the two means the client could not keep up the requested rate.
+ */
+public class LoadReport
+{
+    private static final double[] PERCENTILES = {
+        50, 90, 99, 99.9, 99.99,
+    };
+
+    private final LatencyHistogram corrected = new LatencyHistogram();
+    private final LatencyHistogram uncorrected = new LatencyHistogram();
+
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong ok = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+
+    private volatile long startNanos;
+    private volatile long stopNanos;
+
+    /**
+     * Mark the start of the measured period.
+     * 
+     * @param nanos The time, from {@link System#nanoTime()}.
+     */
+    public void start(final long nanos)
+    {
+        startNanos = nanos;
+        stopNanos = nanos;
+    }
+
+    /**
+     * Mark the end of the measured period.
+     * 
+     * @param nanos The time, from {@link System#nanoTime()}.
+     */
+    public void stop(final long nanos)
+    {
+        stopNanos = nanos;
+    }
+
+    /**
+     * Count a call which was sent.
+     */
+    public void sent()
+    {
+        sent.incrementAndGet();
+    }
+
+    /**
+     * Count a call which could not be sent (or parsed).
+     */
+    public void failed()
+    {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Record the outcome of a call.
+     * 
+     * @param intended When the call was meant to be sent, from
+     *            {@link System#nanoTime()}.
+     * @param actual When the call was actually sent.
+     * @param now When the response arrived (or the call was given up on).
+     * @param response The response, or <code>null</code> if the call timed
+     *            out. A timed out call is recorded with the time waited so
+     *            far, which is a lower bound on its latency.
+     */
+    public void completed(final long intended, final long actual, final long now, final Response response)
+    {
+        if (null == response) {
+            timeouts.incrementAndGet();
+        }
+        else if (response instanceof ErrorResponse) {
+            errors.incrementAndGet();
+        }
+        else {
+            ok.incrementAndGet();
+        }
+
+        corrected.record(now - intended);
+        uncorrected.record(now - actual);
+    }
+
+    /**
+     * Get the number of calls sent.
+     * 
+     * @return The number of calls sent.
+     */
+    public long getSent()
+    {
+        return sent.get();
+    }
+
+    /**
+     * Get the number of calls which returned a value.
+     * 
+     * @return The number of successful calls.
+     */
+    public long getOk()
+    {
+        return ok.get();
+    }
+
+    /**
+     * Get the number of calls which returned an error.
+     * 
+     * @return The number of calls with an {@link ErrorResponse}.
+     */
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    /**
+     * Get the number of calls which could not be sent.
+     * 
+     * @return The number of failed calls.
+     */
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    /**
+     * Get the number of calls which received no response in time.
+     * 
+     * @return The number of timed out calls.
+     */
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    /**
+     * Get the latencies measured from when each call was meant to be sent.
+     * 
+     * @return The bucket counts (see {@link LatencyHistogram#getBuckets()}).
+     */
+    public long[] getCorrected()
+    {
+        return corrected.getBuckets();
+    }
+
+    /**
+     * Get the latencies measured from when each call was actually sent.
+     * 
+     * @return The bucket counts (see {@link LatencyHistogram#getBuckets()}).
+     */
+    public long[] getUncorrected()
+    {
+        return uncorrected.getBuckets();
+    }
+
+    /**
+     * Get the number of responses per second over the measured period.
+     * 
+     * @return The throughput, in responses per second.
+     */
+    public double getThroughput()
+    {
+        final long elapsed = stopNanos - startNanos;
+        if (elapsed <= 0) {
+            return 0;
+        }
+
+        return (ok.get() + errors.get()) * 1e9 / elapsed;
+    }
+
+    /**
+     * Print the report.
+     * 
+     * @param out The stream to print to.
+     */
+    public void print(final PrintStream out)
+    {
+        out.printf("Elapsed:    %.3f s%n", (stopNanos - startNanos) / 1e9);
+        out.printf("Sent:       %d%n", getSent());
+        out.printf("Ok:         %d%n", getOk());
+        out.printf("Errors:     %d%n", getErrors());
+        out.printf("Timeouts:   %d%n", getTimeouts());
+        out.printf("Failures:   %d%n", getFailures());
+        out.printf("Throughput: %.1f calls/s%n", getThroughput());
+
+        final long[] c = getCorrected();
+        final long[] u = getUncorrected();
+        out.printf("%-12s %14s %14s%n", "Latency (ms)", "corrected", "uncorrected");
+        for (final double percentile : PERCENTILES) {
+            out.printf("%-12s %14.3f %14.3f%n", "p" + format(percentile), LatencyHistogram.percentile(c, percentile) / 1e6,
+                       LatencyHistogram.percentile(u, percentile) / 1e6);
+        }
+        out.printf("%-12s %14.3f %14.3f%n", "max", LatencyHistogram.percentile(c, 100) / 1e6,
+                   LatencyHistogram.percentile(u, 100) / 1e6);
+    }
+
+    private static String format(final double percentile)
+    {
+        if (percentile == Math.rint(percentile)) {
+            return Long.toString((long)percentile);
+        }
+        else {
+            return Double.toString(percentile);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package net.jonp.armi.loadgen;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.comm.ResponseDispatcher;
+import net.jonp.armi.comm.client.CommunicatorFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Drives a {@link CallMix} against a server at a fixed rate over a number of
+ * connections.
+ * 
+ * The load is open-loop: each connection has a thread which sends its share
+ * of the calls on a fixed schedule, whether or not earlier calls have been
+ * answered, as independent users would. Latency is measured from the time
+ * each call was scheduled (see {@link LoadReport}), so a server which falls
+ * behind shows it in the latencies, rather than by quietly lowering the rate.
+ */
+public class LoadRunner
+{
+    private static final Logger LOG = Logger.getLogger(LoadRunner.class);
+
+    /** How long to give the senders to start before the first call. */
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final CommunicatorFactory _factory;
+    private final CallMix _mix;
+    private final int _connections;
+    private final double _rate;
+    private long timeout = ResponseDispatcher.TIMEOUT_MS;
+
+    /**
+     * Construct a new LoadRunner.
+     * 
+     * @param factory Opens the connections to the server.
+     * @param mix The calls to make.
+     * @param connections The number of connections.
+     * @param rate The total number of calls per second, across all
+     *            connections.
+     */
+    public LoadRunner(final CommunicatorFactory factory, final CallMix mix, final int connections, final double rate)
+    {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Bad number of connections: " + connections);
+        }
+        else if (!(rate > 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Bad rate: " + rate);
+        }
+
+        _factory = factory;
+        _mix = mix;
+        _connections = connections;
+        _rate = rate;
+    }
+
+    /**
+     * Set how long to wait for the last responses after the run, in
+     * milliseconds. Calls still unanswered are counted as timeouts.
+     * 
+     * @param _timeout The timeout, in milliseconds.
+     */
+    public void setTimeout(final long _timeout)
+    {
+        timeout = _timeout;
+    }
+
+    /**
+     * Get how long to wait for the last responses after the run.
+     * 
+     * @return The timeout, in milliseconds.
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Run the load.
+     * 
+     * @param warmup How long to send calls before measuring, in milliseconds.
+     * @param duration How long to measure for, in milliseconds.
+     * @return The measurements.
+     * @throws IOException If a connection could not be opened.
+     * @throws InterruptedException If interrupted while running.
+     */
+    public LoadReport run(final long warmup, final long duration)
+        throws IOException, InterruptedException
+    {
+        final LoadReport report = new LoadReport();
+        final Connections connections = new Connections(_factory);
+        try {
+            final List<Sender> senders = new ArrayList<Sender>();
+            for (int i = 0; i < _connections; i++) {
+                senders.add(new Sender(connections.open(), i, report));
+            }
+
+            final long start = System.nanoTime() + START_DELAY_NANOS;
+            final long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmup);
+            final long end = measureStart + TimeUnit.MILLISECONDS.toNanos(duration);
+            report.start(measureStart);
+
+            // Each connection sends every interval, offset from the others so
+            // the calls are spread evenly
+            final double interval = _connections * 1e9 / _rate;
+            for (final Sender sender : senders) {
+                sender.schedule(start + (long)(sender.index * interval / _connections), interval, measureStart, end);
+                sender.start();
+            }
+
+            for (final Sender sender : senders) {
+                sender.join();
+            }
+
+            report.stop(end);
+            connections.drain(timeout);
+        }
+        finally {
+            connections.close();
+        }
+
+        return report;
+    }
+
+    /**
+     * Sends the calls for one connection.
+     */
+    private class Sender
+        extends Thread
+    {
+        private final AsyncDispatcher dispatcher;
+        private final int index;
+        private final LoadReport report;
+        private final Random random;
+
+        private long first;
+        private double interval;
+        private long measureStart;
+        private long end;
+
+        Sender(final AsyncDispatcher _dispatcher, final int _index, final LoadReport _report)
+        {
+            super("LoadRunner sender " + _index);
+            setDaemon(true);
+
+            dispatcher = _dispatcher;
+            index = _index;
+            report = _report;
+            random = new Random(_index);
+        }
+
+        void schedule(final long _first, final double _interval, final long _measureStart, final long _end)
+        {
+            first = _first;
+            interval = _interval;
+            measureStart = _measureStart;
+            end = _end;
+        }
+
+        @Override
+        public void run()
+        {
+            for (long n = 0;; n++) {
+                final long intended = first + (long)(n * interval);
+                if (intended >= end) {
+                    break;
+                }
+
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+
+                if (!send(intended, intended >= measureStart)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Send one call.
+         * 
+         * @return False if the connection has failed.
+         */
+        private boolean send(final long intended, final boolean measured)
+        {
+            final CallCommand cmd = _mix.next(random);
+            final long actual = System.nanoTime();
+            try {
+                dispatcher.call(cmd, new AsyncDispatcher.Callback() {
+                    @Override
+                    public void response(final Response response)
+                    {
+                        if (measured) {
+                            report.completed(intended, actual, System.nanoTime(), response);
+                        }
+                    }
+                });
+
+                if (measured) {
+                    report.sent();
+                }
+
+                return true;
+            }
+            catch (final NotBoundException nbe) {
+                LOG.warn("Unable to serialize " + cmd, nbe);
+                if (measured) {
+                    report.failed();
+                }
+
+                return true;
+            }
+            catch (final IOException ioe) {
+                LOG.warn("Unable to send " + cmd + ", stopping " + getName(), ioe);
+                if (measured) {
+                    report.failed();
+                }
+
+                return false;
+            }
+        }
+    }
+}
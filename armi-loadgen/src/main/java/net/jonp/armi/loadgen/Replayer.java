@@ -0,0 +1,174 @@
+package net.jonp.armi.loadgen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.comm.ResponseDispatcher;
+import net.jonp.armi.comm.client.CommunicatorFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends the statements in a capture to a server again, with the same timing
+ * (or scaled), each on its own connection as when it was captured.
+ * 
+ * Statements are parsed straight out of the memory-mapped capture, so the
+ * classes of any objects in them must be in the {@link ClassRegistry}. Calls
+ * are measured as in a {@link LoadRunner}, from the time they were meant to be
+ * sent; other commands are sent, but not measured.
+ */
+public class Replayer
+{
+    private static final Logger LOG = Logger.getLogger(Replayer.class);
+
+    private final CommunicatorFactory _factory;
+    private final ClassRegistry _registry;
+    private final double _speed;
+    private long timeout = ResponseDispatcher.TIMEOUT_MS;
+
+    /**
+     * Construct a new Replayer.
+     * 
+     * @param factory Opens the connections to the server.
+     * @param registry The class registry used to parse the capture.
+     * @param speed How much faster than captured to replay: 1 for the same
+     *            speed, 2 for twice as fast, 0.5 for half as fast.
+     */
+    public Replayer(final CommunicatorFactory factory, final ClassRegistry registry, final double speed)
+    {
+        if (!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Bad speed: " + speed);
+        }
+
+        _factory = factory;
+        _registry = registry;
+        _speed = speed;
+    }
+
+    /**
+     * Set how long to wait for the last responses after the replay, in
+     * milliseconds. Calls still unanswered are counted as timeouts.
+     * 
+     * @param _timeout The timeout, in milliseconds.
+     */
+    public void setTimeout(final long _timeout)
+    {
+        timeout = _timeout;
+    }
+
+    /**
+     * Get how long to wait for the last responses after the replay.
+     * 
+     * @return The timeout, in milliseconds.
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Replay a capture.
+     * 
+     * @param reader The capture, from its next record to its end.
+     * @return The measurements.
+     * @throws IOException If a connection could not be opened.
+     * @throws InterruptedException If interrupted while replaying.
+     */
+    public LoadReport replay(final CaptureReader reader)
+        throws IOException, InterruptedException
+    {
+        final LoadReport report = new LoadReport();
+        final Connections connections = new Connections(_factory);
+        final Map<Integer, AsyncDispatcher> dispatchers = new HashMap<Integer, AsyncDispatcher>();
+        final CommandParser parser = new CommandParser(_registry);
+
+        try {
+            final long start = System.nanoTime();
+            report.start(start);
+
+            long first = -1;
+            while (reader.next()) {
+                if (first < 0) {
+                    first = reader.getTime();
+                }
+
+                final long intended = start + (long)((reader.getTime() - first) / _speed);
+
+                final Command cmd;
+                try {
+                    cmd = parser.parseCommand(reader.getStatement());
+                }
+                catch (final SyntaxException se) {
+                    LOG.warn("Unable to parse captured statement: "
+                             + StandardCharsets.UTF_8.decode(reader.getStatement()), se);
+                    report.failed();
+                    continue;
+                }
+
+                if (null == cmd) {
+                    continue;
+                }
+
+                AsyncDispatcher dispatcher = dispatchers.get(reader.getConnection());
+                if (null == dispatcher) {
+                    dispatcher = connections.open();
+                    dispatchers.put(reader.getConnection(), dispatcher);
+                }
+
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+
+                send(dispatcher, cmd, intended, report);
+            }
+
+            report.stop(System.nanoTime());
+            connections.drain(timeout);
+        }
+        finally {
+            connections.close();
+        }
+
+        return report;
+    }
+
+    private void send(final AsyncDispatcher dispatcher, final Command cmd, final long intended, final LoadReport report)
+    {
+        final long actual = System.nanoTime();
+        try {
+            if (cmd instanceof CallCommand) {
+                dispatcher.call((CallCommand)cmd, new AsyncDispatcher.Callback() {
+                    @Override
+                    public void response(final Response response)
+                    {
+                        report.completed(intended, actual, System.nanoTime(), response);
+                    }
+                });
+
+                report.sent();
+            }
+            else {
+                dispatcher.getCommunicator().sendCommand(cmd);
+            }
+        }
+        catch (final NotBoundException nbe) {
+            LOG.warn("Unable to serialize " + cmd, nbe);
+            report.failed();
+        }
+        catch (final IOException ioe) {
+            LOG.warn("Unable to send " + cmd, ioe);
+            report.failed();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.jonp.armi.loadgen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link CallMix}.
+ */
+public class CallMixTest
+{
+    /**
+     * Test that a mix file is read, and calls are picked by weight.
+     */
+    @Test
+    public void testParse()
+        throws Exception
+    {
+        final String file =
+            "# A comment\n" + "\n" + "3 api.add (1, 2)\n" + "  1   api.echo (\"a b\", null)  \n" + "0.5 api.noop ()\n";
+        final CallMix mix = CallMix.parse(new StringReader(file), new DefaultClassRegistry());
+        assertEquals(3, mix.size());
+        assertEquals("api.add(java.lang.Integer, java.lang.Integer)", mix.getCall(0).toString());
+        assertEquals("api.echo(java.lang.String, java.lang.Object)", mix.getCall(1).toString());
+
+        final Random random = new Random(0);
+        final int[] counts = new int[3];
+        final int n = 9000;
+        for (int i = 0; i < n; i++) {
+            final CallCommand call = mix.next(random);
+            if ("add".equals(call.getMethod())) {
+                assertArrayEquals(new Object[] {
+                    1, 2,
+                }, call.getArguments());
+                counts[0]++;
+            }
+            else if ("echo".equals(call.getMethod())) {
+                assertArrayEquals(new Object[] {
+                    "a b", null,
+                }, call.getArguments());
+                counts[1]++;
+            }
+            else {
+                assertEquals(0, call.getArguments().length);
+                counts[2]++;
+            }
+        }
+
+        // Expected 6000, 2000, 1000
+        assertTrue(Math.abs(counts[0] - 6000) < 300);
+        assertTrue(Math.abs(counts[1] - 2000) < 300);
+        assertTrue(Math.abs(counts[2] - 1000) < 300);
+    }
+
+    /**
+     * Test that bad lines are refused.
+     */
+    @Test
+    public void testBadLines()
+        throws Exception
+    {
+        final String[] bad = {
+            "api.add (1, 2)", "1", "0 api.add (1, 2)", "-1 api.add (1, 2)", "1 api.add (1, 2", "1 help",
+        };
+
+        for (final String line : bad) {
+            try {
+                CallMix.parse(new StringReader(line), new DefaultClassRegistry());
+                fail("Parsed " + line);
+            }
+            catch (final SyntaxException se) {
+                // Expected
+            }
+        }
+    }
+}
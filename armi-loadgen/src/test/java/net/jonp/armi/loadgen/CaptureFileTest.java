@@ -0,0 +1,122 @@
+package net.jonp.armi.loadgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link CaptureWriter} and {@link CaptureReader}.
+ */
+public class CaptureFileTest
+{
+    private File file;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("capture", ".armi");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Test that records are read back as written.
+     */
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        final String[] statements = {
+            "call label \"1\" a.b (1, 2)", "", "call x.y (\"é✓\")",
+        };
+
+        final CaptureWriter writer = new CaptureWriter(file);
+        for (int i = 0; i < statements.length; i++) {
+            final byte[] bytes = ("xx" + statements[i]).getBytes(StandardCharsets.UTF_8);
+            writer.write(i % 2, bytes, 2, bytes.length - 2);
+        }
+        assertEquals(statements.length, writer.getRecords());
+        writer.close();
+
+        final CaptureReader reader = new CaptureReader(file);
+        try {
+            long time = 0;
+            for (int i = 0; i < statements.length; i++) {
+                assertTrue(reader.next());
+                assertEquals(i % 2, reader.getConnection());
+                assertTrue(reader.getTime() >= time);
+                assertEquals(statements[i], StandardCharsets.UTF_8.decode(reader.getStatement()).toString());
+                time = reader.getTime();
+            }
+
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Test that a record cut short ends the capture.
+     */
+    @Test
+    public void testTruncated()
+        throws IOException
+    {
+        final CaptureWriter writer = new CaptureWriter(file);
+        writer.write(0, "first".getBytes(StandardCharsets.UTF_8), 0, 5);
+        writer.write(0, "second".getBytes(StandardCharsets.UTF_8), 0, 6);
+        writer.close();
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        final CaptureReader reader = new CaptureReader(file);
+        try {
+            assertTrue(reader.next());
+            assertEquals("first", StandardCharsets.UTF_8.decode(reader.getStatement()).toString());
+            assertFalse(reader.next());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Test that other files are refused.
+     */
+    @Test
+    public void testNotCapture()
+        throws IOException
+    {
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write("call a.b ()\n".getBytes(StandardCharsets.UTF_8));
+        out.close();
+
+        try {
+            new CaptureReader(file).close();
+            fail("Read a plain file");
+        }
+        catch (final IOException ioe) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package net.jonp.armi.loadgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.stats.LatencyHistogram;
+import net.jonp.armi.comm.CommandExecutor;
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.SimpleRegistry;
+import net.jonp.armi.comm.client.SocketCommunicatorFactory;
+import net.jonp.armi.comm.server.ServerSideSocketCommunicator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link LoadRunner}, {@link CaptureProxy}, and {@link Replayer} against
+ * a real server.
+ */
+public class LoadGenTest
+{
+    private ServerSocket serverSocket;
+    private File file;
+
+    /**
+     * The API served to the load generator.
+     */
+    public static class API
+    {
+        public int add(final int a, final int b)
+        {
+            return a + b;
+        }
+
+        public String echo(final String s)
+        {
+            return s;
+        }
+    }
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("capture", ".armi");
+
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("api", new API());
+        final CommandExecutor executor = new CommandExecutor(registry);
+
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread("LoadGenTest server") {
+            @Override
+            public void run()
+            {
+                while (!serverSocket.isClosed()) {
+                    final Socket sock;
+                    try {
+                        sock = serverSocket.accept();
+                    }
+                    catch (final IOException ioe) {
+                        continue;
+                    }
+
+                    serve(sock, executor);
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        serverSocket.close();
+        file.delete();
+    }
+
+    /**
+     * Test a load run through the capture proxy, then a replay of what was
+     * captured.
+     */
+    @Test
+    public void testRunCaptureReplay()
+        throws Exception
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final CallMix mix =
+            CallMix.parse(new StringReader("3 api.add (1, 2)\n1 api.echo (\"hi\")\n1 api.missing ()\n"), registry);
+
+        final ServerSocket proxySocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final CaptureWriter writer = new CaptureWriter(file);
+        final CaptureProxy proxy =
+            new CaptureProxy(proxySocket, serverSocket.getInetAddress(), serverSocket.getLocalPort(), writer);
+        proxy.setDaemon(true);
+        proxy.start();
+
+        final LoadReport run;
+        try {
+            final LoadRunner runner =
+                new LoadRunner(new SocketCommunicatorFactory(proxySocket.getInetAddress(), proxySocket.getLocalPort(),
+                                                             registry, null, 64), mix, 2, 400);
+            run = runner.run(0, 500);
+        }
+        finally {
+            proxy.close();
+            proxy.join(1000);
+            writer.close();
+        }
+
+        // Roughly 200 calls, about a fifth of them to a missing method
+        assertEquals(0, run.getTimeouts());
+        assertEquals(0, run.getFailures());
+        assertTrue(run.getSent() > 100);
+        assertEquals(run.getSent(), run.getOk() + run.getErrors());
+        assertTrue(run.getErrors() > 0);
+        assertTrue(run.getOk() > run.getErrors());
+        assertEquals(run.getSent(), LatencyHistogram.count(run.getCorrected()));
+        assertEquals(2, proxy.getConnections());
+        assertEquals(run.getSent(), writer.getRecords());
+
+        final CaptureReader reader = new CaptureReader(file);
+        final LoadReport replay;
+        try {
+            final Replayer replayer =
+                new Replayer(new SocketCommunicatorFactory(serverSocket.getInetAddress(), serverSocket.getLocalPort(),
+                                                           registry, null), registry, 4);
+            replay = replayer.replay(reader);
+        }
+        finally {
+            reader.close();
+        }
+
+        assertEquals(run.getSent(), replay.getSent());
+        assertEquals(run.getOk(), replay.getOk());
+        assertEquals(run.getErrors(), replay.getErrors());
+        assertEquals(0, replay.getTimeouts());
+        assertEquals(0, replay.getFailures());
+    }
+
+    private static void serve(final Socket sock, final CommandExecutor executor)
+    {
+        final Thread handler = new Thread("LoadGenTest handler") {
+            @Override
+            public void run()
+            {
+                try {
+                    final ServerSideSocketCommunicator comm =
+                        new ServerSideSocketCommunicator(sock, new DefaultClassRegistry());
+                    try {
+                        Command command;
+                        while (null != (command = comm.readNextCommand())) {
+                            comm.sendResponse(executor.executeCommand((CallCommand)command));
+                        }
+                    }
+                    finally {
+                        comm.close();
+                    }
+                }
+                catch (final Exception e) {
+                    // Closed
+                }
+            }
+        };
+        handler.setDaemon(true);
+        handler.start();
+    }
+}
@@ -0,0 +1,434 @@
+package net.jonp.armi.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates an <code>ObjectCodec</code> for each class marked with
+ * <code>net.jonp.armi.base.GenerateCodec</code>, so that ARMI can construct
+ * it and read and write its fields without reflection.
+ * 
+ * The generated codec must behave exactly like the reflective code in
+ * <code>AbstractLanguageObject</code> and <code>AbstractParser</code>: the
+ * same fields (non-static, non-transient, including inherited fields), in the
+ * same order (by the binary name of the declaring class, then by field name),
+ * with the same names (qualified by the binary name of the declaring class).
+ * 
+ * This module deliberately does not depend on <code>armi</code>, so that
+ * <code>armi</code> can use it to process its own tests.
+ */
+@SupportedAnnotationTypes(CodecProcessor.ANNOTATION)
+public class CodecProcessor
+    extends AbstractProcessor
+{
+    /** The annotation marking classes to generate codecs for. */
+    static final String ANNOTATION = "net.jonp.armi.base.GenerateCodec";
+
+    /** The interface the codecs implement. */
+    static final String CODEC = "net.jonp.armi.base.ObjectCodec";
+
+    /** Unboxes values for primitive fields. */
+    static final String CONVERSION = "net.jonp.armi.base.Conversion";
+
+    /** Suffix of the name of a generated codec; must match <code>Codecs</code>. */
+    static final String SUFFIX = "_ArmiCodec";
+
+    /*
+     * (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set,
+     * javax.annotation.processing.RoundEnvironment)
+     */
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round)
+    {
+        for (final TypeElement annotation : annotations) {
+            for (final Element element : round.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@GenerateCodec only applies to classes");
+                    continue;
+                }
+
+                final TypeElement type = (TypeElement)element;
+                final List<VariableElement> fields = fields(type);
+                if (null != fields && check(type, fields)) {
+                    generate(type, fields);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Collect the fields that are sent, in the order they are sent.
+     * 
+     * @return The fields, or <code>null</code> if the hierarchy could not be
+     *         resolved.
+     */
+    private List<VariableElement> fields(final TypeElement type)
+    {
+        final List<VariableElement> fields = new ArrayList<VariableElement>();
+        TypeElement current = type;
+        while (null != current) {
+            for (final VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                final Set<Modifier> modifiers = field.getModifiers();
+                if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+                    fields.add(field);
+                }
+            }
+
+            final TypeMirror superclass = current.getSuperclass();
+            if (superclass.getKind() == TypeKind.NONE) {
+                current = null;
+            }
+            else if (superclass.getKind() == TypeKind.DECLARED) {
+                current = (TypeElement)((DeclaredType)superclass).asElement();
+            }
+            else {
+                error(type, "Unable to resolve superclass " + superclass);
+                return null;
+            }
+        }
+
+        Collections.sort(fields, new Comparator<VariableElement>() {
+            @Override
+            public int compare(final VariableElement lhs, final VariableElement rhs)
+            {
+                final int c = binaryName(lhs).compareTo(binaryName(rhs));
+                if (c != 0) {
+                    return c;
+                }
+
+                return lhs.getSimpleName().toString().compareTo(rhs.getSimpleName().toString());
+            }
+        });
+
+        return fields;
+    }
+
+    /**
+     * Check that the generated code would be able to construct the class and
+     * reach all of its fields, reporting an error if not.
+     * 
+     * @return True if a codec can be generated.
+     */
+    private boolean check(final TypeElement type, final List<VariableElement> fields)
+    {
+        boolean ok = true;
+
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@GenerateCodec classes must not be abstract");
+            ok = false;
+        }
+
+        if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "@GenerateCodec classes must be top-level or static");
+            ok = false;
+        }
+
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@GenerateCodec classes must not be private, or nested in a private class");
+                ok = false;
+                break;
+            }
+        }
+
+        boolean nullary = false;
+        for (final ExecutableElement cons : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (cons.getParameters().isEmpty() && !cons.getModifiers().contains(Modifier.PRIVATE)) {
+                nullary = true;
+            }
+        }
+
+        if (!nullary) {
+            error(type, "@GenerateCodec classes need a non-private nullary constructor");
+            ok = false;
+        }
+
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        for (final VariableElement field : fields) {
+            final Set<Modifier> modifiers = field.getModifiers();
+            final boolean samePackage = pkg.equals(processingEnv.getElementUtils().getPackageOf(field));
+            if (modifiers.contains(Modifier.PRIVATE) || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+                error(field, "Field " + qualifiedName(field) + " is not accessible to the codec for " +
+                             type.getQualifiedName() + "; make it " + (samePackage ? "package-private" : "public") +
+                             " or transient, or remove @GenerateCodec");
+                ok = false;
+            }
+            else if (modifiers.contains(Modifier.FINAL)) {
+                error(field, "Field " + qualifiedName(field) + " is final, so the codec for " +
+                             type.getQualifiedName() + " cannot set it; remove final or @GenerateCodec");
+                ok = false;
+            }
+        }
+
+        return ok;
+    }
+
+    /**
+     * Write the codec source.
+     */
+    private void generate(final TypeElement type, final List<VariableElement> fields)
+    {
+        final String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String binary = processingEnv.getElementUtils().getBinaryName(type).toString();
+        final String simple = binary.substring(pkg.isEmpty() ? 0 : pkg.length() + 1).replace('$', '_') + SUFFIX;
+        final String name = (pkg.isEmpty() ? simple : pkg + "." + simple);
+        final String target = type.getQualifiedName().toString();
+
+        try {
+            final PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(name, type).openWriter());
+            try {
+                if (!pkg.isEmpty()) {
+                    out.println("package " + pkg + ";");
+                    out.println();
+                }
+
+                out.println("/**");
+                out.println(" * Generated by " + getClass().getName() + " from {@link " + target + "}; do not edit.");
+                out.println(" */");
+                out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+                out.println("public final class " + simple);
+                out.println("    implements " + CODEC + "<" + target + ">");
+                out.println("{");
+
+                out.println("    private static final String[] NAMES = {");
+                for (final VariableElement field : fields) {
+                    out.println("        \"" + qualifiedName(field) + "\",");
+                }
+                out.println("    };");
+                out.println();
+
+                out.println("    @Override");
+                out.println("    public Class<" + target + "> getType()");
+                out.println("    {");
+                out.println("        return " + target + ".class;");
+                out.println("    }");
+                out.println();
+
+                out.println("    @Override");
+                out.println("    public " + target + " newInstance()");
+                out.println("    {");
+                out.println("        return new " + target + "();");
+                out.println("    }");
+                out.println();
+
+                out.println("    @Override");
+                out.println("    public int getFieldCount()");
+                out.println("    {");
+                out.println("        return NAMES.length;");
+                out.println("    }");
+                out.println();
+
+                out.println("    @Override");
+                out.println("    public String getFieldName(final int index)");
+                out.println("    {");
+                out.println("        return NAMES[index];");
+                out.println("    }");
+                out.println();
+
+                writeIndexOf(out, fields);
+                writeGet(out, target, fields);
+                writeSet(out, target, fields);
+
+                out.println("}");
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (final IOException ioe) {
+            error(type, "Unable to write " + name + ": " + ioe.getMessage());
+        }
+    }
+
+    private void writeIndexOf(final PrintWriter out, final List<VariableElement> fields)
+    {
+        // An unqualified name finds the field declared lowest in the
+        // hierarchy, as AbstractParser.findField() does
+        final List<String> simpleNames = new ArrayList<String>();
+        final Set<String> seen = new HashSet<String>();
+        final int[] simpleIndexes = new int[fields.size()];
+        for (final Element declarer : hierarchy(fields)) {
+            for (int i = 0; i < fields.size(); i++) {
+                final VariableElement field = fields.get(i);
+                final String simple = field.getSimpleName().toString();
+                if (field.getEnclosingElement().equals(declarer) && seen.add(simple)) {
+                    simpleIndexes[simpleNames.size()] = i;
+                    simpleNames.add(simple);
+                }
+            }
+        }
+
+        out.println("    @Override");
+        out.println("    public int indexOf(final String name)");
+        out.println("    {");
+        out.println("        switch (name) {");
+        for (int i = 0; i < fields.size(); i++) {
+            out.println("            case \"" + qualifiedName(fields.get(i)) + "\":");
+            out.println("                return " + i + ";");
+        }
+        for (int i = 0; i < simpleNames.size(); i++) {
+            out.println("            case \"" + simpleNames.get(i) + "\":");
+            out.println("                return " + simpleIndexes[i] + ";");
+        }
+        out.println("            default:");
+        out.println("                return -1;");
+        out.println("        }");
+        out.println("    }");
+        out.println();
+    }
+
+    private void writeGet(final PrintWriter out, final String target, final List<VariableElement> fields)
+    {
+        out.println("    @Override");
+        out.println("    public Object get(final " + target + " instance, final int index)");
+        out.println("    {");
+        out.println("        switch (index) {");
+        for (int i = 0; i < fields.size(); i++) {
+            out.println("            case " + i + ":");
+            out.println("                return " + access(fields.get(i)) + ";");
+        }
+        out.println("            default:");
+        out.println("                throw new IndexOutOfBoundsException(\"No field \" + index);");
+        out.println("        }");
+        out.println("    }");
+        out.println();
+    }
+
+    private void writeSet(final PrintWriter out, final String target, final List<VariableElement> fields)
+    {
+        out.println("    @Override");
+        out.println("    public void set(final " + target + " instance, final int index, final Object value)");
+        out.println("    {");
+        out.println("        switch (index) {");
+        for (int i = 0; i < fields.size(); i++) {
+            final VariableElement field = fields.get(i);
+            out.println("            case " + i + ":");
+            out.println("                " + access(field) + " = " + convert(field.asType()) + ";");
+            out.println("                return;");
+        }
+        out.println("            default:");
+        out.println("                throw new IndexOutOfBoundsException(\"No field \" + index);");
+        out.println("        }");
+        out.println("    }");
+    }
+
+    /**
+     * Get the expression for a field of <code>instance</code>. A field hidden
+     * by a subclass is reached through a cast to its declaring class.
+     */
+    private String access(final VariableElement field)
+    {
+        final TypeElement declarer = (TypeElement)field.getEnclosingElement();
+        return "((" + declarer.getQualifiedName() + ")instance)." + field.getSimpleName();
+    }
+
+    /**
+     * Get the expression converting <code>value</code> to a type.
+     */
+    private String convert(final TypeMirror type)
+    {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case CHAR:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                // Accepts what Field.set() would, so a codec and reflection
+                // reject the same values
+                final String kind = type.getKind().name();
+                return CONVERSION + ".to" + kind.charAt(0) + kind.substring(1).toLowerCase(Locale.ENGLISH) + "(value)";
+            default:
+                return "(" + processingEnv.getTypeUtils().erasure(type) + ")value";
+        }
+    }
+
+    /**
+     * List the classes declaring the fields, lowest in the hierarchy first.
+     */
+    private List<Element> hierarchy(final List<VariableElement> fields)
+    {
+        final List<Element> declarers = new ArrayList<Element>();
+        for (final VariableElement field : fields) {
+            if (!declarers.contains(field.getEnclosingElement())) {
+                declarers.add(field.getEnclosingElement());
+            }
+        }
+
+        Collections.sort(declarers, new Comparator<Element>() {
+            @Override
+            public int compare(final Element lhs, final Element rhs)
+            {
+                return depth(rhs) - depth(lhs);
+            }
+        });
+
+        return declarers;
+    }
+
+    private static int depth(final Element type)
+    {
+        int depth = 0;
+        TypeMirror superclass = ((TypeElement)type).getSuperclass();
+        while (superclass.getKind() == TypeKind.DECLARED) {
+            depth++;
+            superclass = ((TypeElement)((DeclaredType)superclass).asElement()).getSuperclass();
+        }
+
+        return depth;
+    }
+
+    private String binaryName(final VariableElement field)
+    {
+        return processingEnv.getElementUtils().getBinaryName((TypeElement)field.getEnclosingElement()).toString();
+    }
+
+    private String qualifiedName(final VariableElement field)
+    {
+        return binaryName(field) + "." + field.getSimpleName();
+    }
+
+    private void error(final Element element, final String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
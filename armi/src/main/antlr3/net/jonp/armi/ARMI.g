@@ -37,7 +37,9 @@ tokens {
 	BOOL;
 	BYTE;
 	CALL;
+	CANCEL;
 	COLLECTION;
+	DELTA;
 	ELEMENTS;
 	ERROR;
 	FIELD;
@@ -56,6 +58,8 @@ tokens {
 	RESPONSE;
 	SHORT;
 	STR;
+	STREAM;
+	TIMEOUT;
 	UNSOLICITED;
 }
 
@@ -68,20 +72,42 @@ tokens {
 }
 
 command
-	: CALLTOK label? ident LPAREN arguments RPAREN EOF -> ^(CALL label? ident arguments)
+	// 'timeout' and 'stream' are not keywords, so they stay legal in
+	// identifiers; the parser checks the ATOMs
+	: CALLTOK label? timeout? streamed? ident LPAREN arguments RPAREN EOF -> ^(CALL label? timeout? streamed? ident arguments)
 	| HELP EOF                                         -> ^(HELP)
+	// Likewise 'cancel'
+	| ATOM label EOF                                   -> ^(CANCEL ATOM label)
 	;
 
 response
 	: RESPONSETOK label? LPAREN val RPAREN EOF       -> ^(RESPONSE label? val)
 	| ERRORTOK label? LPAREN val RPAREN EOF          -> ^(ERROR label? val)
 	| UNSOLTOK LPAREN ident COMMA val RPAREN EOF     -> ^(UNSOLICITED ident val)
+	// 'stream' is not a keyword, so it stays legal in identifiers; the
+	// parser checks the ATOM
+	| ATOM label LPAREN elements RPAREN EOF          -> ^(STREAM ATOM label elements)
+	// Likewise 'delta'
+	| ATOM LPAREN ident COMMA val COMMA deltaval RPAREN EOF -> ^(DELTA ATOM ident val deltaval)
+	;
+
+deltaval
+	: val
+	| LPAREN fields RPAREN -> fields
 	;
 
 label
 	: LABELTOK string -> ^(LABEL string)
 	;
 
+timeout
+	: ATOM INTEGER -> ^(TIMEOUT ATOM INTEGER)
+	;
+
+streamed
+	: ATOM -> ^(STREAM ATOM)
+	;
+
 ident
 	: ATOM (DOT ATOM)* -> ^(IDENT ATOM ATOM*)
 	;
@@ -112,7 +138,8 @@ string
 	;
 
 number
-	: INTEGER (DOT INTEGER)? numtype -> ^(NUM numtype INTEGER (DOT INTEGER)?)
+	: INTEGER numtype -> ^(NUM numtype INTEGER)
+	| DECIMAL numtype -> ^(NUM numtype DECIMAL)
 	;
 
 numtype
@@ -173,31 +200,64 @@ mapval
 
 STRING
 	: '\"' (('\\' .) | ~('\\' | '\"'))* '\"' {
-		char[] c = getText().substring(1, getText().length() - 1).toCharArray();
-		StringBuilder txt = new StringBuilder("");
-		boolean esc = false;
-		for (int i = 0; i < c.length; i++) {
-			if (esc) {
-				txt.append(c[i]);
-				esc = false;
-			}
-			else if (c[i] == '\\') {
-				esc = true;
-			}
-			else {
-				txt.append(c[i]);
+		// Copy only the contents out of the statement, and only copy them
+		// again if there is something to unescape
+		String txt = input.substring(state.tokenStartCharIndex + 1, getCharIndex() - 2);
+		if (txt.indexOf('\\') >= 0) {
+			final StringBuilder buf = new StringBuilder(txt.length());
+			boolean esc = false;
+			for (int i = 0; i < txt.length(); i++) {
+				final char c = txt.charAt(i);
+				if (esc) {
+					buf.append(c);
+					esc = false;
+				}
+				else if (c == '\\') {
+					esc = true;
+				}
+				else {
+					buf.append(c);
+				}
 			}
+			txt = buf.toString();
 		}
-		setText(txt.toString());
+		setText(txt);
 	}
 	;
 
+// Any form Double.valueOf() accepts without a type suffix, so that every
+// float and double can be written exactly. NaN and Infinity are words, so a
+// type postfix must be separated from them by a space ("NaN F"). Must precede
+// ATOM, which would otherwise take NaN and Infinity
+DECIMAL
+	: '-'? DIGITS '.' DIGITS EXPONENT?
+	| '-'? DIGITS EXPONENT
+	| '-'? '0' ('x' | 'X') HEXDIGITS ('.' HEXDIGITS?)? ('p' | 'P') ('+' | '-')? DIGITS
+	| 'NaN'
+	| '-'? 'Infinity'
+	;
+
 ATOM
 	: ('a'..'z' | 'A'..'Z' | '$' | '_') ('a'..'z' | 'A'..'Z' | '0'..'9' | '$' | '_')*
 	;
 
 INTEGER
-	: '-'? '0'..'9'+
+	: '-'? DIGITS
+	;
+
+fragment
+DIGITS
+	: '0'..'9'+
+	;
+
+fragment
+HEXDIGITS
+	: ('0'..'9' | 'a'..'f' | 'A'..'F')+
+	;
+
+fragment
+EXPONENT
+	: ('e' | 'E') ('+' | '-')? DIGITS
 	;
 
 WS
@@ -21,6 +21,12 @@ public abstract class AbstractLanguageObject
 {
     private static final Logger LOG = Logger.getLogger(AbstractLanguageObject.class);
 
+    /**
+     * Strings at least this long are sent as a back-reference to an equal
+     * string earlier in the same statement.
+     */
+    private static final int MIN_SHARED_STRING = 8;
+
     /** The label on this communication, or <code>null</code>. */
     protected String _label;
 
@@ -89,6 +95,26 @@ public abstract class AbstractLanguageObject
         return makeArgument(new ArrayList<Object>(), arg, registry);
     }
 
+    /**
+     * Append a string literal in the command/response language: quoted, with
+     * each <code>\</code> and <code>"</code> escaped by a <code>\</code>.
+     * 
+     * @param buf The buffer to append to.
+     * @param s The string.
+     */
+    public static void appendString(final StringBuilder buf, final CharSequence s)
+    {
+        buf.append("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if ('\\' == c || '"' == c) {
+                buf.append('\\');
+            }
+            buf.append(c);
+        }
+        buf.append("\"");
+    }
+
     /**
      * Convert a generic object into a command/response language description.
      * 
@@ -130,26 +156,36 @@ public abstract class AbstractLanguageObject
             indexedValues.add(arg);
 
             if (arg instanceof Byte) {
-                buf.append(arg.toString()).append("Y");
+                buf.append(((Byte)arg).intValue()).append("Y");
             }
             else if (arg instanceof Float) {
-                buf.append(arg.toString()).append("F");
+                // append(float) writes the shortest text that reads back as
+                // the same value; NaN and Infinity are words, so need a space
+                // to keep the postfix a separate token
+                final float f = ((Float)arg).floatValue();
+                buf.append(f);
+                if (Float.isNaN(f) || Float.isInfinite(f)) {
+                    buf.append(" ");
+                }
+                buf.append("F");
             }
             else if (arg instanceof Long) {
-                buf.append(arg.toString()).append("L");
+                buf.append(((Long)arg).longValue()).append("L");
             }
             else if (arg instanceof Short) {
-                buf.append(arg.toString()).append("T");
+                buf.append(((Short)arg).intValue()).append("T");
+            }
+            else if (arg instanceof Integer) {
+                buf.append(((Integer)arg).intValue());
+            }
+            else if (arg instanceof Double) {
+                buf.append(((Double)arg).doubleValue());
             }
             else if (arg instanceof Number) {
                 buf.append(arg.toString());
             }
             else if (arg instanceof CharSequence) {
-                String s = arg.toString();
-                s = s.replaceAll("\\\\", "\\\\\\\\"); // Replace \ with \\
-                s = s.replaceAll("\"", "\\\\\\\"");
-
-                buf.append("\"").append(s).append("\"");
+                appendString(buf, (CharSequence)arg);
             }
             else if (arg instanceof Boolean) {
                 buf.append(arg.toString());
@@ -218,33 +254,22 @@ public abstract class AbstractLanguageObject
                 buf.append(registry.reverseLookup(arg.getClass())).append(" (");
                 boolean first = true;
 
-                Class<?> clazz = arg.getClass();
-                final List<Field> fields = new ArrayList<Field>();
-                while (clazz != null) {
-                    final Field[] fieldArray = clazz.getDeclaredFields();
-                    AccessibleObject.setAccessible(fieldArray, true);
-
-                    Collections.addAll(fields, fieldArray);
-                    clazz = clazz.getSuperclass();
-                }
-
-                Collections.sort(fields, new Comparator<Field>() {
-                    @Override
-                    public int compare(final Field lhs, final Field rhs)
-                    {
-                        final int c = lhs.getDeclaringClass().getName().compareTo(rhs.getDeclaringClass().getName());
-                        if (c != 0) {
-                            return c;
+                final ObjectCodec<Object> codec = Codecs.get(arg.getClass());
+                if (null != codec) {
+                    for (int idx = 0; idx < codec.getFieldCount(); idx++) {
+                        if (first) {
+                            first = false;
+                        }
+                        else {
+                            buf.append(", ");
                         }
 
-                        return lhs.getName().compareTo(rhs.getName());
+                        buf.append(codec.getFieldName(idx));
+                        buf.append(" = ").append(makeArgument(indexedValues, codec.get(arg, idx), registry));
                     }
-                });
-
-                for (final Field field : fields) {
-                    if (((field.getModifiers() & Modifier.TRANSIENT) != Modifier.TRANSIENT) &&
-                        ((field.getModifiers() & Modifier.STATIC) != Modifier.STATIC)) {
-
+                }
+                else {
+                    for (final Field field : getFields(arg.getClass())) {
                         if (first) {
                             first = false;
                         }
@@ -252,16 +277,8 @@ public abstract class AbstractLanguageObject
                             buf.append(", ");
                         }
 
-                        try {
-                            buf.append(field.getDeclaringClass().getName()).append(".").append(field.getName());
-                            buf.append(" = ").append(makeArgument(indexedValues, field.get(arg), registry));
-                        }
-                        catch (final IllegalAccessException iae) {
-                            // Should not happen, since we disabled access
-                            // checking
-                            throw new IllegalStateException("Field " + field.getName() + " of " + arg.getClass().getName() +
-                                                            " is not accessible: " + iae.getMessage(), iae);
-                        }
+                        buf.append(field.getDeclaringClass().getName()).append(".").append(field.getName());
+                        buf.append(" = ").append(makeArgument(indexedValues, getField(field, arg), registry));
                     }
                 }
                 buf.append(")");
@@ -273,14 +290,76 @@ public abstract class AbstractLanguageObject
         return s;
     }
 
+    /**
+     * Get the fields of a class that are sent when an instance is sent: every
+     * field that is not static or transient, including inherited fields,
+     * ordered by declaring class name and then field name.
+     * 
+     * @param clazz The class.
+     * @return The fields, already made accessible.
+     */
+    protected static List<Field> getFields(final Class<?> clazz)
+    {
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (final Field field : c.getDeclaredFields()) {
+                if (((field.getModifiers() & Modifier.TRANSIENT) != Modifier.TRANSIENT) &&
+                    ((field.getModifiers() & Modifier.STATIC) != Modifier.STATIC)) {
+                    fields.add(field);
+                }
+            }
+        }
+
+        AccessibleObject.setAccessible(fields.toArray(new Field[fields.size()]), true);
+
+        Collections.sort(fields, new Comparator<Field>() {
+            @Override
+            public int compare(final Field lhs, final Field rhs)
+            {
+                final int c = lhs.getDeclaringClass().getName().compareTo(rhs.getDeclaringClass().getName());
+                if (c != 0) {
+                    return c;
+                }
+
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+
+        return fields;
+    }
+
+    /**
+     * Read a field returned by {@link #getFields(Class)}.
+     * 
+     * @param field The field.
+     * @param instance The object whose field to read.
+     * @return The value of the field.
+     */
+    protected static Object getField(final Field field, final Object instance)
+    {
+        try {
+            return field.get(instance);
+        }
+        catch (final IllegalAccessException iae) {
+            // Should not happen, since we disabled access checking
+            throw new IllegalStateException("Field " + field.getName() + " of " + instance.getClass().getName() +
+                                            " is not accessible: " + iae.getMessage(), iae);
+        }
+    }
+
     private boolean backIndex(final List<Object> indexedValues, final Object arg, final StringBuilder buf)
     {
         // XXX: Cannot use indexOf() because we need to search for reference
-        // equality, not object equality
+        // equality, not object equality; except for strings long enough that
+        // a back-reference is shorter, which are immutable, so any equal
+        // string will do
+
+        final boolean byValue = (arg instanceof String && ((String)arg).length() >= MIN_SHARED_STRING);
 
         boolean found = false;
         for (int idx = 0; idx < indexedValues.size(); idx++) {
-            if (arg == indexedValues.get(idx)) {
+            final Object value = indexedValues.get(idx);
+            if (arg == value || (byValue && arg.equals(value))) {
                 buf.append("ref " + idx);
                 found = true;
                 break;
@@ -10,6 +10,12 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.rmi.NotBoundException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -20,9 +26,11 @@ import java.util.Map;
 
 import net.jonp.armi.ARMILexer;
 import net.jonp.armi.ARMIParser;
+import net.jonp.armi.base.io.StatementDictionary;
 
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.tree.CommonTree;
 
@@ -43,11 +51,36 @@ public abstract class AbstractParser
      */
     protected final List<Object> indexedValues = new ArrayList<Object>();
 
+    /** The words of identifiers seen so far. */
+    private final WordTable words = new WordTable();
+
+    /** Classes and fields already resolved from identifiers. */
+    private final SymbolTable symbols = new SymbolTable(words);
+
+    /**
+     * The version of {@link #registry} that {@link #symbols} were resolved
+     * against, if it is a {@link VersionedClassRegistry}.
+     */
+    private int symbolsVersion = 0;
+
+    /** Decodes statements handed to {@link #parserSetup(ByteBuffer)}. */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+
+    /**
+     * The characters of the statement being parsed, reused for each statement.
+     * Token text is read from here, so trees are only valid until the next call
+     * to {@link #parserSetup(String)}.
+     */
+    private char[] statement = new char[256];
+
+    /** Decodes statements received from the other end, or <code>null</code>. */
+    private StatementDictionary dictionary = null;
+
     /**
      * Construct a new AbstractParser.
      * 
      * @param _in The stream from which to read command/response language
-     *            constructs.
+     *            constructs, encoded as UTF-8.
      * @param _registry The class registry for looking up instance classes from
      *            command language names.
      * @throws IOException If there was a problem initializing the parsing
@@ -56,7 +89,21 @@ public abstract class AbstractParser
     protected AbstractParser(final InputStream _in, final ClassRegistry _registry)
         throws IOException
     {
-        in = new LineReader(new InputStreamReader(_in));
+        in = new LineReader(new InputStreamReader(_in, StandardCharsets.UTF_8));
+        parser = new ARMIParser(null);
+        registry = _registry;
+    }
+
+    /**
+     * Construct a new AbstractParser which does not read from a stream, and
+     * can only parse text handed to {@link #parserSetup(String)}.
+     * 
+     * @param _registry The class registry for looking up instance classes from
+     *            command language names.
+     */
+    protected AbstractParser(final ClassRegistry _registry)
+    {
+        in = null;
         parser = new ARMIParser(null);
         registry = _registry;
     }
@@ -72,11 +119,13 @@ public abstract class AbstractParser
     }
 
     /**
-     * Sets up the parser to read the next message.
+     * Read the next non-blank statement from the stream.
      * 
+     * @return The statement.
      * @throws IOException If there was a problem.
+     * @throws EOFException At EOF.
      */
-    protected void parserSetup()
+    protected String readStatement()
         throws IOException
     {
         String line;
@@ -88,7 +137,151 @@ public abstract class AbstractParser
             throw new EOFException();
         }
 
-        final CharStream charStream = new ANTLRStringStream(line);
+        if (null != dictionary) {
+            line = dictionary.decode(line);
+        }
+
+        return line;
+    }
+
+    /**
+     * Set the dictionary used to decode each statement read from the stream.
+     * 
+     * @param _dictionary The dictionary, which must be kept in step with the
+     *            one the other end encodes with, or <code>null</code> to read
+     *            statements as they are.
+     */
+    public void setDictionary(final StatementDictionary _dictionary)
+    {
+        dictionary = _dictionary;
+    }
+
+    /**
+     * Sets up the parser to read the next message.
+     * 
+     * @throws IOException If there was a problem.
+     */
+    protected void parserSetup()
+        throws IOException
+    {
+        parserSetup(readStatement());
+    }
+
+    /**
+     * Sets up the parser to read the given text.
+     * 
+     * @param text The text to parse.
+     */
+    protected void parserSetup(final String text)
+    {
+        if (text.length() > statement.length) {
+            statement = new char[Math.max(text.length(), statement.length * 2)];
+        }
+
+        text.getChars(0, text.length(), statement, 0);
+        lexerSetup(text.length());
+    }
+
+    /**
+     * Sets up the parser to read one statement from a buffer, without copying
+     * it into a {@link String}. Bytes below 0x80 are taken as characters
+     * directly; anything else is decoded as UTF-8. If a dictionary is set, the
+     * statement is decoded into a string and then by the dictionary.
+     * 
+     * @param bytes The UTF-8 encoded statement, from its position to its
+     *            limit. Its position is not changed.
+     * @throws IOException If the statement could not be decoded by the
+     *             dictionary.
+     * @throws SyntaxException If the statement is not valid UTF-8.
+     */
+    protected void parserSetup(final ByteBuffer bytes)
+        throws IOException, SyntaxException
+    {
+        if (null != dictionary) {
+            parserSetup(decodeStatement(bytes));
+            return;
+        }
+
+        // UTF-8 never decodes to more characters than it has bytes
+        final int length = bytes.remaining();
+        if (length > statement.length) {
+            statement = new char[Math.max(length, statement.length * 2)];
+        }
+
+        final int start = bytes.position();
+        int n = 0;
+        while (n < length) {
+            final byte b = bytes.get(start + n);
+            if (b < 0) {
+                break;
+            }
+
+            statement[n++] = (char)b;
+        }
+
+        if (n < length) {
+            final ByteBuffer rest = bytes.duplicate();
+            rest.position(start + n);
+
+            final CharBuffer out = CharBuffer.wrap(statement, n, statement.length - n);
+            decoder.reset();
+            CoderResult result = decoder.decode(rest, out, true);
+            if (!result.isError()) {
+                result = decoder.flush(out);
+            }
+
+            if (result.isError()) {
+                throw new SyntaxException("Statement is not valid UTF-8: " + result);
+            }
+
+            n = out.position();
+        }
+
+        lexerSetup(n);
+    }
+
+    /**
+     * Decode one statement from a buffer into a string, as
+     * {@link #readStatement()} would have read it from the stream.
+     * 
+     * @param bytes The UTF-8 encoded statement, from its position to its
+     *            limit. Its position is not changed.
+     * @return The statement, decoded by the dictionary if one is set.
+     * @throws IOException If the statement could not be decoded by the
+     *             dictionary.
+     * @throws SyntaxException If the statement is not valid UTF-8.
+     */
+    protected String decodeStatement(final ByteBuffer bytes)
+        throws IOException, SyntaxException
+    {
+        final String text;
+        try {
+            text = decoder.decode(bytes.duplicate()).toString();
+        }
+        catch (final CharacterCodingException cce) {
+            throw new SyntaxException("Statement is not valid UTF-8", cce);
+        }
+
+        return (null == dictionary ? text : dictionary.decode(text));
+    }
+
+    /**
+     * Sets up the lexer to read the first characters of {@link #statement}.
+     */
+    private void lexerSetup(final int length)
+    {
+        if (registry instanceof VersionedClassRegistry) {
+            final int version = ((VersionedClassRegistry)registry).getVersion();
+            if (version != symbolsVersion) {
+                // The classes that names resolved to may have changed
+                symbols.clear();
+                symbolsVersion = version;
+            }
+        }
+
+        words.setChars(statement);
+
+        final CharStream charStream = new ANTLRStringStream(statement, length);
         final ARMILexer lexer = new ARMILexer(charStream);
         final CommonTokenStream tokenStream = new CommonTokenStream(lexer);
         parser.setTokenStream(tokenStream);
@@ -129,13 +322,92 @@ public abstract class AbstractParser
         final String[] path = new String[ast.getChildCount()];
         int i = 0;
         for (final Object childAST : ast.getChildren()) {
-            final CommonTree child = (CommonTree)childAST;
-            path[i++] = child.getText();
+            path[i++] = words.text((CommonTree)childAST);
         }
 
         return path;
     }
 
+    /**
+     * Resolve an identifier naming a class.
+     * 
+     * @param ast The IDENT tree.
+     * @return The class.
+     * @throws SyntaxException If the class could not be found.
+     */
+    protected Class<?> identClass(final CommonTree ast)
+        throws SyntaxException
+    {
+        Class<?> clazz = symbols.getClass(ast);
+        if (null == clazz) {
+            clazz = findClass(Conversion.arrayToString(ident(ast), "."));
+            symbols.putClass(ast, clazz);
+        }
+
+        return clazz;
+    }
+
+    /**
+     * Resolve an identifier naming a field.
+     * 
+     * @param clazz The class of the object whose field is named.
+     * @param ast The IDENT tree.
+     * @return The field, made accessible.
+     * @throws SyntaxException If there was a problem parsing the tree.
+     * @throws NoSuchFieldException If the field could not be found.
+     */
+    protected Field identField(final Class<?> clazz, final CommonTree ast)
+        throws SyntaxException, NoSuchFieldException
+    {
+        Field field = symbols.getField(clazz, ast);
+        if (null == field) {
+            field = findField(clazz, Conversion.arrayToString(ident(ast), "."));
+            field.setAccessible(true);
+            symbols.putField(clazz, ast, field);
+        }
+
+        return field;
+    }
+
+    /**
+     * Resolve an identifier naming a field of a class with an
+     * {@link ObjectCodec}.
+     * 
+     * @param clazz The class of the object whose field is named.
+     * @param codec The codec for the class.
+     * @param ast The IDENT tree.
+     * @return The number of the field.
+     * @throws SyntaxException If there was a problem parsing the tree.
+     * @throws NoSuchFieldException If the field could not be found.
+     */
+    protected int identIndex(final Class<?> clazz, final ObjectCodec<?> codec, final CommonTree ast)
+        throws SyntaxException, NoSuchFieldException
+    {
+        int index = symbols.getIndex(clazz, ast);
+        if (index < 0) {
+            final String name = Conversion.arrayToString(ident(ast), ".");
+            index = codec.indexOf(name);
+            if (index < 0) {
+                throw new NoSuchFieldException("Unable to locate field '" + name + "' on class '" + clazz.getName() +
+                                               "' or any superclass.");
+            }
+
+            symbols.putIndex(clazz, ast, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Forget the classes and fields resolved so far, so that changes to the
+     * class registry are picked up. Done automatically before each statement
+     * if the registry is a {@link VersionedClassRegistry} which has changed.
+     */
+    public void clearSymbols()
+    {
+        symbols.clear();
+    }
+
     /**
      * Parse the tree of a val (str, num, bool, obj, ...).
      * 
@@ -229,29 +501,41 @@ public abstract class AbstractParser
             throw new SyntaxException("Not a NUM: " + ast.getType());
         }
 
-        if (ast.getChildCount() != 2 && ast.getChildCount() != 4) {
-            throw new SyntaxException("NUM childCount != 2 or 4: " + ast.getChildCount());
+        if (ast.getChildCount() != 2) {
+            throw new SyntaxException("NUM childCount != 2: " + ast.getChildCount());
         }
 
         final CommonTree type = (CommonTree)ast.getChild(0);
-        switch (type.getType()) {
-            case ARMIParser.BYTE:
-                return Byte.valueOf(ast.getChild(1).getText());
-            case ARMIParser.FLOAT:
-                return Float.valueOf(ast.getChild(1).getText() + "." + ast.getChild(3).getText());
-            case ARMIParser.LONG:
-                return Long.valueOf(ast.getChild(1).getText());
-            case ARMIParser.SHORT:
-                return Short.valueOf(ast.getChild(1).getText());
-            case ARMIParser.NUMDEFAULT:
-                if (ast.getChildCount() == 2) {
-                    return Integer.valueOf(ast.getChild(1).getText());
-                }
-                else {
-                    return Double.valueOf(ast.getChild(1).getText() + "." + ast.getChild(3).getText());
-                }
-            default:
-                throw new IllegalStateException("Unexpected numeric type: " + type.getType());
+        final CommonToken value = (CommonToken)((CommonTree)ast.getChild(1)).getToken();
+        final int start = value.getStartIndex();
+        final int end = value.getStopIndex() + 1;
+        final boolean decimal = (value.getType() == ARMIParser.DECIMAL);
+
+        try {
+            switch (type.getType()) {
+                case ARMIParser.BYTE:
+                    return Byte.valueOf((byte)Numbers.parseLong(statement, start, end, Byte.MIN_VALUE, Byte.MAX_VALUE));
+                case ARMIParser.FLOAT:
+                    return Float.valueOf(Numbers.parseFloat(statement, start, end));
+                case ARMIParser.LONG:
+                    return Long.valueOf(Numbers.parseLong(statement, start, end, Long.MIN_VALUE, Long.MAX_VALUE));
+                case ARMIParser.SHORT:
+                    return Short.valueOf((short)Numbers.parseLong(statement, start, end, Short.MIN_VALUE,
+                                                                  Short.MAX_VALUE));
+                case ARMIParser.NUMDEFAULT:
+                    if (decimal) {
+                        return Double.valueOf(Numbers.parseDouble(statement, start, end));
+                    }
+                    else {
+                        return Integer.valueOf((int)Numbers.parseLong(statement, start, end, Integer.MIN_VALUE,
+                                                                      Integer.MAX_VALUE));
+                    }
+                default:
+                    throw new IllegalStateException("Unexpected numeric type: " + type.getType());
+            }
+        }
+        catch (final NumberFormatException nfe) {
+            throw new SyntaxException("Bad " + type.getText() + " value: " + value.getText(), nfe);
         }
     }
 
@@ -294,9 +578,7 @@ public abstract class AbstractParser
             throw new SyntaxException("ARRAY childCount != 2: " + ast.getChildCount());
         }
 
-        final String[] ident = ident((CommonTree)ast.getChild(0));
-        final String className = Conversion.arrayToString(ident, ".");
-        final Class<?> clazz = findClass(className);
+        final Class<?> clazz = identClass((CommonTree)ast.getChild(0));
 
         // FUTURE: Check for primitive types and built appropriate arrays
         final Object[] objects = elements(clazz, true, (CommonTree)ast.getChild(1));
@@ -322,9 +604,7 @@ public abstract class AbstractParser
             throw new SyntaxException("COLLECTION childCount != 2: " + ast.getChildCount());
         }
 
-        final String[] ident = ident((CommonTree)ast.getChild(0));
-        final String className = Conversion.arrayToString(ident, ".");
-        final Class<?> clazz = findClass(className);
+        final Class<?> clazz = identClass((CommonTree)ast.getChild(0));
         final Collection<Object> collection = Utils.cast(newObject(clazz));
         indexedValues.add(collection);
 
@@ -353,9 +633,7 @@ public abstract class AbstractParser
             throw new SyntaxException("MAP childCount != 2: " + ast.getChildCount());
         }
 
-        final String[] ident = ident((CommonTree)ast.getChild(0));
-        final String className = Conversion.arrayToString(ident, ".");
-        final Class<?> clazz = findClass(className);
+        final Class<?> clazz = identClass((CommonTree)ast.getChild(0));
 
         final CommonTree mapvals = (CommonTree)ast.getChild(1);
         if (mapvals.getType() != ARMIParser.MAPVALS) {
@@ -441,8 +719,7 @@ public abstract class AbstractParser
             throw new SyntaxException("OBJ childCount != 2: " + ast.getChildCount());
         }
 
-        final String[] ident = ident((CommonTree)ast.getChild(0));
-        return buildObject(Conversion.arrayToString(ident, "."), (CommonTree)ast.getChild(1));
+        return buildObject(identClass((CommonTree)ast.getChild(0)), (CommonTree)ast.getChild(1));
     }
 
     /**
@@ -531,36 +808,112 @@ public abstract class AbstractParser
     protected Object buildObject(final String className, final CommonTree ast)
         throws SyntaxException
     {
-        final Class<?> clazz = findClass(className);
+        return buildObject(findClass(className), ast);
+    }
+
+    /**
+     * Build an object, given its class and a tree of field values.
+     * 
+     * @param clazz The class to construct.
+     * @param ast The tree pointing at the fields for this object.
+     * @return The object.
+     * @throws SyntaxException If there was a problem constructing the object,
+     *             setting its fields, or calling {@link Initializable#init()},
+     *             if it applies.
+     */
+    protected Object buildObject(final Class<?> clazz, final CommonTree ast)
+        throws SyntaxException
+    {
+        if (ast.getType() != ARMIParser.FIELDS) {
+            throw new SyntaxException("Not a FIELDS: " + ast.getType());
+        }
+
         final Object instance = newObject(clazz);
 
         // This needs to be in the list of indexed values BEFORE we can continue
         // reading fields, in case any of the fields is a circular reference
         indexedValues.add(instance);
 
-        final Map<String, Object> fields = fields(ast);
+        setFields(instance, clazz, ast);
+        return instance;
+    }
 
-        String fieldName = null;
-        try {
-            for (final Map.Entry<String, Object> entry : fields.entrySet()) {
-                fieldName = entry.getKey();
-                final Field field = findField(clazz, fieldName);
-                field.setAccessible(true);
+    /**
+     * Build a copy of an object, with some of its fields replaced.
+     * 
+     * @param previous The object to copy. Fields that are static or transient
+     *            are not copied, as they would not have been sent.
+     * @param ast The FIELDS tree holding the new values of the fields that
+     *            have changed.
+     * @return The new object.
+     * @throws SyntaxException If there was a problem constructing the object,
+     *             setting its fields, or calling {@link Initializable#init()},
+     *             if it applies.
+     */
+    protected Object patchObject(final Object previous, final CommonTree ast)
+        throws SyntaxException
+    {
+        if (ast.getType() != ARMIParser.FIELDS) {
+            throw new SyntaxException("Not a FIELDS: " + ast.getType());
+        }
 
-                final Object value = entry.getValue();
-                field.set(instance, value);
+        final Class<?> clazz = previous.getClass();
+        final Object instance = newObject(clazz);
+        indexedValues.add(instance);
+
+        final ObjectCodec<Object> codec = Codecs.get(clazz);
+        if (null != codec) {
+            for (int i = 0; i < codec.getFieldCount(); i++) {
+                codec.set(instance, i, codec.get(previous, i));
             }
+
+            setFields(instance, clazz, ast);
+            return instance;
         }
-        catch (final NoSuchFieldException nsfe) {
-            throw new SyntaxException("No field " + fieldName + " exists on " + className + ": " + nsfe.getMessage(), nsfe);
-        }
-        catch (final IllegalAccessException iae) {
-            throw new SyntaxException("Cannot access field " + fieldName + " on " + className + ": " + iae.getMessage(), iae);
+
+        for (final Field field : AbstractLanguageObject.getFields(clazz)) {
+            try {
+                field.set(instance, field.get(previous));
+            }
+            catch (final IllegalAccessException iae) {
+                throw new SyntaxException("Cannot copy field " + field.getName() + " of " + clazz.getName() + ": " +
+                                          iae.getMessage(), iae);
+            }
         }
-        catch (final IllegalArgumentException iae) {
-            throw new SyntaxException(
-                                      "Illegal conversion when setting " + fieldName + " on " + className + ": " + iae.getMessage(),
-                                      iae);
+
+        setFields(instance, clazz, ast);
+        return instance;
+    }
+
+    /**
+     * Set the fields of an object being built, and initialize it.
+     * 
+     * @param instance The object.
+     * @param clazz The class of the object.
+     * @param ast The FIELDS tree.
+     * @throws SyntaxException If there was a problem setting the fields, or
+     *             calling {@link Initializable#init()}, if it applies.
+     */
+    private void setFields(final Object instance, final Class<?> clazz, final CommonTree ast)
+        throws SyntaxException
+    {
+        final ObjectCodec<Object> codec = Codecs.get(clazz);
+        if (ast.getChildCount() > 0) {
+            // Otherwise, getChildren() may be null
+            for (final Object childAST : ast.getChildren()) {
+                final CommonTree child = (CommonTree)childAST;
+                if (child.getType() != ARMIParser.FIELD) {
+                    throw new SyntaxException("Not a FIELD: " + child.getType());
+                }
+
+                if (child.getChildCount() != 2) {
+                    throw new SyntaxException("FIELD childCount != 2: " + child.getChildCount());
+                }
+
+                final CommonTree ident = (CommonTree)child.getChild(0);
+                final Object value = val((CommonTree)child.getChild(1));
+                setField(instance, clazz, codec, ident, value);
+            }
         }
 
         if (instance instanceof Initializable) {
@@ -568,11 +921,50 @@ public abstract class AbstractParser
                 ((Initializable)instance).init();
             }
             catch (final Throwable th) {
-                throw new SyntaxException("Failed to initialize a " + className + ": " + th.getMessage(), th);
+                throw new SyntaxException("Failed to initialize a " + clazz.getName() + ": " + th.getMessage(), th);
             }
         }
+    }
 
-        return instance;
+    /**
+     * Set a field of an object being built.
+     * 
+     * @param instance The object.
+     * @param clazz The class of the object.
+     * @param codec The codec for the class, or <code>null</code> to set the
+     *            field by reflection.
+     * @param ident The IDENT tree naming the field.
+     * @param value The value of the field.
+     * @throws SyntaxException If the field could not be found or set.
+     */
+    private void setField(final Object instance, final Class<?> clazz, final ObjectCodec<Object> codec,
+                          final CommonTree ident, final Object value)
+        throws SyntaxException
+    {
+        try {
+            if (null == codec) {
+                identField(clazz, ident).set(instance, value);
+            }
+            else {
+                codec.set(instance, identIndex(clazz, codec, ident), value);
+            }
+        }
+        catch (final NoSuchFieldException nsfe) {
+            throw new SyntaxException("No field " + Conversion.arrayToString(ident(ident), ".") + " exists on " +
+                                      clazz.getName() + ": " + nsfe.getMessage(), nsfe);
+        }
+        catch (final IllegalAccessException iae) {
+            throw new SyntaxException("Cannot access field " + Conversion.arrayToString(ident(ident), ".") + " on " +
+                                      clazz.getName() + ": " + iae.getMessage(), iae);
+        }
+        catch (final IllegalArgumentException iae) {
+            throw new SyntaxException("Illegal conversion when setting " + Conversion.arrayToString(ident(ident), ".") +
+                                      " on " + clazz.getName() + ": " + iae.getMessage(), iae);
+        }
+        catch (final ClassCastException cce) {
+            throw new SyntaxException("Illegal conversion when setting " + Conversion.arrayToString(ident(ident), ".") +
+                                      " on " + clazz.getName() + ": " + cce.getMessage(), cce);
+        }
     }
 
     /**
@@ -608,6 +1000,16 @@ public abstract class AbstractParser
     protected Object newObject(final Class<?> clazz)
         throws SyntaxException
     {
+        final ObjectCodec<Object> codec = Codecs.get(clazz);
+        if (null != codec) {
+            try {
+                return codec.newInstance();
+            }
+            catch (final RuntimeException re) {
+                throw new SyntaxException("Error instantiating " + clazz.getName() + ": " + re.getMessage(), re);
+            }
+        }
+
         final Constructor<?> cons;
         try {
             cons = clazz.getDeclaredConstructor();
@@ -0,0 +1,88 @@
+package net.jonp.armi.base;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds the generated {@link ObjectCodec} for a class marked with
+ * {@link GenerateCodec}. The result of each lookup, including a miss, is
+ * remembered.
+ */
+final class Codecs
+{
+    private static final Logger LOG = Logger.getLogger(Codecs.class);
+
+    /** Suffix of the name of a generated codec. */
+    static final String SUFFIX = "_ArmiCodec";
+
+    /** Stands for a class with no codec in {@link #CODECS}. */
+    private static final Object NONE = new Object();
+
+    private static final ConcurrentMap<Class<?>, Object> CODECS = new ConcurrentHashMap<Class<?>, Object>();
+
+    private Codecs()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Get the codec for a class.
+     * 
+     * @param clazz The class.
+     * @return The codec, or <code>null</code> if the class is not marked with
+     *         {@link GenerateCodec}, or its codec was not generated.
+     */
+    @SuppressWarnings("unchecked")
+    static ObjectCodec<Object> get(final Class<?> clazz)
+    {
+        Object codec = CODECS.get(clazz);
+        if (null == codec) {
+            codec = load(clazz);
+            CODECS.putIfAbsent(clazz, codec);
+        }
+
+        return (codec == NONE ? null : (ObjectCodec<Object>)codec);
+    }
+
+    /**
+     * Get the name of the codec generated for a class.
+     * 
+     * @param clazz The class.
+     * @return The binary name of the codec class.
+     */
+    static String codecName(final Class<?> clazz)
+    {
+        final String name = clazz.getName();
+        final int dot = name.lastIndexOf('.');
+        return name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + SUFFIX;
+    }
+
+    private static Object load(final Class<?> clazz)
+    {
+        if (!clazz.isAnnotationPresent(GenerateCodec.class)) {
+            return NONE;
+        }
+
+        final String name = codecName(clazz);
+        try {
+            final Class<?> codecClass = Class.forName(name, true, clazz.getClassLoader());
+            final ObjectCodec<?> codec = (ObjectCodec<?>)codecClass.newInstance();
+            if (codec.getType() != clazz) {
+                LOG.warn(name + " is not the codec for " + clazz.getName() + ", using reflection");
+                return NONE;
+            }
+
+            return codec;
+        }
+        catch (final ClassNotFoundException cnfe) {
+            LOG.debug("No codec generated for " + clazz.getName() + ", using reflection");
+        }
+        catch (final Exception e) {
+            LOG.warn("Unable to load " + name + ", using reflection: " + e.getMessage(), e);
+        }
+
+        return NONE;
+    }
+}
@@ -296,4 +296,166 @@ public class Conversion
             return (s.substring(0, 1).toUpperCase() + s.substring(1));
         }
     }
+
+    /**
+     * Unbox a value for a <code>boolean</code> field, accepting only what
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Boolean}.
+     */
+    public static boolean toBoolean(final Object value)
+    {
+        if (value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        }
+
+        throw mismatch("boolean", value);
+    }
+
+    /**
+     * Unbox a value for a <code>char</code> field, accepting only what
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Character}.
+     */
+    public static char toChar(final Object value)
+    {
+        if (value instanceof Character) {
+            return ((Character)value).charValue();
+        }
+
+        throw mismatch("char", value);
+    }
+
+    /**
+     * Unbox a value for a <code>byte</code> field, accepting only what
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Byte}.
+     */
+    public static byte toByte(final Object value)
+    {
+        if (value instanceof Byte) {
+            return ((Byte)value).byteValue();
+        }
+
+        throw mismatch("byte", value);
+    }
+
+    /**
+     * Unbox a value for a <code>short</code> field, widening a smaller type as
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Short} or
+     *             {@link Byte}.
+     */
+    public static short toShort(final Object value)
+    {
+        if (value instanceof Short || value instanceof Byte) {
+            return ((Number)value).shortValue();
+        }
+
+        throw mismatch("short", value);
+    }
+
+    /**
+     * Unbox a value for an <code>int</code> field, widening a smaller type as
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not an
+     *             {@link Integer}, {@link Short}, {@link Byte}, or
+     *             {@link Character}.
+     */
+    public static int toInt(final Object value)
+    {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number)value).intValue();
+        }
+        else if (value instanceof Character) {
+            return ((Character)value).charValue();
+        }
+
+        throw mismatch("int", value);
+    }
+
+    /**
+     * Unbox a value for a <code>long</code> field, widening a smaller type as
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Long}, or
+     *             a type which {@link #toInt(Object)} accepts.
+     */
+    public static long toLong(final Object value)
+    {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number)value).longValue();
+        }
+        else if (value instanceof Character) {
+            return ((Character)value).charValue();
+        }
+
+        throw mismatch("long", value);
+    }
+
+    /**
+     * Unbox a value for a <code>float</code> field, widening a smaller type as
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Float}, or
+     *             a type which {@link #toLong(Object)} accepts.
+     */
+    public static float toFloat(final Object value)
+    {
+        if (value instanceof Float || value instanceof Long || value instanceof Integer || value instanceof Short ||
+            value instanceof Byte) {
+            return ((Number)value).floatValue();
+        }
+        else if (value instanceof Character) {
+            return ((Character)value).charValue();
+        }
+
+        throw mismatch("float", value);
+    }
+
+    /**
+     * Unbox a value for a <code>double</code> field, widening a smaller type as
+     * {@link java.lang.reflect.Field#set(Object, Object)} would.
+     * 
+     * @param value The value.
+     * @return The unboxed value.
+     * @throws IllegalArgumentException If the value is not a {@link Double}, or
+     *             a type which {@link #toFloat(Object)} accepts.
+     */
+    public static double toDouble(final Object value)
+    {
+        if (value instanceof Double || value instanceof Float || value instanceof Long || value instanceof Integer ||
+            value instanceof Short || value instanceof Byte) {
+            return ((Number)value).doubleValue();
+        }
+        else if (value instanceof Character) {
+            return ((Character)value).charValue();
+        }
+
+        throw mismatch("double", value);
+    }
+
+    private static IllegalArgumentException mismatch(final String type, final Object value)
+    {
+        return new IllegalArgumentException("Cannot set a " + type + " field to " +
+                                            (null == value ? "null" : value.getClass().getName()));
+    }
 }
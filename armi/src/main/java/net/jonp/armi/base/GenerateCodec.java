@@ -0,0 +1,30 @@
+package net.jonp.armi.base;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances are sent over ARMI, so that the annotation
+ * processor in <code>armi_processor</code> generates an {@link ObjectCodec}
+ * for it, reading and writing its fields and calling its nullary constructor
+ * directly instead of by reflection.
+ * 
+ * The codec for <code>p.Outer.Inner</code> is named
+ * <code>p.Outer_Inner_ArmiCodec</code>. If the processor did not run, the
+ * class is sent by reflection as before.
+ * 
+ * The processor rejects classes that it cannot generate code for: abstract
+ * classes, classes without a non-private nullary constructor, and classes with
+ * a sent (non-static, non-transient) field that is private or final, or is
+ * declared by a superclass in another package and not public.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec
+{
+    // Marker
+}
@@ -0,0 +1,316 @@
+package net.jonp.armi.base;
+
+/**
+ * Parses numbers directly from the characters of a statement, without building
+ * a string for each one.
+ * 
+ * Doubles are written with {@link StringBuilder#append(double)}, which writes
+ * the shortest decimal that reads back as the same value (or NaN, Infinity,
+ * -Infinity), so reading a double here returns exactly the value that was
+ * written. Decimals with at most 15 significant digits and a small exponent
+ * (most values that started life as decimals), and hexadecimal floats of up to
+ * 53 bits, are converted exactly with a single floating-point operation. Other
+ * values are handed to {@link Double#parseDouble(String)}, which is exact but
+ * allocates.
+ */
+final class Numbers
+{
+    /** Powers of ten that are exactly representable as doubles. */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+        1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest mantissa that is exactly representable as a double. */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private Numbers()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Parse an integer.
+     * 
+     * @param c The characters.
+     * @param start The index of the first character.
+     * @param end The index just past the last character.
+     * @param min The least acceptable value.
+     * @param max The greatest acceptable value.
+     * @return The value.
+     * @throws NumberFormatException If the characters are not an optionally
+     *             signed decimal integer between <code>min</code> and
+     *             <code>max</code>.
+     */
+    static long parseLong(final char[] c, final int start, final int end, final long min, final long max)
+    {
+        int i = start;
+        final boolean negative = (i < end && c[i] == '-');
+        if (negative) {
+            i++;
+        }
+
+        if (i == end) {
+            throw error(c, start, end);
+        }
+
+        // Accumulate negatively, since |Long.MIN_VALUE| > Long.MAX_VALUE
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = c[i] - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                throw error(c, start, end);
+            }
+
+            value = value * 10 - digit;
+        }
+
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw error(c, start, end);
+            }
+
+            value = -value;
+        }
+
+        if (value < min || value > max) {
+            throw error(c, start, end);
+        }
+
+        return value;
+    }
+
+    /**
+     * Parse a double, in any form accepted by the DECIMAL token: a decimal
+     * with a fraction and/or exponent, a hexadecimal float, NaN, or (optionally
+     * negative) Infinity.
+     * 
+     * @param c The characters.
+     * @param start The index of the first character.
+     * @param end The index just past the last character.
+     * @return The value.
+     * @throws NumberFormatException If the characters are not a number.
+     */
+    static double parseDouble(final char[] c, final int start, final int end)
+    {
+        final double exact = parseExact(c, start, end);
+        if (!Double.isNaN(exact) || matches(c, start, end, "NaN")) {
+            return exact;
+        }
+
+        return Double.parseDouble(new String(c, start, end - start));
+    }
+
+    /**
+     * Parse a float, in any form accepted by {@link #parseDouble(char[], int, int)}
+     * (or a plain integer).
+     * 
+     * @param c The characters.
+     * @param start The index of the first character.
+     * @param end The index just past the last character.
+     * @return The value, correctly rounded.
+     * @throws NumberFormatException If the characters are not a number.
+     */
+    static float parseFloat(final char[] c, final int start, final int end)
+    {
+        final double exact = parseExact(c, start, end);
+        if (Double.isNaN(exact)) {
+            if (matches(c, start, end, "NaN")) {
+                return Float.NaN;
+            }
+        }
+        else if (Double.isInfinite(exact) || exact == 0) {
+            return (float)exact;
+        }
+        else {
+            // The double is correctly rounded, so narrowing it rounds the same
+            // way as the text would have, unless it fell exactly half way
+            // between two floats (the lower 29 bits of its mantissa are 1
+            // followed by zeros), or the float would be subnormal or overflow
+            final double magnitude = Math.abs(exact);
+            if (magnitude >= Float.MIN_NORMAL && magnitude <= Float.MAX_VALUE &&
+                (Double.doubleToRawLongBits(exact) & 0x1FFFFFFFL) != 0x10000000L) {
+                return (float)exact;
+            }
+        }
+
+        return Float.parseFloat(new String(c, start, end - start));
+    }
+
+    /**
+     * Convert a number without rounding more than once.
+     * 
+     * @param c The characters.
+     * @param start The index of the first character.
+     * @param end The index just past the last character.
+     * @return The correctly rounded value, or NaN if it could not be converted
+     *         that cheaply (or the number is NaN).
+     */
+    private static double parseExact(final char[] c, final int start, final int end)
+    {
+        int i = start;
+        final boolean negative = (i < end && c[i] == '-');
+        if (negative) {
+            i++;
+        }
+
+        final double value;
+        if (matches(c, i, end, "NaN")) {
+            return Double.NaN;
+        }
+        else if (matches(c, i, end, "Infinity")) {
+            value = Double.POSITIVE_INFINITY;
+        }
+        else if (end - i > 2 && c[i] == '0' && (c[i + 1] == 'x' || c[i + 1] == 'X')) {
+            value = parseHex(c, i + 2, end);
+        }
+        else {
+            value = parseDecimal(c, i, end);
+        }
+
+        return (negative ? -value : value);
+    }
+
+    /**
+     * Convert an unsigned decimal, if its significant digits fit exactly in a
+     * double and its exponent is a power of ten that does too. The result is
+     * then a single correctly-rounded multiplication or division.
+     */
+    private static double parseDecimal(final char[] c, final int start, final int end)
+    {
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        int i = start;
+        for (; i < end; i++) {
+            final char ch = c[i];
+            if (ch == '.' && !fraction) {
+                fraction = true;
+            }
+            else if (ch >= '0' && ch <= '9') {
+                if (mantissa != 0 || ch != '0') {
+                    if (++digits > 15) {
+                        return Double.NaN;
+                    }
+
+                    mantissa = mantissa * 10 + (ch - '0');
+                }
+
+                if (fraction) {
+                    exponent--;
+                }
+            }
+            else {
+                break;
+            }
+        }
+
+        if (i == start) {
+            throw error(c, start, end);
+        }
+
+        if (i < end) {
+            if (c[i] != 'e' && c[i] != 'E') {
+                throw error(c, start, end);
+            }
+
+            exponent += parseExponent(c, i + 1, end);
+        }
+
+        if (mantissa == 0) {
+            return 0.0;
+        }
+        else if (exponent < 0 && exponent >= -22) {
+            return mantissa / POW10[-exponent];
+        }
+        else if (exponent >= 0 && exponent <= 22) {
+            return mantissa * POW10[exponent];
+        }
+        else {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Convert an unsigned hexadecimal float (after the 0x), if its significant
+     * bits fit exactly in a double and the result is not subnormal. The result
+     * is then exact.
+     */
+    private static double parseHex(final char[] c, final int start, final int end)
+    {
+        long mantissa = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        int i = start;
+        for (; i < end && c[i] != 'p' && c[i] != 'P'; i++) {
+            if (c[i] == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+
+            final int digit = Character.digit(c[i], 16);
+            if (digit < 0) {
+                throw error(c, start, end);
+            }
+
+            if (mantissa != 0 || digit != 0) {
+                if (mantissa >= MAX_EXACT >> 4) {
+                    return Double.NaN;
+                }
+
+                mantissa = (mantissa << 4) | digit;
+            }
+
+            if (fraction) {
+                exponent -= 4;
+            }
+        }
+
+        if (i == end) {
+            throw error(c, start, end);
+        }
+
+        exponent += parseExponent(c, i + 1, end);
+        if (mantissa == 0) {
+            return 0.0;
+        }
+
+        final double value = Math.scalb((double)mantissa, exponent);
+        if (value < Double.MIN_NORMAL) {
+            return Double.NaN;
+        }
+
+        return value;
+    }
+
+    /**
+     * Parse the exponent of a decimal or hexadecimal float (after the e or p).
+     * Exponents too large to matter are rejected.
+     */
+    private static int parseExponent(final char[] c, final int start, final int end)
+    {
+        final int first = (start < end && c[start] == '+' ? start + 1 : start);
+        return (int)parseLong(c, first, end, -99999, 99999);
+    }
+
+    private static boolean matches(final char[] c, final int start, final int end, final String word)
+    {
+        if (end - start != word.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < word.length(); i++) {
+            if (c[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static NumberFormatException error(final char[] c, final int start, final int end)
+    {
+        return new NumberFormatException("Not a number: " + new String(c, start, end - start));
+    }
+}
@@ -0,0 +1,78 @@
+package net.jonp.armi.base;
+
+/**
+ * Constructs instances of a class, and reads and writes the fields that are
+ * sent, without reflection. Implementations are generated for classes marked
+ * with {@link GenerateCodec}; they are not meant to be written by hand.
+ * 
+ * Fields are numbered in the order they are sent: by the name of their
+ * declaring class, then by their own name.
+ * 
+ * @param <T> The class.
+ */
+public interface ObjectCodec<T>
+{
+    /**
+     * Get the class this codec handles.
+     * 
+     * @return The class.
+     */
+    public Class<T> getType();
+
+    /**
+     * Construct an instance with its nullary constructor.
+     * 
+     * @return The new instance.
+     */
+    public T newInstance();
+
+    /**
+     * Get the number of fields that are sent.
+     * 
+     * @return The number of fields.
+     */
+    public int getFieldCount();
+
+    /**
+     * Get the name of a field, qualified by the name of its declaring class.
+     * 
+     * @param index The number of the field.
+     * @return The name, as it is sent.
+     */
+    public String getFieldName(int index);
+
+    /**
+     * Find a field by name.
+     * 
+     * @param name The name of the field, either qualified by the name of its
+     *            declaring class, or unqualified, in which case the field
+     *            declared lowest in the class hierarchy is found.
+     * @return The number of the field, or -1 if there is no such field.
+     */
+    public int indexOf(String name);
+
+    /**
+     * Read a field.
+     * 
+     * @param instance The object.
+     * @param index The number of the field.
+     * @return The value of the field, boxed if it is primitive.
+     */
+    public Object get(T instance, int index);
+
+    /**
+     * Write a field.
+     * 
+     * @param instance The object.
+     * @param index The number of the field.
+     * @param value The value. A primitive field accepts the same values as
+     *            {@link java.lang.reflect.Field#set(Object, Object)} would:
+     *            its boxed type, or one which widens to it (see
+     *            {@link Conversion#toInt(Object)} and the like).
+     * @throws IllegalArgumentException If the field is primitive and the value
+     *             is <code>null</code> or the wrong type.
+     * @throws ClassCastException If the field is not primitive and the value
+     *             is the wrong type.
+     */
+    public void set(T instance, int index, Object value);
+}
@@ -0,0 +1,26 @@
+package net.jonp.armi.base;
+
+/**
+ * A {@link Registry} which reports changes to its bindings, so that
+ * information derived from them can be cached.
+ * 
+ * @param <E> The type of object that can be bound by this registry.
+ */
+public interface ObservableRegistry<E>
+    extends Registry<E>
+{
+    /**
+     * Add a listener to be notified, on the thread making the change, after
+     * each change to the bindings of this registry.
+     * 
+     * @param listener The listener.
+     */
+    public void addRegistryListener(RegistryListener listener);
+
+    /**
+     * Remove a listener.
+     * 
+     * @param listener The listener.
+     */
+    public void removeRegistryListener(RegistryListener listener);
+}
@@ -0,0 +1,18 @@
+package net.jonp.armi.base;
+
+/**
+ * Objects interested in changes to the bindings of an
+ * {@link ObservableRegistry} should implement this interface and register
+ * themselves.
+ */
+public interface RegistryListener
+{
+    /**
+     * A name was bound, rebound, or unbound.
+     * 
+     * @param registry The registry that changed.
+     * @param name The name whose binding changed, or <code>null</code> if any
+     *            number of names may have changed.
+     */
+    public void registryChanged(Registry<?> registry, String name);
+}
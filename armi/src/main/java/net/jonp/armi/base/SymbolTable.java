@@ -0,0 +1,186 @@
+package net.jonp.armi.base;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.runtime.tree.CommonTree;
+
+/**
+ * Remembers the classes and fields that dotted identifiers have resolved to,
+ * so that a parser can resolve an identifier it has seen before by walking its
+ * parts, without joining them into a name or looking the name up again.
+ * 
+ * Identifiers are stored in a tree with one level per part. Only identifiers
+ * that resolved successfully are remembered. A class name bound to a
+ * different class in the {@link ClassRegistry} afterwards is not noticed until
+ * {@link #clear()} is called (which a parser does when a
+ * {@link VersionedClassRegistry} changes).
+ * 
+ * Not thread-safe; each parser has its own.
+ */
+class SymbolTable
+{
+    private final Node classes = new Node();
+    private final Map<Class<?>, Node> fields = new HashMap<Class<?>, Node>();
+    private final WordTable words;
+
+    /**
+     * Construct a new SymbolTable.
+     * 
+     * @param _words The words of the statements being parsed, so that the
+     *            parts of an identifier seen before can be looked up without
+     *            copying them.
+     */
+    SymbolTable(final WordTable _words)
+    {
+        words = _words;
+    }
+
+    /**
+     * Find the class an identifier resolved to.
+     * 
+     * @param ident The IDENT tree.
+     * @return The class, or <code>null</code> if the identifier has not been
+     *         resolved before.
+     */
+    Class<?> getClass(final CommonTree ident)
+    {
+        final Node node = find(classes, ident);
+        return (null == node ? null : node.clazz);
+    }
+
+    /**
+     * Remember the class an identifier resolved to.
+     * 
+     * @param ident The IDENT tree.
+     * @param clazz The class.
+     */
+    void putClass(final CommonTree ident, final Class<?> clazz)
+    {
+        add(classes, ident).clazz = clazz;
+    }
+
+    /**
+     * Find the field an identifier resolved to.
+     * 
+     * @param clazz The class of the object whose field is named.
+     * @param ident The IDENT tree naming the field.
+     * @return The field, or <code>null</code> if the identifier has not been
+     *         resolved on that class before.
+     */
+    Field getField(final Class<?> clazz, final CommonTree ident)
+    {
+        final Node root = fields.get(clazz);
+        if (null == root) {
+            return null;
+        }
+
+        final Node node = find(root, ident);
+        return (null == node ? null : node.field);
+    }
+
+    /**
+     * Remember the field an identifier resolved to.
+     * 
+     * @param clazz The class of the object whose field is named.
+     * @param ident The IDENT tree naming the field.
+     * @param field The field, already made accessible.
+     */
+    void putField(final Class<?> clazz, final CommonTree ident, final Field field)
+    {
+        Node root = fields.get(clazz);
+        if (null == root) {
+            root = new Node();
+            fields.put(clazz, root);
+        }
+
+        add(root, ident).field = field;
+    }
+
+    /**
+     * Find the number an identifier resolved to, in a class with an
+     * {@link ObjectCodec}.
+     * 
+     * @param clazz The class of the object whose field is named.
+     * @param ident The IDENT tree naming the field.
+     * @return The number of the field, or -1 if the identifier has not been
+     *         resolved on that class before.
+     */
+    int getIndex(final Class<?> clazz, final CommonTree ident)
+    {
+        final Node root = fields.get(clazz);
+        if (null == root) {
+            return -1;
+        }
+
+        final Node node = find(root, ident);
+        return (null == node ? -1 : node.index);
+    }
+
+    /**
+     * Remember the number an identifier resolved to, in a class with an
+     * {@link ObjectCodec}.
+     * 
+     * @param clazz The class of the object whose field is named.
+     * @param ident The IDENT tree naming the field.
+     * @param index The number of the field.
+     */
+    void putIndex(final Class<?> clazz, final CommonTree ident, final int index)
+    {
+        Node root = fields.get(clazz);
+        if (null == root) {
+            root = new Node();
+            fields.put(clazz, root);
+        }
+
+        add(root, ident).index = index;
+    }
+
+    /**
+     * Forget everything.
+     */
+    void clear()
+    {
+        classes.children.clear();
+        fields.clear();
+    }
+
+    private Node find(final Node root, final CommonTree ident)
+    {
+        Node node = root;
+        for (int i = 0; i < ident.getChildCount() && null != node; i++) {
+            node = node.children.get(words.text(ident.getChild(i)));
+        }
+
+        return node;
+    }
+
+    private Node add(final Node root, final CommonTree ident)
+    {
+        Node node = root;
+        for (int i = 0; i < ident.getChildCount(); i++) {
+            final String part = words.text(ident.getChild(i));
+            Node child = node.children.get(part);
+            if (null == child) {
+                child = new Node();
+                node.children.put(part, child);
+            }
+
+            node = child;
+        }
+
+        return node;
+    }
+
+    /**
+     * One part of an identifier.
+     */
+    private static class Node
+    {
+        final Map<String, Node> children = new HashMap<String, Node>(4);
+        Class<?> clazz = null;
+        Field field = null;
+        int index = -1;
+    }
+}
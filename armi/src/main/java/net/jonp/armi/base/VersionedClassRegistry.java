@@ -0,0 +1,17 @@
+package net.jonp.armi.base;
+
+/**
+ * A {@link ClassRegistry} which counts changes to its bindings, so that
+ * classes looked up from it can be cached until it changes.
+ */
+public interface VersionedClassRegistry
+    extends ClassRegistry
+{
+    /**
+     * Get the version of the bindings of this registry.
+     * 
+     * @return A number which changes whenever a name is bound, rebound, or
+     *         unbound.
+     */
+    public int getVersion();
+}
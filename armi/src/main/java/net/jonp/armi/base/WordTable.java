@@ -0,0 +1,158 @@
+package net.jonp.armi.base;
+
+import net.jonp.armi.ARMIParser;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
+
+/**
+ * Interns the words (the parts of identifiers) of the statements read by a
+ * parser, so that a word which has been seen before is returned as the same
+ * {@link String}, found by its characters in the statement, instead of as a
+ * new copy of them.
+ * 
+ * Remembers at most {@link #MAX_WORDS} words; after that, it forgets them all
+ * and starts again, so that a stream of distinct words cannot fill memory.
+ * 
+ * Not thread-safe; each parser has its own.
+ */
+class WordTable
+{
+    /** The most words remembered at once. */
+    static final int MAX_WORDS = 4096;
+
+    /** The characters of the statement being parsed. */
+    private char[] chars = new char[0];
+
+    /** Open-addressed hash table of words, at most half full. */
+    private String[] words = new String[64];
+    private int size = 0;
+
+    /**
+     * Set the characters that tokens of the statement being parsed refer to.
+     * 
+     * @param _chars The characters.
+     */
+    void setChars(final char[] _chars)
+    {
+        chars = _chars;
+    }
+
+    /**
+     * Get the text of one part of an identifier.
+     * 
+     * @param part The tree of the part.
+     * @return Its text.
+     */
+    String text(final Tree part)
+    {
+        final Token token = ((CommonTree)part).getToken();
+        if (ARMIParser.ATOM == token.getType() && token instanceof CommonToken) {
+            // Atoms never have their text replaced, so are still in chars
+            final CommonToken atom = (CommonToken)token;
+            return intern(atom.getStartIndex(), atom.getStopIndex() + 1);
+        }
+        else {
+            return part.getText();
+        }
+    }
+
+    /**
+     * Get a range of the characters of the statement as a string.
+     * 
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @return The string, which is the same instance as was returned for
+     *         the same characters before, if they are still remembered.
+     */
+    String intern(final int start, final int end)
+    {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        final int mask = words.length - 1;
+        int slot = mix(hash) & mask;
+        for (String word = words[slot]; null != word; word = words[slot]) {
+            if (word.hashCode() == hash && matches(word, start, end)) {
+                return word;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        final String word = new String(chars, start, end - start);
+        if (size >= MAX_WORDS) {
+            words = new String[words.length];
+            size = 0;
+            add(word);
+        }
+        else if (2 * (size + 1) > words.length) {
+            final String[] old = words;
+            words = new String[2 * old.length];
+            size = 0;
+            for (final String w : old) {
+                if (null != w) {
+                    add(w);
+                }
+            }
+            add(word);
+        }
+        else {
+            words[slot] = word;
+            size++;
+        }
+
+        return word;
+    }
+
+    /**
+     * Get the number of words remembered.
+     * 
+     * @return The number of words.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    private void add(final String word)
+    {
+        final int mask = words.length - 1;
+        int slot = mix(word.hashCode()) & mask;
+        while (null != words[slot]) {
+            slot = (slot + 1) & mask;
+        }
+
+        words[slot] = word;
+        size++;
+    }
+
+    private boolean matches(final String word, final int start, final int end)
+    {
+        if (word.length() != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (word.charAt(i - start) != chars[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Spread the bits of a string hash code, which differ little between
+     * short words, across the slots of the table.
+     */
+    private static int mix(final int hash)
+    {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,12 +1,23 @@
 package net.jonp.armi.base.command;
 
 import java.rmi.NotBoundException;
+import java.util.concurrent.TimeUnit;
 
 import net.jonp.armi.base.ClassRegistry;
 import net.jonp.armi.base.Conversion;
 
 /**
  * Represents a call command, which is a remote method call.
+ * 
+ * A call may carry a timeout: how long, in milliseconds, the caller will wait
+ * for the response. It is sent relative to when the command is sent (so the
+ * clocks of the client and server need not agree), and the receiver counts it
+ * from when the command was parsed, giving a deadline after which nobody is
+ * waiting for the result.
+ * 
+ * A call may also ask for its result to be streamed, if the method returns an
+ * {@link java.util.Iterator} or {@link java.lang.Iterable}; otherwise the
+ * result is sent as a single value.
  */
 public class CallCommand
     extends Command
@@ -14,6 +25,9 @@ public class CallCommand
     private final String object;
     private final String method;
     private final Object[] arguments;
+    private long timeout = 0;
+    private long deadline = 0;
+    private boolean stream = false;
 
     /**
      * Construct a new CallCommand.
@@ -66,6 +80,86 @@ public class CallCommand
         return _arguments;
     }
 
+    /**
+     * Get the timeout.
+     * 
+     * @return How long, in milliseconds, the caller will wait for the
+     *         response, or 0 if it did not say.
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Set the timeout, and start counting it down.
+     * 
+     * @param _timeout How long, in milliseconds, the caller will wait for the
+     *            response, or 0 to say nothing.
+     * @throws IllegalArgumentException If the timeout is negative.
+     */
+    public void setTimeout(final long _timeout)
+    {
+        if (_timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout: " + _timeout);
+        }
+
+        timeout = _timeout;
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout);
+    }
+
+    /**
+     * Get the deadline.
+     * 
+     * @return The {@link System#nanoTime()} at which the timeout runs out.
+     *         Meaningless if there is no timeout.
+     */
+    public long getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Test whether the timeout has run out.
+     * 
+     * @return True if there is a timeout and it has run out.
+     */
+    public boolean isExpired()
+    {
+        return (timeout > 0 && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Test whether the caller asked for the result to be streamed.
+     * 
+     * @return True if the result should be streamed, if it can be.
+     */
+    public boolean isStream()
+    {
+        return stream;
+    }
+
+    /**
+     * Set whether the caller asks for the result to be streamed. Servers
+     * older than streaming cannot parse a call which asks.
+     * 
+     * @param _stream True to ask for the result to be streamed.
+     */
+    public void setStream(final boolean _stream)
+    {
+        stream = _stream;
+    }
+
+    /**
+     * Get the objects to pass to the method, without copying them.
+     * 
+     * @return The objects to pass to the method, which must not be modified.
+     */
+    Object[] arguments()
+    {
+        return arguments;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -94,6 +188,14 @@ public class CallCommand
             buf.append("label \"").append(getLabel()).append("\" ");
         }
 
+        if (getTimeout() > 0) {
+            buf.append("timeout ").append(getTimeout()).append(" ");
+        }
+
+        if (isStream()) {
+            buf.append("stream ");
+        }
+
         buf.append(getObject()).append(".").append(getMethod()).append(" (");
         final Object[] _arguments = getArguments();
         for (int i = 0; i < _arguments.length; i++) {
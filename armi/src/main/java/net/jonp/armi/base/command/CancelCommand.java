@@ -0,0 +1,50 @@
+package net.jonp.armi.base.command;
+
+import net.jonp.armi.base.ClassRegistry;
+
+/**
+ * Represents a cancel command, which tells the server that the caller has
+ * given up on an earlier call. The server skips the call if it has not
+ * started, interrupts it if it is running, and does not send its response.
+ * Cancelling a call which has already been answered, or which the server
+ * never saw, does nothing. There is no response to a cancel command.
+ */
+public class CancelCommand
+    extends Command
+{
+    /**
+     * Construct a new CancelCommand.
+     * 
+     * @param _label The label of the call to cancel.
+     */
+    public CancelCommand(final String _label)
+    {
+        super(_label);
+
+        if (null == _label) {
+            throw new IllegalArgumentException("Only labeled calls can be cancelled");
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "cancel " + getLabel();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.jonp.armi.AbstractLanguageObject#toStatement()
+     */
+    @Override
+    public String toStatement(final ClassRegistry registry)
+    {
+        return "cancel label \"" + getLabel() + "\"";
+    }
+}
@@ -2,6 +2,7 @@ package net.jonp.armi.base.command;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import net.jonp.armi.ARMIParser;
 import net.jonp.armi.base.AbstractParser;
@@ -33,6 +34,18 @@ public class CommandParser
         super(in, _registry);
     }
 
+    /**
+     * Construct a new CommandParser which does not read from a stream, and
+     * only parses statements handed to {@link #parseCommand(ByteBuffer)}.
+     * 
+     * @param _registry The class registry for looking up instance classes from
+     *            command language names.
+     */
+    public CommandParser(final ClassRegistry _registry)
+    {
+        super(_registry);
+    }
+
     /**
      * Read the next command from this parser.
      * 
@@ -44,7 +57,33 @@ public class CommandParser
         throws IOException, SyntaxException
     {
         parserSetup();
+        return command();
+    }
+
+    /**
+     * Parse one command from a buffer, such as one received by a non-blocking
+     * transport, without copying it into a {@link String} first.
+     * 
+     * @param statement The UTF-8 encoded statement, from its position to its
+     *            limit. Its position is not changed.
+     * @return The command, or <code>null</code> if the statement is blank.
+     * @throws IOException If the statement could not be decoded by the
+     *             dictionary.
+     * @throws SyntaxException If there was a problem parsing the command.
+     */
+    public Command parseCommand(final ByteBuffer statement)
+        throws IOException, SyntaxException
+    {
+        parserSetup(statement);
+        return command();
+    }
 
+    /**
+     * Parse the command the parser has been set up to read.
+     */
+    private Command command()
+        throws SyntaxException
+    {
         final ARMIParser.command_return cr;
         try {
             cr = parser.command();
@@ -70,6 +109,8 @@ public class CommandParser
         switch (ast.getType()) {
             case ARMIParser.CALL: {
                 String label = null;
+                long timeout = 0;
+                boolean stream = false;
                 String[] path = null;
                 Object[] args = null;
 
@@ -79,6 +120,16 @@ public class CommandParser
                         case ARMIParser.LABEL:
                             label = label(child);
                             break;
+                        case ARMIParser.TIMEOUT:
+                            timeout = timeout(child);
+                            break;
+                        case ARMIParser.STREAM:
+                            if (!"stream".equals(child.getChild(0).getText())) {
+                                throw new SyntaxException("Unrecognized call option: " + child.getChild(0).getText());
+                            }
+
+                            stream = true;
+                            break;
                         case ARMIParser.IDENT:
                             path = ident(child);
                             break;
@@ -90,20 +141,68 @@ public class CommandParser
                     }
                 }
 
-                return new CallCommand(label, Conversion.arrayToString(path, 0, path.length - 1, "."), path[path.length - 1], args);
+                final CallCommand call =
+                    new CallCommand(label, Conversion.arrayToString(path, 0, path.length - 1, "."), path[path.length - 1],
+                                    args);
+                if (timeout > 0) {
+                    call.setTimeout(timeout);
+                }
+
+                call.setStream(stream);
+
+                return call;
             }
             case ARMIParser.HELP:
                 return new HelpCommand();
+            case ARMIParser.CANCEL:
+                if (!"cancel".equals(ast.getChild(0).getText())) {
+                    throw new SyntaxException("Unrecognized command: " + ast.getChild(0).getText());
+                }
+
+                return new CancelCommand(label((CommonTree)ast.getChild(1)));
             default:
                 if (ast.getType() == 0) {
                     return null;
                 }
                 else {
-                    throw new SyntaxException("Root of command is not CALL or HELP: " + ast.getType());
+                    throw new SyntaxException("Root of command is not CALL, HELP, or CANCEL: " + ast.getType());
                 }
         }
     }
 
+    /**
+     * Parse the tree from a timeout.
+     * 
+     * @param ast The tree.
+     * @return The timeout, in milliseconds.
+     * @throws SyntaxException If there was a problem parsing the tree.
+     */
+    private long timeout(final CommonTree ast)
+        throws SyntaxException
+    {
+        if (ast.getType() != ARMIParser.TIMEOUT) {
+            throw new SyntaxException("Not a TIMEOUT: " + ast.getType());
+        }
+
+        if (!"timeout".equals(ast.getChild(0).getText())) {
+            throw new SyntaxException("Unrecognized call option: " + ast.getChild(0).getText());
+        }
+
+        final long timeout;
+        try {
+            timeout = Long.parseLong(ast.getChild(1).getText());
+        }
+        catch (final NumberFormatException nfe) {
+            throw new SyntaxException("Bad timeout: " + ast.getChild(1).getText(), nfe);
+        }
+
+        if (timeout <= 0) {
+            throw new SyntaxException("Timeout must be positive: " + timeout);
+        }
+
+        return timeout;
+    }
+
     /**
      * Parse the tree from an args command.
      * 
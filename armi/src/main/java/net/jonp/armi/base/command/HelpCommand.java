@@ -30,7 +30,8 @@ public class HelpCommand
             @Override
             public String toStatement(final ClassRegistry registry)
             {
-                return "call [label \"<label>\"] <object>.<method> (<value>, ...)\n" + //
+                return "call [label \"<label>\"] [timeout <milliseconds>] [stream] <object>.<method> (<value>, ...)\n" + //
+                       "cancel label \"<label>\"\n" + //
                        "help\n" + //
                        "\n" + //
                        "<value> can be:\n" + //
@@ -38,6 +39,8 @@ public class HelpCommand
                        "  integers or floats with type postfix\n" + //
                        "    B for Byte, S for Short, L for Long, F for Float\n" + //
                        "    Integer and Double do not have type postfixes\n" + //
+                       "    floats may have an exponent (1.5E-3), be hexadecimal (0x1.8p1),\n" + //
+                       "    or be NaN or Infinity (put a space before any postfix: NaN F)\n" + //
                        "  true or false\n" + //
                        "  array(<type>) [<element0>, <element1>, ...]\n" + //
                        "  collection(<type>) [<element0>, <element1>, ...]\n" + //
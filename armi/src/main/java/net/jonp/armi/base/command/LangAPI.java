@@ -6,38 +6,136 @@ import java.rmi.NotBoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.jonp.armi.base.ObservableRegistry;
 import net.jonp.armi.base.Registry;
+import net.jonp.armi.base.RegistryListener;
+import net.jonp.armi.base.response.SharedValue;
+import net.jonp.armi.base.stats.CallStatistics;
+
+import com.google.common.collect.MapMaker;
 
 /**
  * A default implementation of the <code>lang</code> API. If you use a different
  * API, make sure to use use a different response than
  * {@link HelpCommand#getDefaultResponse()}.
+ * 
+ * The methods and parameters of each class bound in the registry are found
+ * once, and shared by every LangAPI. If the registry is an
+ * {@link ObservableRegistry}, the list of objects is cached too, by every
+ * LangAPI using that registry, and discarded whenever the registry changes;
+ * otherwise the list of objects is read from the registry on each call.
+ * Cached results are shared (see {@link SharedValue#share(Object)}), so each
+ * is encoded once for all the connections it is sent to.
  */
 public class LangAPI
 {
+    /** The names of the methods of {@link Object}, which are not listed. */
+    private static final Set<String> OBJECT_METHODS = getMethods(Object.class);
+
+    /** The introspection results for each class. */
+    private static final ConcurrentMap<Class<?>, ClassInfo> CLASSES = new MapMaker().weakKeys().makeMap();
+
+    /** The cache of each observed registry. */
+    private static final ConcurrentMap<ObservableRegistry<?>, RegistryCache> REGISTRIES =
+        new MapMaker().weakKeys().makeMap();
+
     private final Registry<?> apiRegistry;
+    private final CallStatistics statistics;
 
     /**
-     * Construct a new LangAPI.
+     * The cache of the registry, or <code>null</code> if it does not report
+     * changes, so is not safe to cache.
+     */
+    private final RegistryCache cache;
+
+    /**
+     * Construct a new LangAPI which does not report call statistics.
      * 
      * @param _apiRegistry The registry containing available API provider
      *            objects.
      */
     public LangAPI(final Registry<?> _apiRegistry)
+    {
+        this(_apiRegistry, null);
+    }
+
+    /**
+     * Construct a new LangAPI.
+     * 
+     * @param _apiRegistry The registry containing available API provider
+     *            objects.
+     * @param _statistics The statistics to report from {@link #getStats()},
+     *            usually those of the executor running commands against
+     *            <code>_apiRegistry</code>. May be <code>null</code>.
+     */
+    public LangAPI(final Registry<?> _apiRegistry, final CallStatistics _statistics)
     {
         apiRegistry = _apiRegistry;
+        statistics = _statistics;
+
+        if (apiRegistry instanceof ObservableRegistry<?>) {
+            cache = getRegistryCache((ObservableRegistry<?>)apiRegistry);
+        }
+        else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Get the cache of a registry, creating it (and registering it to hear of
+     * changes) if this is the first LangAPI to use the registry.
+     */
+    private static RegistryCache getRegistryCache(final ObservableRegistry<?> registry)
+    {
+        RegistryCache _cache = REGISTRIES.get(registry);
+        if (null == _cache) {
+            final RegistryCache created = new RegistryCache();
+            _cache = REGISTRIES.putIfAbsent(registry, created);
+            if (null == _cache) {
+                // Lives as long as the registry, so is never removed
+                registry.addRegistryListener(created);
+                _cache = created;
+            }
+        }
+
+        return _cache;
     }
 
     /**
      * Get the names of the available objects in the registry.
      * 
-     * @return The names of the available objects.
+     * @return The names of the available objects, sorted. Shared between
+     *         callers, so must not be modified.
      */
     public Object[] getObjects()
+    {
+        if (null == cache) {
+            return listObjects();
+        }
+
+        final int version = cache.version.get();
+        SharedValue objects = cache.objects;
+        if (null == objects) {
+            objects = SharedValue.share(listObjects());
+
+            // Unless the registry changed while it was being listed
+            if (cache.version.get() == version) {
+                cache.objects = objects;
+            }
+        }
+
+        return (Object[])objects.getValue();
+    }
+
+    private Object[] listObjects()
     {
         final List<String> objects = new ArrayList<String>();
         Collections.addAll(objects, apiRegistry.list());
@@ -51,22 +149,15 @@ public class LangAPI
      * explicitly removed).
      * 
      * @param name The name of the object whose methods to list.
-     * @return The names of the methods of the given object.
+     * @return The names of the methods of the given object, sorted. Shared
+     *         between callers, so must not be modified.
      * @throws NotBoundException If the name is not currently bound to any API
      *             provider object.
      */
     public Object[] getMethods(final String name)
         throws NotBoundException
     {
-        final Set<String> objectMethods = getMethods(Object.class);
-        final Set<String> methods = getMethods(apiRegistry.lookup(name).getClass());
-
-        methods.removeAll(objectMethods);
-
-        final Object[] names = methods.toArray();
-        Arrays.sort(names);
-
-        return names;
+        return (Object[])getClassInfo(apiRegistry.lookup(name).getClass()).methods.getValue();
     }
 
     /**
@@ -76,7 +167,7 @@ public class LangAPI
      * @param clazz The class.
      * @return The API-accessible methods of that class.
      */
-    private Set<String> getMethods(final Class<?> clazz)
+    private static Set<String> getMethods(final Class<?> clazz)
     {
         final Method[] methods = clazz.getMethods();
         final Set<String> names = new HashSet<String>();
@@ -94,8 +185,8 @@ public class LangAPI
      * Get the parameter types for the given method.
      * 
      * @param name The full name of the object and method.
-     * @return The class names of the parameters of the method, in the same
-     *         order.
+     * @return The class names of the parameters of the method, sorted. Shared
+     *         between callers, so must not be modified.
      * @throws NotBoundException If the object name is not currently bound to
      *             any API provider object, or the object has no method with the
      *             given name.
@@ -107,27 +198,96 @@ public class LangAPI
         final String methodName = name.substring(name.lastIndexOf('.') + 1);
 
         final Object obj = apiRegistry.lookup(objectName);
-        final Method[] methods = obj.getClass().getMethods();
-        Method method = null;
-        for (final Method m : methods) {
-            if (methodName.equals(m.getName())) {
-                method = m;
-                break;
-            }
+        final SharedValue parameters = getClassInfo(obj.getClass()).parameters.get(methodName);
+        if (null == parameters) {
+            throw new NotBoundException(objectName + "." + methodName);
         }
 
-        if (null == method) {
-            throw new NotBoundException(objectName + "." + methodName);
+        return (Object[])parameters.getValue();
+    }
+
+    /**
+     * Get the introspection results for a class, computing them if necessary.
+     */
+    private static ClassInfo getClassInfo(final Class<?> clazz)
+    {
+        ClassInfo info = CLASSES.get(clazz);
+        if (null == info) {
+            info = new ClassInfo(clazz);
+            CLASSES.put(clazz, info);
+        }
+
+        return info;
+    }
+
+    /**
+     * Get the call statistics for every method that has been called.
+     * 
+     * @return A {@link net.jonp.armi.base.stats.MethodStatistics} for each
+     *         method, sorted by object and method name. Empty if this LangAPI
+     *         was not given any statistics.
+     */
+    public Object[] getStats()
+    {
+        if (null == statistics) {
+            return new Object[0];
         }
 
-        final Class<?>[] types = method.getParameterTypes();
-        final List<String> typeNames = new ArrayList<String>(types.length);
-        for (final Class<?> type : types) {
-            typeNames.add(type.getName());
+        return statistics.getStatistics();
+    }
+
+    /**
+     * The list of objects in an observed registry, discarded whenever the
+     * registry changes. Holds no reference to the registry, so that it does
+     * not keep it alive.
+     */
+    private static class RegistryCache
+        implements RegistryListener
+    {
+        /** Counts changes, so that a list made during one is not kept. */
+        final AtomicInteger version = new AtomicInteger(0);
+        volatile SharedValue objects = null;
+
+        @Override
+        public void registryChanged(final Registry<?> registry, final String name)
+        {
+            version.incrementAndGet();
+            objects = null;
         }
+    }
 
-        Collections.sort(typeNames);
+    /**
+     * The methods of a class, and the parameters of each method. Holds only
+     * names, so that it does not keep the class loaded.
+     */
+    private static class ClassInfo
+    {
+        final SharedValue methods;
+        final Map<String, SharedValue> parameters = new HashMap<String, SharedValue>();
+
+        ClassInfo(final Class<?> clazz)
+        {
+            final Set<String> names = getMethods(clazz);
+            names.removeAll(OBJECT_METHODS);
+
+            final Object[] sorted = names.toArray();
+            Arrays.sort(sorted);
+            methods = SharedValue.share(sorted);
 
-        return typeNames.toArray();
+            // Only the first method with each name is described
+            for (final Method method : clazz.getMethods()) {
+                if (!parameters.containsKey(method.getName())) {
+                    final Class<?>[] types = method.getParameterTypes();
+                    final List<String> typeNames = new ArrayList<String>(types.length);
+                    for (final Class<?> type : types) {
+                        typeNames.add(type.getName());
+                    }
+
+                    Collections.sort(typeNames);
+
+                    parameters.put(method.getName(), SharedValue.share(typeNames.toArray()));
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,354 @@
+package net.jonp.armi.base.command;
+
+import java.rmi.NotBoundException;
+
+import net.jonp.armi.base.AbstractLanguageObject;
+import net.jonp.armi.base.ClassRegistry;
+
+/**
+ * A template for calls to one method, with fixed parameter types, which is
+ * prepared once and then bound to the arguments of each call.
+ * 
+ * The text of the statement that does not change from call to call is built
+ * when the template is prepared, and each argument slot is given a fixed
+ * encoder chosen by its parameter type, so a bound call only has to format its
+ * label and argument values. An argument whose class is not exactly the
+ * parameter type (a subclass, or an implementation of an interface) is encoded
+ * as {@link CallCommand} would encode it. The statements written are the same
+ * as those of an equivalent {@link CallCommand}.
+ * 
+ * Instances are immutable, and may be shared between threads.
+ */
+public class PreparedCall
+{
+    private final String _object;
+    private final String _method;
+    private final Class<?>[] _parameterTypes;
+
+    /** The text between the label and the first argument. */
+    private final String target;
+
+    /** The encoder for each argument slot. */
+    private final Slot[] slots;
+
+    /**
+     * Prepare a call.
+     * 
+     * @param object The name of the object whose method is being referenced.
+     * @param method The name of the method.
+     * @param parameterTypes The types of the parameters of the method, which
+     *            may be primitive.
+     */
+    public PreparedCall(final String object, final String method, final Class<?>... parameterTypes)
+    {
+        if (null == object) {
+            throw new NullPointerException("object");
+        }
+        else if (null == method) {
+            throw new NullPointerException("method");
+        }
+
+        _object = object;
+        _method = method;
+        _parameterTypes = parameterTypes.clone();
+
+        target = object + "." + method + " (";
+
+        slots = new Slot[_parameterTypes.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (null == _parameterTypes[i]) {
+                throw new NullPointerException("parameterTypes[" + i + "]");
+            }
+
+            slots[i] = Slot.forType(boxed(_parameterTypes[i]));
+        }
+    }
+
+    /**
+     * Get the name of the object.
+     * 
+     * @return The name of the object (does not include the method name).
+     */
+    public String getObject()
+    {
+        return _object;
+    }
+
+    /**
+     * Get the name of the method.
+     * 
+     * @return The name of the method.
+     */
+    public String getMethod()
+    {
+        return _method;
+    }
+
+    /**
+     * Get the types of the parameters of the method.
+     * 
+     * @return The parameter types.
+     */
+    public Class<?>[] getParameterTypes()
+    {
+        return _parameterTypes.clone();
+    }
+
+    /**
+     * Bind the arguments of one call.
+     * 
+     * @param arguments The arguments to pass to the method.
+     * @return A command that calls the method with those arguments, and which
+     *         has no label.
+     * @throws IllegalArgumentException If the wrong number of arguments is
+     *             given, or an argument is not an instance of its parameter
+     *             type (or is <code>null</code> for a primitive parameter).
+     */
+    public CallCommand bind(final Object... arguments)
+    {
+        if (arguments.length != _parameterTypes.length) {
+            throw new IllegalArgumentException(String.format("%s.%s takes %d arguments, not %d", getObject(),
+                                                             getMethod(), _parameterTypes.length, arguments.length));
+        }
+
+        for (int i = 0; i < arguments.length; i++) {
+            final Object arg = arguments[i];
+            if (null == arg ? _parameterTypes[i].isPrimitive() : !boxed(_parameterTypes[i]).isInstance(arg)) {
+                throw new IllegalArgumentException(String.format("Argument %d of %s.%s is not a %s: %s", i,
+                                                                 getObject(), getMethod(),
+                                                                 _parameterTypes[i].getName(), arg));
+            }
+        }
+
+        return new BoundCall(this, arguments);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(getObject()).append(".").append(getMethod()).append("(");
+        for (int i = 0; i < _parameterTypes.length; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+
+            buf.append(_parameterTypes[i].getName());
+        }
+        buf.append(")");
+
+        return buf.toString();
+    }
+
+    /**
+     * Get the class of the values of a type.
+     */
+    private static Class<?> boxed(final Class<?> type)
+    {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        else if (type == Integer.TYPE) {
+            return Integer.class;
+        }
+        else if (type == Long.TYPE) {
+            return Long.class;
+        }
+        else if (type == Double.TYPE) {
+            return Double.class;
+        }
+        else if (type == Boolean.TYPE) {
+            return Boolean.class;
+        }
+        else if (type == Float.TYPE) {
+            return Float.class;
+        }
+        else if (type == Short.TYPE) {
+            return Short.class;
+        }
+        else if (type == Byte.TYPE) {
+            return Byte.class;
+        }
+        else if (type == Character.TYPE) {
+            return Character.class;
+        }
+        else {
+            throw new IllegalArgumentException("Not a parameter type: " + type.getName());
+        }
+    }
+
+    /**
+     * The encoder for an argument slot. Each writes values of exactly one
+     * class, exactly as {@link CallCommand} would write them. Parameters of
+     * other types have no slot.
+     */
+    private static enum Slot
+    {
+        BYTE(Byte.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                buf.append(((Byte)arg).intValue()).append("Y");
+            }
+        },
+
+        SHORT(Short.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                buf.append(((Short)arg).intValue()).append("T");
+            }
+        },
+
+        INTEGER(Integer.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                buf.append(((Integer)arg).intValue());
+            }
+        },
+
+        LONG(Long.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                buf.append(((Long)arg).longValue()).append("L");
+            }
+        },
+
+        FLOAT(Float.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                final float f = ((Float)arg).floatValue();
+                buf.append(f);
+                if (Float.isNaN(f) || Float.isInfinite(f)) {
+                    buf.append(" ");
+                }
+                buf.append("F");
+            }
+        },
+
+        DOUBLE(Double.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                buf.append(((Double)arg).doubleValue());
+            }
+        },
+
+        BOOLEAN(Boolean.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                buf.append(((Boolean)arg).booleanValue());
+            }
+        },
+
+        STRING(String.class) {
+            @Override
+            void write(final StringBuilder buf, final Object arg)
+            {
+                AbstractLanguageObject.appendString(buf, (String)arg);
+            }
+        };
+
+        /** The class of the values written. */
+        final Class<?> clazz;
+
+        private Slot(final Class<?> _clazz)
+        {
+            clazz = _clazz;
+        }
+
+        /**
+         * Write a non-<code>null</code> instance of {@link #clazz}.
+         */
+        abstract void write(StringBuilder buf, Object arg);
+
+        /**
+         * Find the slot which writes values of a class.
+         * 
+         * @return The slot, or <code>null</code> if values of the class are
+         *         written by <code>makeArgument</code>.
+         */
+        static Slot forType(final Class<?> type)
+        {
+            for (final Slot slot : values()) {
+                if (slot.clazz == type) {
+                    return slot;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * A call bound to its arguments.
+     */
+    private static class BoundCall
+        extends CallCommand
+    {
+        private final PreparedCall prepared;
+
+        BoundCall(final PreparedCall _prepared, final Object[] _arguments)
+        {
+            super(null, _prepared.getObject(), _prepared.getMethod(), _arguments);
+
+            prepared = _prepared;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see net.jonp.armi.base.command.CallCommand#toStatement(net.jonp.armi.base.ClassRegistry)
+         */
+        @Override
+        public String toStatement(final ClassRegistry registry)
+            throws NotBoundException
+        {
+            final Object[] _arguments = arguments();
+            final StringBuilder buf = new StringBuilder(prepared.target.length() + 16 * (_arguments.length + 1));
+
+            buf.append("call ");
+
+            if (null != getLabel()) {
+                buf.append("label \"").append(getLabel()).append("\" ");
+            }
+
+            if (getTimeout() > 0) {
+                buf.append("timeout ").append(getTimeout()).append(" ");
+            }
+
+            if (isStream()) {
+                buf.append("stream ");
+            }
+
+            buf.append(prepared.target);
+            for (int i = 0; i < _arguments.length; i++) {
+                if (i > 0) {
+                    buf.append(", ");
+                }
+
+                final Object arg = _arguments[i];
+                final Slot slot = prepared.slots[i];
+                if (null == arg) {
+                    buf.append("null");
+                }
+                else if (null != slot && arg.getClass() == slot.clazz) {
+                    slot.write(buf, arg);
+                }
+                else {
+                    buf.append(makeArgument(arg, registry));
+                }
+            }
+            buf.append(")");
+
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package net.jonp.armi.base.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames written by a {@link CompressedFrameOutputStream}, returning
+ * the original, uncompressed data.
+ */
+public class CompressedFrameInputStream
+    extends FilterInputStream
+{
+    private final Inflater inflater = new Inflater();
+    private final byte[] header = new byte[CompressedFrameOutputStream.HEADER - 1];
+
+    /** The compressed contents of the current frame. */
+    private byte[] frame = new byte[1024];
+
+    /** Uncompressed data waiting to be read. */
+    private byte[] data = new byte[1024];
+    private int pos = 0;
+    private int limit = 0;
+
+    /**
+     * Construct a new CompressedFrameInputStream.
+     * 
+     * @param in The stream from which to read frames.
+     */
+    public CompressedFrameInputStream(final InputStream in)
+    {
+        super(in);
+    }
+
+    @Override
+    public synchronized int read()
+        throws IOException
+    {
+        while (pos >= limit) {
+            if (!nextFrame()) {
+                return -1;
+            }
+        }
+
+        return data[pos++] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(final byte[] b, final int off, final int len)
+        throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (pos >= limit) {
+            if (!nextFrame()) {
+                return -1;
+            }
+        }
+
+        final int n = Math.min(len, limit - pos);
+        System.arraycopy(data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public synchronized int available()
+    {
+        return limit - pos;
+    }
+
+    @Override
+    public long skip(final long n)
+        throws IOException
+    {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    /**
+     * Release the {@link Inflater} and close the underlying stream.
+     * 
+     * @throws IOException If there was a problem.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        try {
+            inflater.end();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the next frame into {@link #data}.
+     * 
+     * @return True if a frame was read, false at EOF.
+     * @throws IOException If there was a problem reading, or the frame is
+     *             corrupt.
+     */
+    private boolean nextFrame()
+        throws IOException
+    {
+        final int type = in.read();
+        if (type == -1) {
+            return false;
+        }
+
+        readFully(header, header.length);
+        final int length =
+            ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        if (length < 0) {
+            throw new IOException("Bad frame length: " + length);
+        }
+
+        pos = 0;
+        if (type == CompressedFrameOutputStream.RAW) {
+            if (length > data.length) {
+                data = new byte[length];
+            }
+
+            readFully(data, length);
+            limit = length;
+        }
+        else if (type == CompressedFrameOutputStream.DEFLATED) {
+            if (length > frame.length) {
+                frame = new byte[length];
+            }
+
+            readFully(frame, length);
+            inflater.setInput(frame, 0, length);
+
+            int n = 0;
+            try {
+                while (true) {
+                    if (n == data.length) {
+                        data = Arrays.copyOf(data, data.length * 2);
+                    }
+
+                    final int inflated = inflater.inflate(data, n, data.length - n);
+                    n += inflated;
+                    if (inflated == 0 && (inflater.needsInput() || inflater.finished())) {
+                        break;
+                    }
+                    else if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Compressed frame requires a preset dictionary");
+                    }
+                }
+            }
+            catch (final DataFormatException dfe) {
+                throw new IOException("Corrupt compressed frame: " + dfe.getMessage(), dfe);
+            }
+
+            limit = n;
+        }
+        else {
+            throw new IOException("Unknown frame type: " + type);
+        }
+
+        return true;
+    }
+
+    private void readFully(final byte[] buf, final int length)
+        throws IOException
+    {
+        int n = 0;
+        while (n < length) {
+            final int read = in.read(buf, n, length - n);
+            if (read == -1) {
+                throw new EOFException("EOF in the middle of a frame");
+            }
+
+            n += read;
+        }
+    }
+}
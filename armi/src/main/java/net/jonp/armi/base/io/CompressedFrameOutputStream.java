@@ -0,0 +1,185 @@
+package net.jonp.armi.base.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream which buffers everything written to it until
+ * {@link #flush()}, and then writes it out as a single frame, compressed with
+ * DEFLATE if it is large enough to be worth it. Read the frames back with a
+ * {@link CompressedFrameInputStream}.
+ * 
+ * A single {@link Deflater} is used for the life of the stream, and each
+ * compressed frame ends with a sync flush, so the compression dictionary built
+ * from earlier frames carries over into later ones. Frames smaller than the
+ * threshold are written uncompressed and do not touch the dictionary.
+ * 
+ * Each frame is a one-byte type ({@link #RAW} or {@link #DEFLATED}), a
+ * four-byte big-endian length, and that many bytes of data.
+ */
+public class CompressedFrameOutputStream
+    extends FilterOutputStream
+{
+    /** Frame type for uncompressed data. */
+    public static final int RAW = 'R';
+
+    /** Frame type for data compressed by the stream's {@link Deflater}. */
+    public static final int DEFLATED = 'Z';
+
+    /** Length of the frame header. */
+    static final int HEADER = 5;
+
+    private final int _threshold;
+    private final Deflater deflater;
+
+    /** Data written since the last flush, after room for the header. */
+    private byte[] pending = new byte[1024];
+    private int count = HEADER;
+
+    /** Compressed data, after room for the header. */
+    private byte[] compressed = new byte[1024];
+
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    /**
+     * Construct a new CompressedFrameOutputStream.
+     * 
+     * @param out The stream to which to write frames.
+     * @param level The compression level, from {@link Deflater}.
+     * @param threshold Frames with fewer bytes than this are written
+     *            uncompressed.
+     */
+    public CompressedFrameOutputStream(final OutputStream out, final int level, final int threshold)
+    {
+        super(out);
+
+        _threshold = threshold;
+        deflater = new Deflater(level);
+    }
+
+    /**
+     * Get the number of bytes written to this stream.
+     * 
+     * @return The number of uncompressed bytes flushed so far.
+     */
+    public synchronized long getBytesIn()
+    {
+        return bytesIn;
+    }
+
+    /**
+     * Get the number of bytes this stream has written to the underlying stream,
+     * including frame headers.
+     * 
+     * @return The number of bytes written out so far.
+     */
+    public synchronized long getBytesOut()
+    {
+        return bytesOut;
+    }
+
+    @Override
+    public synchronized void write(final int b)
+    {
+        ensureCapacity(count + 1);
+        pending[count++] = (byte)b;
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len)
+    {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, pending, count, len);
+        count += len;
+    }
+
+    /**
+     * Write everything written since the last flush as a single frame, then
+     * flush the underlying stream.
+     * 
+     * @throws IOException If there was a problem writing the frame.
+     */
+    @Override
+    public synchronized void flush()
+        throws IOException
+    {
+        final int length = count - HEADER;
+        if (length > 0) {
+            bytesIn += length;
+            count = HEADER;
+
+            if (length < _threshold) {
+                writeFrame(RAW, pending, length);
+            }
+            else {
+                deflater.setInput(pending, HEADER, length);
+
+                int n = HEADER;
+                while (true) {
+                    n += deflater.deflate(compressed, n, compressed.length - n, Deflater.SYNC_FLUSH);
+                    if (n < compressed.length) {
+                        // Not out of room, so all input has been consumed
+                        break;
+                    }
+
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+
+                writeFrame(DEFLATED, compressed, n - HEADER);
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Flush any pending data, release the {@link Deflater}, and close the
+     * underlying stream.
+     * 
+     * @throws IOException If there was a problem.
+     */
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        try {
+            flush();
+        }
+        finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Fill in the header at the start of a buffer and write the frame.
+     * 
+     * @param type The frame type.
+     * @param buf The buffer, with the data starting at {@link #HEADER}.
+     * @param length The length of the data.
+     * @throws IOException If there was a problem writing.
+     */
+    private void writeFrame(final int type, final byte[] buf, final int length)
+        throws IOException
+    {
+        buf[0] = (byte)type;
+        buf[1] = (byte)(length >>> 24);
+        buf[2] = (byte)(length >>> 16);
+        buf[3] = (byte)(length >>> 8);
+        buf[4] = (byte)length;
+
+        out.write(buf, 0, HEADER + length);
+        bytesOut += HEADER + length;
+    }
+
+    private void ensureCapacity(final int capacity)
+    {
+        if (capacity > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(capacity, pending.length * 2));
+        }
+    }
+}
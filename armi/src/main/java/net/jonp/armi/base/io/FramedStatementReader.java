@@ -0,0 +1,134 @@
+package net.jonp.armi.base.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads length-prefixed statements, as written by
+ * {@link StatementEncoder#writeFramed(java.io.OutputStream, CharSequence)}:
+ * each is a four byte, big-endian length followed by that many bytes of UTF-8.
+ * 
+ * The stream is read in bulk into a buffer, and each statement is handed out
+ * as a slice of that buffer, ready to be parsed in place (see
+ * {@link net.jonp.armi.base.command.CommandParser#parseCommand(ByteBuffer)}).
+ * Finding where a statement ends takes no scanning at all, and a statement may
+ * contain anything, including newlines inside strings.
+ * 
+ * Not thread-safe.
+ */
+public class FramedStatementReader
+{
+    /** Default size of the buffer, in bytes; it grows to fit longer statements. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** Default length, in bytes, of the longest statement accepted. */
+    public static final int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+    private static final int HEADER = 4;
+
+    private final InputStream _in;
+    private final int _maxLength;
+
+    /** Holds bytes read but not yet handed out, from position to limit. */
+    private ByteBuffer buf;
+
+    /**
+     * Construct a new FramedStatementReader with the default maximum
+     * statement length.
+     * 
+     * @param in The stream to read from.
+     */
+    public FramedStatementReader(final InputStream in)
+    {
+        this(in, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Construct a new FramedStatementReader.
+     * 
+     * @param in The stream to read from.
+     * @param maxLength The length, in bytes, of the longest statement to
+     *            accept. A longer one is taken to mean the stream is corrupt.
+     */
+    public FramedStatementReader(final InputStream in, final int maxLength)
+    {
+        if (maxLength < 1) {
+            throw new IllegalArgumentException("Bad maximum length: " + maxLength);
+        }
+
+        _in = in;
+        _maxLength = maxLength;
+
+        buf = ByteBuffer.allocate(Math.min(DEFAULT_BUFFER_SIZE, maxLength) + HEADER);
+        buf.limit(0);
+    }
+
+    /**
+     * Read the next statement.
+     * 
+     * @return The statement, from its position to its limit. It shares the
+     *         reader's buffer, so it is only valid until the next call.
+     * @throws EOFException At EOF, or if the stream ends part way through a
+     *             statement.
+     * @throws IOException If there was a problem reading, or the statement is
+     *             longer than the maximum.
+     */
+    public ByteBuffer next()
+        throws IOException
+    {
+        fill(HEADER);
+        final int length = buf.getInt();
+        if (length < 0 || length > _maxLength) {
+            throw new IOException("Bad statement length: " + length);
+        }
+
+        fill(length);
+
+        final ByteBuffer statement = buf.duplicate();
+        statement.limit(buf.position() + length);
+        buf.position(buf.position() + length);
+
+        return statement;
+    }
+
+    /**
+     * Make sure that at least the given number of bytes are in the buffer,
+     * reading as many more as the stream has to give.
+     * 
+     * @param needed The number of bytes needed.
+     * @throws EOFException If the stream ends first.
+     * @throws IOException If there was a problem reading.
+     */
+    private void fill(final int needed)
+        throws IOException
+    {
+        if (buf.remaining() >= needed) {
+            return;
+        }
+
+        if (buf.capacity() < needed) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, buf.capacity() * 2));
+            bigger.put(buf);
+            buf = bigger;
+        }
+        else {
+            buf.compact();
+        }
+
+        // The buffer is now in write mode
+        while (buf.position() < needed) {
+            final int n = _in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (n < 0) {
+                final boolean clean = (buf.position() == 0 && needed == HEADER);
+                buf.flip();
+                throw new EOFException(clean ? null : "Stream ended part way through a statement");
+            }
+
+            buf.position(buf.position() + n);
+        }
+
+        buf.flip();
+    }
+}
@@ -0,0 +1,265 @@
+package net.jonp.armi.base.io;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A dictionary of the long words (string literals and identifiers, such as
+ * class and field names) sent over one direction of a connection, so that
+ * each is sent in full only once while it stays in the dictionary.
+ * 
+ * The sender calls {@link #encode(String)} on each statement, in the order the
+ * statements are written, and the receiver calls {@link #decode(String)} on
+ * each statement, in the order they are read, before parsing it. The first
+ * time a word is sent it is given a number and sent as <code>@n:word</code>;
+ * after that it is sent as <code>@n</code>. Neither form can appear outside a
+ * string literal in an ordinary statement, so unencoded statements decode to
+ * themselves.
+ * 
+ * The dictionary holds at most a fixed number of words. Once it is full, the
+ * sender reuses the number of the least recently sent word; since every
+ * number is defined before it is used, the receiver simply replaces the old
+ * word, and needs no eviction policy of its own.
+ * 
+ * Not thread-safe. Each direction of a connection needs its own dictionary at
+ * each end, and the sender must encode under the same lock it writes under.
+ */
+public class StatementDictionary
+{
+    /** Default number of words kept. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    /** Words shorter than this are always sent in full. */
+    public static final int MIN_LENGTH = 8;
+
+    private final int _size;
+
+    /** The sender's words, least recently sent first. */
+    private final LinkedHashMap<String, Integer> ids = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+
+    /** The receiver's words, by number. Allocated by the first decode. */
+    private String[] words = null;
+
+    /**
+     * Construct a new StatementDictionary.
+     * 
+     * @param size The maximum number of words kept. Both ends of the
+     *            connection must agree on this.
+     */
+    public StatementDictionary(final int size)
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException("Bad dictionary size: " + size);
+        }
+
+        _size = size;
+    }
+
+    /**
+     * Get the maximum number of words kept.
+     * 
+     * @return The size.
+     */
+    public int getSize()
+    {
+        return _size;
+    }
+
+    /**
+     * Encode a statement to be sent.
+     * 
+     * @param statement The statement, without its newline.
+     * @return The statement, with long words replaced by dictionary entries.
+     */
+    public String encode(final String statement)
+    {
+        final StringBuilder buf = new StringBuilder(statement.length());
+        final int n = statement.length();
+        int i = 0;
+        while (i < n) {
+            final char c = statement.charAt(i);
+            if (c == '"') {
+                final int end = endOfString(statement, i);
+                encodeWord(buf, statement, i, end);
+                i = end;
+            }
+            else if (c == '#') {
+                buf.append(statement, i, n);
+                i = n;
+            }
+            else if (isWordChar(c)) {
+                final int end = endOfWord(statement, i);
+                if (c >= '0' && c <= '9') {
+                    // A number
+                    buf.append(statement, i, end);
+                }
+                else {
+                    encodeWord(buf, statement, i, end);
+                }
+                i = end;
+            }
+            else {
+                buf.append(c);
+                i++;
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Decode a statement that was received.
+     * 
+     * @param statement The statement, without its newline.
+     * @return The statement, with dictionary entries replaced by their words.
+     * @throws IOException If the statement uses a number that has not been
+     *             defined, or is out of range.
+     */
+    public String decode(final String statement)
+        throws IOException
+    {
+        if (statement.indexOf('@') < 0) {
+            return statement;
+        }
+
+        if (null == words) {
+            words = new String[_size];
+        }
+
+        final StringBuilder buf = new StringBuilder(statement.length() * 2);
+        final int n = statement.length();
+        int i = 0;
+        while (i < n) {
+            final char c = statement.charAt(i);
+            if (c == '"') {
+                final int end = endOfString(statement, i);
+                buf.append(statement, i, end);
+                i = end;
+            }
+            else if (c == '#') {
+                buf.append(statement, i, n);
+                i = n;
+            }
+            else if (c == '@') {
+                int id = 0;
+                int j = i + 1;
+                while (j < n && statement.charAt(j) >= '0' && statement.charAt(j) <= '9' && id < _size) {
+                    id = id * 10 + (statement.charAt(j++) - '0');
+                }
+
+                if (j == i + 1 || id >= _size) {
+                    throw new IOException("Bad dictionary entry at " + i + ": " + statement);
+                }
+
+                if (j < n && statement.charAt(j) == ':') {
+                    j++;
+                    final int end;
+                    if (j < n && statement.charAt(j) == '"') {
+                        end = endOfString(statement, j);
+                    }
+                    else {
+                        end = endOfWord(statement, j);
+                    }
+
+                    if (end == j) {
+                        throw new IOException("Empty dictionary entry at " + i + ": " + statement);
+                    }
+
+                    words[id] = statement.substring(j, end);
+                    i = end;
+                }
+                else if (null == words[id]) {
+                    throw new IOException("Undefined dictionary entry @" + id + ": " + statement);
+                }
+                else {
+                    i = j;
+                }
+
+                buf.append(words[id]);
+            }
+            else {
+                buf.append(c);
+                i++;
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Write a word, or its dictionary entry if it is long enough.
+     */
+    private void encodeWord(final StringBuilder buf, final String statement, final int start, final int end)
+    {
+        if (end - start < MIN_LENGTH) {
+            buf.append(statement, start, end);
+            return;
+        }
+
+        final String word = statement.substring(start, end);
+        Integer id = ids.get(word);
+        if (null != id) {
+            buf.append('@').append(id.intValue());
+            return;
+        }
+
+        if (ids.size() < _size) {
+            id = Integer.valueOf(ids.size());
+        }
+        else {
+            final Iterator<Integer> eldest = ids.values().iterator();
+            id = eldest.next();
+            eldest.remove();
+        }
+
+        ids.put(word, id);
+        buf.append('@').append(id.intValue()).append(':').append(word);
+    }
+
+    /**
+     * Find the end of the string literal starting at <code>start</code>.
+     * 
+     * @return The index just past its closing quote.
+     */
+    private static int endOfString(final String statement, final int start)
+    {
+        int i = start + 1;
+        while (i < statement.length()) {
+            final char c = statement.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            }
+            else if (c == '"') {
+                return i + 1;
+            }
+            else {
+                i++;
+            }
+        }
+
+        return statement.length();
+    }
+
+    /**
+     * Find the end of the identifier or number starting at
+     * <code>start</code>.
+     * 
+     * @return The index just past its last character.
+     */
+    private static int endOfWord(final String statement, final int start)
+    {
+        int i = start;
+        while (i < statement.length() && isWordChar(statement.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static boolean isWordChar(final char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '$' || c == '_' ||
+               c == '.';
+    }
+}
@@ -0,0 +1,209 @@
+package net.jonp.armi.base.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes statements to a stream as UTF-8, each followed by a newline.
+ * 
+ * Characters are encoded straight into a reusable buffer, which is written to
+ * the stream whenever it fills and at the end of each statement, so no
+ * <code>byte[]</code> is created per statement and a statement that fits in
+ * the buffer (newline included) reaches the stream in a single write. ASCII
+ * characters, which make up almost all of a statement, are copied without
+ * further checks. An unpaired surrogate is written as <code>'?'</code>, as
+ * {@link String#getBytes(java.nio.charset.Charset)} would write it.
+ * 
+ * Statements may instead be framed (see
+ * {@link #writeFramed(OutputStream, CharSequence)}): preceded by their length
+ * rather than followed by a newline, for a {@link FramedStatementReader}.
+ * 
+ * Not thread-safe; each connection has its own, used under the lock it writes
+ * under.
+ */
+public class StatementEncoder
+{
+    /** Default size of the buffer, in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final byte[] buf;
+
+    /**
+     * Construct a new StatementEncoder with the default buffer size.
+     */
+    public StatementEncoder()
+    {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a new StatementEncoder.
+     * 
+     * @param bufferSize The size of the buffer, in bytes.
+     */
+    public StatementEncoder(final int bufferSize)
+    {
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("Bad buffer size: " + bufferSize);
+        }
+
+        buf = new byte[bufferSize];
+    }
+
+    /**
+     * Write a statement and a newline. Does not flush the stream.
+     * 
+     * @param out The stream.
+     * @param statement The statement, without its newline.
+     * @throws IOException If there was a problem writing.
+     */
+    public void write(final OutputStream out, final CharSequence statement)
+        throws IOException
+    {
+        int pos = encode(out, statement, 0);
+
+        if (pos == buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+
+        buf[pos++] = '\n';
+        out.write(buf, 0, pos);
+    }
+
+    /**
+     * Write a statement preceded by its length in bytes, as a four byte,
+     * big-endian integer. Does not flush the stream. A statement short enough
+     * to be encoded in the buffer whatever its characters is written in a
+     * single write; a longer one is measured first.
+     * 
+     * @param out The stream.
+     * @param statement The statement.
+     * @throws IOException If there was a problem writing.
+     */
+    public void writeFramed(final OutputStream out, final CharSequence statement)
+        throws IOException
+    {
+        final int pos;
+        if (3 * statement.length() + 8 <= buf.length) {
+            // No character encodes to more than three bytes (a surrogate pair
+            // is two characters and four bytes), so this never flushes
+            pos = encode(null, statement, 4);
+            header(pos - 4);
+        }
+        else {
+            header(length(statement));
+            pos = encode(out, statement, 4);
+        }
+
+        out.write(buf, 0, pos);
+    }
+
+    /**
+     * Encode a statement into the buffer, writing the buffer to the stream
+     * whenever it fills.
+     * 
+     * @param out The stream, or <code>null</code> if the statement is known to
+     *            fit.
+     * @param statement The statement.
+     * @param start Where in the buffer to start.
+     * @return The end of the encoded bytes still in the buffer.
+     * @throws IOException If there was a problem writing.
+     */
+    private int encode(final OutputStream out, final CharSequence statement, final int start)
+        throws IOException
+    {
+        // Room for the longest encoding of one code point
+        final int limit = buf.length - 4;
+        final int n = statement.length();
+        int pos = start;
+        int i = 0;
+        while (i < n) {
+            if (pos > limit) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+
+            // ASCII fast path
+            final int stop = Math.min(n, i + limit + 1 - pos);
+            char c;
+            while (i < stop && (c = statement.charAt(i)) < 0x80) {
+                buf[pos++] = (byte)c;
+                i++;
+            }
+
+            if (i == stop) {
+                continue;
+            }
+
+            c = statement.charAt(i++);
+            if (c < 0x800) {
+                buf[pos++] = (byte)(0xC0 | (c >> 6));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i < n && Character.isLowSurrogate(statement.charAt(i))) {
+                final int cp = Character.toCodePoint(c, statement.charAt(i++));
+                buf[pos++] = (byte)(0xF0 | (cp >> 18));
+                buf[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            }
+            else {
+                buf[pos++] = (byte)(0xE0 | (c >> 12));
+                buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * Count the bytes a statement encodes to.
+     * 
+     * @param statement The statement.
+     * @return Its length in bytes.
+     */
+    private static int length(final CharSequence statement)
+    {
+        final int n = statement.length();
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            final char c = statement.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(statement.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                length++;
+            }
+            else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Write a frame header at the start of the buffer.
+     * 
+     * @param length The length of the statement.
+     */
+    private void header(final int length)
+    {
+        buf[0] = (byte)(length >>> 24);
+        buf[1] = (byte)(length >>> 16);
+        buf[2] = (byte)(length >>> 8);
+        buf[3] = (byte)length;
+    }
+}
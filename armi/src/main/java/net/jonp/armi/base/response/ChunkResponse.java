@@ -0,0 +1,93 @@
+package net.jonp.armi.base.response;
+
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jonp.armi.base.ClassRegistry;
+
+/**
+ * One chunk of a streamed result (see {@link StreamResponse}). A chunk with no
+ * elements marks the end of the stream.
+ */
+public class ChunkResponse
+    extends Response
+{
+    private final Object[] _elements;
+
+    /**
+     * Construct a new ChunkResponse.
+     * 
+     * @param label The label of the call whose result is being streamed.
+     * @param elements The elements in this chunk, or an empty array to mark the
+     *            end of the stream.
+     */
+    public ChunkResponse(final String label, final Object[] elements)
+    {
+        super(label);
+
+        _elements = elements;
+    }
+
+    /**
+     * Get the elements in this chunk.
+     * 
+     * @return The elements. Empty at the end of the stream.
+     */
+    public Object[] getElements()
+    {
+        return _elements;
+    }
+
+    /**
+     * Test whether this chunk marks the end of the stream.
+     * 
+     * @return True if this chunk has no elements.
+     */
+    public boolean isEnd()
+    {
+        return (_elements.length == 0);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(_elements);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.jonp.armi.base.AbstractLanguageObject#toStatement(net.jonp.armi.base.ClassRegistry)
+     */
+    @Override
+    public String toStatement(final ClassRegistry registry)
+        throws NotBoundException
+    {
+        final StringBuilder buf = new StringBuilder();
+
+        buf.append("stream label \"").append(getLabel()).append("\" (");
+
+        // Back references may point to any earlier element in the chunk
+        final List<Object> indexedValues = new ArrayList<Object>();
+        boolean first = true;
+        for (final Object element : _elements) {
+            if (first) {
+                first = false;
+            }
+            else {
+                buf.append(", ");
+            }
+
+            buf.append(makeArgument(indexedValues, element, registry));
+        }
+
+        buf.append(")");
+
+        return buf.toString();
+    }
+}
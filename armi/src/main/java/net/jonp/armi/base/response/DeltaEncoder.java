@@ -0,0 +1,220 @@
+package net.jonp.armi.base.response;
+
+import java.lang.reflect.Field;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jonp.armi.base.ClassRegistry;
+
+/**
+ * Remembers the last value sent for each type and key of unsolicited response
+ * over one connection, so that later values can be sent as a
+ * {@link DeltaResponse} containing only the fields which have changed.
+ * 
+ * Fields are compared shallowly, and a field is only taken to be unchanged if
+ * both values are <code>null</code>, or both are equal strings, boxed
+ * primitives, or enum constants. Any other field (an array, collection, or
+ * other object, which might have been modified in place) is sent every time.
+ * 
+ * A snapshot (the complete value) is sent the first time a key is sent, when
+ * the class of its value changes, and after every so many patches, so that a
+ * receiver which has lost its copy recovers within a bounded number of
+ * updates. Values which are not plain objects (strings, numbers, arrays,
+ * collections, and so on) are always sent as snapshots.
+ * 
+ * The last value is remembered for at most {@link #MAX_KEYS} keys (of all
+ * types together); the least recently sent key is forgotten to make room, and
+ * its next value is sent in full. The reader forgets the same keys (see
+ * {@link ResponseParser}), so the number is fixed rather than configurable.
+ * 
+ * Not thread-safe. The sender must encode under the same lock it writes under,
+ * since the receiver applies patches in the order it reads them.
+ */
+public class DeltaEncoder
+{
+    /** Default number of patches sent between snapshots of a key. */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100;
+
+    /**
+     * The most keys whose last value is remembered, by both the encoder and the
+     * reader.
+     */
+    public static final int MAX_KEYS = 10000;
+
+    /** Remembered for a key whose next value must be sent in full. */
+    private static final Sent UNPATCHABLE = new Sent(null, null, 0);
+
+    private final int _snapshotInterval;
+
+    /** The last values sent. */
+    private final DeltaTable<Sent> sent;
+
+    /** The fields sent for each class. */
+    private final Map<Class<?>, List<Field>> fields = new HashMap<Class<?>, List<Field>>();
+
+    /**
+     * Construct a new DeltaEncoder.
+     * 
+     * @param snapshotInterval The number of patches to send for a key before
+     *            sending it in full again.
+     */
+    public DeltaEncoder(final int snapshotInterval)
+    {
+        this(snapshotInterval, MAX_KEYS);
+    }
+
+    /**
+     * Construct a new DeltaEncoder which remembers a different number of keys,
+     * for a reader which does the same.
+     * 
+     * @param snapshotInterval The number of patches to send for a key before
+     *            sending it in full again.
+     * @param maxKeys The most keys to remember.
+     */
+    DeltaEncoder(final int snapshotInterval, final int maxKeys)
+    {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("Bad snapshot interval: " + snapshotInterval);
+        }
+
+        _snapshotInterval = snapshotInterval;
+        sent = new DeltaTable<Sent>(maxKeys);
+    }
+
+    /**
+     * Get the number of patches sent for a key before sending it in full again.
+     * 
+     * @return The snapshot interval.
+     */
+    public int getSnapshotInterval()
+    {
+        return _snapshotInterval;
+    }
+
+    /**
+     * Encode an unsolicited value, and remember it as the last value sent for
+     * its type and key.
+     * 
+     * @param type The type of unsolicited response.
+     * @param key The key identifying the value within its type. Must have
+     *            meaningful {@link Object#equals(Object)} and
+     *            {@link Object#hashCode()} methods.
+     * @param value The value.
+     * @param registry The class registry.
+     * @return The statement to send.
+     * @throws NotBoundException If thrown by
+     *             {@link DeltaResponse#toStatement(ClassRegistry)}, in which
+     *             case nothing is remembered.
+     */
+    public String encode(final String type, final Object key, final Object value, final ClassRegistry registry)
+        throws NotBoundException
+    {
+        if (!isPlainObject(value)) {
+            final String statement = new DeltaResponse(type, key, value).toStatement(registry);
+            sent.record(type, key, UNPATCHABLE);
+            return statement;
+        }
+
+        final List<Field> all = fieldsOf(value.getClass());
+        final Object[] values = new Object[all.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = DeltaResponse.fieldOf(all.get(i), value);
+        }
+
+        final Sent last = sent.get(type, key);
+        final String statement;
+        final int patches;
+        if (null == last || last.clazz != value.getClass() || last.patches >= _snapshotInterval) {
+            statement = new DeltaResponse(type, key, value).toStatement(registry);
+            patches = 0;
+        }
+        else {
+            final List<Field> changed = new ArrayList<Field>();
+            for (int i = 0; i < values.length; i++) {
+                if (!isUnchanged(last.values[i], values[i])) {
+                    changed.add(all.get(i));
+                }
+            }
+
+            statement = new DeltaResponse(type, key, value, changed).toStatement(registry);
+            patches = last.patches + 1;
+        }
+
+        sent.record(type, key, new Sent(value.getClass(), values, patches));
+        return statement;
+    }
+
+    /**
+     * Forget the last value sent for a type and key, so that the next value
+     * is sent in full.
+     * 
+     * @param type The type of unsolicited response.
+     * @param key The key.
+     */
+    public void forget(final String type, final Object key)
+    {
+        // Kept, so that the encoder still forgets the same keys as the reader
+        sent.replace(type, key, UNPATCHABLE);
+    }
+
+    private List<Field> fieldsOf(final Class<?> clazz)
+    {
+        List<Field> list = fields.get(clazz);
+        if (null == list) {
+            list = DeltaResponse.fieldsOf(clazz);
+            fields.put(clazz, list);
+        }
+
+        return list;
+    }
+
+    /**
+     * Test whether a value is sent as a list of fields.
+     */
+    private static boolean isPlainObject(final Object value)
+    {
+        return !(null == value || value instanceof Number || value instanceof CharSequence ||
+                 value instanceof Boolean || value instanceof Character || value instanceof Enum<?> ||
+                 value instanceof Collection<?> || value instanceof Map<?, ?> || value.getClass().isArray());
+    }
+
+    /**
+     * Test whether a field is certainly unchanged.
+     */
+    private static boolean isUnchanged(final Object last, final Object current)
+    {
+        if (null == last || null == current) {
+            return (last == current);
+        }
+        else if (last instanceof String || last instanceof Integer || last instanceof Long ||
+                 last instanceof Double || last instanceof Boolean || last instanceof Float ||
+                 last instanceof Short || last instanceof Byte || last instanceof Character ||
+                 last instanceof Enum<?>) {
+            return last.equals(current);
+        }
+        else {
+            return false;
+        }
+    }
+
+    /**
+     * The last value sent for a key.
+     */
+    private static class Sent
+    {
+        final Class<?> clazz;
+        final Object[] values;
+        final int patches;
+
+        Sent(final Class<?> _clazz, final Object[] _values, final int _patches)
+        {
+            clazz = _clazz;
+            values = _values;
+            patches = _patches;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package net.jonp.armi.base.response;
+
+import java.lang.reflect.Field;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jonp.armi.base.ClassRegistry;
+
+/**
+ * An unsolicited response for a keyed object, sent either in full (a snapshot)
+ * or as only those fields which have changed since the last one sent for the
+ * same type and key (a patch). See {@link DeltaEncoder}.
+ * 
+ * A {@link ResponseParser} applies a patch to its copy of the last value for
+ * the type and key, and returns an ordinary {@link UnsolicitedResponse}
+ * containing the result, so a DeltaResponse is never read back.
+ */
+public class DeltaResponse
+    extends Response
+{
+    private final String _type;
+    private final Object _key;
+    private final Object _value;
+    private final List<Field> _changed;
+
+    /**
+     * Construct a new snapshot DeltaResponse.
+     * 
+     * @param type The type of unsolicited response.
+     * @param key The key identifying the object within its type.
+     * @param value The value, sent in full.
+     */
+    public DeltaResponse(final String type, final Object key, final Object value)
+    {
+        this(type, key, value, null);
+    }
+
+    /**
+     * Construct a new DeltaResponse.
+     * 
+     * @param type The type of unsolicited response.
+     * @param key The key identifying the object within its type.
+     * @param value The value.
+     * @param changed The fields of the value to send, from
+     *            {@link #fieldsOf(Class)}; or <code>null</code> to send the
+     *            value in full.
+     */
+    DeltaResponse(final String type, final Object key, final Object value, final List<Field> changed)
+    {
+        super(null);
+
+        _type = type;
+        _key = key;
+        _value = value;
+        _changed = changed;
+    }
+
+    /**
+     * Get the type of unsolicited response.
+     * 
+     * @return The type.
+     */
+    public String getType()
+    {
+        return _type;
+    }
+
+    /**
+     * Get the key identifying the object within its type.
+     * 
+     * @return The key.
+     */
+    public Object getKey()
+    {
+        return _key;
+    }
+
+    /**
+     * Get the value.
+     * 
+     * @return The complete value, even if only some of its fields are sent.
+     */
+    public Object getValue()
+    {
+        return _value;
+    }
+
+    /**
+     * Test whether the value is sent in full.
+     * 
+     * @return True for a snapshot, false for a patch.
+     */
+    public boolean isSnapshot()
+    {
+        return (null == _changed);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s](%s)", getType(), getKey(), getValue());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.jonp.armi.base.AbstractLanguageObject#toStatement(net.jonp.armi.base.ClassRegistry)
+     */
+    @Override
+    public String toStatement(final ClassRegistry registry)
+        throws NotBoundException
+    {
+        final StringBuilder buf = new StringBuilder();
+
+        buf.append("delta (").append(getType()).append(", ");
+
+        // Back references may point into the key
+        final List<Object> indexedValues = new ArrayList<Object>();
+        buf.append(makeArgument(indexedValues, getKey(), registry)).append(", ");
+
+        if (isSnapshot()) {
+            buf.append(makeArgument(indexedValues, getValue(), registry));
+        }
+        else {
+            // The patched object takes the place of the value, as it would if
+            // it had been sent in full
+            indexedValues.add(getValue());
+
+            buf.append("(");
+            boolean first = true;
+            for (final Field field : _changed) {
+                if (first) {
+                    first = false;
+                }
+                else {
+                    buf.append(", ");
+                }
+
+                buf.append(field.getDeclaringClass().getName()).append(".").append(field.getName());
+                buf.append(" = ").append(makeArgument(indexedValues, getField(field, getValue()), registry));
+            }
+            buf.append(")");
+        }
+
+        buf.append(")");
+
+        return buf.toString();
+    }
+
+    /**
+     * Get the fields that are sent for an instance of a class.
+     * 
+     * @param clazz The class.
+     * @return The fields, in the order they are sent.
+     */
+    static List<Field> fieldsOf(final Class<?> clazz)
+    {
+        return getFields(clazz);
+    }
+
+    /**
+     * Read a field returned by {@link #fieldsOf(Class)}.
+     * 
+     * @param field The field.
+     * @param instance The object whose field to read.
+     * @return The value of the field.
+     */
+    static Object fieldOf(final Field field, final Object instance)
+    {
+        return getField(field, instance);
+    }
+}
@@ -0,0 +1,117 @@
+package net.jonp.armi.base.response;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Something remembered for each type and key of {@link DeltaResponse} sent
+ * over one connection, kept by both ends: by the {@link DeltaEncoder} writing
+ * the deltas, and by the {@link ResponseParser} reading them.
+ * 
+ * At most a fixed number of keys are kept; recording another discards the key
+ * least recently recorded. Both ends record every delta statement, in the
+ * order it is written (and so read), and must be given the same maximum, so
+ * they always discard the same keys. The encoder sends a snapshot the next
+ * time it sends a key it has discarded, so the reader never needs one it has
+ * discarded.
+ * 
+ * Not thread-safe.
+ * 
+ * @param <V> The type of value remembered.
+ */
+class DeltaTable<V>
+{
+    private final int _maxKeys;
+
+    /** The values, least recently recorded first. */
+    private final LinkedHashMap<Key, V> values = new LinkedHashMap<Key, V>();
+
+    /**
+     * Construct a new DeltaTable.
+     * 
+     * @param maxKeys The most keys to keep.
+     */
+    DeltaTable(final int maxKeys)
+    {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("Bad maximum keys: " + maxKeys);
+        }
+
+        _maxKeys = maxKeys;
+    }
+
+    /**
+     * Get the value remembered for a type and key.
+     * 
+     * @return The value, or <code>null</code> if there is none.
+     */
+    V get(final String type, final Object key)
+    {
+        return values.get(new Key(type, key));
+    }
+
+    /**
+     * Record a delta statement for a type and key, making it the most recently
+     * recorded key, and discarding the least recently recorded key if there
+     * are too many.
+     * 
+     * @param value The value to remember; may be <code>null</code>.
+     */
+    void record(final String type, final Object key, final V value)
+    {
+        final Key k = new Key(type, key);
+        values.remove(k);
+        values.put(k, value);
+
+        if (values.size() > _maxKeys) {
+            final Iterator<Key> eldest = values.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Replace the value remembered for a type and key, if it is kept, without
+     * changing the order in which keys are discarded. Used when nothing is
+     * sent, so the other end records nothing.
+     */
+    void replace(final String type, final Object key, final V value)
+    {
+        final Key k = new Key(type, key);
+        if (values.containsKey(k)) {
+            values.put(k, value);
+        }
+    }
+
+    /**
+     * A type and key.
+     */
+    private static class Key
+    {
+        final String type;
+        final Object key;
+
+        Key(final String _type, final Object _key)
+        {
+            type = _type;
+            key = _key;
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            final Key rhs = (Key)obj;
+            return (type.equals(rhs.type) && (null == key ? null == rhs.key : key.equals(rhs.key)));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * type.hashCode() + (null == key ? 0 : key.hashCode());
+        }
+    }
+}
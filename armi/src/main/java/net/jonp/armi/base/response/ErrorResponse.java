@@ -35,6 +35,17 @@ public class ErrorResponse
         return _exception;
     }
 
+    /**
+     * Make a copy of this response with another label.
+     * 
+     * @param label The label of the copy, or <code>null</code>.
+     * @return The copy.
+     */
+    public ErrorResponse withLabel(final String label)
+    {
+        return new ErrorResponse(label, _exception);
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,85 @@
+package net.jonp.armi.base.response;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+
+/**
+ * The undecoded text of a value, which is parsed the first time it is needed.
+ * Values are decoded by a parser kept for each thread, and reused for as long
+ * as the thread decodes values with the same class registry.
+ */
+class LazyValue
+{
+    /** The parser of each thread, absent while it is in use. */
+    private static final ThreadLocal<ResponseParser> PARSERS = new ThreadLocal<ResponseParser>();
+
+    private final String _text;
+    private final ClassRegistry _registry;
+
+    private boolean decoded = false;
+    private Object value = null;
+
+    /**
+     * Construct a new LazyValue.
+     * 
+     * @param text The text of the value.
+     * @param registry The class registry to use when decoding the value.
+     */
+    LazyValue(final String text, final ClassRegistry registry)
+    {
+        _text = text;
+        _registry = registry;
+    }
+
+    /**
+     * Get the text of the value.
+     * 
+     * @return The text, exactly as it appeared in the statement.
+     */
+    String getText()
+    {
+        return _text;
+    }
+
+    /**
+     * Test whether the value has been decoded.
+     * 
+     * @return True if {@link #get()} has been called successfully.
+     */
+    synchronized boolean isDecoded()
+    {
+        return decoded;
+    }
+
+    /**
+     * Get the value, decoding it if this is the first call.
+     * 
+     * @return The value.
+     * @throws SyntaxException If the value could not be decoded.
+     */
+    synchronized Object get()
+        throws SyntaxException
+    {
+        if (!decoded) {
+            // Taken while in use, in case decoding somehow decodes another value
+            ResponseParser parser = PARSERS.get();
+            if (null == parser || parser.getClassRegistry() != _registry) {
+                parser = new ResponseParser(_registry);
+            }
+            else {
+                PARSERS.remove();
+            }
+
+            try {
+                value = parser.parseValue(_text);
+            }
+            finally {
+                PARSERS.set(parser);
+            }
+
+            decoded = true;
+        }
+
+        return value;
+    }
+}
@@ -2,6 +2,7 @@ package net.jonp.armi.base.response;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import net.jonp.armi.ARMIParser;
 import net.jonp.armi.base.AbstractParser;
@@ -14,10 +15,32 @@ import org.antlr.runtime.tree.CommonTree;
 
 /**
  * Parses command responses into {@link Response} objects.
+ * 
+ * In lazy mode (see {@link #setLazy(boolean)}), value and unsolicited
+ * responses are only scanned far enough to find their label or type and the
+ * extent of their value; the value itself is parsed on the first call to
+ * {@link ValueResponse#getValue()} or {@link UnsolicitedResponse#getValue()}.
+ * Consumers which only look at the label or type, or which pass the response
+ * on without looking at it, never pay for decoding. A malformed value is not
+ * detected until it is decoded.
+ * 
+ * A {@link DeltaResponse} is returned as an {@link UnsolicitedResponse}
+ * holding the complete value: the parser keeps the last value read for each
+ * type and key, and a patch is applied to a copy of it (earlier values are
+ * never modified, so listeners may keep them). A patch for a key with no
+ * snapshot (for example, if an earlier statement could not be parsed) is a
+ * {@link SyntaxException}; the next snapshot for that key recovers it. Values
+ * are kept for as many keys as the sender keeps (see
+ * {@link DeltaEncoder#MAX_KEYS}), and the same keys are forgotten.
  */
 public class ResponseParser
     extends AbstractParser
 {
+    private boolean lazy = false;
+
+    /** The last value read from a {@link DeltaResponse}, by type and key. */
+    private DeltaTable<Object> deltas = new DeltaTable<Object>(DeltaEncoder.MAX_KEYS);
+
     /**
      * Parses responses to commands.
      * 
@@ -33,6 +56,41 @@ public class ResponseParser
         super(in, _registry);
     }
 
+    /**
+     * Construct a ResponseParser which does not read from a stream, and only
+     * parses statements handed to {@link #parseResponse(ByteBuffer)} (or
+     * values handed to {@link #parseValue(String)}).
+     * 
+     * @param _registry The class registry for looking up instance classes from
+     *            command language names.
+     */
+    public ResponseParser(final ClassRegistry _registry)
+    {
+        super(_registry);
+    }
+
+    /**
+     * Test whether this parser defers decoding values.
+     * 
+     * @return True if in lazy mode.
+     */
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
+    /**
+     * Set whether this parser defers decoding values until they are needed.
+     * Error responses are always decoded immediately.
+     * 
+     * @param _lazy True to defer decoding, false to decode each response
+     *            completely as it is read (the default).
+     */
+    public void setLazy(final boolean _lazy)
+    {
+        lazy = _lazy;
+    }
+
     /**
      * Read the next response.
      * 
@@ -43,8 +101,56 @@ public class ResponseParser
     public Response readNextResponse()
         throws IOException, SyntaxException
     {
-        parserSetup();
+        final String statement = readStatement();
+        if (lazy) {
+            final Response response = scan(statement);
+            if (null != response) {
+                return response;
+            }
+        }
+
+        parserSetup(statement);
+        return response();
+    }
 
+    /**
+     * Parse one response from a buffer, such as one received by a
+     * non-blocking transport, without copying it into a {@link String} first.
+     * In lazy mode, the statement is decoded into a string so that its value
+     * can be kept for later.
+     * 
+     * @param statement The UTF-8 encoded statement, from its position to its
+     *            limit. Its position is not changed.
+     * @return The response, or <code>null</code> if the statement is blank.
+     * @throws IOException If the statement could not be decoded by the
+     *             dictionary.
+     * @throws SyntaxException If there was a problem parsing the response.
+     */
+    public Response parseResponse(final ByteBuffer statement)
+        throws IOException, SyntaxException
+    {
+        if (lazy) {
+            final String text = decodeStatement(statement);
+            final Response response = scan(text);
+            if (null != response) {
+                return response;
+            }
+
+            parserSetup(text);
+        }
+        else {
+            parserSetup(statement);
+        }
+
+        return response();
+    }
+
+    /**
+     * Parse the response the parser has been set up to read.
+     */
+    private Response response()
+        throws SyntaxException
+    {
         final ARMIParser.response_return r;
         try {
             r = parser.response();
@@ -57,6 +163,109 @@ public class ResponseParser
         return generalResponse(ast);
     }
 
+    /**
+     * Decode a single value.
+     * 
+     * @param text The text of the value.
+     * @return The value.
+     * @throws SyntaxException If there was a problem parsing the value.
+     */
+    Object parseValue(final String text)
+        throws SyntaxException
+    {
+        parserSetup(text);
+
+        try {
+            final ARMIParser.val_return r;
+            try {
+                r = parser.val();
+            }
+            catch (final RecognitionException re) {
+                throw new SyntaxException("Error parsing value: " + re.getMessage(), re);
+            }
+
+            return val((CommonTree)r.getTree());
+        }
+        finally {
+            // The parser may be kept to decode other values; don't keep this one
+            indexedValues.clear();
+        }
+    }
+
+    /**
+     * Scan the top-level structure of a value or unsolicited response, without
+     * decoding its value.
+     * 
+     * @param statement The statement.
+     * @return The response, or <code>null</code> if it is not a well-formed
+     *         value or unsolicited response, in which case it should be
+     *         parsed normally.
+     */
+    private Response scan(final String statement)
+    {
+        final StatementScanner scanner = new StatementScanner(statement);
+        if (scanner.keyword("response")) {
+            String label = null;
+            if (scanner.keyword("label")) {
+                label = scanner.string();
+                if (null == label) {
+                    return null;
+                }
+            }
+
+            if (!scanner.expect('(')) {
+                return null;
+            }
+
+            final String value = scanValue(statement, scanner);
+            if (null == value) {
+                return null;
+            }
+
+            return new ValueResponse(label, new LazyValue(value, registry));
+        }
+        else if (scanner.keyword("unsol")) {
+            if (!scanner.expect('(')) {
+                return null;
+            }
+
+            final String type = scanner.ident();
+            if (null == type || !scanner.expect(',')) {
+                return null;
+            }
+
+            final String value = scanValue(statement, scanner);
+            if (null == value) {
+                return null;
+            }
+
+            return new UnsolicitedResponse(type, new LazyValue(value, registry));
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Scan a value followed by the close parenthesis that ends the statement.
+     * 
+     * @param statement The statement.
+     * @param scanner The scanner, positioned just before the value.
+     * @return The text of the value, or <code>null</code> if it is malformed.
+     */
+    private String scanValue(final String statement, final StatementScanner scanner)
+    {
+        scanner.skipSpace();
+        final int start = scanner.position();
+        final int end = scanner.value();
+        if (end < 0 || !scanner.expect(')') || !scanner.atEnd()) {
+            return null;
+        }
+
+        final String value = statement.substring(start, end).trim();
+        return (value.isEmpty() ? null : value);
+    }
+
     /**
      * Parse the tree from a top-level response.
      * 
@@ -74,12 +283,17 @@ public class ResponseParser
                 return error(ast);
             case ARMIParser.UNSOLICITED:
                 return unsolicited(ast);
+            case ARMIParser.STREAM:
+                return chunk(ast);
+            case ARMIParser.DELTA:
+                return delta(ast);
             default:
                 if (ast.getType() == 0) {
                     return null;
                 }
                 else {
-                    throw new SyntaxException("Root of response is not RESPONSE or ERROR: " + ast.getType());
+                    throw new SyntaxException("Root of response is not RESPONSE, ERROR, UNSOLICITED, STREAM, " +
+                                              "or DELTA: " + ast.getType());
                 }
         }
     }
@@ -183,4 +397,88 @@ public class ResponseParser
 
         return new UnsolicitedResponse(Conversion.arrayToString(path, "."), value);
     }
+
+    /**
+     * Parse the tree from a Stream chunk.
+     * 
+     * @param ast The tree.
+     * @return The ChunkResponse object.
+     * @throws SyntaxException If there was a problem parsing the tree.
+     */
+    private ChunkResponse chunk(final CommonTree ast)
+        throws SyntaxException
+    {
+        if (ast.getType() != ARMIParser.STREAM) {
+            throw new SyntaxException("Root of stream chunk is not STREAM: " + ast.getType());
+        }
+
+        if (!"stream".equals(ast.getChild(0).getText())) {
+            throw new SyntaxException("Unrecognized response: " + ast.getChild(0).getText());
+        }
+
+        final String label = label((CommonTree)ast.getChild(1));
+        final Object[] elements = elements(Object.class, false, (CommonTree)ast.getChild(2));
+
+        return new ChunkResponse(label, elements);
+    }
+
+    /**
+     * Remember the last value of a different number of keys, to match a
+     * {@link DeltaEncoder} which does the same. Forgets every value.
+     * 
+     * @param maxKeys The most keys to remember.
+     */
+    void setMaxDeltaKeys(final int maxKeys)
+    {
+        deltas = new DeltaTable<Object>(maxKeys);
+    }
+
+    /**
+     * Parse the tree from a Delta response, and apply it to the last value
+     * read for its type and key.
+     * 
+     * @param ast The tree.
+     * @return An UnsolicitedResponse holding the complete value.
+     * @throws SyntaxException If there was a problem parsing the tree, or it
+     *             is a patch to a key with no value.
+     */
+    private UnsolicitedResponse delta(final CommonTree ast)
+        throws SyntaxException
+    {
+        if (ast.getType() != ARMIParser.DELTA) {
+            throw new SyntaxException("Root of delta response is not DELTA: " + ast.getType());
+        }
+
+        if (!"delta".equals(ast.getChild(0).getText())) {
+            throw new SyntaxException("Unrecognized response: " + ast.getChild(0).getText());
+        }
+
+        final String type = Conversion.arrayToString(ident((CommonTree)ast.getChild(1)), ".");
+        final Object key = val((CommonTree)ast.getChild(2));
+        final CommonTree body = (CommonTree)ast.getChild(3);
+
+        final Object value;
+        try {
+            if (body.getType() == ARMIParser.FIELDS) {
+                final Object previous = deltas.get(type, key);
+                if (null == previous) {
+                    throw new SyntaxException("No value of " + type + " for key " + key + " to apply a delta to");
+                }
+
+                value = patchObject(previous, body);
+            }
+            else {
+                value = val(body);
+            }
+        }
+        catch (final SyntaxException se) {
+            // Still recorded, so that the same keys are forgotten as by the
+            // sender
+            deltas.record(type, key, null);
+            throw se;
+        }
+
+        deltas.record(type, key, value);
+        return new UnsolicitedResponse(type, value);
+    }
 }
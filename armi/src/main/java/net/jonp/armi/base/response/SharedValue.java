@@ -0,0 +1,107 @@
+package net.jonp.armi.base.response;
+
+import java.util.concurrent.ConcurrentMap;
+
+import net.jonp.armi.base.ClassRegistry;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * A value which may be sent in many responses, such as a cached result. It is
+ * encoded once for each class registry it is sent with (registries are
+ * compared by identity, and forgotten once they are no longer used), and the
+ * encoding is reused from then on. The value must therefore not be modified
+ * once it is shared.
+ * 
+ * A value made by {@link #share(Object)} can also be found again from the
+ * object it holds (see {@link #forValue(Object)}), so that a method can return
+ * the plain object and still have it sent as a shared value.
+ */
+public class SharedValue
+{
+    /**
+     * The values made by {@link #share(Object)}, by the identity of the object
+     * each holds; kept only while the SharedValue is in use.
+     */
+    private static final ConcurrentMap<Object, SharedValue> SHARED = new MapMaker().weakKeys().weakValues().makeMap();
+
+    private final Object _value;
+
+    /** The encoding of the value made with each registry. */
+    private final ConcurrentMap<ClassRegistry, String> texts = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Construct a new SharedValue.
+     * 
+     * @param value The value. Must not be modified after this.
+     */
+    public SharedValue(final Object value)
+    {
+        _value = value;
+    }
+
+    /**
+     * Make a new SharedValue which may be found again from its value, for as
+     * long as the SharedValue is referenced.
+     * 
+     * @param value The value. Must not be modified after this.
+     * @return The shared value.
+     */
+    public static SharedValue share(final Object value)
+    {
+        final SharedValue shared = new SharedValue(value);
+        SHARED.put(value, shared);
+        return shared;
+    }
+
+    /**
+     * Find the SharedValue made by {@link #share(Object)} which holds the
+     * given object (compared by identity).
+     * 
+     * @param value The object.
+     * @return The shared value, or <code>null</code> if the object is not
+     *         shared.
+     */
+    public static SharedValue forValue(final Object value)
+    {
+        if (null == value) {
+            return null;
+        }
+
+        return SHARED.get(value);
+    }
+
+    /**
+     * Get the value.
+     * 
+     * @return The value.
+     */
+    public Object getValue()
+    {
+        return _value;
+    }
+
+    /**
+     * Get the encoding of the value made with the given registry, if there is
+     * one.
+     * 
+     * @param registry The class registry.
+     * @return The encoded value, or <code>null</code> if it has not been
+     *         encoded with that registry.
+     */
+    String getText(final ClassRegistry registry)
+    {
+        return texts.get(registry);
+    }
+
+    /**
+     * Remember the encoding of the value.
+     * 
+     * @param registry The class registry used to encode it.
+     * @param text The encoded value.
+     */
+    void setText(final ClassRegistry registry, final String text)
+    {
+        texts.put(registry, text);
+    }
+}
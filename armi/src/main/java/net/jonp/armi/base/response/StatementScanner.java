@@ -0,0 +1,216 @@
+package net.jonp.armi.base.response;
+
+/**
+ * A minimal scanner for the top-level structure of a statement, used by
+ * {@link ResponseParser} in lazy mode to find the label (or type) and the
+ * extent of the value without lexing the value itself.
+ */
+class StatementScanner
+{
+    private final String _text;
+    private int pos = 0;
+
+    /**
+     * Construct a new StatementScanner.
+     * 
+     * @param text The statement.
+     */
+    StatementScanner(final String text)
+    {
+        _text = text;
+    }
+
+    /**
+     * Get the current position.
+     * 
+     * @return The index of the next character to be scanned.
+     */
+    int position()
+    {
+        return pos;
+    }
+
+    /**
+     * Skip whitespace and comments.
+     */
+    void skipSpace()
+    {
+        while (pos < _text.length()) {
+            final char c = _text.charAt(pos);
+            if (c == '#') {
+                pos = _text.length();
+            }
+            else if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                pos++;
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Consume a keyword, if it is next.
+     * 
+     * @param word The keyword.
+     * @return True if the keyword was next (and has been consumed).
+     */
+    boolean keyword(final String word)
+    {
+        skipSpace();
+        final int end = pos + word.length();
+        if (_text.startsWith(word, pos) && (end >= _text.length() || !isAtomChar(_text.charAt(end)))) {
+            pos = end;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Consume a punctuation character, if it is next.
+     * 
+     * @param c The character.
+     * @return True if the character was next (and has been consumed).
+     */
+    boolean expect(final char c)
+    {
+        skipSpace();
+        if (pos < _text.length() && _text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Consume a quoted string.
+     * 
+     * @return The unescaped contents of the string, or <code>null</code> if a
+     *         string is not next.
+     */
+    String string()
+    {
+        skipSpace();
+        if (pos >= _text.length() || _text.charAt(pos) != '"') {
+            return null;
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        for (int i = pos + 1; i < _text.length(); i++) {
+            final char c = _text.charAt(i);
+            if (c == '\\' && i + 1 < _text.length()) {
+                buf.append(_text.charAt(++i));
+            }
+            else if (c == '"') {
+                pos = i + 1;
+                return buf.toString();
+            }
+            else {
+                buf.append(c);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Consume a dotted identifier.
+     * 
+     * @return The identifier, without any whitespace, or <code>null</code> if
+     *         an identifier is not next.
+     */
+    String ident()
+    {
+        final StringBuilder buf = new StringBuilder();
+        while (true) {
+            skipSpace();
+            final int start = pos;
+            if (pos >= _text.length() || !isAtomStart(_text.charAt(pos))) {
+                return null;
+            }
+
+            while (pos < _text.length() && isAtomChar(_text.charAt(pos))) {
+                pos++;
+            }
+
+            buf.append(_text, start, pos);
+
+            final int mark = pos;
+            if (expect('.')) {
+                buf.append('.');
+            }
+            else {
+                pos = mark;
+                return buf.toString();
+            }
+        }
+    }
+
+    /**
+     * Consume a value, up to but not including the first close parenthesis
+     * that does not belong to it.
+     * 
+     * @return The index just past the end of the value, or -1 if it is not
+     *         properly closed.
+     */
+    int value()
+    {
+        int depth = 0;
+        boolean inString = false;
+        for (; pos < _text.length(); pos++) {
+            final char c = _text.charAt(pos);
+            if (inString) {
+                if (c == '\\') {
+                    pos++;
+                }
+                else if (c == '"') {
+                    inString = false;
+                }
+            }
+            else if (c == '"') {
+                inString = true;
+            }
+            else if (c == '#') {
+                return -1;
+            }
+            else if (c == '(' || c == '[') {
+                depth++;
+            }
+            else if (c == ']') {
+                depth--;
+            }
+            else if (c == ')') {
+                if (depth == 0) {
+                    return pos;
+                }
+
+                depth--;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Test whether the rest of the statement is empty.
+     * 
+     * @return True if only whitespace and comments remain.
+     */
+    boolean atEnd()
+    {
+        skipSpace();
+        return pos >= _text.length();
+    }
+
+    private static boolean isAtomStart(final char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '$' || c == '_';
+    }
+
+    private static boolean isAtomChar(final char c)
+    {
+        return isAtomStart(c) || (c >= '0' && c <= '9');
+    }
+}
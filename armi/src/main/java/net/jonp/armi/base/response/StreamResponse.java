@@ -0,0 +1,159 @@
+package net.jonp.armi.base.response;
+
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.jonp.armi.base.ClassRegistry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A result which is sent as a series of {@link ChunkResponse}s, ending with an
+ * empty chunk, rather than as a single {@link ValueResponse}. The elements are
+ * pulled from an {@link Iterator} one chunk at a time, as each chunk is sent,
+ * so the whole result never needs to be held in memory. If the iterator throws
+ * an exception, the stream ends with an {@link ErrorResponse} instead.
+ * 
+ * Communicators which know about streams send one chunk at a time (see
+ * {@link #nextChunk()}); others will send the whole result at once, through
+ * {@link #toStatement(ClassRegistry)}.
+ */
+public class StreamResponse
+    extends Response
+{
+    private static final Logger LOG = Logger.getLogger(StreamResponse.class);
+
+    /** Default maximum number of elements in each chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private final Iterator<?> _iterator;
+    private final int _chunkSize;
+    private boolean done = false;
+    private ErrorResponse error = null;
+
+    /**
+     * Construct a new StreamResponse with the default chunk size (
+     * {@link #DEFAULT_CHUNK_SIZE}).
+     * 
+     * @param label The label of the call whose result is being streamed. Must
+     *            not be <code>null</code>.
+     * @param iterator The elements to send.
+     */
+    public StreamResponse(final String label, final Iterator<?> iterator)
+    {
+        this(label, iterator, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Construct a new StreamResponse.
+     * 
+     * @param label The label of the call whose result is being streamed. Must
+     *            not be <code>null</code>.
+     * @param iterator The elements to send.
+     * @param chunkSize The maximum number of elements to send in each chunk.
+     */
+    public StreamResponse(final String label, final Iterator<?> iterator, final int chunkSize)
+    {
+        super(label);
+
+        if (null == label) {
+            throw new NullPointerException("Streamed results must have a label");
+        }
+
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        _iterator = iterator;
+        _chunkSize = chunkSize;
+    }
+
+    /**
+     * Get the maximum number of elements in each chunk.
+     * 
+     * @return The chunk size.
+     */
+    public int getChunkSize()
+    {
+        return _chunkSize;
+    }
+
+    /**
+     * Pull the next chunk of elements from the iterator.
+     * 
+     * @return The next {@link ChunkResponse} (which is empty at the end of the
+     *         stream), an {@link ErrorResponse} if the iterator threw an
+     *         exception, or <code>null</code> once either has been returned.
+     */
+    public synchronized Response nextChunk()
+    {
+        if (done) {
+            return null;
+        }
+        else if (null != error) {
+            done = true;
+            return error;
+        }
+
+        final List<Object> elements = new ArrayList<Object>(_chunkSize);
+        try {
+            while (elements.size() < _chunkSize && _iterator.hasNext()) {
+                elements.add(_iterator.next());
+            }
+        }
+        catch (final RuntimeException re) {
+            LOG.warn("Exception streaming result labeled " + getLabel(), re);
+            error = new ErrorResponse(getLabel(), re);
+
+            // Send the elements that were pulled before the exception first
+            if (elements.isEmpty()) {
+                done = true;
+                return error;
+            }
+        }
+
+        if (elements.isEmpty()) {
+            done = true;
+        }
+
+        return new ChunkResponse(getLabel(), elements.toArray());
+    }
+
+    /**
+     * Abandon the stream. Further calls to {@link #nextChunk()} will return
+     * <code>null</code>.
+     */
+    public synchronized void abandon()
+    {
+        done = true;
+    }
+
+    /**
+     * Convert the rest of the stream into statements, one per line. This pulls
+     * every remaining element from the iterator, so it should only be used by
+     * communicators which cannot send one chunk at a time.
+     * 
+     * @param registry The ClassRegistry to use when building the statements.
+     * @return The statements, separated by newlines.
+     * @throws NotBoundException If an element's class is not in the registry.
+     */
+    @Override
+    public String toStatement(final ClassRegistry registry)
+        throws NotBoundException
+    {
+        final StringBuilder buf = new StringBuilder();
+
+        Response chunk;
+        while (null != (chunk = nextChunk())) {
+            if (buf.length() > 0) {
+                buf.append("\n");
+            }
+
+            buf.append(chunk.toStatement(registry));
+        }
+
+        return buf.toString();
+    }
+}
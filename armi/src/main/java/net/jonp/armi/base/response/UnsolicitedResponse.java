@@ -3,6 +3,7 @@ package net.jonp.armi.base.response;
 import java.rmi.NotBoundException;
 
 import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
 
 /**
  * Represents an Unsolicited message from the party that usually responds to
@@ -13,6 +14,7 @@ public class UnsolicitedResponse
 {
     private final String type;
     private final Object value;
+    private final LazyValue lazy;
 
     /**
      * Construct a new Unsolicited response. Unsolicited messages are not
@@ -27,6 +29,23 @@ public class UnsolicitedResponse
 
         type = _type;
         value = _value;
+        lazy = null;
+    }
+
+    /**
+     * Construct a new UnsolicitedResponse whose value has not been decoded
+     * yet.
+     * 
+     * @param _type The type of response.
+     * @param _lazy The undecoded value.
+     */
+    UnsolicitedResponse(final String _type, final LazyValue _lazy)
+    {
+        super(null);
+
+        type = _type;
+        value = null;
+        lazy = _lazy;
     }
 
     /**
@@ -43,10 +62,42 @@ public class UnsolicitedResponse
      * Get the value contained in this usnolicited response.
      * 
      * @return The value.
+     * @throws IllegalStateException If the value was read lazily, and could
+     *             not be decoded (see {@link #decodeValue()}).
      */
     public Object getValue()
     {
-        return value;
+        try {
+            return decodeValue();
+        }
+        catch (final SyntaxException se) {
+            throw new IllegalStateException("Failed to decode value: " + se.getMessage(), se);
+        }
+    }
+
+    /**
+     * Get the value, reporting a failure to decode it as a checked exception.
+     * 
+     * @return The value.
+     * @throws SyntaxException If the value was read lazily, and could not be
+     *             decoded.
+     */
+    public Object decodeValue()
+        throws SyntaxException
+    {
+        return (null == lazy ? value : lazy.get());
+    }
+
+    /**
+     * Test whether the value has been decoded. Values are only ever undecoded
+     * when read by a {@link ResponseParser} in lazy mode, and are decoded by
+     * the first call to {@link #getValue()}.
+     * 
+     * @return True if the value has been decoded.
+     */
+    public boolean isDecoded()
+    {
+        return (null == lazy || lazy.isDecoded());
     }
 
     @Override
@@ -68,8 +119,28 @@ public class UnsolicitedResponse
     {
         final StringBuilder buf = new StringBuilder();
 
-        buf.append("unsol (").append(getType()).append(", ").append(makeArgument(getValue(), registry)).append(")");
+        buf.append("unsol (").append(getType()).append(", ").append(encodeValue(registry)).append(")");
 
         return buf.toString();
     }
+
+    /**
+     * Encode the value. If it has not been decoded, its original text is
+     * reused as-is, so relaying a lazily read response never decodes it (this
+     * assumes the registry maps class names the same way as the one it was
+     * read with).
+     * 
+     * @param registry The class registry.
+     * @return The value, in the command/response language.
+     * @throws NotBoundException If thrown by {@link #makeArgument(Object, ClassRegistry)}.
+     */
+    private String encodeValue(final ClassRegistry registry)
+        throws NotBoundException
+    {
+        if (null != lazy && !lazy.isDecoded()) {
+            return lazy.getText();
+        }
+
+        return makeArgument(getValue(), registry);
+    }
 }
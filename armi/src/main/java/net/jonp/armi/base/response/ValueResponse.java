@@ -4,6 +4,7 @@ import java.rmi.NotBoundException;
 
 import net.jonp.armi.base.ClassRegistry;
 import net.jonp.armi.base.Conversion;
+import net.jonp.armi.base.SyntaxException;
 
 /**
  * Represents a value returned by a response.
@@ -12,6 +13,8 @@ public class ValueResponse
     extends Response
 {
     private final Object value;
+    private final LazyValue lazy;
+    private final SharedValue shared;
 
     /**
      * Construct a new Value.
@@ -24,16 +27,120 @@ public class ValueResponse
         super(_label);
 
         value = _value;
+        lazy = null;
+        shared = null;
+    }
+
+    /**
+     * Construct a new Value carrying a shared value. Private, so that passing a
+     * {@link SharedValue} (or a literal <code>null</code>) to the public
+     * constructor always sends it as an ordinary value; use
+     * {@link #shared(String, SharedValue)} to share its encoding.
+     * 
+     * @param _label The label, or <code>null</code>.
+     * @param _shared The value.
+     */
+    private ValueResponse(final String _label, final SharedValue _shared)
+    {
+        super(_label);
+
+        value = _shared.getValue();
+        lazy = null;
+        shared = _shared;
+    }
+
+    /**
+     * Construct a new Value whose value has not been decoded yet.
+     * 
+     * @param _label The label, or <code>null</code>.
+     * @param _lazy The undecoded value.
+     */
+    ValueResponse(final String _label, final LazyValue _lazy)
+    {
+        super(_label);
+
+        value = null;
+        lazy = _lazy;
+        shared = null;
+    }
+
+    /**
+     * Make a new Value carrying a shared value, whose encoding is reused by
+     * every response which carries it.
+     * 
+     * @param label The label, or <code>null</code>.
+     * @param shared The value.
+     * @return The response.
+     */
+    public static ValueResponse shared(final String label, final SharedValue shared)
+    {
+        if (null == shared) {
+            throw new NullPointerException("shared");
+        }
+
+        return new ValueResponse(label, shared);
     }
 
     /**
      * Get the value of this value.
      * 
      * @return The value.
+     * @throws IllegalStateException If the value was read lazily, and could
+     *             not be decoded (see {@link #decodeValue()}).
      */
     public Object getValue()
     {
-        return value;
+        try {
+            return decodeValue();
+        }
+        catch (final SyntaxException se) {
+            throw new IllegalStateException("Failed to decode value: " + se.getMessage(), se);
+        }
+    }
+
+    /**
+     * Get the value, reporting a failure to decode it as a checked exception.
+     * 
+     * @return The value.
+     * @throws SyntaxException If the value was read lazily, and could not be
+     *             decoded.
+     */
+    public Object decodeValue()
+        throws SyntaxException
+    {
+        return (null == lazy ? value : lazy.get());
+    }
+
+    /**
+     * Test whether the value has been decoded. Values are only ever undecoded
+     * when read by a {@link ResponseParser} in lazy mode, and are decoded by
+     * the first call to {@link #getValue()}.
+     * 
+     * @return True if the value has been decoded.
+     */
+    public boolean isDecoded()
+    {
+        return (null == lazy || lazy.isDecoded());
+    }
+
+    /**
+     * Make a copy of this response with another label. The copy shares the
+     * value, along with any encoding of it that is being reused.
+     * 
+     * @param _label The label of the copy, or <code>null</code>.
+     * @return The copy.
+     */
+    public ValueResponse withLabel(final String _label)
+    {
+        if (null != shared) {
+            return new ValueResponse(_label, shared);
+        }
+        else if (null != lazy) {
+            return new ValueResponse(_label, lazy);
+        }
+        else {
+            return new ValueResponse(_label, value);
+        }
     }
 
     /*
@@ -64,8 +171,38 @@ public class ValueResponse
             buf.append("label \"").append(getLabel()).append("\" ");
         }
 
-        buf.append("(").append(makeArgument(getValue(), registry)).append(")");
+        buf.append("(").append(encodeValue(registry)).append(")");
 
         return buf.toString();
     }
+
+    /**
+     * Encode the value. If it has not been decoded, its original text is
+     * reused as-is, so relaying a lazily read response never decodes it (this
+     * assumes the registry maps class names the same way as the one it was
+     * read with). A {@link SharedValue} is only encoded the first time it is
+     * sent with each registry.
+     * 
+     * @param registry The class registry.
+     * @return The value, in the command/response language.
+     * @throws NotBoundException If thrown by {@link #makeArgument(Object, ClassRegistry)}.
+     */
+    private String encodeValue(final ClassRegistry registry)
+        throws NotBoundException
+    {
+        if (null != lazy && !lazy.isDecoded()) {
+            return lazy.getText();
+        }
+        else if (null != shared) {
+            String text = shared.getText(registry);
+            if (null == text) {
+                text = makeArgument(getValue(), registry);
+                shared.setText(registry, text);
+            }
+
+            return text;
+        }
+
+        return makeArgument(getValue(), registry);
+    }
 }
@@ -0,0 +1,127 @@
+package net.jonp.armi.base.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-method call statistics for a set of API objects: the number of calls,
+ * the number of failures by exception type, and a latency histogram.
+ * 
+ * Recording is cheap enough to leave on all the time: once a method has been
+ * seen, looking up its {@link MethodRecorder} and recording a call allocates
+ * nothing and takes no locks.
+ */
+public class CallStatistics
+{
+    private final ConcurrentMap<String, ConcurrentMap<String, MethodRecorder>> objects =
+        new ConcurrentHashMap<String, ConcurrentMap<String, MethodRecorder>>();
+
+    /**
+     * Construct a new, empty CallStatistics.
+     */
+    public CallStatistics()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Get the recorder for a method, creating it if necessary.
+     * 
+     * @param object The name of the API object.
+     * @param method The name of the method.
+     * @return The recorder for that method. Never <code>null</code>.
+     */
+    public MethodRecorder getRecorder(final String object, final String method)
+    {
+        ConcurrentMap<String, MethodRecorder> methods = objects.get(object);
+        if (null == methods) {
+            final ConcurrentMap<String, MethodRecorder> newMethods = new ConcurrentHashMap<String, MethodRecorder>();
+            methods = objects.putIfAbsent(object, newMethods);
+            if (null == methods) {
+                methods = newMethods;
+            }
+        }
+
+        MethodRecorder recorder = methods.get(method);
+        if (null == recorder) {
+            final MethodRecorder newRecorder = new MethodRecorder(object, method);
+            recorder = methods.putIfAbsent(method, newRecorder);
+            if (null == recorder) {
+                recorder = newRecorder;
+            }
+        }
+
+        return recorder;
+    }
+
+    /**
+     * Get the statistics for one method.
+     * 
+     * @param object The name of the API object.
+     * @param method The name of the method.
+     * @return A snapshot of the statistics for that method, or
+     *         <code>null</code> if it has never been called.
+     */
+    public MethodStatistics getStatistics(final String object, final String method)
+    {
+        final ConcurrentMap<String, MethodRecorder> methods = objects.get(object);
+        if (null == methods) {
+            return null;
+        }
+
+        final MethodRecorder recorder = methods.get(method);
+        if (null == recorder) {
+            return null;
+        }
+
+        return recorder.getStatistics();
+    }
+
+    /**
+     * Get the statistics for every method that has been called.
+     * 
+     * @return Snapshots of the statistics for each method, sorted by object
+     *         name and then method name.
+     */
+    public MethodStatistics[] getStatistics()
+    {
+        final List<MethodStatistics> stats = new ArrayList<MethodStatistics>();
+        for (final ConcurrentMap<String, MethodRecorder> methods : objects.values()) {
+            for (final MethodRecorder recorder : methods.values()) {
+                stats.add(recorder.getStatistics());
+            }
+        }
+
+        Collections.sort(stats, new Comparator<MethodStatistics>() {
+            @Override
+            public int compare(final MethodStatistics lhs, final MethodStatistics rhs)
+            {
+                final int c = lhs.getObject().compareTo(rhs.getObject());
+                if (c != 0) {
+                    return c;
+                }
+
+                return lhs.getMethod().compareTo(rhs.getMethod());
+            }
+        });
+
+        return stats.toArray(new MethodStatistics[stats.size()]);
+    }
+
+    /**
+     * Discard everything recorded so far. Methods that have been called remain
+     * known, with zero counts.
+     */
+    public void reset()
+    {
+        for (final ConcurrentMap<String, MethodRecorder> methods : objects.values()) {
+            for (final MethodRecorder recorder : methods.values()) {
+                recorder.reset();
+            }
+        }
+    }
+}
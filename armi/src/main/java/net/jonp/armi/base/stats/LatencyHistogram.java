@@ -0,0 +1,208 @@
+package net.jonp.armi.base.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of durations, in nanoseconds, with fixed buckets.
+ * 
+ * The buckets are log-linear: each power of two is split into four equal
+ * sub-buckets, so any recorded value is known to within 25%, from 1ns up to
+ * {@link #MAX_VALUE} (about 18 minutes; longer durations are counted in the
+ * last bucket). Recording a value never allocates and never takes a lock; the
+ * counters are striped by thread so that threads on different cores rarely
+ * write to the same cache line.
+ */
+public class LatencyHistogram
+{
+    /** Number of sub-buckets within each power of two. */
+    private static final int SUB_BITS = 2;
+    private static final int SUBS = 1 << SUB_BITS;
+
+    /** Largest power of two that is tracked exactly. */
+    private static final int MAX_EXPONENT = 40;
+
+    /** Number of buckets. */
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUBS;
+
+    /** Largest value, in nanoseconds, that is not clamped into the last bucket. */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    /** Index of the running total within a stripe, after the buckets. */
+    private static final int TOTAL = BUCKETS;
+
+    /**
+     * Distance between stripes: the buckets plus the total, rounded up to a
+     * multiple of 16 longs (two cache lines) so stripes do not share lines.
+     */
+    private static final int STRIDE = ((BUCKETS + 1 + 15) / 16) * 16;
+
+    private static final int MAX_STRIPES = 64;
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    /**
+     * Construct a new {@link LatencyHistogram} with one stripe per available
+     * processor (rounded up to a power of two).
+     */
+    public LatencyHistogram()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a new {@link LatencyHistogram}.
+     * 
+     * @param concurrency The expected number of threads recording at the same
+     *            time. Rounded up to a power of two, and capped at 64.
+     */
+    public LatencyHistogram(final int concurrency)
+    {
+        int stripes = 1;
+        while (stripes < concurrency && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * STRIDE);
+    }
+
+    /**
+     * Record a duration.
+     * 
+     * @param nanos The duration, in nanoseconds. Negative durations are
+     *            counted as zero.
+     */
+    public void record(final long nanos)
+    {
+        final int base = ((int)Thread.currentThread().getId() & mask) * STRIDE;
+        cells.getAndIncrement(base + bucketFor(nanos));
+        if (nanos > 0) {
+            cells.getAndAdd(base + TOTAL, nanos);
+        }
+    }
+
+    /**
+     * Get the number of durations recorded in each bucket.
+     * 
+     * @return An array of {@link #BUCKETS} counts. This is a moving snapshot;
+     *         recordings made while it is being built may or may not be
+     *         included.
+     */
+    public long[] getBuckets()
+    {
+        final long[] buckets = new long[BUCKETS];
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += cells.get(base + i);
+            }
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Get the sum of all recorded durations.
+     * 
+     * @return The total, in nanoseconds.
+     */
+    public long getTotal()
+    {
+        long total = 0;
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            total += cells.get(base + TOTAL);
+        }
+
+        return total;
+    }
+
+    /**
+     * Reset all counts to zero.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    /**
+     * Find the bucket into which a duration falls.
+     * 
+     * @param nanos The duration, in nanoseconds.
+     * @return The index of its bucket, in the range [0, {@link #BUCKETS}).
+     */
+    public static int bucketFor(final long nanos)
+    {
+        if (nanos < SUBS) {
+            return (nanos < 0 ? 0 : (int)nanos);
+        }
+        else if (nanos > MAX_VALUE) {
+            return BUCKETS - 1;
+        }
+
+        final int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        final int sub = (int)(nanos >>> (exp - SUB_BITS)) & (SUBS - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) | sub;
+    }
+
+    /**
+     * Get the largest duration that falls into a bucket.
+     * 
+     * @param bucket The index of the bucket.
+     * @return The inclusive upper bound of the bucket, in nanoseconds.
+     */
+    public static long upperBound(final int bucket)
+    {
+        if (bucket < SUBS) {
+            return bucket;
+        }
+
+        final int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        final long sub = bucket & (SUBS - 1);
+        return ((SUBS + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Compute the number of durations counted in a set of buckets.
+     * 
+     * @param buckets The bucket counts, as returned by {@link #getBuckets()}.
+     * @return The sum of the counts.
+     */
+    public static long count(final long[] buckets)
+    {
+        long count = 0;
+        for (final long bucket : buckets) {
+            count += bucket;
+        }
+
+        return count;
+    }
+
+    /**
+     * Estimate a percentile from a set of buckets.
+     * 
+     * @param buckets The bucket counts, as returned by {@link #getBuckets()}.
+     * @param percentile The percentile, in the range [0, 100].
+     * @return The upper bound of the bucket holding the requested percentile,
+     *         in nanoseconds, or 0 if the buckets are empty.
+     */
+    public static long percentile(final long[] buckets, final double percentile)
+    {
+        final long count = count(buckets);
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+
+        return upperBound(buckets.length - 1);
+    }
+}
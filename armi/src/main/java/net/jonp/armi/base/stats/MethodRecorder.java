@@ -0,0 +1,118 @@
+package net.jonp.armi.base.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records calls to one method of one API object. Obtain instances from
+ * {@link CallStatistics#getRecorder(String, String)}.
+ */
+public class MethodRecorder
+{
+    private final String _object;
+    private final String _method;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final ConcurrentMap<Class<?>, AtomicLong> errors = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+
+    MethodRecorder(final String object, final String method)
+    {
+        _object = object;
+        _method = method;
+    }
+
+    /**
+     * Record a successful call.
+     * 
+     * @param nanos The duration of the call, in nanoseconds.
+     */
+    public void record(final long nanos)
+    {
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a failed call.
+     * 
+     * @param nanos The duration of the call, in nanoseconds.
+     * @param type The type of exception thrown by the call.
+     */
+    public void recordError(final long nanos, final Class<? extends Throwable> type)
+    {
+        latency.record(nanos);
+
+        AtomicLong count = errors.get(type);
+        if (null == count) {
+            final AtomicLong newCount = new AtomicLong();
+            count = errors.putIfAbsent(type, newCount);
+            if (null == count) {
+                count = newCount;
+            }
+        }
+
+        count.incrementAndGet();
+    }
+
+    /**
+     * Record a call answered from a cache, without calling the method.
+     * 
+     * @param nanos The time taken to answer the call, in nanoseconds.
+     */
+    public void recordHit(final long nanos)
+    {
+        latency.record(nanos);
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Record a call answered with the result of an identical call which was
+     * already running.
+     * 
+     * @param nanos The time spent waiting for the identical call, in
+     *            nanoseconds.
+     * @param type The type of exception thrown by the identical call, or
+     *            <code>null</code> if it succeeded.
+     */
+    public void recordCoalesced(final long nanos, final Class<? extends Throwable> type)
+    {
+        if (null == type) {
+            record(nanos);
+        }
+        else {
+            recordError(nanos, type);
+        }
+
+        coalesced.incrementAndGet();
+    }
+
+    /**
+     * Take a snapshot of the statistics recorded so far.
+     * 
+     * @return The statistics.
+     */
+    public MethodStatistics getStatistics()
+    {
+        final Map<String, Long> errorsByType = new HashMap<String, Long>();
+        for (final Map.Entry<Class<?>, AtomicLong> entry : errors.entrySet()) {
+            errorsByType.put(entry.getKey().getName(), entry.getValue().get());
+        }
+
+        return new MethodStatistics(_object, _method, latency.getTotal(), latency.getBuckets(), errorsByType,
+                                    hits.get(), coalesced.get());
+    }
+
+    /**
+     * Discard everything recorded so far.
+     */
+    public void reset()
+    {
+        latency.reset();
+        errors.clear();
+        hits.set(0);
+        coalesced.set(0);
+    }
+}
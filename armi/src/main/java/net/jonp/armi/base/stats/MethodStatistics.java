@@ -0,0 +1,239 @@
+package net.jonp.armi.base.stats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the statistics gathered for one method of one API object. This
+ * is a plain value object, so it can be returned to a remote client (through
+ * {@link net.jonp.armi.base.command.LangAPI#getStats()}) as well as read
+ * locally.
+ */
+public class MethodStatistics
+{
+    private String object;
+    private String method;
+    private long calls;
+    private long errors;
+    private long hits;
+    private long coalesced;
+    private long totalNanos;
+    private long p50Nanos;
+    private long p99Nanos;
+    private long p999Nanos;
+    private long maxNanos;
+    private HashMap<String, Long> errorsByType;
+
+    /**
+     * Used by the parser when deserializing.
+     */
+    private MethodStatistics()
+    {
+        this(null, null, 0, new long[0], new HashMap<String, Long>());
+    }
+
+    /**
+     * Construct a new MethodStatistics.
+     * 
+     * @param _object The name of the API object.
+     * @param _method The name of the method.
+     * @param _totalNanos The total time spent in the method, in nanoseconds.
+     * @param buckets The latency histogram, as returned by
+     *            {@link LatencyHistogram#getBuckets()}.
+     * @param _errorsByType The number of calls that failed, by the class name
+     *            of the exception they threw.
+     */
+    public MethodStatistics(final String _object, final String _method, final long _totalNanos, final long[] buckets,
+                            final Map<String, Long> _errorsByType)
+    {
+        this(_object, _method, _totalNanos, buckets, _errorsByType, 0, 0);
+    }
+
+    /**
+     * Construct a new MethodStatistics, including calls which were answered
+     * without calling the method.
+     * 
+     * @param _object The name of the API object.
+     * @param _method The name of the method.
+     * @param _totalNanos The total time spent answering calls, in
+     *            nanoseconds.
+     * @param buckets The latency histogram, as returned by
+     *            {@link LatencyHistogram#getBuckets()}.
+     * @param _errorsByType The number of calls that failed, by the class name
+     *            of the exception they threw.
+     * @param _hits The number of calls answered from a cache.
+     * @param _coalesced The number of calls answered by an identical call.
+     */
+    public MethodStatistics(final String _object, final String _method, final long _totalNanos, final long[] buckets,
+                            final Map<String, Long> _errorsByType, final long _hits, final long _coalesced)
+    {
+        object = _object;
+        method = _method;
+        totalNanos = _totalNanos;
+        hits = _hits;
+        coalesced = _coalesced;
+
+        calls = LatencyHistogram.count(buckets);
+        p50Nanos = LatencyHistogram.percentile(buckets, 50.0);
+        p99Nanos = LatencyHistogram.percentile(buckets, 99.0);
+        p999Nanos = LatencyHistogram.percentile(buckets, 99.9);
+        maxNanos = LatencyHistogram.percentile(buckets, 100.0);
+
+        errorsByType = new HashMap<String, Long>(_errorsByType);
+        errors = 0;
+        for (final Long count : errorsByType.values()) {
+            errors += count;
+        }
+    }
+
+    /**
+     * Get the name of the API object.
+     * 
+     * @return The object name.
+     */
+    public String getObject()
+    {
+        return object;
+    }
+
+    /**
+     * Get the name of the method.
+     * 
+     * @return The method name.
+     */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Get the number of calls made to the method, including those which
+     * failed, and those which were answered without calling it (see
+     * {@link #getHits()} and {@link #getCoalesced()}).
+     * 
+     * @return The number of calls.
+     */
+    public long getCalls()
+    {
+        return calls;
+    }
+
+    /**
+     * Get the number of calls answered from a cache, without calling the
+     * method.
+     * 
+     * @return The number of cache hits.
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Get the number of calls answered with the result of an identical call
+     * which was already running, without calling the method again.
+     * 
+     * @return The number of coalesced calls.
+     */
+    public long getCoalesced()
+    {
+        return coalesced;
+    }
+
+    /**
+     * Get the number of calls which failed.
+     * 
+     * @return The number of errors.
+     */
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * Get the number of calls which failed, by exception type.
+     * 
+     * @return A map from the class name of each exception thrown to the number
+     *         of times it was thrown. The map may not be modified.
+     */
+    public Map<String, Long> getErrorsByType()
+    {
+        return Collections.unmodifiableMap(errorsByType);
+    }
+
+    /**
+     * Get the total time spent answering calls to the method.
+     * 
+     * @return The total time, in nanoseconds.
+     */
+    public long getTotalNanos()
+    {
+        return totalNanos;
+    }
+
+    /**
+     * Get the mean time spent in each call.
+     * 
+     * @return The mean time, in nanoseconds, or 0 if there have been no calls.
+     */
+    public long getMeanNanos()
+    {
+        return (calls == 0 ? 0 : totalNanos / calls);
+    }
+
+    /**
+     * Get the median call duration. Like all percentiles, this is the upper
+     * bound of the histogram bucket in which it falls, so it may overestimate
+     * the true value by up to 25%.
+     * 
+     * @return The 50th percentile, in nanoseconds.
+     */
+    public long getP50Nanos()
+    {
+        return p50Nanos;
+    }
+
+    /**
+     * Get the 99th percentile call duration.
+     * 
+     * @return The 99th percentile, in nanoseconds.
+     */
+    public long getP99Nanos()
+    {
+        return p99Nanos;
+    }
+
+    /**
+     * Get the 99.9th percentile call duration.
+     * 
+     * @return The 99.9th percentile, in nanoseconds.
+     */
+    public long getP999Nanos()
+    {
+        return p999Nanos;
+    }
+
+    /**
+     * Get the longest call duration.
+     * 
+     * @return The upper bound of the highest non-empty histogram bucket, in
+     *         nanoseconds.
+     */
+    public long getMaxNanos()
+    {
+        return maxNanos;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%s.%s: calls=%d errors=%d hits=%d coalesced=%d mean=%dns p50=%dns p99=%dns p999=%dns " +
+                             "max=%dns %s", object, method, calls, errors, hits, coalesced, getMeanNanos(), p50Nanos,
+                             p99Nanos, p999Nanos, maxNanos, errorsByType);
+    }
+}
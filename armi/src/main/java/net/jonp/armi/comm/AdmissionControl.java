@@ -0,0 +1,610 @@
+package net.jonp.armi.comm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limits how many calls run at once, so that an overloaded server turns work
+ * away instead of letting every caller's latency climb without bound. Give one
+ * to {@link CommandExecutor#setAdmissionControl(AdmissionControl)}, sharing it
+ * between the executors of all connections to a server.
+ * 
+ * A call is admitted if fewer than the global limit of calls are running, and
+ * fewer than its object's limit (see {@link #setObjectLimit(String, int)}) are
+ * running on its object. Otherwise it waits for a slot, for at most the
+ * configured time, as long as the number already waiting is below the queue
+ * size. A call which cannot wait, or waits too long, is rejected with an
+ * {@link OverloadedException}; it was never started, so the caller may safely
+ * retry it (elsewhere, or later). Calls on exempt objects, by default
+ * <code>lang</code> so that an overloaded server can still be inspected, are
+ * always admitted and not counted.
+ * 
+ * A call waits either on its caller's thread (see {@link #admit(String)}), or,
+ * for a caller which must not be held up (such as the thread reading a
+ * connection's commands), in the queue alone (see
+ * {@link #admit(String, Admission)}): the caller is then told when the call is
+ * admitted, on the thread which freed its slot, or rejected. Waiting calls are
+ * admitted in the order they arrived, passing over any whose object is at its
+ * limit.
+ * 
+ * The global limit may be fixed, or adaptive (see
+ * {@link #setAdaptive(int, int, long)}): it then follows the latency of the
+ * calls it admits, additively increasing while calls finish within a target
+ * time and the limit is being used, and multiplicatively decreasing when a
+ * call takes longer (AIMD). A call's latency is measured from when it starts
+ * (see {@link Permit#begin()}), so time spent queued after admission does not
+ * count against the server. It decreases at most once for each window of
+ * calls: a slow call admitted before the last decrease does not decrease it
+ * again, since it ran under the old limit, so a burst of slow calls lowers the
+ * limit once rather than once per call.
+ */
+public class AdmissionControl
+{
+    private static final Logger LOG = Logger.getLogger(AdmissionControl.class);
+
+    /** Factor applied to an adaptive limit when a call is too slow. */
+    private static final double BACKOFF = 0.9;
+
+    private static final Permit UNCOUNTED = new Permit(null, null, 0);
+
+    /** Rejects queued calls which wait too long; shared by every instance. */
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, "AdmissionControl");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Most queued calls are admitted in time, so don't keep their timers
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final int _queueSize;
+    private final long _maxWaitNanos;
+
+    private final Object lock = new Object();
+    private final Set<String> exempt = new HashSet<String>();
+    private final Map<String, Integer> objectLimits = new HashMap<String, Integer>();
+    private final Map<String, Integer> objectActive = new HashMap<String, Integer>();
+
+    /** Calls waiting for a slot, in the order they arrived. */
+    private final LinkedList<Waiter> queue = new LinkedList<Waiter>();
+
+    private double limit;
+    private boolean adaptive = false;
+    private int minLimit;
+    private int maxLimit;
+    private long targetNanos;
+
+    private int active = 0;
+    private long admitted = 0;
+    private long rejected = 0;
+
+    /** The value of {@link #admitted} when the limit was last decreased. */
+    private long backedOffAt = 0;
+
+    /**
+     * Construct a new AdmissionControl with a fixed global limit.
+     * 
+     * @param _limit The most calls which may run at once.
+     * @param queueSize The most calls which may wait for a slot at once; 0 to
+     *            reject calls as soon as there is no slot.
+     * @param maxWait How long, in milliseconds, a call may wait for a slot
+     *            before it is rejected.
+     */
+    public AdmissionControl(final int _limit, final int queueSize, final long maxWait)
+    {
+        if (_limit < 1) {
+            throw new IllegalArgumentException("Bad limit: " + _limit);
+        }
+        else if (queueSize < 0) {
+            throw new IllegalArgumentException("Bad queue size: " + queueSize);
+        }
+        else if (maxWait < 0) {
+            throw new IllegalArgumentException("Bad wait: " + maxWait);
+        }
+
+        limit = _limit;
+        _queueSize = queueSize;
+        _maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+
+        exempt.add("lang");
+    }
+
+    /**
+     * Make the global limit adaptive. It starts from its current value.
+     * 
+     * @param min The lowest the limit may go.
+     * @param max The highest the limit may go.
+     * @param target How long, in milliseconds, a call may take without the
+     *            limit being lowered.
+     */
+    public void setAdaptive(final int min, final int max, final long target)
+    {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Bad limits: " + min + " to " + max);
+        }
+        else if (target <= 0) {
+            throw new IllegalArgumentException("Bad target: " + target);
+        }
+
+        final List<Waiter> ready;
+        synchronized (lock) {
+            adaptive = true;
+            minLimit = min;
+            maxLimit = max;
+            targetNanos = TimeUnit.MILLISECONDS.toNanos(target);
+            limit = Math.max(min, Math.min(max, limit));
+            ready = drain();
+        }
+
+        tell(ready);
+    }
+
+    /**
+     * Limit the number of calls which may run at once on one object, within
+     * the global limit.
+     * 
+     * @param object The name of the object.
+     * @param objectLimit The most calls which may run at once on it, or 0 for
+     *            no limit beyond the global one.
+     */
+    public void setObjectLimit(final String object, final int objectLimit)
+    {
+        if (objectLimit < 0) {
+            throw new IllegalArgumentException("Bad limit: " + objectLimit);
+        }
+
+        final List<Waiter> ready;
+        synchronized (lock) {
+            if (objectLimit == 0) {
+                objectLimits.remove(object);
+            }
+            else {
+                objectLimits.put(object, objectLimit);
+            }
+
+            ready = drain();
+        }
+
+        tell(ready);
+    }
+
+    /**
+     * Exempt an object from admission control. Calls on it are always
+     * admitted, and not counted against any limit.
+     * 
+     * @param object The name of the object.
+     */
+    public void addExempt(final String object)
+    {
+        synchronized (lock) {
+            exempt.add(object);
+        }
+    }
+
+    /**
+     * Get the current global limit.
+     * 
+     * @return The most calls which may run at once.
+     */
+    public int getLimit()
+    {
+        synchronized (lock) {
+            return (int)limit;
+        }
+    }
+
+    /**
+     * Get the number of calls running.
+     * 
+     * @return The number of admitted calls not yet released.
+     */
+    public int getActive()
+    {
+        synchronized (lock) {
+            return active;
+        }
+    }
+
+    /**
+     * Get the number of calls waiting for a slot.
+     * 
+     * @return The number of calls waiting.
+     */
+    public int getWaiting()
+    {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Get the number of calls admitted, not counting exempt calls.
+     * 
+     * @return The number of calls admitted.
+     */
+    public long getAdmitted()
+    {
+        synchronized (lock) {
+            return admitted;
+        }
+    }
+
+    /**
+     * Get the number of calls rejected.
+     * 
+     * @return The number of calls rejected.
+     */
+    public long getRejected()
+    {
+        synchronized (lock) {
+            return rejected;
+        }
+    }
+
+    /**
+     * Admit a call, waiting on the calling thread for a slot if the queue has
+     * room.
+     * 
+     * @param object The name of the object being called.
+     * @return The permit, whose {@link Permit#release()} must be called (in a
+     *         <code>finally</code> block) when the call is finished.
+     * @throws OverloadedException If the call was not admitted.
+     */
+    public Permit admit(final String object)
+        throws OverloadedException
+    {
+        synchronized (lock) {
+            if (exempt.contains(object)) {
+                return UNCOUNTED;
+            }
+
+            if (hasRoom(object)) {
+                return take(object);
+            }
+
+            if (queue.size() >= _queueSize || 0 == _maxWaitNanos) {
+                throw reject(object);
+            }
+
+            final Waiter waiter = new Waiter(object, null);
+            queue.add(waiter);
+
+            final long deadline = System.nanoTime() + _maxWaitNanos;
+            while (null == waiter.permit) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    queue.remove(waiter);
+                    throw reject(object);
+                }
+
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    if (null == waiter.permit) {
+                        queue.remove(waiter);
+                        throw reject(object);
+                    }
+                }
+            }
+
+            return waiter.permit;
+        }
+    }
+
+    /**
+     * Admit a call if there is a slot, or else queue it if the queue has room,
+     * without waiting.
+     * 
+     * @param object The name of the object being called.
+     * @param admission Told whether a queued call is admitted or rejected; not
+     *            told anything if this returns a permit or throws.
+     * @return The permit, if the call was admitted at once, whose
+     *         {@link Permit#release()} must be called when the call is
+     *         finished; or <code>null</code> if the call was queued.
+     * @throws OverloadedException If the call was rejected at once.
+     */
+    public Permit admit(final String object, final Admission admission)
+        throws OverloadedException
+    {
+        synchronized (lock) {
+            if (exempt.contains(object)) {
+                return UNCOUNTED;
+            }
+
+            if (hasRoom(object)) {
+                return take(object);
+            }
+
+            if (queue.size() >= _queueSize || 0 == _maxWaitNanos) {
+                throw reject(object);
+            }
+
+            final Waiter waiter = new Waiter(object, admission);
+            queue.add(waiter);
+            waiter.timeout = TIMER.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    expire(waiter);
+                }
+            }, _maxWaitNanos, TimeUnit.NANOSECONDS);
+
+            return null;
+        }
+    }
+
+    /**
+     * Test whether a call on an object may start now. Must be called under
+     * {@link #lock}.
+     */
+    private boolean hasRoom(final String object)
+    {
+        if (active >= (int)limit) {
+            return false;
+        }
+
+        final Integer objectLimit = objectLimits.get(object);
+        if (null == objectLimit) {
+            return true;
+        }
+
+        final Integer running = objectActive.get(object);
+        return (null == running || running < objectLimit);
+    }
+
+    /**
+     * Count a call as running. Must be called under {@link #lock}.
+     */
+    private Permit take(final String object)
+    {
+        active++;
+        admitted++;
+
+        final Integer running = objectActive.get(object);
+        objectActive.put(object, (null == running ? 1 : running + 1));
+
+        return new Permit(this, object, admitted);
+    }
+
+    /**
+     * Count a rejection. Must be called under {@link #lock}.
+     */
+    private OverloadedException reject(final String object)
+    {
+        rejected++;
+        LOG.debug("Rejecting call to " + object + ": " + active + " running, " + queue.size() + " waiting");
+        return new OverloadedException("Server overloaded; call to " + object + " not started");
+    }
+
+    /**
+     * Count a call as finished, and adapt the limit to its latency.
+     * 
+     * @param object The object called.
+     * @param sequence The value of {@link #admitted} once the call was
+     *            admitted.
+     * @param nanos How long the call took.
+     */
+    private void release(final String object, final long sequence, final long nanos)
+    {
+        final List<Waiter> ready;
+        synchronized (lock) {
+            active--;
+
+            final int running = objectActive.get(object);
+            if (1 == running) {
+                objectActive.remove(object);
+            }
+            else {
+                objectActive.put(object, running - 1);
+            }
+
+            if (adaptive) {
+                if (nanos > targetNanos) {
+                    if (sequence > backedOffAt) {
+                        limit = Math.max(minLimit, limit * BACKOFF);
+                        backedOffAt = admitted;
+                    }
+                }
+                else if (2 * (active + 1) >= (int)limit) {
+                    // Only grow while the limit is being used; otherwise it
+                    // says nothing about what the server could take
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+
+            ready = drain();
+        }
+
+        tell(ready);
+    }
+
+    /**
+     * Admit as many waiting calls as there is now room for, in the order they
+     * arrived, passing over any whose object is at its limit. Callers waiting
+     * on their own threads are woken. Must be called under {@link #lock}.
+     * 
+     * @return The admitted calls waiting in the queue alone, to be told (by
+     *         {@link #tell(List)}) once the lock is released.
+     */
+    private List<Waiter> drain()
+    {
+        List<Waiter> ready = null;
+        boolean wake = false;
+        for (final Iterator<Waiter> it = queue.iterator(); it.hasNext() && active < (int)limit;) {
+            final Waiter waiter = it.next();
+            if (hasRoom(waiter.object)) {
+                it.remove();
+                waiter.permit = take(waiter.object);
+                if (null == waiter.admission) {
+                    wake = true;
+                }
+                else {
+                    waiter.timeout.cancel(false);
+                    if (null == ready) {
+                        ready = new ArrayList<Waiter>();
+                    }
+
+                    ready.add(waiter);
+                }
+            }
+        }
+
+        if (wake) {
+            lock.notifyAll();
+        }
+
+        return (null == ready ? Collections.<Waiter> emptyList() : ready);
+    }
+
+    /**
+     * Tell queued calls they have been admitted. Must not be called under
+     * {@link #lock}.
+     * 
+     * @param ready The calls, from {@link #drain()}.
+     */
+    private void tell(final List<Waiter> ready)
+    {
+        for (final Waiter waiter : ready) {
+            try {
+                waiter.admission.admitted(waiter.permit);
+            }
+            catch (final RuntimeException re) {
+                LOG.warn("Exception admitting a call to " + waiter.object, re);
+                waiter.permit.release();
+            }
+        }
+    }
+
+    /**
+     * Reject a queued call which has waited too long, unless it has already
+     * been admitted.
+     * 
+     * @param waiter The call.
+     */
+    private void expire(final Waiter waiter)
+    {
+        final OverloadedException oe;
+        synchronized (lock) {
+            if (!queue.remove(waiter)) {
+                return;
+            }
+
+            oe = reject(waiter.object);
+        }
+
+        waiter.admission.rejected(oe);
+    }
+
+    /**
+     * Told whether a call queued by {@link AdmissionControl#admit(String, Admission)}
+     * is admitted.
+     */
+    public static interface Admission
+    {
+        /**
+         * Called once the call is admitted, on the thread which freed its
+         * slot.
+         * 
+         * @param permit The permit, whose {@link Permit#release()} must be
+         *            called when the call is finished.
+         */
+        public void admitted(Permit permit);
+
+        /**
+         * Called if the call waits too long, on the admission control's timer
+         * thread.
+         * 
+         * @param oe Why the call was rejected.
+         */
+        public void rejected(OverloadedException oe);
+    }
+
+    /**
+     * A call waiting for a slot.
+     */
+    private static class Waiter
+    {
+        final String object;
+
+        /** Told of the outcome, or <code>null</code> for a caller waiting on its own thread. */
+        final Admission admission;
+
+        /** Set once the call is admitted. */
+        Permit permit = null;
+
+        /** Rejects the call if it waits too long; only for a call with an admission. */
+        ScheduledFuture<?> timeout = null;
+
+        Waiter(final String _object, final Admission _admission)
+        {
+            object = _object;
+            admission = _admission;
+        }
+    }
+
+    /**
+     * An admitted call's slot.
+     */
+    public static class Permit
+    {
+        private final AdmissionControl _control;
+        private final String _object;
+        private final long _sequence;
+        private volatile long start = System.nanoTime();
+        private boolean released = false;
+
+        Permit(final AdmissionControl control, final String object, final long sequence)
+        {
+            _control = control;
+            _object = object;
+            _sequence = sequence;
+        }
+
+        /**
+         * Mark the start of the call, if it waits (for example, in a
+         * {@link CallScheduler}) between being admitted and running, so that
+         * its latency is measured from here. Otherwise it is measured from
+         * admission.
+         */
+        public void begin()
+        {
+            start = System.nanoTime();
+        }
+
+        /**
+         * Give up the slot. Later calls have no effect.
+         */
+        public void release()
+        {
+            if (null == _control || released) {
+                return;
+            }
+
+            released = true;
+            _control.release(_object, _sequence, System.nanoTime() - start);
+        }
+    }
+}
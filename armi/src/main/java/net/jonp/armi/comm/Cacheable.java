@@ -0,0 +1,30 @@
+package net.jonp.armi.comm;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an API method whose result depends only on its arguments, so that a
+ * {@link CommandExecutor} may answer repeated calls from its
+ * {@link ResponseCache} rather than calling the method again. The result must
+ * not be modified once it has been returned.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable
+{
+    /**
+     * How long a result may be reused, in milliseconds.
+     */
+    long ttl() default 60000;
+
+    /**
+     * The maximum number of results (one per distinct set of arguments) to
+     * keep.
+     */
+    int maxSize() default 1000;
+}
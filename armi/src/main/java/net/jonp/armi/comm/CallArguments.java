@@ -0,0 +1,52 @@
+package net.jonp.armi.comm;
+
+import java.util.Arrays;
+
+/**
+ * The arguments of a call, compared by content, for use as a map key.
+ */
+class CallArguments
+{
+    private final Object[] args;
+    private final int hash;
+
+    /**
+     * Construct a new CallArguments.
+     * 
+     * @param _args The arguments, or <code>null</code> for none. Must not be
+     *            modified after this.
+     */
+    CallArguments(final Object[] _args)
+    {
+        args = (null == _args ? new Object[0] : _args);
+        hash = Arrays.deepHashCode(args);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        else if (!(obj instanceof CallArguments)) {
+            return false;
+        }
+
+        final CallArguments other = (CallArguments)obj;
+        return (hash == other.hash && Arrays.deepEquals(args, other.args));
+    }
+}
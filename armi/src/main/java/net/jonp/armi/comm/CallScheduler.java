@@ -0,0 +1,310 @@
+package net.jonp.armi.comm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Runs calls on API objects on a shared pool of threads, no more at once on
+ * each object than its {@link Mode} allows, so objects which are safe to use
+ * from many threads are used from as many as there are cores, while those
+ * which are not are still only used by one thread at a time, without a global
+ * lock.
+ * 
+ * An object's mode comes from {@link #setMode(Object, Mode, int)}, or else
+ * from a {@link Concurrency} annotation on its class, or else is the
+ * scheduler's default. Each object which is not {@link Mode#CONCURRENT} gets
+ * its own mailbox, from which its calls are run in the order they were
+ * submitted (and, under {@link Mode#SERIAL}, finish in that order).
+ * 
+ * By default calls run on a pool of daemon threads which grows while calls
+ * block, and shrinks again when they are idle, since a call's thread may
+ * block in the API method, waiting for an identical call (on the caller's
+ * thread), or writing its response to a slow client. A work-stealing
+ * {@link ForkJoinPool} adds no threads when its workers block this way, so
+ * give a scheduler one only if none of its objects' calls ever block: for
+ * example, {@link Mode#CONCURRENT} objects doing pure computation, answered
+ * through communicators which queue their responses without waiting.
+ */
+public class CallScheduler
+{
+    private static final Logger LOG = Logger.getLogger(CallScheduler.class);
+
+    /** The most calls a mailbox runs before letting other work have the thread. */
+    private static final int BATCH = 16;
+
+    /**
+     * How calls on an API object may overlap.
+     */
+    public static enum Mode
+    {
+        /** Any number of calls may run at once; the object is thread-safe. */
+        CONCURRENT,
+
+        /** One call at a time, in the order submitted (actor-style). */
+        SERIAL,
+
+        /** A fixed number of calls at a time, started in the order submitted. */
+        LIMITED;
+    }
+
+    private static CallScheduler defaultScheduler = null;
+
+    private final Executor _executor;
+    private final Mode _defaultMode;
+
+    /** Mailboxes, by object identity; an unused object's mailbox goes with it. */
+    private final ConcurrentMap<Object, Mailbox> mailboxes = new MapMaker().weakKeys().makeMap();
+
+    /** Marks a CONCURRENT object in {@link #mailboxes}. */
+    private final Mailbox unlimited = new Mailbox(Integer.MAX_VALUE);
+
+    /**
+     * Get the scheduler shared by executors which are not given one: a
+     * growing pool of daemon threads, and {@link Mode#SERIAL} for undeclared
+     * objects. Created on first use.
+     * 
+     * @return The default scheduler.
+     */
+    public static synchronized CallScheduler getDefault()
+    {
+        if (null == defaultScheduler) {
+            defaultScheduler = new CallScheduler();
+        }
+
+        return defaultScheduler;
+    }
+
+    /**
+     * Construct a new CallScheduler with its own pool of daemon threads, which
+     * starts a thread whenever a call is submitted and none is idle, running
+     * undeclared objects under {@link Mode#SERIAL}.
+     */
+    public CallScheduler()
+    {
+        this(Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger nextThread = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread th = new Thread(r, "CallScheduler-" + nextThread.getAndIncrement());
+                th.setDaemon(true);
+                return th;
+            }
+        }), Mode.SERIAL);
+    }
+
+    /**
+     * Construct a new CallScheduler.
+     * 
+     * @param executor Runs the calls. It may be shared.
+     * @param defaultMode The mode of objects which have not been given one.
+     *            {@link Mode#LIMITED} is taken as a limit of one.
+     */
+    public CallScheduler(final Executor executor, final Mode defaultMode)
+    {
+        if (null == executor || null == defaultMode) {
+            throw new NullPointerException("Executor and default mode must not be null");
+        }
+
+        _executor = executor;
+        _defaultMode = defaultMode;
+    }
+
+    /**
+     * Get the executor on which calls run.
+     * 
+     * @return The executor.
+     */
+    public Executor getExecutor()
+    {
+        return _executor;
+    }
+
+    /**
+     * Get the mode of objects which have not been given one.
+     * 
+     * @return The default mode.
+     */
+    public Mode getDefaultMode()
+    {
+        return _defaultMode;
+    }
+
+    /**
+     * Set the mode of an object, whatever its {@link Concurrency} annotation
+     * says. Calls already submitted are not affected.
+     * 
+     * @param object The API object.
+     * @param mode The mode.
+     * @param limit The most calls to run at once, under {@link Mode#LIMITED};
+     *            ignored otherwise.
+     */
+    public void setMode(final Object object, final Mode mode, final int limit)
+    {
+        mailboxes.put(object, mailbox(mode, limit));
+    }
+
+    /**
+     * Get the number of calls on an object which are waiting to start.
+     * 
+     * @param object The API object.
+     * @return The number of waiting calls; always 0 for a
+     *         {@link Mode#CONCURRENT} object, whose calls go straight to the
+     *         executor.
+     */
+    public int getQueued(final Object object)
+    {
+        final Mailbox mailbox = mailboxes.get(object);
+        return (null == mailbox ? 0 : mailbox.calls.size());
+    }
+
+    /**
+     * Run a call on an object, when its mode allows.
+     * 
+     * @param object The API object the call is on.
+     * @param call The call. Exceptions it throws are logged and otherwise
+     *            ignored.
+     * @throws RejectedExecutionException If the executor refused the call.
+     */
+    public void submit(final Object object, final Runnable call)
+    {
+        Mailbox mailbox = mailboxes.get(object);
+        if (null == mailbox) {
+            final Concurrency concurrency = object.getClass().getAnnotation(Concurrency.class);
+            if (null == concurrency) {
+                mailbox = mailbox(_defaultMode, 1);
+            }
+            else {
+                mailbox = mailbox(concurrency.value(), concurrency.limit());
+            }
+
+            final Mailbox previous = mailboxes.putIfAbsent(object, mailbox);
+            if (null != previous) {
+                mailbox = previous;
+            }
+        }
+
+        if (mailbox == unlimited) {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    runCall(call);
+                }
+            });
+        }
+        else {
+            mailbox.calls.add(call);
+            try {
+                mailbox.schedule();
+            }
+            catch (final RejectedExecutionException ree) {
+                mailbox.calls.remove(call);
+                throw ree;
+            }
+        }
+    }
+
+    private Mailbox mailbox(final Mode mode, final int limit)
+    {
+        switch (mode) {
+            case CONCURRENT:
+                return unlimited;
+            case LIMITED:
+                if (limit < 1) {
+                    throw new IllegalArgumentException("Limit must be positive: " + limit);
+                }
+
+                return new Mailbox(limit);
+            default:
+                return new Mailbox(1);
+        }
+    }
+
+    private static void runCall(final Runnable call)
+    {
+        try {
+            call.run();
+        }
+        catch (final Throwable th) {
+            LOG.warn("Exception from scheduled call", th);
+        }
+    }
+
+    /**
+     * The calls waiting on one object, and the workers running them.
+     */
+    private class Mailbox
+        implements Runnable
+    {
+        final int limit;
+        final Queue<Runnable> calls = new ConcurrentLinkedQueue<Runnable>();
+
+        /** The number of workers submitted to, or running on, the executor. */
+        final AtomicInteger workers = new AtomicInteger(0);
+
+        Mailbox(final int _limit)
+        {
+            limit = _limit;
+        }
+
+        /**
+         * Start another worker if there are calls waiting and the limit
+         * allows.
+         */
+        void schedule()
+        {
+            while (!calls.isEmpty()) {
+                final int running = workers.get();
+                if (running >= limit) {
+                    // A running worker will call schedule() again when it
+                    // stops
+                    return;
+                }
+
+                if (workers.compareAndSet(running, running + 1)) {
+                    try {
+                        _executor.execute(this);
+                    }
+                    catch (final RejectedExecutionException ree) {
+                        workers.decrementAndGet();
+                        throw ree;
+                    }
+
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    final Runnable call = calls.poll();
+                    if (null == call) {
+                        break;
+                    }
+
+                    runCall(call);
+                }
+            }
+            finally {
+                workers.decrementAndGet();
+                schedule();
+            }
+        }
+    }
+}
@@ -3,23 +3,98 @@ package net.jonp.armi.comm;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.jonp.armi.base.Registry;
 import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.CancelCommand;
 import net.jonp.armi.base.response.ErrorResponse;
 import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.SharedValue;
+import net.jonp.armi.base.response.StreamResponse;
 import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.base.stats.CallStatistics;
+import net.jonp.armi.base.stats.MethodRecorder;
 
 import org.apache.log4j.Logger;
 
 /**
  * Executes ARMI commands.
+ * 
+ * Methods whose declared return type is exactly {@link Iterator} or
+ * {@link Iterable} have their results streamed back in chunks (see
+ * {@link StreamResponse}), rather than sent as a single value, if the command
+ * asks for it (see {@link CallCommand#isStream()}) and has a label. Otherwise
+ * they are sent as a single value, an {@link Iterator} being collected into an
+ * array first, as are the results of methods returning any other type,
+ * including collections.
+ * 
+ * Results of methods annotated with {@link Cacheable}, or registered with the
+ * executor's {@link ResponseCache}, are reused for repeated calls with the same
+ * arguments. Identical concurrent calls to methods annotated with
+ * {@link SingleFlight}, or registered with the executor's
+ * {@link InFlightCalls}, share one invocation. A method which returns a
+ * {@link SharedValue}, or an object shared by {@link SharedValue#share(Object)},
+ * has its value sent, reusing the value's encoding.
+ * 
+ * A command run on the {@link CallScheduler} which finds an identical call
+ * running does not hold its thread while it waits: it is answered on the
+ * identical call's thread when that finishes.
+ * 
+ * Commands passed to {@link #executeCommand(CallCommand)} run on the calling
+ * thread. Commands passed to
+ * {@link #executeCommand(CallCommand, ResponseCallback)} run on the executor's
+ * {@link CallScheduler}, which runs as many at once on each API object as its
+ * {@link Concurrency} mode allows.
+ * 
+ * A command whose timeout (see {@link CallCommand#getTimeout()}) has run out
+ * by the time it would be invoked is not invoked; it is answered with a
+ * {@link DeadlineExceededException}, since its caller has given up waiting,
+ * and doing work nobody will read only makes a backlog worse. Given a
+ * {@link DeadlineWatchdog}, the executor also interrupts methods still running
+ * when their deadline passes.
+ * 
+ * Given an {@link AdmissionControl}, the executor admits each command through
+ * it before running it, and answers a command which is not admitted with an
+ * {@link OverloadedException} without running it. A command passed to
+ * {@link #executeCommand(CallCommand)} waits for admission on the calling
+ * thread; one passed to {@link #executeCommand(CallCommand, ResponseCallback)}
+ * waits in the admission queue, and is submitted to the scheduler once
+ * admitted, so that a waiting command does not hold up the commands (such as
+ * <code>lang</code> calls and cancellations) behind it.
+ * 
+ * A labeled command may be cancelled (see {@link #cancel(String)}) until it
+ * has been answered: it is skipped if it has not started, interrupted if it is
+ * running, and its result stops streaming if it is streaming. No response is
+ * given to a cancelled command. Call {@link #cancelAll()} when the connection
+ * the commands came from closes.
  */
 public class CommandExecutor
 {
     private static final Logger LOG = Logger.getLogger(CommandExecutor.class);
 
     private final Registry<? extends Object> _registry;
+    private final CallStatistics _statistics;
+    private final ResponseCache _cache;
+    private final InFlightCalls _flights;
+    private final CallScheduler _scheduler;
+    private final AtomicLong expired = new AtomicLong(0);
+    private volatile DeadlineWatchdog _watchdog = null;
+    private volatile AdmissionControl _admission = null;
+    private final ConcurrentMap<String, Running> running = new ConcurrentHashMap<String, Running>();
+    private final AtomicLong cancelled = new AtomicLong(0);
+
+    /**
+     * Returned in place of a response for a scheduled command which is waiting
+     * for an identical call, and will be answered when that finishes.
+     */
+    private static final Response DEFERRED = new ValueResponse(null, "deferred");
 
     // FUTURE: Look into caching object/method name to Method object to avoid
     // reflective lookup
@@ -37,53 +112,842 @@ public class CommandExecutor
      *            include multiple methods with the same name.
      */
     public CommandExecutor(final Registry<? extends Object> registry)
+    {
+        this(registry, new CallStatistics());
+    }
+
+    /**
+     * Construct a new CommandExecutor which records call statistics into an
+     * existing {@link CallStatistics}, which may be shared with other
+     * executors.
+     * 
+     * @param registry The registry defining the objects whose methods are
+     *            callable. See {@link #CommandExecutor(Registry)}.
+     * @param statistics Where to record the number, duration, and failures of
+     *            calls to each method.
+     */
+    public CommandExecutor(final Registry<? extends Object> registry, final CallStatistics statistics)
+    {
+        this(registry, statistics, new ResponseCache());
+    }
+
+    /**
+     * Construct a new CommandExecutor which records call statistics into an
+     * existing {@link CallStatistics}, and caches results in an existing
+     * {@link ResponseCache}. Either may be shared with other executors.
+     * 
+     * @param registry The registry defining the objects whose methods are
+     *            callable. See {@link #CommandExecutor(Registry)}.
+     * @param statistics Where to record the number, duration, and failures of
+     *            calls to each method.
+     * @param cache Where to cache the results of cacheable methods.
+     */
+    public CommandExecutor(final Registry<? extends Object> registry, final CallStatistics statistics,
+                           final ResponseCache cache)
+    {
+        this(registry, statistics, cache, new InFlightCalls());
+    }
+
+    /**
+     * Construct a new CommandExecutor which shares its call statistics, result
+     * cache, and running calls with other executors (typically those serving
+     * other connections to the same server).
+     * 
+     * @param registry The registry defining the objects whose methods are
+     *            callable. See {@link #CommandExecutor(Registry)}.
+     * @param statistics Where to record the number, duration, and failures of
+     *            calls to each method.
+     * @param cache Where to cache the results of cacheable methods.
+     * @param flights Where to track running calls to single-flight methods.
+     */
+    public CommandExecutor(final Registry<? extends Object> registry, final CallStatistics statistics,
+                           final ResponseCache cache, final InFlightCalls flights)
+    {
+        this(registry, statistics, cache, flights, CallScheduler.getDefault());
+    }
+
+    /**
+     * Construct a new CommandExecutor which shares its call statistics, result
+     * cache, and running calls with other executors, and runs commands passed
+     * to {@link #executeCommand(CallCommand, ResponseCallback)} on the given
+     * scheduler.
+     * 
+     * @param registry The registry defining the objects whose methods are
+     *            callable. See {@link #CommandExecutor(Registry)}.
+     * @param statistics Where to record the number, duration, and failures of
+     *            calls to each method.
+     * @param cache Where to cache the results of cacheable methods.
+     * @param flights Where to track running calls to single-flight methods.
+     * @param scheduler Runs commands on the API objects. Share one between
+     *            executors which share API objects, so that each object's
+     *            concurrency mode holds across all of them.
+     */
+    public CommandExecutor(final Registry<? extends Object> registry, final CallStatistics statistics,
+                           final ResponseCache cache, final InFlightCalls flights, final CallScheduler scheduler)
     {
         _registry = registry;
+        _statistics = statistics;
+        _cache = cache;
+        _flights = flights;
+        _scheduler = scheduler;
+    }
+
+    /**
+     * Get the statistics recorded for calls made through this executor. Only
+     * calls which reached a bound object and method are recorded, but they
+     * are all recorded, including those answered from the cache or by an
+     * identical call.
+     * 
+     * @return The call statistics.
+     */
+    public CallStatistics getStatistics()
+    {
+        return _statistics;
+    }
+
+    /**
+     * Get the cache of results of cacheable methods called through this
+     * executor.
+     * 
+     * @return The response cache.
+     */
+    public ResponseCache getCache()
+    {
+        return _cache;
     }
 
     /**
-     * Execute a command.
+     * Get the running calls to single-flight methods called through this
+     * executor.
+     * 
+     * @return The running calls.
+     */
+    public InFlightCalls getInFlightCalls()
+    {
+        return _flights;
+    }
+
+    /**
+     * Get the scheduler which runs commands passed to
+     * {@link #executeCommand(CallCommand, ResponseCallback)}.
+     * 
+     * @return The call scheduler.
+     */
+    public CallScheduler getScheduler()
+    {
+        return _scheduler;
+    }
+
+    /**
+     * Get the watchdog which interrupts calls running past their deadlines.
+     * 
+     * @return The watchdog, or <code>null</code> if there is none.
+     */
+    public DeadlineWatchdog getWatchdog()
+    {
+        return _watchdog;
+    }
+
+    /**
+     * Set the watchdog which interrupts calls running past their deadlines.
+     * Calls without a timeout are never interrupted.
+     * 
+     * @param watchdog The watchdog (which may be shared with other
+     *            executors), or <code>null</code> to let calls run to the end.
+     */
+    public void setWatchdog(final DeadlineWatchdog watchdog)
+    {
+        _watchdog = watchdog;
+    }
+
+    /**
+     * Get the admission control limiting how many commands run at once.
+     * 
+     * @return The admission control, or <code>null</code> if there is none.
+     */
+    public AdmissionControl getAdmissionControl()
+    {
+        return _admission;
+    }
+
+    /**
+     * Set the admission control limiting how many commands run at once.
+     * 
+     * @param admission The admission control (which should be shared with the
+     *            executors of other connections to the same server), or
+     *            <code>null</code> to run every command.
+     */
+    public void setAdmissionControl(final AdmissionControl admission)
+    {
+        _admission = admission;
+    }
+
+    /**
+     * Get the number of commands which were not invoked, or were interrupted,
+     * because their timeouts ran out.
+     * 
+     * @return The number of expired commands.
+     */
+    public long getExpired()
+    {
+        return expired.get();
+    }
+
+    /**
+     * Get the number of commands which were cancelled before they were
+     * answered.
+     * 
+     * @return The number of cancelled commands.
+     */
+    public long getCancelled()
+    {
+        return cancelled.get();
+    }
+
+    /**
+     * Cancel a command executed by this executor, as asked by a
+     * {@link CancelCommand}. The command is skipped if it has not started, and
+     * its thread is interrupted if it is running (API methods which ignore
+     * interruption run to the end regardless). If its result is being
+     * streamed, the stream is ended. Either way, no response is given to it.
+     * 
+     * @param label The label of the command.
+     * @return True if the command was found; false if it has already been
+     *         answered, or was never seen.
+     */
+    public boolean cancel(final String label)
+    {
+        final Running call = (null == label ? null : running.get(label));
+        if (null == call) {
+            LOG.debug("Nothing to cancel labeled " + label);
+            return false;
+        }
+
+        LOG.debug("Cancelling call labeled " + label);
+        cancelled.incrementAndGet();
+        call.cancel();
+        return true;
+    }
+
+    /**
+     * Cancel every command executed by this executor which has not yet been
+     * answered, as {@link #cancel(String)} does. Call this when the connection
+     * the commands came from closes, since nobody is left to read their
+     * responses (or to drain their streams).
+     * 
+     * @return The number of commands cancelled.
+     */
+    public int cancelAll()
+    {
+        int count = 0;
+        for (final Running call : running.values()) {
+            if (running.remove(call.label, call)) {
+                cancelled.incrementAndGet();
+                call.cancel();
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            LOG.debug("Cancelled " + count + " calls");
+        }
+
+        return count;
+    }
+
+    /**
+     * Execute a command on the calling thread.
      * 
      * @param command The command to execute.
-     * @return The response to the command.
+     * @return The response to the command, or <code>null</code> if it was
+     *         cancelled (from another thread) before it finished.
      */
     public Response executeCommand(final CallCommand command)
     {
-        Response response;
+        final Object object;
+        try {
+            object = lookup(command);
+        }
+        catch (final NotBoundException nbe) {
+            return new ErrorResponse(command.getLabel(), nbe);
+        }
+
+        final AdmissionControl.Permit permit;
+        try {
+            permit = admit(command);
+        }
+        catch (final OverloadedException oe) {
+            return new ErrorResponse(command.getLabel(), oe);
+        }
+
+        try {
+            if (null != permit) {
+                permit.begin();
+            }
+
+            return run(command, object, track(command), null);
+        }
+        finally {
+            if (null != permit) {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * Execute a command on this executor's {@link CallScheduler}, once the
+     * concurrency mode of its API object allows.
+     * 
+     * @param command The command to execute.
+     * @param callback Receives the response to the command, on the thread
+     *            which ran it; on the calling thread if the command names an
+     *            object which is not bound or is rejected at once; or on the
+     *            admission control's timer thread if it waited too long to be
+     *            admitted. Not called if the command is cancelled.
+     * @throws RejectedExecutionException If the scheduler's executor refused
+     *             the command (when it did not have to wait for admission).
+     */
+    public void executeCommand(final CallCommand command, final ResponseCallback callback)
+    {
+        final Object object;
+        try {
+            object = lookup(command);
+        }
+        catch (final NotBoundException nbe) {
+            callback.response(new ErrorResponse(command.getLabel(), nbe));
+            return;
+        }
+
+        // Tracked while queued, so that it can be cancelled before it starts
+        final Running call = track(command);
+
+        final AdmissionControl admission = _admission;
+        if (null == admission) {
+            submit(command, object, call, null, callback);
+            return;
+        }
+
+        final AdmissionControl.Permit permit;
+        try {
+            permit = admission.admit(command.getObject(), new AdmissionControl.Admission() {
+                @Override
+                public void admitted(final AdmissionControl.Permit queued)
+                {
+                    try {
+                        submit(command, object, call, queued, callback);
+                    }
+                    catch (final RejectedExecutionException ree) {
+                        LOG.warn("Unable to run " + command.getObject() + "." + command.getMethod(), ree);
+                        callback.response(new ErrorResponse(command.getLabel(), ree));
+                    }
+                }
+
+                @Override
+                public void rejected(final OverloadedException oe)
+                {
+                    notAdmitted(command, call, oe, callback);
+                }
+            });
+        }
+        catch (final OverloadedException oe) {
+            notAdmitted(command, call, oe, callback);
+            return;
+        }
+
+        if (null != permit) {
+            submit(command, object, call, permit, callback);
+        }
+    }
+
+    /**
+     * Submit an admitted command to the scheduler.
+     * 
+     * @param command The command.
+     * @param object The object named by the command.
+     * @param call The command's tracker, or <code>null</code> if it is not
+     *            tracked.
+     * @param permit The command's permit, or <code>null</code> if there is no
+     *            admission control.
+     * @param callback Receives the response to the command.
+     * @throws RejectedExecutionException If the scheduler's executor refused
+     *             the command; it is then no longer tracked, and its permit
+     *             has been released.
+     */
+    private void submit(final CallCommand command, final Object object, final Running call,
+                        final AdmissionControl.Permit permit, final ResponseCallback callback)
+    {
+        boolean submitted = false;
+        try {
+            _scheduler.submit(object, new Scheduled(command, object, call, permit, callback));
+            submitted = true;
+        }
+        finally {
+            if (!submitted) {
+                if (null != call) {
+                    running.remove(command.getLabel(), call);
+                }
+
+                if (null != permit) {
+                    permit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start tracking a command, so that it can be cancelled.
+     * 
+     * @param command The command.
+     * @return Its tracker, or <code>null</code> if it cannot be cancelled
+     *         because it has no label (or its label is already in use).
+     */
+    private Running track(final CallCommand command)
+    {
+        final String label = command.getLabel();
+        if (null == label) {
+            return null;
+        }
+
+        final Running call = new Running(label);
+        if (null != running.putIfAbsent(label, call)) {
+            LOG.debug("Label " + label + " is already running; the new call cannot be cancelled");
+            return null;
+        }
+
+        return call;
+    }
+
+    /**
+     * Execute a tracked command, unless it has been cancelled, and stop
+     * tracking it once it is answered (which, for a streamed result, is once
+     * the stream ends).
+     * 
+     * @param command The command.
+     * @param object The object named by the command.
+     * @param call The command's tracker, or <code>null</code> if it is not
+     *            tracked.
+     * @param scheduled The command, if it is running on the scheduler;
+     *            <code>null</code> if it is running on the caller's thread.
+     * @return The response, <code>null</code> if the command was cancelled, or
+     *         {@link #DEFERRED} if it will be answered through
+     *         <code>scheduled</code> (which stays tracked until then).
+     */
+    private Response run(final CallCommand command, final Object object, final Running call, final Scheduled scheduled)
+    {
+        if (null == call) {
+            return execute(command, object, null, scheduled);
+        }
+
+        if (!call.start()) {
+            running.remove(call.label, call);
+            return null;
+        }
+
+        Response response = null;
+        boolean wasCancelled = true;
         try {
-            LOG.debug("Looking up API object " + command.getObject());
-            final Object object = _registry.lookup(command.getObject());
+            response = execute(command, object, call, scheduled);
+        }
+        finally {
+            wasCancelled = call.finish(response);
+            if (wasCancelled || !(response instanceof TrackedStream || DEFERRED == response)) {
+                running.remove(call.label, call);
+            }
+        }
+
+        // A deferred command is answered, or dropped if cancelled, later
+        return (wasCancelled && DEFERRED != response ? null : response);
+    }
+
+    /**
+     * Answer a command which was not admitted, unless it has been cancelled.
+     * 
+     * @param command The command.
+     * @param call The command's tracker, or <code>null</code> if it is not
+     *            tracked.
+     * @param oe Why it was not admitted.
+     * @param callback Receives the response to the command.
+     */
+    private void notAdmitted(final CallCommand command, final Running call, final OverloadedException oe,
+                             final ResponseCallback callback)
+    {
+        LOG.debug("Not admitting " + command.getObject() + "." + command.getMethod() + ": " + oe.getMessage());
+
+        boolean wasCancelled = false;
+        if (null != call) {
+            wasCancelled = call.isCancelled();
+            running.remove(call.label, call);
+        }
+
+        if (!wasCancelled) {
+            callback.response(new ErrorResponse(command.getLabel(), oe));
+        }
+    }
 
+    /**
+     * Admit a command through the executor's {@link AdmissionControl}, if it
+     * has one, waiting on the calling thread.
+     * 
+     * @param command The command.
+     * @return The command's permit, or <code>null</code> if there is no
+     *         admission control.
+     * @throws OverloadedException If the command was not admitted.
+     */
+    private AdmissionControl.Permit admit(final CallCommand command)
+        throws OverloadedException
+    {
+        final AdmissionControl admission = _admission;
+        if (null == admission) {
+            return null;
+        }
+
+        try {
+            return admission.admit(command.getObject());
+        }
+        catch (final OverloadedException oe) {
+            LOG.debug("Not admitting " + command.getObject() + "." + command.getMethod() + ": " + oe.getMessage());
+            throw oe;
+        }
+    }
+
+    /**
+     * Look up the API object named by a command.
+     * 
+     * @param command The command.
+     * @return The object.
+     * @throws NotBoundException If no object is bound to the name.
+     */
+    private Object lookup(final CallCommand command)
+        throws NotBoundException
+    {
+        LOG.debug("Looking up API object " + command.getObject());
+        try {
+            return _registry.lookup(command.getObject());
+        }
+        catch (final NotBoundException nbe) {
+            LOG.warn("Unable to find object " + command.getObject(), nbe);
+            throw nbe;
+        }
+    }
+
+    /**
+     * Execute a command on its API object.
+     * 
+     * @param command The command to execute.
+     * @param object The object named by the command.
+     * @param call The command's tracker, or <code>null</code> if it is not
+     *            tracked.
+     * @param scheduled The command, if it is running on the scheduler.
+     * @return The response to the command, or {@link #DEFERRED}.
+     */
+    private Response execute(final CallCommand command, final Object object, final Running call,
+                             final Scheduled scheduled)
+    {
+        if (command.isExpired()) {
+            return expired(command, "before it was called");
+        }
+
+        try {
             LOG.debug("Looking up API method " + command.getObject() + "." + command.getMethod());
             final Method method = findMethod(object, command.getMethod());
 
-            LOG.debug("Calling API method " + command.getObject() + "." + command.getMethod());
-            final Object retn = method.invoke(object, command.getArguments());
+            final DeadlineWatchdog watchdog = _watchdog;
+            if (null == watchdog || command.getTimeout() == 0) {
+                LOG.debug("Calling API method " + command.getObject() + "." + command.getMethod());
+                return invoke(command, object, method, call, null, scheduled);
+            }
+
+            LOG.debug("Calling API method " + command.getObject() + "." + command.getMethod() + " under watch");
+            final DeadlineWatchdog.Watch watch =
+                watchdog.watch(command.getObject() + "." + command.getMethod(), command.getDeadline());
+            final Response response;
+            boolean interrupted;
+            try {
+                response = invoke(command, object, method, call, watch, scheduled);
+            }
+            finally {
+                interrupted = watch.done();
+            }
+
+            // A deferred command's deadline is checked when it is answered
+            if (interrupted && DEFERRED != response) {
+                return expired(command, "while it was running");
+            }
+
+            return response;
+        }
+        catch (final MethodNotFoundException mnfe) {
+            LOG.warn("Unable to find method " + command.getObject() + "." + command.getMethod(), mnfe);
+            return new ErrorResponse(command.getLabel(), mnfe);
+        }
+    }
+
+    /**
+     * Build the response to a command whose timeout has run out.
+     * 
+     * @param command The command.
+     * @param when When the timeout ran out.
+     * @return The response.
+     */
+    private Response expired(final CallCommand command, final String when)
+    {
+        expired.incrementAndGet();
+        LOG.debug("Timeout of " + command.getObject() + "." + command.getMethod() + " ran out " + when);
+        return new ErrorResponse(command.getLabel(),
+                                 new DeadlineExceededException(String.format("%s.%s: timeout of %d ms ran out %s",
+                                                                             command.getObject(),
+                                                                             command.getMethod(),
+                                                                             command.getTimeout(), when)));
+    }
+
+    /**
+     * Answer a call from the cache if the method is cached, or by waiting for
+     * an identical call if the method is single-flight, or else by invoking the
+     * method. Every answer is recorded in the call statistics.
+     * 
+     * A scheduled command waits for an identical call without holding its
+     * thread: it is answered, when that call finishes, by
+     * {@link Scheduled#landed(Response)}. A command on the caller's thread
+     * waits on that thread.
+     * 
+     * A leader which was interrupted (cancelled, or past its deadline) hands
+     * nothing to the calls waiting for it, since its error is its own: they
+     * invoke the method themselves (a scheduled command by running again).
+     * Likewise a waiting call which is interrupted gives up, rather than
+     * invoking the method it no longer wants.
+     * 
+     * @param command The command being executed.
+     * @param object The object on which to invoke the method.
+     * @param method The method to invoke.
+     * @param call The command's tracker, or <code>null</code> if it is not
+     *            tracked.
+     * @param watch The command's deadline watch, or <code>null</code> if it is
+     *            not watched.
+     * @param scheduled The command, if it is running on the scheduler.
+     * @return The response to the command, or {@link #DEFERRED} if it is
+     *         waiting for an identical call.
+     */
+    private Response invoke(final CallCommand command, final Object object, final Method method, final Running call,
+                            final DeadlineWatchdog.Watch watch, final Scheduled scheduled)
+    {
+        final long start = System.nanoTime();
+
+        // Taken first, so an invalidation while the method runs is not missed
+        final long generation = _cache.getGeneration(command.getObject(), method);
+        final SharedValue cached = _cache.get(command.getObject(), method, command.getArguments());
+        if (null != cached) {
+            _statistics.getRecorder(command.getObject(), command.getMethod()).recordHit(System.nanoTime() - start);
+            return ValueResponse.shared(command.getLabel(), cached);
+        }
+
+        // An iterator cannot be shared, so streamed results never are
+        final InFlightCalls.Flight flight =
+            (isStreamed(command, method) ? null : _flights.begin(command.getObject(), method, command.getArguments()));
+        if (null == flight) {
+            return call(command, object, method, generation, false);
+        }
+        else if (!flight.isLeader()) {
+            if (null != scheduled && scheduled.follow(flight, start)) {
+                return DEFERRED;
+            }
+
+            // Returns at once if the identical call has already finished
+            final Response response = coalesced(command, start, flight.await());
+            if (null != response) {
+                return response;
+            }
+            else if (Thread.currentThread().isInterrupted() || isInterrupted(call, watch)) {
+                return new ErrorResponse(command.getLabel(),
+                                         new InterruptedException("Interrupted waiting for an identical call"));
+            }
+            else if (command.isExpired()) {
+                return expired(command, "while it was waiting for an identical call");
+            }
+            else {
+                return call(command, object, method, generation, false);
+            }
+        }
+
+        Response response = null;
+        try {
+            response = call(command, object, method, generation, true);
+            return response;
+        }
+        finally {
+            _flights.end(flight, (isInterrupted(call, watch) ? null : response));
+        }
+    }
 
-            response = new ValueResponse(command.getLabel(), retn);
+    /**
+     * Answer a command with the response of the identical call it waited for,
+     * recording it as coalesced.
+     * 
+     * @param command The command.
+     * @param start When the command started, from {@link System#nanoTime()}.
+     * @param response The identical call's response, or <code>null</code> if
+     *            it had none to give.
+     * @return The response to the command, or <code>null</code> if there is
+     *         none.
+     */
+    private Response coalesced(final CallCommand command, final long start, final Response response)
+    {
+        final MethodRecorder recorder = _statistics.getRecorder(command.getObject(), command.getMethod());
+        if (response instanceof ValueResponse) {
+            recorder.recordCoalesced(System.nanoTime() - start, null);
+            return ((ValueResponse)response).withLabel(command.getLabel());
+        }
+        else if (response instanceof ErrorResponse) {
+            recorder.recordCoalesced(System.nanoTime() - start, errorType((ErrorResponse)response));
+            return ((ErrorResponse)response).withLabel(command.getLabel());
+        }
+
+        return null;
+    }
+
+    /**
+     * Test whether a command has been interrupted, by being cancelled or by
+     * its deadline passing.
+     * 
+     * @param call The command's tracker, or <code>null</code> if it is not
+     *            tracked.
+     * @param watch The command's deadline watch, or <code>null</code> if it is
+     *            not watched.
+     * @return True if it has been interrupted.
+     */
+    private boolean isInterrupted(final Running call, final DeadlineWatchdog.Watch watch)
+    {
+        return ((null != call && call.isCancelled()) || (null != watch && watch.isFired()));
+    }
+
+    /**
+     * Invoke a method, recording its duration and outcome.
+     * 
+     * @param command The command being executed.
+     * @param object The object on which to invoke the method.
+     * @param method The method to invoke.
+     * @param generation The generation of the method's cached results before
+     *            the command was looked up in the cache.
+     * @param share True to send the result as a {@link SharedValue} even if it
+     *            is not cached, so that other responses may reuse its encoding.
+     * @return The response to the command.
+     */
+    private Response call(final CallCommand command, final Object object, final Method method, final long generation,
+                          final boolean share)
+    {
+        final MethodRecorder recorder = _statistics.getRecorder(command.getObject(), command.getMethod());
+        final long start = System.nanoTime();
+        try {
+            Object retn = method.invoke(object, command.getArguments());
+            recorder.record(System.nanoTime() - start);
+
+            if (isStreamed(command, method) && null != retn) {
+                return new TrackedStream(command.getLabel(), iterator(retn));
+            }
+            else if (retn instanceof SharedValue) {
+                // Already shared by the method, so not worth caching
+                return ValueResponse.shared(command.getLabel(), (SharedValue)retn);
+            }
+            else if (retn instanceof Iterator) {
+                retn = collect((Iterator<?>)retn);
+            }
+            else {
+                final SharedValue registered = SharedValue.forValue(retn);
+                if (null != registered) {
+                    return ValueResponse.shared(command.getLabel(), registered);
+                }
+            }
+
+            final SharedValue shared =
+                _cache.put(command.getObject(), method, command.getArguments(), retn, generation);
+            if (null != shared) {
+                return ValueResponse.shared(command.getLabel(), shared);
+            }
+            else if (share) {
+                return ValueResponse.shared(command.getLabel(), new SharedValue(retn));
+            }
+
+            return new ValueResponse(command.getLabel(), retn);
         }
         catch (final IllegalArgumentException iae) {
+            recorder.recordError(System.nanoTime() - start, iae.getClass());
             LOG.warn("Failed to call " + command.getObject() + "." + command.getMethod(), iae);
-            response = new ErrorResponse(command.getLabel(), iae);
+            return new ErrorResponse(command.getLabel(), iae);
         }
         catch (final IllegalAccessException iae) {
+            recorder.recordError(System.nanoTime() - start, iae.getClass());
             LOG.warn("Failed to call " + command.getObject() + "." + command.getMethod(), iae);
-            response = new ErrorResponse(command.getLabel(), iae);
+            return new ErrorResponse(command.getLabel(), iae);
         }
         catch (final InvocationTargetException ite) {
+            // Count the exception thrown by the method, not the wrapper
+            final Throwable cause = (null == ite.getCause() ? ite : ite.getCause());
+            recorder.recordError(System.nanoTime() - start, cause.getClass());
             LOG.warn("Failed to call " + command.getObject() + "." + command.getMethod(), ite);
-            response = new ErrorResponse(command.getLabel(), ite);
+            return new ErrorResponse(command.getLabel(), ite);
         }
-        catch (final MethodNotFoundException mnfe) {
-            LOG.warn("Unable to find method " + command.getObject() + "." + command.getMethod(), mnfe);
-            response = new ErrorResponse(command.getLabel(), mnfe);
+    }
+
+    /**
+     * Get the type of exception reported by an error response from
+     * {@link #call(CallCommand, Object, Method, long, boolean)}, as it was
+     * recorded: the exception thrown by the method, rather than its wrapper.
+     * 
+     * @param response The response.
+     * @return The type of exception.
+     */
+    private static Class<? extends Throwable> errorType(final ErrorResponse response)
+    {
+        final Throwable exception = response.getException();
+        if (exception instanceof InvocationTargetException && null != exception.getCause()) {
+            return exception.getCause().getClass();
         }
-        catch (final NotBoundException nbe) {
-            LOG.warn("Unable to find object " + command.getObject(), nbe);
-            response = new ErrorResponse(command.getLabel(), nbe);
+
+        return exception.getClass();
+    }
+
+    /**
+     * Test whether the result of a command should be streamed.
+     * 
+     * @param command The command.
+     * @param method The method it calls.
+     * @return True if the command asked for streaming and has a label (without
+     *         which the client could not tell the chunks apart from any
+     *         others), and the method's declared return type is
+     *         {@link Iterator} or {@link Iterable}.
+     */
+    private boolean isStreamed(final CallCommand command, final Method method)
+    {
+        return (command.isStream() && null != command.getLabel() &&
+                (method.getReturnType() == Iterator.class || method.getReturnType() == Iterable.class));
+    }
+
+    /**
+     * Get an iterator over a result to be streamed.
+     * 
+     * @param retn The {@link Iterator} or {@link Iterable} returned by the
+     *            method.
+     * @return The iterator.
+     */
+    private Iterator<?> iterator(final Object retn)
+    {
+        return (retn instanceof Iterator ? (Iterator<?>)retn : ((Iterable<?>)retn).iterator());
+    }
+
+    /**
+     * Collect the rest of an iterator into an array, so that it can be sent as
+     * a single value.
+     * 
+     * @param it The iterator.
+     * @return Its elements.
+     */
+    private Object[] collect(final Iterator<?> it)
+    {
+        final List<Object> elements = new ArrayList<Object>();
+        while (it.hasNext()) {
+            elements.add(it.next());
         }
 
-        return response;
+        return elements.toArray();
     }
 
     /**
@@ -107,4 +971,301 @@ public class CommandExecutor
 
         throw new MethodNotFoundException(object.getClass().getName() + "." + methodName);
     }
+
+    /**
+     * A streamed result which stops its command being tracked once it ends.
+     */
+    private class TrackedStream
+        extends StreamResponse
+    {
+        TrackedStream(final String label, final Iterator<?> iterator)
+        {
+            super(label, iterator);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see net.jonp.armi.base.response.StreamResponse#nextChunk()
+         */
+        @Override
+        public synchronized Response nextChunk()
+        {
+            final Response chunk = super.nextChunk();
+            if (null == chunk) {
+                untrack();
+            }
+
+            return chunk;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see net.jonp.armi.base.response.StreamResponse#abandon()
+         */
+        @Override
+        public synchronized void abandon()
+        {
+            super.abandon();
+            untrack();
+        }
+
+        private void untrack()
+        {
+            final Running call = running.get(getLabel());
+            if (null != call && call.stream == this) {
+                running.remove(getLabel(), call);
+            }
+        }
+    }
+
+    /**
+     * A command run on the {@link CallScheduler}. If it finds an identical call
+     * running, it gives up its thread, and is answered (or run again) on that
+     * call's thread when it finishes; it keeps its admission permit until it
+     * is answered.
+     */
+    private class Scheduled
+        implements Runnable, InFlightCalls.Follower
+    {
+        final CallCommand command;
+        final Object object;
+        final Running call;
+        private final AdmissionControl.Permit _permit;
+        private final ResponseCallback _callback;
+
+        /** When the command started waiting for an identical call. */
+        private long start;
+
+        /** How many of the two parties to a retry are ready (see rejoin()). */
+        private int ready = 0;
+
+        Scheduled(final CallCommand _command, final Object _object, final Running _call,
+                  final AdmissionControl.Permit permit, final ResponseCallback callback)
+        {
+            command = _command;
+            object = _object;
+            call = _call;
+            _permit = permit;
+            _callback = callback;
+        }
+
+        @Override
+        public void run()
+        {
+            if (null != _permit) {
+                // Its latency does not include its time in the scheduler
+                _permit.begin();
+            }
+
+            Response response = null;
+            try {
+                response = CommandExecutor.this.run(command, object, call, this);
+            }
+            finally {
+                if (DEFERRED != response) {
+                    release();
+                }
+            }
+
+            if (DEFERRED == response) {
+                rejoin();
+            }
+            else if (null != response) {
+                _callback.response(response);
+            }
+        }
+
+        /**
+         * Wait for an identical call, without holding the thread.
+         * 
+         * @param flight The identical call.
+         * @param _start When the command started, from
+         *            {@link System#nanoTime()}.
+         * @return False if the identical call has already finished, so there
+         *         is nothing to wait for.
+         */
+        boolean follow(final InFlightCalls.Flight flight, final long _start)
+        {
+            start = _start;
+            return flight.whenDone(this);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see net.jonp.armi.comm.InFlightCalls.Follower#landed(net.jonp.armi.base.response.Response)
+         */
+        @Override
+        public void landed(final Response response)
+        {
+            final Response coalesced = coalesced(command, start, response);
+            if (null != coalesced) {
+                answer(coalesced);
+            }
+            else if (isInterrupted(call, null)) {
+                // Cancelled while waiting
+                answer(null);
+            }
+            else if (command.isExpired()) {
+                answer(expired(command, "while it was waiting for an identical call"));
+            }
+            else {
+                rejoin();
+            }
+        }
+
+        /**
+         * Run the command again, to invoke the method (or find another
+         * identical call) on a thread the object's mode allows, once both the
+         * identical call has finished without answering it, and the thread
+         * which was running it has let go of it: the second to call this
+         * submits it, so that it never runs on two threads at once.
+         */
+        private void rejoin()
+        {
+            synchronized (this) {
+                if (++ready < 2) {
+                    return;
+                }
+
+                ready = 0;
+            }
+
+            try {
+                _scheduler.submit(object, this);
+            }
+            catch (final RejectedExecutionException ree) {
+                LOG.warn("Unable to run " + command.getObject() + "." + command.getMethod() + " again", ree);
+                answer(new ErrorResponse(command.getLabel(), ree));
+            }
+        }
+
+        /**
+         * Answer the command, after waiting, unless it has been cancelled.
+         * 
+         * @param response The response, or <code>null</code> to give none.
+         */
+        private void answer(final Response response)
+        {
+            boolean wasCancelled = false;
+            if (null != call) {
+                wasCancelled = call.isCancelled();
+                running.remove(call.label, call);
+            }
+
+            release();
+            if (!wasCancelled && null != response) {
+                _callback.response(response);
+            }
+        }
+
+        private void release()
+        {
+            if (null != _permit) {
+                _permit.release();
+            }
+        }
+    }
+
+    /**
+     * Tracks a labeled command from when it is accepted until it is answered,
+     * so that it can be cancelled. Interrupts its thread only while it is
+     * running, and clears any interrupt it ignored before the thread moves on.
+     */
+    private static class Running
+    {
+        final String label;
+        private Thread thread = null;
+        private boolean cancelled = false;
+        private boolean interrupted = false;
+        volatile StreamResponse stream = null;
+
+        Running(final String _label)
+        {
+            label = _label;
+        }
+
+        /**
+         * Called on the thread which is about to run the command.
+         * 
+         * @return False if the command has been cancelled, and should not run.
+         */
+        synchronized boolean start()
+        {
+            if (cancelled) {
+                return false;
+            }
+
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * Called on the thread which ran the command, once it has finished.
+         * 
+         * @param response The response, or <code>null</code> if the command
+         *            threw.
+         * @return True if the command was cancelled.
+         */
+        synchronized boolean finish(final Response response)
+        {
+            thread = null;
+            if (interrupted) {
+                Thread.interrupted();
+            }
+
+            if (cancelled) {
+                if (response instanceof StreamResponse) {
+                    ((StreamResponse)response).abandon();
+                }
+            }
+            else if (response instanceof StreamResponse) {
+                stream = (StreamResponse)response;
+            }
+
+            return cancelled;
+        }
+
+        /**
+         * Test whether the command has been cancelled.
+         * 
+         * @return True if it has been cancelled.
+         */
+        synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * Cancel the command.
+         */
+        synchronized void cancel()
+        {
+            cancelled = true;
+            if (null != thread) {
+                interrupted = true;
+                thread.interrupt();
+            }
+
+            if (null != stream) {
+                stream.abandon();
+            }
+        }
+    }
+
+    /**
+     * Receives the response to a command passed to
+     * {@link CommandExecutor#executeCommand(CallCommand, ResponseCallback)}.
+     */
+    public static interface ResponseCallback
+    {
+        /**
+         * Called once, when the command has been executed.
+         * 
+         * @param response The response to the command.
+         */
+        public void response(Response response);
+    }
 }
@@ -8,6 +8,7 @@ import java.util.Queue;
 import net.jonp.armi.base.ClassRegistry;
 import net.jonp.armi.base.command.Command;
 import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.StreamResponse;
 import net.jonp.armi.comm.client.ClientSideCommunicator;
 import net.jonp.armi.comm.server.ServerSideCommunicator;
 
@@ -81,11 +82,26 @@ public class CommunicatorPipe
         sendItem(_commands, command, "command");
     }
 
+    /**
+     * Send a response. A {@link StreamResponse} is expanded into its chunks
+     * immediately, since the pipe has no way to hold back the sender.
+     * 
+     * @param response The response to send.
+     * @throws IOException If the pipe is closed.
+     */
     @Override
     public void sendResponse(final Response response)
         throws IOException
     {
-        sendItem(_responses, response, "response");
+        if (response instanceof StreamResponse) {
+            Response chunk;
+            while (null != (chunk = ((StreamResponse)response).nextChunk())) {
+                sendItem(_responses, chunk, "response");
+            }
+        }
+        else {
+            sendItem(_responses, response, "response");
+        }
     }
 
     @Override
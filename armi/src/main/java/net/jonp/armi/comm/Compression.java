@@ -0,0 +1,84 @@
+package net.jonp.armi.comm;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import net.jonp.armi.base.io.CompressedFrameInputStream;
+import net.jonp.armi.base.io.CompressedFrameOutputStream;
+
+/**
+ * Settings for DEFLATE compression of a connection, negotiated through a
+ * {@link Handshake}.
+ */
+public class Compression
+{
+    /** Default size, in bytes, below which statements are not compressed. */
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    /** Default compression: {@link Deflater#DEFAULT_COMPRESSION}. */
+    public static final Compression DEFAULT = new Compression(Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD);
+
+    private final int _level;
+    private final int _threshold;
+
+    /**
+     * Construct a new Compression.
+     * 
+     * @param level The compression level, from {@link Deflater}.
+     * @param threshold Statements with fewer bytes than this are sent
+     *            uncompressed.
+     */
+    public Compression(final int level, final int threshold)
+    {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Bad compression level: " + level);
+        }
+
+        _level = level;
+        _threshold = threshold;
+    }
+
+    /**
+     * Get the compression level.
+     * 
+     * @return The compression level, from {@link Deflater}.
+     */
+    public int getLevel()
+    {
+        return _level;
+    }
+
+    /**
+     * Get the size below which statements are sent uncompressed.
+     * 
+     * @return The threshold, in bytes.
+     */
+    public int getThreshold()
+    {
+        return _threshold;
+    }
+
+    /**
+     * Wrap a stream so that statements written to it are compressed. Each
+     * statement must be followed by a call to {@link OutputStream#flush()}.
+     * 
+     * @param out The stream to wrap.
+     * @return The compressing stream.
+     */
+    public CompressedFrameOutputStream wrap(final OutputStream out)
+    {
+        return new CompressedFrameOutputStream(out, _level, _threshold);
+    }
+
+    /**
+     * Wrap a stream so that the statements read from it are decompressed.
+     * 
+     * @param in The stream to wrap.
+     * @return The decompressing stream.
+     */
+    public static CompressedFrameInputStream wrap(final InputStream in)
+    {
+        return new CompressedFrameInputStream(in);
+    }
+}
@@ -0,0 +1,30 @@
+package net.jonp.armi.comm;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how many calls a {@link CallScheduler} may run at once on an API
+ * object of the annotated class. An object whose class is not annotated, and
+ * whose mode is not set with
+ * {@link CallScheduler#setMode(Object, CallScheduler.Mode, int)}, gets the
+ * scheduler's default mode.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Concurrency
+{
+    /**
+     * The concurrency mode.
+     */
+    CallScheduler.Mode value();
+
+    /**
+     * The most calls to run at once, under {@link CallScheduler.Mode#LIMITED}.
+     */
+    int limit() default 1;
+}
@@ -0,0 +1,15 @@
+package net.jonp.armi.comm;
+
+/**
+ * Sent back in place of the result of a call whose timeout ran out before the
+ * server got to it, or while it was running. The caller has most likely given
+ * up on it already.
+ */
+public class DeadlineExceededException
+    extends Exception
+{
+    public DeadlineExceededException(final String message)
+    {
+        super(message);
+    }
+}
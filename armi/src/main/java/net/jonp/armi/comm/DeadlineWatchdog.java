@@ -0,0 +1,133 @@
+package net.jonp.armi.comm;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Interrupts the threads running calls whose deadlines have passed. Give one
+ * to {@link CommandExecutor#setWatchdog(DeadlineWatchdog)} to stop API
+ * methods which respond to interruption (by blocking in an interruptible
+ * method, or by checking {@link Thread#isInterrupted()}) from running on long
+ * after their callers have given up. Methods which ignore interruption are
+ * not affected.
+ * 
+ * One daemon thread serves any number of executors. An interrupt is only ever
+ * delivered while the watched call is still running: once
+ * {@link Watch#done()} returns, the thread is never interrupted on that call's
+ * behalf, and any interrupt the call ignored has been cleared.
+ */
+public class DeadlineWatchdog
+{
+    private static final Logger LOG = Logger.getLogger(DeadlineWatchdog.class);
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Construct a new DeadlineWatchdog, with its own timer thread.
+     */
+    public DeadlineWatchdog()
+    {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, "DeadlineWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Almost every call finishes in time, so don't keep their timers
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Start watching a call on the current thread.
+     * 
+     * @param name Describes the call, for logging.
+     * @param deadline The {@link System#nanoTime()} at which to interrupt the
+     *            current thread, if the call is still running.
+     * @return The watch, whose {@link Watch#done()} must be called (in a
+     *         <code>finally</code> block) when the call returns.
+     */
+    public Watch watch(final String name, final long deadline)
+    {
+        final Watch watch = new Watch(name, Thread.currentThread());
+        watch.future = timer.schedule(watch, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        return watch;
+    }
+
+    /**
+     * Stop the timer thread. Calls still being watched are not interrupted.
+     */
+    public void shutdown()
+    {
+        timer.shutdownNow();
+    }
+
+    /**
+     * A call being watched.
+     */
+    public static class Watch
+        implements Runnable
+    {
+        private final String _name;
+        private final Thread _thread;
+        private ScheduledFuture<?> future = null;
+        private boolean done = false;
+        private boolean fired = false;
+
+        Watch(final String name, final Thread thread)
+        {
+            _name = name;
+            _thread = thread;
+        }
+
+        /**
+         * Called on the timer thread at the deadline.
+         */
+        @Override
+        public synchronized void run()
+        {
+            if (!done) {
+                LOG.debug("Interrupting " + _name + ", past its deadline");
+                fired = true;
+                _thread.interrupt();
+            }
+        }
+
+        /**
+         * Test whether the thread has been interrupted because the deadline
+         * passed, without stopping watching.
+         * 
+         * @return True if the deadline has passed.
+         */
+        public synchronized boolean isFired()
+        {
+            return fired;
+        }
+
+        /**
+         * Stop watching. Must be called on the thread which made the call.
+         * 
+         * @return True if the thread was interrupted because the deadline
+         *         passed.
+         */
+        public synchronized boolean done()
+        {
+            done = true;
+            future.cancel(false);
+
+            if (fired) {
+                // Don't leave the interrupt for the next call on this thread
+                Thread.interrupted();
+            }
+
+            return fired;
+        }
+    }
+}
@@ -2,7 +2,7 @@ package net.jonp.armi.comm;
 
 import java.rmi.NotBoundException;
 
-import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.VersionedClassRegistry;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
@@ -13,11 +13,14 @@ import com.google.common.collect.HashBiMap;
  * {@link HashBiMap}.
  */
 public class DefaultClassRegistry
-    implements ClassRegistry
+    implements VersionedClassRegistry
 {
     private final BiMap<String, Class<?>> map = HashBiMap.create();
     private final ClassLoader _classLoader;
 
+    /** Counts changes to {@link #map}. */
+    private volatile int version = 0;
+
     /**
      * Construct a new {@link DefaultClassRegistry} that will fall back onto the
      * system classloader ({@link ClassLoader#getSystemClassLoader()}).
@@ -61,6 +64,7 @@ public class DefaultClassRegistry
     public void clear()
     {
         map.clear();
+        version++;
     }
 
     /**
@@ -75,6 +79,7 @@ public class DefaultClassRegistry
         throws IllegalArgumentException
     {
         map.put(name, clazz);
+        version++;
     }
 
     /**
@@ -109,6 +114,7 @@ public class DefaultClassRegistry
     public void remove(final String name)
     {
         map.remove(name);
+        version++;
     }
 
     /**
@@ -119,6 +125,7 @@ public class DefaultClassRegistry
     public void remove(final Class<?> clazz)
     {
         map.inverse().remove(clazz);
+        version++;
     }
 
     /**
@@ -145,6 +152,17 @@ public class DefaultClassRegistry
         return map.inverse().containsKey(clazz);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.jonp.armi.base.VersionedClassRegistry#getVersion()
+     */
+    @Override
+    public int getVersion()
+    {
+        return version;
+    }
+
     /**
      * Look up the given class name in this registry.
      * 
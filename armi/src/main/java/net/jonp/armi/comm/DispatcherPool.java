@@ -0,0 +1,545 @@
+package net.jonp.armi.comm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.PreparedCall;
+import net.jonp.armi.comm.client.ClientSideCommunicator;
+import net.jonp.armi.comm.client.CommunicatorFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A pool of connections to one server, each with its own
+ * {@link ResponseDispatcher}, offering the <code>call()</code> and
+ * <code>callNoResponse()</code> methods of a single {@link ResponseDispatcher},
+ * for commands and for {@link PreparedCall}s. Streams and cancellation are
+ * tied to one connection, so are not offered; use a single
+ * {@link ResponseDispatcher} for those.
+ * 
+ * Each call goes to the connection with the fewest calls outstanding (ties are
+ * shared out in turn), so one slow call does not hold up others queued behind
+ * it on the same connection. Connections which close, or fail while sending a
+ * command, are replaced in the background; a {@link RemoteException} (an
+ * exception on the remote end) leaves the connection open. Calls that were
+ * waiting on a failed connection are not retried; they fail or time out as
+ * they would with a single {@link ResponseDispatcher}.
+ * 
+ * Unsolicited messages may arrive on any connection, so listeners and
+ * suppressed exceptions are registered with every connection, including
+ * replacements.
+ */
+public class DispatcherPool
+    implements Closeable
+{
+    private static final Logger LOG = Logger.getLogger(DispatcherPool.class);
+
+    /** Default interval (in milliseconds) between attempts to reconnect. */
+    public static final long RECONNECT_MS = 1000;
+
+    private final CommunicatorFactory _factory;
+    private final long _timeout;
+    private final long _reconnectInterval;
+    private final Slot[] slots;
+    private final AtomicInteger nextSlot = new AtomicInteger(0);
+    private final Thread reconnector;
+    private volatile boolean closed = false;
+
+    private final List<String> unsolPatterns = new ArrayList<String>();
+    private final List<UnsolListener> unsolListeners = new ArrayList<UnsolListener>();
+    private final List<Class<? extends IOException>> suppressedExceptions = new ArrayList<Class<? extends IOException>>();
+
+    /**
+     * Construct a new {@link DispatcherPool} with the default call timeout (
+     * {@link ResponseDispatcher#TIMEOUT_MS}) and reconnect interval (
+     * {@link #RECONNECT_MS}).
+     * 
+     * @param factory Opens the connections.
+     * @param size The number of connections to keep open.
+     * @throws IOException If no connection could be opened.
+     */
+    public DispatcherPool(final CommunicatorFactory factory, final int size)
+        throws IOException
+    {
+        this(factory, size, ResponseDispatcher.TIMEOUT_MS, RECONNECT_MS);
+    }
+
+    /**
+     * Construct a new {@link DispatcherPool}. Connections are opened
+     * immediately; any that cannot be opened are retried in the background.
+     * 
+     * @param factory Opens the connections.
+     * @param size The number of connections to keep open.
+     * @param timeout The default timeout for {@link #call(CallCommand)}, in
+     *            milliseconds.
+     * @param reconnectInterval How long to wait between attempts to replace
+     *            failed connections, in milliseconds.
+     * @throws IOException If no connection could be opened.
+     */
+    public DispatcherPool(final CommunicatorFactory factory, final int size, final long timeout,
+                          final long reconnectInterval)
+        throws IOException
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+
+        _factory = factory;
+        _timeout = timeout;
+        _reconnectInterval = reconnectInterval;
+
+        slots = new Slot[size];
+        IOException failure = null;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            try {
+                connect(slots[i]);
+            }
+            catch (final IOException ioe) {
+                LOG.warn("Unable to open pooled connection " + i, ioe);
+                failure = ioe;
+            }
+        }
+
+        if (getConnected() == 0) {
+            if (null == failure) {
+                // Every connection opened, but closed again straight away
+                throw new IOException("No pooled connection stayed open");
+            }
+
+            throw failure;
+        }
+
+        reconnector = new Thread("DispatcherPool reconnector") {
+            @Override
+            public void run()
+            {
+                reconnect();
+            }
+        };
+        reconnector.setDaemon(true);
+        reconnector.start();
+    }
+
+    /**
+     * Get the number of connections this pool keeps open.
+     * 
+     * @return The size of the pool.
+     */
+    public int getSize()
+    {
+        return slots.length;
+    }
+
+    /**
+     * Get the number of connections that are currently open.
+     * 
+     * @return The number of open connections.
+     */
+    public int getConnected()
+    {
+        int connected = 0;
+        for (final Slot slot : slots) {
+            if (slot.isOpen()) {
+                connected++;
+            }
+        }
+
+        return connected;
+    }
+
+    /**
+     * Get the number of calls awaiting a response, across all connections.
+     * 
+     * @return The number of outstanding calls.
+     */
+    public int getOutstanding()
+    {
+        int outstanding = 0;
+        for (final Slot slot : slots) {
+            outstanding += slot.outstanding.get();
+        }
+
+        return outstanding;
+    }
+
+    /**
+     * Get the default timeout, in milliseconds, used by
+     * {@link #call(CallCommand)}.
+     * 
+     * @return The default timeout, in milliseconds.
+     */
+    public long getTimeout()
+    {
+        return _timeout;
+    }
+
+    /**
+     * Add a listener for unsolicited messages, on every connection.
+     * 
+     * @param pattern A regular expression to match the 'type' field of the
+     *            unsolicited messages.
+     * @param ul The listener to add.
+     * @see ResponseDispatcher#addUnsolListener(String, UnsolListener)
+     */
+    public void addUnsolListener(final String pattern, final UnsolListener ul)
+    {
+        synchronized (unsolListeners) {
+            unsolPatterns.add(pattern);
+            unsolListeners.add(ul);
+
+            for (final Slot slot : slots) {
+                final ResponseDispatcher dispatcher = slot.dispatcher;
+                if (null != dispatcher) {
+                    dispatcher.addUnsolListener(pattern, ul);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a listener for unsolicited messages from every connection.
+     * 
+     * @param ul The listener to remove.
+     * @see ResponseDispatcher#removeUnsolListener(UnsolListener)
+     */
+    public void removeUnsolListener(final UnsolListener ul)
+    {
+        synchronized (unsolListeners) {
+            for (int i = unsolListeners.size() - 1; i >= 0; i--) {
+                if (unsolListeners.get(i) == ul) {
+                    unsolPatterns.remove(i);
+                    unsolListeners.remove(i);
+                }
+            }
+
+            for (final Slot slot : slots) {
+                final ResponseDispatcher dispatcher = slot.dispatcher;
+                if (null != dispatcher) {
+                    dispatcher.removeUnsolListener(ul);
+                }
+            }
+        }
+    }
+
+    /**
+     * Don't bother logging exceptions of the given type on any connection.
+     * 
+     * @param clazz The class of exceptions to suppress.
+     * @see ResponseDispatcher#addSuppressedException(Class)
+     */
+    public void addSuppressedException(final Class<? extends IOException> clazz)
+    {
+        synchronized (unsolListeners) {
+            suppressedExceptions.add(clazz);
+
+            for (final Slot slot : slots) {
+                final ResponseDispatcher dispatcher = slot.dispatcher;
+                if (null != dispatcher) {
+                    dispatcher.addSuppressedException(clazz);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call a remote method on the least busy connection, and wait for a
+     * response using the timeout configured for this {@link DispatcherPool}.
+     * 
+     * @param cmd The call command to send.
+     * @return The object returned in the response.
+     * @throws RemoteException If there was an exception on the remote end.
+     * @throws IOException If there was an exception sending the command, or if
+     *             no connection is open.
+     * @throws NotBoundException If the command could not be serialized.
+     * @throws TimeoutException If no response is received from the server
+     *             before the timeout expires.
+     * @see ResponseDispatcher#call(CallCommand)
+     */
+    public Object call(final CallCommand cmd)
+        throws RemoteException, IOException, NotBoundException, TimeoutException
+    {
+        return call(cmd, getTimeout());
+    }
+
+    /**
+     * Call a remote method on the least busy connection, and wait for a
+     * response using a custom timeout.
+     * 
+     * @param cmd The call command to send.
+     * @param timeout The timeout to use, in milliseconds.
+     * @return The object returned in the response.
+     * @throws RemoteException If there was an exception on the remote end.
+     * @throws IOException If there was an exception sending the command, or if
+     *             no connection is open.
+     * @throws NotBoundException If the command could not be serialized.
+     * @throws TimeoutException If no response is received from the server
+     *             before the timeout expires.
+     * @see ResponseDispatcher#call(CallCommand, long)
+     */
+    public Object call(final CallCommand cmd, final long timeout)
+        throws RemoteException, IOException, NotBoundException, TimeoutException
+    {
+        final Slot slot = pick();
+        final ResponseDispatcher dispatcher = slot.dispatcher;
+
+        slot.outstanding.incrementAndGet();
+        try {
+            return dispatcher.call(cmd, timeout);
+        }
+        catch (final RemoteException re) {
+            // The server answered, so the connection is fine
+            throw re;
+        }
+        catch (final IOException ioe) {
+            retire(dispatcher);
+            throw ioe;
+        }
+        finally {
+            slot.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * Call a remote method on the least busy connection, and do not wait for a
+     * response.
+     * 
+     * @param cmd The call command to send.
+     * @throws IOException If there was an exception sending the command, or if
+     *             no connection is open.
+     * @throws NotBoundException If the command could not be serialized.
+     * @see ResponseDispatcher#callNoResponse(CallCommand)
+     */
+    public void callNoResponse(final CallCommand cmd)
+        throws IOException, NotBoundException
+    {
+        final ResponseDispatcher dispatcher = pick().dispatcher;
+
+        try {
+            dispatcher.callNoResponse(cmd);
+        }
+        catch (final RemoteException re) {
+            // The server answered, so the connection is fine
+            throw re;
+        }
+        catch (final IOException ioe) {
+            retire(dispatcher);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Call a prepared remote method on the least busy connection, and wait for
+     * a response using the timeout configured for this {@link DispatcherPool}.
+     * 
+     * @param prepared The prepared call.
+     * @param arguments The arguments to pass to the method.
+     * @return The object returned in the response.
+     * @throws RemoteException If there was an exception on the remote end.
+     * @throws IOException If there was an exception sending the command, or if
+     *             no connection is open.
+     * @throws NotBoundException If the call could not be serialized.
+     * @throws TimeoutException If no response is received from the server
+     *             before the timeout expires.
+     * @see ResponseDispatcher#call(PreparedCall, Object...)
+     */
+    public Object call(final PreparedCall prepared, final Object... arguments)
+        throws RemoteException, IOException, NotBoundException, TimeoutException
+    {
+        return call(prepared.bind(arguments), getTimeout());
+    }
+
+    /**
+     * Call a prepared remote method on the least busy connection, and do not
+     * wait for a response.
+     * 
+     * @param prepared The prepared call.
+     * @param arguments The arguments to pass to the method.
+     * @throws IOException If there was an exception sending the command, or if
+     *             no connection is open.
+     * @throws NotBoundException If the call could not be serialized.
+     * @see ResponseDispatcher#callNoResponse(PreparedCall, Object...)
+     */
+    public void callNoResponse(final PreparedCall prepared, final Object... arguments)
+        throws IOException, NotBoundException
+    {
+        callNoResponse(prepared.bind(arguments));
+    }
+
+    /**
+     * Close every connection and stop replacing them.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+
+        synchronized (reconnector) {
+            reconnector.notifyAll();
+        }
+
+        for (final Slot slot : slots) {
+            final ResponseDispatcher dispatcher = slot.dispatcher;
+            if (null != dispatcher) {
+                closeQuietly(dispatcher.getCommunicator());
+            }
+        }
+    }
+
+    /**
+     * Choose the open connection with the fewest outstanding calls. The search
+     * starts at a different connection each time, so that idle connections
+     * share the load.
+     * 
+     * @return The chosen slot.
+     * @throws IOException If no connection is open.
+     */
+    private Slot pick()
+        throws IOException
+    {
+        if (closed) {
+            throw new IOException("DispatcherPool is closed");
+        }
+
+        final int start = (nextSlot.getAndIncrement() & Integer.MAX_VALUE) % slots.length;
+
+        Slot best = null;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < slots.length; i++) {
+            final Slot slot = slots[(start + i) % slots.length];
+            if (slot.isOpen()) {
+                final int outstanding = slot.outstanding.get();
+                if (outstanding < fewest) {
+                    best = slot;
+                    fewest = outstanding;
+                }
+            }
+        }
+
+        if (null == best) {
+            wakeReconnector();
+            throw new IOException("No pooled connection is open");
+        }
+
+        return best;
+    }
+
+    /**
+     * Open a connection into a slot.
+     * 
+     * @param slot The slot.
+     * @throws IOException If the connection could not be opened.
+     */
+    private void connect(final Slot slot)
+        throws IOException
+    {
+        final ClientSideCommunicator comm = _factory.connect();
+        final ResponseDispatcher dispatcher = new ResponseDispatcher(comm, _timeout);
+        dispatcher.setDaemon(true);
+
+        synchronized (unsolListeners) {
+            for (int i = 0; i < unsolListeners.size(); i++) {
+                dispatcher.addUnsolListener(unsolPatterns.get(i), unsolListeners.get(i));
+            }
+
+            for (final Class<? extends IOException> clazz : suppressedExceptions) {
+                dispatcher.addSuppressedException(clazz);
+            }
+
+            dispatcher.start();
+            slot.dispatcher = dispatcher;
+        }
+
+        LOG.debug("Opened pooled connection " + comm.getClientSideName());
+    }
+
+    /**
+     * Close a connection which has failed, so it will be replaced.
+     * 
+     * @param dispatcher The dispatcher of the failed connection.
+     */
+    private void retire(final ResponseDispatcher dispatcher)
+    {
+        LOG.info("Retiring pooled connection " + dispatcher.getCommunicator().getClientSideName());
+        closeQuietly(dispatcher.getCommunicator());
+        wakeReconnector();
+    }
+
+    private void wakeReconnector()
+    {
+        synchronized (reconnector) {
+            reconnector.notifyAll();
+        }
+    }
+
+    private void closeQuietly(final ClientSideCommunicator comm)
+    {
+        try {
+            comm.close();
+        }
+        catch (final IOException ioe) {
+            LOG.debug("IOException closing pooled connection", ioe);
+        }
+    }
+
+    /**
+     * Body of the reconnector thread: replace closed connections until the
+     * pool is closed.
+     */
+    private void reconnect()
+    {
+        while (!closed) {
+            for (int i = 0; i < slots.length && !closed; i++) {
+                if (!slots[i].isOpen()) {
+                    try {
+                        connect(slots[i]);
+                    }
+                    catch (final IOException ioe) {
+                        LOG.debug("Unable to reopen pooled connection " + i, ioe);
+                    }
+                }
+            }
+
+            synchronized (reconnector) {
+                if (!closed) {
+                    try {
+                        reconnector.wait(_reconnectInterval);
+                    }
+                    catch (final InterruptedException ie) {
+                        // Ignore it
+                    }
+                }
+            }
+        }
+
+        // A connection may have been opened while the pool was closing
+        for (final Slot slot : slots) {
+            final ResponseDispatcher dispatcher = slot.dispatcher;
+            if (null != dispatcher) {
+                closeQuietly(dispatcher.getCommunicator());
+            }
+        }
+    }
+
+    /**
+     * One pooled connection.
+     */
+    private static class Slot
+    {
+        volatile ResponseDispatcher dispatcher = null;
+        final AtomicInteger outstanding = new AtomicInteger(0);
+
+        boolean isOpen()
+        {
+            final ResponseDispatcher d = dispatcher;
+            return (null != d && !d.getCommunicator().isClosed());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package net.jonp.armi.comm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.base.io.FramedStatementReader;
+import net.jonp.armi.base.io.StatementDictionary;
+import net.jonp.armi.base.io.StatementEncoder;
+import net.jonp.armi.base.response.DeltaResponse;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+
+/**
+ * Negotiates optional connection features when a connection starts.
+ * 
+ * The client sends an ordinary call, <code>armi.hello</code>, labelled
+ * {@link #LABEL}, whose argument lists the features it wants. A server which
+ * understands the handshake intercepts the call and responds with the subset
+ * of those features it has agreed to; both sides switch to the new features
+ * immediately after that response. A server which does not understand the
+ * handshake will respond with an {@link ErrorResponse} (no such object), which
+ * the client takes to mean that no features were accepted.
+ * 
+ * Statements sent before the handshake completes (for example, unsolicited
+ * responses from the server) are always sent without any features.
+ */
+public class Handshake
+{
+    /** The label on the hello call and its response. */
+    public static final String LABEL = "armi.hello";
+
+    /** The object name used in the hello call. */
+    public static final String OBJECT = "armi";
+
+    /** The method name used in the hello call. */
+    public static final String METHOD = "hello";
+
+    /** Feature name for DEFLATE compression of the connection. */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Feature name for a {@link StatementDictionary} in each direction. Sent as
+     * <code>dictionary=&lt;size&gt;</code>; the server replies with the size
+     * both ends will use, which may be smaller than the client asked for.
+     */
+    public static final String DICTIONARY = "dictionary";
+
+    /**
+     * Feature name for sending unsolicited responses of the types in the
+     * server's {@link UnsolDeltas} as a {@link DeltaResponse}.
+     */
+    public static final String DELTA = "delta";
+
+    /**
+     * Feature name for length-prefixed statements, written by
+     * {@link StatementEncoder#writeFramed(java.io.OutputStream, CharSequence)}
+     * and read by a {@link FramedStatementReader}. Statements no longer end at
+     * a newline, so string values may contain raw newlines.
+     */
+    public static final String FRAMED = "framed";
+
+    /** Default number of milliseconds the client waits for the server to reply. */
+    public static final int DEFAULT_TIMEOUT = 3000;
+
+    private static final String HELLO_PREFIX = "call label \"" + LABEL + "\"";
+    private static final String REPLY_PREFIX = "response label \"" + LABEL + "\"";
+    private static final String ERROR_PREFIX = "error label \"" + LABEL + "\"";
+
+    private Handshake()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Build the hello statement sent by the client.
+     * 
+     * @param features The features requested.
+     * @param registry The class registry.
+     * @return The statement, including the trailing newline.
+     * @throws NotBoundException Should not happen, since only strings are
+     *             sent.
+     */
+    public static String hello(final Collection<String> features, final ClassRegistry registry)
+        throws NotBoundException
+    {
+        return new CallCommand(LABEL, OBJECT, METHOD, new Object[] {
+            join(features)
+        }).toStatement(registry) + "\n";
+    }
+
+    /**
+     * Build the statement sent by the server in reply to a hello.
+     * 
+     * @param features The features accepted.
+     * @param registry The class registry.
+     * @return The statement, including the trailing newline.
+     * @throws NotBoundException Should not happen, since only strings are
+     *             sent.
+     */
+    public static String reply(final Collection<String> features, final ClassRegistry registry)
+        throws NotBoundException
+    {
+        return new ValueResponse(LABEL, join(features)).toStatement(registry) + "\n";
+    }
+
+    /**
+     * Test whether a line read by the server is a hello statement.
+     * 
+     * @param line The line, as returned by {@link #readLine(InputStream)}.
+     * @return True if it is a hello.
+     */
+    public static boolean isHello(final String line)
+    {
+        return line.startsWith(HELLO_PREFIX);
+    }
+
+    /**
+     * Test whether a line read by the client is the server's reply to the
+     * hello, whether or not the server understood it.
+     * 
+     * @param line The line, as returned by {@link #readLine(InputStream)}.
+     * @return True if it is a reply.
+     */
+    public static boolean isReply(final String line)
+    {
+        return line.startsWith(REPLY_PREFIX) || line.startsWith(ERROR_PREFIX);
+    }
+
+    /**
+     * Get the features requested by a hello.
+     * 
+     * @param line The hello statement.
+     * @param registry The class registry.
+     * @return The requested features.
+     * @throws IOException If the statement could not be parsed.
+     */
+    public static Set<String> requested(final String line, final ClassRegistry registry)
+        throws IOException
+    {
+        final Command command;
+        try {
+            command =
+                new CommandParser(new ByteArrayInputStream((line + "\n").getBytes(StandardCharsets.UTF_8)), registry)
+                    .readNextCommand();
+        }
+        catch (final SyntaxException se) {
+            throw new IOException("Bad handshake: " + line, se);
+        }
+
+        if (!(command instanceof CallCommand) || ((CallCommand)command).getArguments().length != 1) {
+            throw new IOException("Bad handshake: " + line);
+        }
+
+        return split(((CallCommand)command).getArguments()[0]);
+    }
+
+    /**
+     * Get the features accepted by the server.
+     * 
+     * @param line The reply statement.
+     * @param registry The class registry.
+     * @return The accepted features, empty if the server did not understand
+     *         the hello.
+     * @throws IOException If the statement could not be parsed.
+     */
+    public static Set<String> accepted(final String line, final ClassRegistry registry)
+        throws IOException
+    {
+        final Response response;
+        try {
+            response =
+                new ResponseParser(new ByteArrayInputStream((line + "\n").getBytes(StandardCharsets.UTF_8)), registry)
+                    .readNextResponse();
+        }
+        catch (final SyntaxException se) {
+            throw new IOException("Bad handshake reply: " + line, se);
+        }
+
+        if (response instanceof ValueResponse) {
+            return split(((ValueResponse)response).getValue());
+        }
+        else {
+            return new TreeSet<String>();
+        }
+    }
+
+    /**
+     * Build the feature asking for (or agreeing to) a dictionary.
+     * 
+     * @param size The dictionary size.
+     * @return The feature.
+     */
+    public static String dictionary(final int size)
+    {
+        return DICTIONARY + "=" + size;
+    }
+
+    /**
+     * Find the dictionary size in a set of features.
+     * 
+     * @param features The features requested or accepted.
+     * @return The dictionary size, or 0 if there is no (valid) dictionary
+     *         feature.
+     */
+    public static int dictionarySize(final Set<String> features)
+    {
+        final String prefix = DICTIONARY + "=";
+        for (final String feature : features) {
+            if (feature.startsWith(prefix)) {
+                try {
+                    return Math.max(0, Integer.parseInt(feature.substring(prefix.length())));
+                }
+                catch (final NumberFormatException nfe) {
+                    return 0;
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Read a single line from a stream, one byte at a time, so that nothing
+     * after the line is consumed.
+     * 
+     * @param in The stream.
+     * @return The line, without its newline, or <code>null</code> at EOF.
+     * @throws IOException If there was a problem reading.
+     */
+    public static String readLine(final InputStream in)
+        throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            buf.write(c);
+        }
+
+        if (c == -1 && buf.size() == 0) {
+            return null;
+        }
+
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String join(final Collection<String> features)
+    {
+        final StringBuilder buf = new StringBuilder();
+        for (final String feature : features) {
+            if (buf.length() > 0) {
+                buf.append(' ');
+            }
+
+            buf.append(feature);
+        }
+
+        return buf.toString();
+    }
+
+    private static Set<String> split(final Object features)
+    {
+        final Set<String> set = new TreeSet<String>();
+        if (features instanceof String && !((String)features).trim().isEmpty()) {
+            set.addAll(Arrays.asList(((String)features).trim().split("\\s+")));
+        }
+
+        return set;
+    }
+}
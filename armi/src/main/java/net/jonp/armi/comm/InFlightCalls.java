@@ -0,0 +1,301 @@
+package net.jonp.armi.comm;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jonp.armi.base.response.Response;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tracks the calls running in one or more {@link CommandExecutor}s, so that
+ * identical concurrent calls to single-flight methods share one invocation. A
+ * method is single-flight if it is annotated with {@link SingleFlight}, or
+ * registered with {@link #register(String, String)}.
+ * 
+ * Calls are identical if they are to the same bound name and method, with
+ * equal arguments (see {@link ResponseCache} for how arguments are compared).
+ * To coalesce calls arriving on different connections, share one
+ * {@link InFlightCalls} between their executors.
+ * 
+ * A waiting call need not hold a thread: it may instead ask to be told when
+ * the call it is waiting for finishes (see {@link Flight#whenDone(Follower)}),
+ * as calls run on a {@link CallScheduler} do.
+ */
+public class InFlightCalls
+{
+    private static final Logger LOG = Logger.getLogger(InFlightCalls.class);
+
+    /** Marks a method which is not single-flight. */
+    private static final ConcurrentMap<CallArguments, Flight> NOT_COALESCED =
+        new ConcurrentHashMap<CallArguments, Flight>();
+
+    private final ConcurrentMap<String, ConcurrentMap<CallArguments, Flight>> methods =
+        new ConcurrentHashMap<String, ConcurrentMap<CallArguments, Flight>>();
+    private final ConcurrentMap<String, Boolean> registered = new ConcurrentHashMap<String, Boolean>();
+
+    private final AtomicLong coalesced = new AtomicLong(0);
+
+    /**
+     * Make a method single-flight, whether or not it is annotated with
+     * {@link SingleFlight}.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The name of the method.
+     */
+    public void register(final String object, final String method)
+    {
+        registered.put(key(object, method), Boolean.TRUE);
+        methods.remove(key(object, method), NOT_COALESCED);
+    }
+
+    /**
+     * Stop coalescing calls to a registered method. If it is annotated with
+     * {@link SingleFlight}, the annotation applies again. Calls already waiting
+     * are not affected.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The name of the method.
+     */
+    public void unregister(final String object, final String method)
+    {
+        registered.remove(key(object, method));
+        methods.remove(key(object, method));
+    }
+
+    /**
+     * Get the number of calls which waited for an identical call, rather than
+     * invoking the method.
+     * 
+     * @return The number of coalesced calls.
+     */
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * Join or start a call.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The method.
+     * @param args The arguments.
+     * @return <code>null</code> if the method is not single-flight; otherwise
+     *         the flight for the call. If {@link Flight#isLeader()} the caller
+     *         must invoke the method and then call
+     *         {@link #end(Flight, Response)}; otherwise it should wait for
+     *         the leader's response with {@link Flight#await()} or
+     *         {@link Flight#whenDone(Follower)}.
+     */
+    Flight begin(final String object, final Method method, final Object[] args)
+    {
+        final ConcurrentMap<CallArguments, Flight> flights = getFlights(object, method);
+        if (NOT_COALESCED == flights) {
+            return null;
+        }
+
+        final CallArguments key = new CallArguments(args);
+        final Flight flight = new Flight(flights, key);
+        final Flight running = flights.putIfAbsent(key, flight);
+        if (null != running) {
+            coalesced.incrementAndGet();
+            return running.follow();
+        }
+
+        return flight;
+    }
+
+    /**
+     * End a call started by {@link #begin(String, Method, Object[])}, handing
+     * its response to every call waiting for it. Followers given to
+     * {@link Flight#whenDone(Follower)} are told on the calling thread, before
+     * this returns. Calls which arrive after this will invoke the method
+     * again.
+     * 
+     * @param flight The flight.
+     * @param response The response to the call, or <code>null</code> if the
+     *            call failed unexpectedly (in which case the waiting calls will
+     *            invoke the method themselves).
+     */
+    void end(final Flight flight, final Response response)
+    {
+        flight.flights.remove(flight.key, flight);
+        flight.complete(response);
+    }
+
+    /**
+     * Find the calls running for a method, checking for a {@link SingleFlight}
+     * annotation if this is its first call.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The method.
+     * @return The method's running calls, or {@link #NOT_COALESCED}.
+     */
+    private ConcurrentMap<CallArguments, Flight> getFlights(final String object, final Method method)
+    {
+        final String key = key(object, method.getName());
+        ConcurrentMap<CallArguments, Flight> flights = methods.get(key);
+        if (null == flights) {
+            if (registered.containsKey(key) || null != method.getAnnotation(SingleFlight.class)) {
+                flights = new ConcurrentHashMap<CallArguments, Flight>();
+            }
+            else {
+                flights = NOT_COALESCED;
+            }
+
+            final ConcurrentMap<CallArguments, Flight> existing = methods.putIfAbsent(key, flights);
+            if (null != existing) {
+                flights = existing;
+            }
+        }
+
+        return flights;
+    }
+
+    private static String key(final String object, final String method)
+    {
+        return object + "." + method;
+    }
+
+    /**
+     * One running call, shared by the caller that is invoking the method (the
+     * leader) and any identical calls waiting for it.
+     */
+    static class Flight
+    {
+        final ConcurrentMap<CallArguments, Flight> flights;
+        final CallArguments key;
+
+        private final Flight leader;
+        private boolean done = false;
+        private Response response = null;
+        private List<Follower> followers = null;
+
+        Flight(final ConcurrentMap<CallArguments, Flight> _flights, final CallArguments _key)
+        {
+            flights = _flights;
+            key = _key;
+            leader = null;
+        }
+
+        private Flight(final Flight _leader)
+        {
+            flights = _leader.flights;
+            key = _leader.key;
+            leader = _leader;
+        }
+
+        /**
+         * Make a handle for a caller waiting for this flight.
+         * 
+         * @return The handle.
+         */
+        Flight follow()
+        {
+            return new Flight(this);
+        }
+
+        /**
+         * Test whether this caller must invoke the method.
+         * 
+         * @return True for the leader, false for a waiting caller.
+         */
+        boolean isLeader()
+        {
+            return (null == leader);
+        }
+
+        /**
+         * Wait for the leader's response, holding the calling thread. Callers
+         * on a shared pool of threads should use {@link #whenDone(Follower)}
+         * instead.
+         * 
+         * @return The leader's response, or <code>null</code> if the leader
+         *         failed unexpectedly or the wait was interrupted; the caller
+         *         should then invoke the method itself.
+         */
+        Response await()
+        {
+            synchronized (leader) {
+                while (!leader.done) {
+                    try {
+                        leader.wait();
+                    }
+                    catch (final InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+
+                return leader.response;
+            }
+        }
+
+        /**
+         * Have a follower told of the leader's response when the leader
+         * finishes, on the leader's thread, without waiting for it.
+         * 
+         * @param follower The follower.
+         * @return False if the leader has already finished, in which case the
+         *         follower will not be told; {@link #await()} then returns the
+         *         response without waiting.
+         */
+        boolean whenDone(final Follower follower)
+        {
+            synchronized (leader) {
+                if (leader.done) {
+                    return false;
+                }
+
+                if (null == leader.followers) {
+                    leader.followers = new ArrayList<Follower>();
+                }
+
+                leader.followers.add(follower);
+                return true;
+            }
+        }
+
+        private void complete(final Response _response)
+        {
+            final List<Follower> waiting;
+            synchronized (this) {
+                response = _response;
+                done = true;
+                waiting = followers;
+                followers = null;
+                notifyAll();
+            }
+
+            if (null != waiting) {
+                for (final Follower follower : waiting) {
+                    try {
+                        follower.landed(_response);
+                    }
+                    catch (final RuntimeException re) {
+                        LOG.warn("Exception handing a response to a waiting call", re);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A call waiting for an identical call, without holding a thread.
+     */
+    static interface Follower
+    {
+        /**
+         * Called once, when the identical call has finished.
+         * 
+         * @param response The identical call's response, or <code>null</code>
+         *            if it failed unexpectedly (in which case the waiting call
+         *            should invoke the method itself).
+         */
+        void landed(Response response);
+    }
+}
@@ -0,0 +1,18 @@
+package net.jonp.armi.comm;
+
+/**
+ * Finds the key identifying an unsolicited value within its type, for sending
+ * it as a delta (see {@link UnsolDeltas}).
+ */
+public interface KeyExtractor
+{
+    /**
+     * Get the key of a value.
+     * 
+     * @param value The value being sent. Never <code>null</code>.
+     * @return The key. Must have meaningful {@link Object#equals(Object)} and
+     *         {@link Object#hashCode()} methods, and be something that can be
+     *         sent.
+     */
+    public Object getKey(Object value);
+}
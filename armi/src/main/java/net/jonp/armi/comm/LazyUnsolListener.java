@@ -0,0 +1,24 @@
+package net.jonp.armi.comm;
+
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+
+/**
+ * An {@link UnsolListener} which is handed each unsolicited message before its
+ * value is decoded, so that it can decode it (with
+ * {@link UnsolicitedResponse#decodeValue()}) on a thread of its choosing, or
+ * not at all. A {@link ResponseDispatcher} calls
+ * {@link #unsolReceived(UnsolicitedResponse)} instead of
+ * {@link #unsolReceived(String, Object)} on listeners implementing this.
+ */
+public interface LazyUnsolListener
+    extends UnsolListener
+{
+    /**
+     * An unsolicited message was received by the server.
+     * 
+     * @param response The message, whose value may not have been decoded yet;
+     *            decoding it may throw a {@link SyntaxException}.
+     */
+    public void unsolReceived(UnsolicitedResponse response);
+}
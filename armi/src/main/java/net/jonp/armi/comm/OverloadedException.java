@@ -0,0 +1,15 @@
+package net.jonp.armi.comm;
+
+/**
+ * Sent back in place of the result of a call which the server was too busy to
+ * start (see {@link AdmissionControl}). The call was not started, so it is
+ * safe to retry, later or on another server.
+ */
+public class OverloadedException
+    extends Exception
+{
+    public OverloadedException(final String message)
+    {
+        super(message);
+    }
+}
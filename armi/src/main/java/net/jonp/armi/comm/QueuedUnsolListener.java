@@ -0,0 +1,322 @@
+package net.jonp.armi.comm;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An {@link UnsolListener} that hands unsolicited messages off to another
+ * listener asynchronously. Each instance keeps its own bounded queue, and
+ * drains it on an {@link Executor}; messages are always delivered to the
+ * wrapped listener in order, and never by more than one thread at a time.
+ * 
+ * When the queue is full, the {@link OverflowPolicy} decides what happens to
+ * new messages. Only {@link OverflowPolicy#BLOCK} ever makes
+ * {@link #unsolReceived(UnsolicitedResponse)} wait, so use one of the other
+ * policies if the thread delivering the messages (usually a
+ * {@link ResponseDispatcher}) must never be held up by a slow listener.
+ * 
+ * Messages are queued without decoding their values, which are decoded on the
+ * executor just before delivery (unless the wrapped listener is itself a
+ * {@link LazyUnsolListener}), so a message which is dropped is never decoded.
+ * A message whose value cannot be decoded is dropped.
+ */
+public class QueuedUnsolListener
+    implements LazyUnsolListener
+{
+    private static final Logger LOG = Logger.getLogger(QueuedUnsolListener.class);
+
+    /** Default number of messages that may wait for delivery. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * What to do with a new message when the queue is full.
+     */
+    public static enum OverflowPolicy
+    {
+        /** Wait for the listener to make room in the queue. */
+        BLOCK,
+
+        /** Discard the oldest queued message to make room for the new one. */
+        DROP_OLDEST,
+
+        /**
+         * Keep only the latest value of each unsolicited message type. The
+         * queue never holds more than one message per type, so the capacity
+         * limits the number of distinct types waiting; when that is exceeded
+         * the oldest type is discarded.
+         */
+        CONFLATE;
+    }
+
+    private final UnsolListener _delegate;
+    private final Executor _executor;
+    private final int _capacity;
+    private final OverflowPolicy _policy;
+
+    /** Pending messages, used by every policy except CONFLATE. */
+    private final Queue<UnsolicitedResponse> queue = new ArrayDeque<UnsolicitedResponse>();
+
+    /** Pending messages by type, used by the CONFLATE policy. */
+    private final Map<String, UnsolicitedResponse> conflated = new LinkedHashMap<String, UnsolicitedResponse>();
+
+    /** True while a drain task is submitted to, or running on, the executor. */
+    private boolean scheduled = false;
+
+    private long dropped = 0;
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    };
+
+    /**
+     * Construct a new {@link QueuedUnsolListener} with the default capacity (
+     * {@link #DEFAULT_CAPACITY}) and the {@link OverflowPolicy#DROP_OLDEST}
+     * policy.
+     * 
+     * @param delegate The listener that will receive the messages.
+     * @param executor The executor on which messages will be delivered.
+     */
+    public QueuedUnsolListener(final UnsolListener delegate, final Executor executor)
+    {
+        this(delegate, executor, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Construct a new {@link QueuedUnsolListener}.
+     * 
+     * @param delegate The listener that will receive the messages.
+     * @param executor The executor on which messages will be delivered. It may
+     *            be shared between many listeners.
+     * @param capacity The maximum number of messages that may wait for
+     *            delivery. Must be positive.
+     * @param policy What to do with new messages when the queue is full.
+     */
+    public QueuedUnsolListener(final UnsolListener delegate, final Executor executor, final int capacity,
+                               final OverflowPolicy policy)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        if (null == delegate || null == executor || null == policy) {
+            throw new NullPointerException("Delegate, executor, and policy must not be null");
+        }
+
+        _delegate = delegate;
+        _executor = executor;
+        _capacity = capacity;
+        _policy = policy;
+    }
+
+    /**
+     * Get the listener to which messages are delivered.
+     * 
+     * @return The wrapped listener.
+     */
+    public UnsolListener getDelegate()
+    {
+        return _delegate;
+    }
+
+    /**
+     * Get the maximum number of messages that may wait for delivery.
+     * 
+     * @return The capacity of the queue.
+     */
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * Get the policy applied when the queue is full.
+     * 
+     * @return The overflow policy.
+     */
+    public OverflowPolicy getPolicy()
+    {
+        return _policy;
+    }
+
+    /**
+     * Get the number of messages currently waiting for delivery.
+     * 
+     * @return The number of queued messages.
+     */
+    public synchronized int getQueued()
+    {
+        if (_policy == OverflowPolicy.CONFLATE) {
+            return conflated.size();
+        }
+        else {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Get the number of messages that were discarded without being delivered,
+     * either because the queue overflowed, because a newer value replaced
+     * them, or because their values could not be decoded.
+     * 
+     * @return The number of discarded messages.
+     */
+    public synchronized long getDropped()
+    {
+        return dropped;
+    }
+
+    @Override
+    public void unsolReceived(final String type, final Object value)
+    {
+        unsolReceived(new UnsolicitedResponse(type, value));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see net.jonp.armi.comm.LazyUnsolListener#unsolReceived(net.jonp.armi.base.response.UnsolicitedResponse)
+     */
+    @Override
+    public void unsolReceived(final UnsolicitedResponse response)
+    {
+        final String type = response.getType();
+        synchronized (this) {
+            switch (_policy) {
+                case BLOCK:
+                    while (queue.size() >= _capacity) {
+                        try {
+                            wait();
+                        }
+                        catch (final InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            LOG.warn("Interrupted waiting for room in the queue, dropping a message of type " + type);
+                            dropped++;
+                            return;
+                        }
+                    }
+
+                    queue.add(response);
+                    break;
+                case DROP_OLDEST:
+                    if (queue.size() >= _capacity) {
+                        queue.poll();
+                        dropped++;
+                    }
+
+                    queue.add(response);
+                    break;
+                case CONFLATE:
+                    if (conflated.containsKey(type)) {
+                        dropped++;
+                    }
+                    else if (conflated.size() >= _capacity) {
+                        final Iterator<String> it = conflated.keySet().iterator();
+                        it.next();
+                        it.remove();
+                        dropped++;
+                    }
+
+                    conflated.put(type, response);
+                    break;
+            }
+
+            if (scheduled) {
+                return;
+            }
+
+            scheduled = true;
+        }
+
+        try {
+            _executor.execute(drainer);
+        }
+        catch (final RejectedExecutionException ree) {
+            LOG.warn("Executor rejected delivery of unsolicited messages", ree);
+            synchronized (this) {
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Deliver queued messages to the wrapped listener until the queue is
+     * empty.
+     */
+    void drain()
+    {
+        while (true) {
+            final UnsolicitedResponse response;
+            synchronized (this) {
+                if (_policy == OverflowPolicy.CONFLATE) {
+                    final Iterator<UnsolicitedResponse> it = conflated.values().iterator();
+                    if (!it.hasNext()) {
+                        scheduled = false;
+                        return;
+                    }
+
+                    response = it.next();
+                    it.remove();
+                }
+                else {
+                    response = queue.poll();
+                    if (null == response) {
+                        scheduled = false;
+                        return;
+                    }
+
+                    // Wake up anybody waiting for room under the BLOCK policy
+                    notifyAll();
+                }
+            }
+
+            deliver(response);
+        }
+    }
+
+    /**
+     * Deliver a message to the wrapped listener, decoding its value first
+     * unless the listener will.
+     * 
+     * @param response The message.
+     */
+    private void deliver(final UnsolicitedResponse response)
+    {
+        try {
+            if (_delegate instanceof LazyUnsolListener) {
+                ((LazyUnsolListener)_delegate).unsolReceived(response);
+            }
+            else {
+                _delegate.unsolReceived(response.getType(), response.decodeValue());
+            }
+        }
+        catch (final SyntaxException se) {
+            LOG.warn("Unable to decode an unsolicited message of type " + response.getType() + ", dropping it", se);
+            synchronized (this) {
+                dropped++;
+            }
+        }
+        catch (final Throwable th) {
+            LOG.warn("Exception during UnsolListener.unsolReceived()", th);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("QueuedUnsolListener[%s, %s/%d]", _delegate, _policy, _capacity);
+    }
+}
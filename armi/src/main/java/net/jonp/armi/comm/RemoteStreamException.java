@@ -0,0 +1,22 @@
+package net.jonp.armi.comm;
+
+/**
+ * Thrown by a {@link StreamIterator} when the remote end reports an error
+ * part-way through a streamed result, or when the next chunk does not arrive
+ * in time. Unchecked, because {@link java.util.Iterator} methods cannot throw
+ * checked exceptions; the cause holds the remote exception or a
+ * {@link java.util.concurrent.TimeoutException}.
+ */
+public class RemoteStreamException
+    extends RuntimeException
+{
+    public RemoteStreamException(final String message)
+    {
+        super(message);
+    }
+
+    public RemoteStreamException(final String message, final Throwable cause)
+    {
+        super(message, cause);
+    }
+}
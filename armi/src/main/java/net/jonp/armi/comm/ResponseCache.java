@@ -0,0 +1,374 @@
+package net.jonp.armi.comm;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jonp.armi.base.response.SharedValue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the results of API methods, for a {@link CommandExecutor}. A method is
+ * cached if it is annotated with {@link Cacheable}, or registered with
+ * {@link #register(String, String, long, int)} (which takes precedence).
+ * 
+ * Results are cached per bound name, method name, and arguments. Arguments are
+ * compared with {@link Object#equals(Object)} (arrays by content), so
+ * arguments of classes which do not override it will rarely hit. Each result is
+ * held as a {@link SharedValue}, so it is serialized once and the text reused
+ * by every response that carries it. Exceptions are never cached.
+ * 
+ * Invalidating a method's results also discards the results of calls to it
+ * which were already running, when they finish, since they may have read what
+ * the invalidation was meant to replace.
+ */
+public class ResponseCache
+{
+    private static final Logger LOG = Logger.getLogger(ResponseCache.class);
+
+    /** Source of cache generations; unique across every method's cache. */
+    private static final AtomicLong GENERATIONS = new AtomicLong(0);
+
+    /** Marks a method which is not cached. */
+    private static final MethodCache NOT_CACHED = new MethodCache(0, 0);
+
+    private final ConcurrentMap<String, MethodCache> methods = new ConcurrentHashMap<String, MethodCache>();
+    private final ConcurrentMap<String, MethodCache> registered = new ConcurrentHashMap<String, MethodCache>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Cache the results of a method, whether or not it is annotated with
+     * {@link Cacheable}. Replaces any earlier registration, and discards any
+     * results already cached for the method.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The name of the method.
+     * @param ttl How long a result may be reused, in milliseconds.
+     * @param maxSize The maximum number of results to keep.
+     */
+    public void register(final String object, final String method, final long ttl, final int maxSize)
+    {
+        final MethodCache cache = new MethodCache(ttl, maxSize);
+        registered.put(key(object, method), cache);
+        methods.put(key(object, method), cache);
+    }
+
+    /**
+     * Stop caching the results of a registered method. If it is annotated with
+     * {@link Cacheable}, the annotation applies again.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The name of the method.
+     */
+    public void unregister(final String object, final String method)
+    {
+        registered.remove(key(object, method));
+        methods.remove(key(object, method));
+    }
+
+    /**
+     * Discard the cached results of a method.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The name of the method.
+     */
+    public void invalidate(final String object, final String method)
+    {
+        final MethodCache cache = methods.get(key(object, method));
+        if (null != cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Discard the cached results of every method of an object.
+     * 
+     * @param object The name to which the object is bound.
+     */
+    public void invalidate(final String object)
+    {
+        final String prefix = object + ".";
+        for (final Map.Entry<String, MethodCache> entry : methods.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().clear();
+            }
+        }
+    }
+
+    /**
+     * Discard every cached result.
+     */
+    public void invalidateAll()
+    {
+        for (final MethodCache cache : methods.values()) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the number of calls answered from the cache.
+     * 
+     * @return The number of hits.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of calls to cached methods which had to call the method.
+     * 
+     * @return The number of misses.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of results discarded to keep within a method's maximum
+     * size (the least recently used result of the method is discarded first).
+     * Results which expired, or were invalidated, are not counted.
+     * 
+     * @return The number of evictions.
+     */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of results currently cached, including any that have
+     * expired but not yet been discarded.
+     * 
+     * @return The number of cached results.
+     */
+    public int getSize()
+    {
+        int size = 0;
+        for (final MethodCache cache : methods.values()) {
+            size += cache.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Reset the hit, miss, and eviction counts to zero.
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Look up the cached result of a call.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The method.
+     * @param args The arguments.
+     * @return The cached result, or <code>null</code> if the method is not
+     *         cached or there is no (unexpired) result for these arguments.
+     */
+    SharedValue get(final String object, final Method method, final Object[] args)
+    {
+        final MethodCache cache = getMethodCache(object, method);
+        if (NOT_CACHED == cache) {
+            return null;
+        }
+
+        final SharedValue value = cache.get(new CallArguments(args));
+        if (null != value) {
+            hits.incrementAndGet();
+            return value;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Get the current generation of a method's results, to pass to
+     * {@link #put(String, Method, Object[], Object, long)} once the call
+     * finishes. Invalidating the method's results starts a new generation.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The method.
+     * @return The generation.
+     */
+    long getGeneration(final String object, final Method method)
+    {
+        return getMethodCache(object, method).generation;
+    }
+
+    /**
+     * Cache the result of a call, if the method is cached and its results have
+     * not been invalidated since the call started.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The method.
+     * @param args The arguments.
+     * @param result The result of the call.
+     * @param generation The generation of the method's results when the call
+     *            started (see {@link #getGeneration(String, Method)}).
+     * @return The result, shared, or <code>null</code> if the method is not
+     *         cached. A result which was not cached because it is out of date
+     *         is still returned, since it is the right answer to its own call.
+     */
+    SharedValue put(final String object, final Method method, final Object[] args, final Object result,
+                    final long generation)
+    {
+        final MethodCache cache = getMethodCache(object, method);
+        if (NOT_CACHED == cache) {
+            return null;
+        }
+
+        final SharedValue value = new SharedValue(result);
+        if (cache.put(new CallArguments(args), value, generation)) {
+            evictions.incrementAndGet();
+        }
+
+        return value;
+    }
+
+    /**
+     * Find the cache for a method, creating it from the method's
+     * {@link Cacheable} annotation if this is its first call.
+     * 
+     * @param object The name to which the object is bound.
+     * @param method The method.
+     * @return The method's cache, or {@link #NOT_CACHED}.
+     */
+    private MethodCache getMethodCache(final String object, final Method method)
+    {
+        final String key = key(object, method.getName());
+        MethodCache cache = methods.get(key);
+        if (null == cache) {
+            cache = registered.get(key);
+            if (null == cache) {
+                final Cacheable cacheable = method.getAnnotation(Cacheable.class);
+                if (null == cacheable) {
+                    cache = NOT_CACHED;
+                }
+                else {
+                    LOG.debug("Caching results of " + key + " for " + cacheable.ttl() + "ms");
+                    cache = new MethodCache(cacheable.ttl(), cacheable.maxSize());
+                }
+            }
+
+            final MethodCache existing = methods.putIfAbsent(key, cache);
+            if (null != existing) {
+                cache = existing;
+            }
+        }
+
+        return cache;
+    }
+
+    private static String key(final String object, final String method)
+    {
+        return object + "." + method;
+    }
+
+    /**
+     * The cached results of one method. When full, the least recently used
+     * result is discarded to make room; expired results are discarded when
+     * they are next looked up.
+     */
+    private static class MethodCache
+    {
+        final long ttl;
+        final int maxSize;
+
+        /** Changed by every {@link #clear()}, so older results can be told. */
+        volatile long generation = GENERATIONS.incrementAndGet();
+
+        /** The results, least recently used first. */
+        private final LinkedHashMap<CallArguments, Entry> results =
+            new LinkedHashMap<CallArguments, Entry>(16, 0.75f, true);
+
+        MethodCache(final long _ttl, final int _maxSize)
+        {
+            ttl = _ttl * 1000000L;
+            maxSize = _maxSize;
+        }
+
+        /**
+         * Look up an unexpired result.
+         * 
+         * @return The result, or <code>null</code>.
+         */
+        synchronized SharedValue get(final CallArguments args)
+        {
+            final Entry entry = results.get(args);
+            if (null == entry) {
+                return null;
+            }
+            else if (entry.expires - System.nanoTime() <= 0) {
+                results.remove(args);
+                return null;
+            }
+
+            return entry.value;
+        }
+
+        /**
+         * Add a result, unless it is from an older generation, discarding the
+         * least recently used one if the cache is full.
+         * 
+         * @return True if a result was discarded.
+         */
+        synchronized boolean put(final CallArguments args, final SharedValue value, final long _generation)
+        {
+            if (_generation != generation) {
+                return false;
+            }
+
+            results.put(args, new Entry(value, System.nanoTime() + ttl));
+            if (results.size() <= maxSize) {
+                return false;
+            }
+
+            final Iterator<CallArguments> eldest = results.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            return true;
+        }
+
+        synchronized void clear()
+        {
+            generation = GENERATIONS.incrementAndGet();
+            results.clear();
+        }
+
+        synchronized int size()
+        {
+            return results.size();
+        }
+    }
+
+    /**
+     * One cached result.
+     */
+    private static class Entry
+    {
+        final SharedValue value;
+        final long expires;
+
+        Entry(final SharedValue _value, final long _expires)
+        {
+            value = _value;
+            expires = _expires;
+        }
+    }
+}
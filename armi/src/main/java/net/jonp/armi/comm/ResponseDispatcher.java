@@ -1,19 +1,26 @@
 package net.jonp.armi.comm;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import net.jonp.armi.base.SyntaxException;
 import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.CancelCommand;
+import net.jonp.armi.base.command.PreparedCall;
+import net.jonp.armi.base.response.ChunkResponse;
 import net.jonp.armi.base.response.ErrorResponse;
 import net.jonp.armi.base.response.Response;
 import net.jonp.armi.base.response.UnsolicitedResponse;
@@ -33,9 +40,14 @@ public class ResponseDispatcher
     /** Default timeout (in milliseconds) when waiting for a response. */
     public static final long TIMEOUT_MS = 30000;
 
+    /** Default number of chunks of a streamed result to read ahead. */
+    public static final int READ_AHEAD = 4;
+
     private final ClientSideCommunicator _comm;
     private final AtomicInteger nextLabel = new AtomicInteger(0);
     private final long _timeout;
+    private volatile boolean sendTimeouts = false;
+    private volatile boolean sendCancels = false;
     private final Map<String, ResponseListener> responseListeners = new HashMap<String, ResponseListener>();
     private final Map<String, Set<UnsolListener>> unsolListeners = new HashMap<String, Set<UnsolListener>>();
     private final Map<String, Pattern> patternCache = new HashMap<String, Pattern>();
@@ -104,6 +116,101 @@ public class ResponseDispatcher
         return _timeout;
     }
 
+    /**
+     * Test whether {@link #call(CallCommand, long)} tells the server how long
+     * it will wait.
+     * 
+     * @return True if the timeout of each call is sent with it.
+     */
+    public boolean isSendTimeouts()
+    {
+        return sendTimeouts;
+    }
+
+    /**
+     * Set whether {@link #call(CallCommand, long)} tells the server how long
+     * it will wait, so that a server which falls behind can skip calls whose
+     * callers have given up (see {@link CommandExecutor}). Off by default,
+     * since servers older than the <code>timeout</code> clause cannot parse
+     * it. A timeout set explicitly on a {@link CallCommand} is always sent.
+     * 
+     * @param _sendTimeouts True to send the timeout of each call with it.
+     */
+    public void setSendTimeouts(final boolean _sendTimeouts)
+    {
+        sendTimeouts = _sendTimeouts;
+    }
+
+    /**
+     * Test whether calls which time out, and streams which are closed before
+     * they end, are cancelled on the server.
+     * 
+     * @return True if a {@link CancelCommand} is sent for them.
+     */
+    public boolean isSendCancels()
+    {
+        return sendCancels;
+    }
+
+    /**
+     * Set whether calls which time out, and streams which are closed before
+     * they end, are cancelled on the server, so that it does not go on with
+     * work nobody will read (see {@link #cancel(String)}). Off by default,
+     * since servers older than the <code>cancel</code> command cannot parse
+     * it.
+     * 
+     * @param _sendCancels True to send a {@link CancelCommand} for them.
+     */
+    public void setSendCancels(final boolean _sendCancels)
+    {
+        sendCancels = _sendCancels;
+    }
+
+    /**
+     * Cancel a call on the server, and stop listening for its response. The
+     * server skips the call if it has not started, interrupts it if it is
+     * running, and stops streaming its result if it is streaming; in any case
+     * it does not answer it, though a response already on its way may still
+     * arrive (and be ignored). Sent whether or not {@link #isSendCancels()}.
+     * 
+     * @param label The label of the call.
+     * @throws IOException If there was an exception sending the command over
+     *             the {@link ClientSideCommunicator} associated with this
+     *             {@link ResponseDispatcher}.
+     * @throws NotBoundException If the {@link ClientSideCommunicator} is unable
+     *             to serialize the {@link CancelCommand}.
+     */
+    public void cancel(final String label)
+        throws IOException, NotBoundException
+    {
+        delResponseListener(label);
+        getCommunicator().sendCommand(new CancelCommand(label));
+    }
+
+    /**
+     * Called when the caller has given up on a call, to cancel it if
+     * {@link #isSendCancels()}. Failure to send the cancel is only logged;
+     * the call is abandoned either way.
+     * 
+     * @param label The label of the call.
+     */
+    void abandon(final String label)
+    {
+        if (!sendCancels) {
+            return;
+        }
+
+        try {
+            cancel(label);
+        }
+        catch (final IOException ioe) {
+            LOG.debug("Unable to cancel call labeled " + label, ioe);
+        }
+        catch (final NotBoundException nbe) {
+            LOG.debug("Unable to cancel call labeled " + label, nbe);
+        }
+    }
+
     /**
      * Add a listener for unsolicited messages from the server.
      * 
@@ -111,7 +218,9 @@ public class ResponseDispatcher
      *            unsolicited messages.
      * @param ul The listener to add. This listener will be notified of any new
      *            unsolicited messages from the server where the type field
-     *            matches the given pattern.
+     *            matches the given pattern. If it is a
+     *            {@link LazyUnsolListener}, it is handed each message without
+     *            decoding its value.
      */
     public void addUnsolListener(final String pattern, final UnsolListener ul)
     {
@@ -132,12 +241,42 @@ public class ResponseDispatcher
         }
     }
 
+    /**
+     * Add a listener for unsolicited messages from the server, which will be
+     * notified asynchronously. The listener is wrapped in a
+     * {@link QueuedUnsolListener}, so a slow listener never holds up the
+     * dispatch of responses to {@link #call(CallCommand)} (unless the
+     * {@link QueuedUnsolListener.OverflowPolicy#BLOCK} policy is chosen and its
+     * queue fills up). Values read lazily are decoded on the executor, not on
+     * this dispatcher's thread.
+     * 
+     * @param pattern A regular expression to match the 'type' field of the
+     *            unsolicited messages.
+     * @param ul The listener to add.
+     * @param executor The executor on which the listener will be notified.
+     * @param capacity The maximum number of messages that may wait for the
+     *            listener.
+     * @param policy What to do with new messages when the listener has fallen
+     *            <code>capacity</code> messages behind.
+     * @return The wrapper that was registered. It may be passed to
+     *         {@link #removeUnsolListener(UnsolListener)}, although passing the
+     *         original listener works as well.
+     */
+    public QueuedUnsolListener addUnsolListener(final String pattern, final UnsolListener ul, final Executor executor,
+                                                final int capacity, final QueuedUnsolListener.OverflowPolicy policy)
+    {
+        final QueuedUnsolListener queued = new QueuedUnsolListener(ul, executor, capacity, policy);
+        addUnsolListener(pattern, queued);
+        return queued;
+    }
+
     /**
      * Remove a listener of unsolicited messages from this
      * {@link ResponseDispatcher}.
      * 
      * @param ul The listener to remove. This listener will be removed from all
-     *            patterns for which it was registered.
+     *            patterns for which it was registered, including any
+     *            {@link QueuedUnsolListener} wrapping it.
      */
     public void removeUnsolListener(final UnsolListener ul)
     {
@@ -145,7 +284,7 @@ public class ResponseDispatcher
             for (final Iterator<Map.Entry<String, Set<UnsolListener>>> itEntry = unsolListeners.entrySet().iterator(); itEntry
                 .hasNext();) {
                 final Map.Entry<String, Set<UnsolListener>> entry = itEntry.next();
-                entry.getValue().remove(ul);
+                removeListener(entry.getValue(), ul);
 
                 if (entry.getValue().isEmpty()) {
                     patternCache.remove(entry.getKey());
@@ -160,14 +299,15 @@ public class ResponseDispatcher
      * {@link ResponseDispatcher}.
      * 
      * @param pattern The regular expression from which to remove the listener.
-     * @param ul The listener to remove.
+     * @param ul The listener to remove, or the original listener wrapped by a
+     *            {@link QueuedUnsolListener}.
      */
     public void removeUnsolListener(final String pattern, final UnsolListener ul)
     {
         synchronized (unsolListeners) {
             final Set<UnsolListener> v = unsolListeners.get(pattern);
             if (null != v) {
-                v.remove(ul);
+                removeListener(v, ul);
 
                 if (v.isEmpty()) {
                     patternCache.remove(pattern);
@@ -177,6 +317,23 @@ public class ResponseDispatcher
         }
     }
 
+    /**
+     * Remove a listener from a set, along with any {@link QueuedUnsolListener}
+     * that wraps it.
+     * 
+     * @param listeners The set from which to remove the listener.
+     * @param ul The listener to remove.
+     */
+    private void removeListener(final Set<UnsolListener> listeners, final UnsolListener ul)
+    {
+        for (final Iterator<UnsolListener> it = listeners.iterator(); it.hasNext();) {
+            final UnsolListener listener = it.next();
+            if (listener == ul || (listener instanceof QueuedUnsolListener && ((QueuedUnsolListener)listener).getDelegate() == ul)) {
+                it.remove();
+            }
+        }
+    }
+
     /**
      * Get a copy of the registered unsolicited message listeners.
      * 
@@ -204,6 +361,19 @@ public class ResponseDispatcher
             try {
                 response = getCommunicator().readNextResponse();
             }
+            catch (final EOFException eofe) {
+                // The server has gone away; close our end too, so isClosed()
+                // reports it, rather than reading EOF forever
+                LOG.info("EOF from " + getCommunicator().getClientSideName() + ", closing");
+                try {
+                    getCommunicator().close();
+                }
+                catch (final IOException ioe) {
+                    LOG.debug("IOException closing communicator at EOF", ioe);
+                }
+
+                break;
+            }
             catch (final IOException ioe) {
                 final boolean logit;
                 synchronized (suppressedExceptions) {
@@ -221,7 +391,7 @@ public class ResponseDispatcher
                 continue;
             }
 
-            if (response instanceof ValueResponse || response instanceof ErrorResponse) {
+            if (response instanceof ValueResponse || response instanceof ErrorResponse || response instanceof ChunkResponse) {
                 LOG.info("Received a " + response.getClass().getSimpleName() + " labeled '" + response.getLabel() + "'");
 
                 final String label = response.getLabel();
@@ -269,6 +439,8 @@ public class ResponseDispatcher
 
     /**
      * Call a remote method and wait for a response using a custom timeout.
+     * The timeout is sent with the command if {@link #isSendTimeouts()}, and
+     * the call is cancelled when it runs out if {@link #isSendCancels()}.
      * 
      * @param cmd The call command to send.
      * @param timeout The timeout to use, in milliseconds.
@@ -288,6 +460,9 @@ public class ResponseDispatcher
     {
         final String label = String.format("%d", nextLabel.getAndIncrement());
         cmd.setLabel(label);
+        if (sendTimeouts && timeout > 0) {
+            cmd.setTimeout(timeout);
+        }
 
         final Response[] rx = new Response[1];
         final ResponseListener rl = new ResponseListener() {
@@ -324,7 +499,12 @@ public class ResponseDispatcher
 
         if (null != rx[0]) {
             if (rx[0] instanceof ValueResponse) {
-                return ((ValueResponse)rx[0]).getValue();
+                try {
+                    return ((ValueResponse)rx[0]).decodeValue();
+                }
+                catch (final SyntaxException se) {
+                    throw new RemoteException("Unable to decode response: " + se.getMessage(), se);
+                }
             }
             else if (rx[0] instanceof ErrorResponse) {
                 final Throwable th = ((ErrorResponse)rx[0]).getException();
@@ -335,10 +515,75 @@ public class ResponseDispatcher
             }
         }
         else {
+            abandon(label);
             throw new TimeoutException("Timeout waiting for response to CallCommand");
         }
     }
 
+    /**
+     * Call a remote method whose result is streamed (one that returns an
+     * {@link Iterator} or {@link Iterable}), using the timeout configured for
+     * this {@link ResponseDispatcher} to wait for each chunk, and the default
+     * read-ahead ({@link #READ_AHEAD}).
+     * 
+     * @param cmd The call command to send.
+     * @return An iterator over the result. It should be closed if it is not
+     *         consumed to the end.
+     * @throws IOException If there was an exception sending the command over
+     *             the {@link ClientSideCommunicator} associated with this
+     *             {@link ResponseDispatcher}.
+     * @throws NotBoundException If the {@link ClientSideCommunicator} is unable
+     *             to serialize the {@link CallCommand}.
+     */
+    public StreamIterator callStream(final CallCommand cmd)
+        throws IOException, NotBoundException
+    {
+        return callStream(cmd, getTimeout(), READ_AHEAD);
+    }
+
+    /**
+     * Call a remote method whose result is streamed (one that returns an
+     * {@link Iterator} or {@link Iterable}). The command is marked to ask for
+     * streaming (see {@link CallCommand#setStream(boolean)}), which servers
+     * older than streaming cannot parse.
+     * 
+     * @param cmd The call command to send.
+     * @param timeout How long to wait for each chunk, in milliseconds.
+     * @param readAhead The maximum number of chunks to hold before they are
+     *            consumed. While this many are waiting, no other responses are
+     *            read from the server.
+     * @return An iterator over the result. It should be closed if it is not
+     *         consumed to the end.
+     * @throws IOException If there was an exception sending the command over
+     *             the {@link ClientSideCommunicator} associated with this
+     *             {@link ResponseDispatcher}.
+     * @throws NotBoundException If the {@link ClientSideCommunicator} is unable
+     *             to serialize the {@link CallCommand}.
+     */
+    public StreamIterator callStream(final CallCommand cmd, final long timeout, final int readAhead)
+        throws IOException, NotBoundException
+    {
+        final String label = String.format("%d", nextLabel.getAndIncrement());
+        cmd.setLabel(label);
+        cmd.setStream(true);
+
+        final StreamIterator it = new StreamIterator(this, label, timeout, readAhead);
+        setResponseListener(label, it.getListener());
+
+        boolean sent = false;
+        try {
+            getCommunicator().sendCommand(cmd);
+            sent = true;
+        }
+        finally {
+            if (!sent) {
+                delResponseListener(label);
+            }
+        }
+
+        return it;
+    }
+
     /**
      * Call a remote method and do not wait for a response; any response will be
      * ignored when it arrives.
@@ -356,6 +601,48 @@ public class ResponseDispatcher
         getCommunicator().sendCommand(cmd);
     }
 
+    /**
+     * Call a prepared remote method and wait for a response using the timeout
+     * configured for this {@link ResponseDispatcher}.
+     * 
+     * @param prepared The prepared call.
+     * @param arguments The arguments to pass to the method.
+     * @return The object returned in the response.
+     * @throws RemoteException If there was an exception on the remote end.
+     * @throws IOException If there was an exception sending the command over
+     *             the {@link ClientSideCommunicator} associated with this
+     *             {@link ResponseDispatcher}.
+     * @throws NotBoundException If the {@link ClientSideCommunicator} is unable
+     *             to serialize the call.
+     * @throws TimeoutException If no response is received from the server
+     *             before the timeout expires.
+     * @see PreparedCall#bind(Object...)
+     */
+    public Object call(final PreparedCall prepared, final Object... arguments)
+        throws RemoteException, IOException, NotBoundException, TimeoutException
+    {
+        return call(prepared.bind(arguments), getTimeout());
+    }
+
+    /**
+     * Call a prepared remote method and do not wait for a response; any
+     * response will be ignored when it arrives.
+     * 
+     * @param prepared The prepared call.
+     * @param arguments The arguments to pass to the method.
+     * @throws IOException If there was an exception sending the command over
+     *             the {@link ClientSideCommunicator} associated with this
+     *             {@link ResponseDispatcher}.
+     * @throws NotBoundException If the {@link ClientSideCommunicator} is unable
+     *             to serialize the call.
+     * @see PreparedCall#bind(Object...)
+     */
+    public void callNoResponse(final PreparedCall prepared, final Object... arguments)
+        throws IOException, NotBoundException
+    {
+        callNoResponse(prepared.bind(arguments));
+    }
+
     /**
      * Set a response listener for value and error responses, by label. Only one
      * listener may be associated with a label, so this will replace any
@@ -388,7 +675,9 @@ public class ResponseDispatcher
     /**
      * Notify each registered {@link UnsolListener} whose registered pattern
      * matches the type of the given response that such a response has been
-     * received.
+     * received. The value is decoded (once) only if a listener which is not a
+     * {@link LazyUnsolListener} matches; if it cannot be decoded, such
+     * listeners are not notified.
      * 
      * @param ur The unsolicited response that was received.
      */
@@ -396,25 +685,60 @@ public class ResponseDispatcher
     {
         LOG.debug("Searching for type matches for " + ur.getType());
 
+        // Collect the listeners first, so a slow (or blocking) listener does
+        // not keep others from adding or removing listeners
+        final List<UnsolListener> matched = new ArrayList<UnsolListener>();
         synchronized (unsolListeners) {
             for (final Map.Entry<String, Set<UnsolListener>> entry : unsolListeners.entrySet()) {
                 final Pattern pattern = patternCache.get(entry.getKey());
                 if (pattern.matcher(ur.getType()).matches()) {
                     LOG.debug("Pattern " + pattern + " matches, notifying " + entry.getValue().size() + " listeners");
-                    for (final UnsolListener ul : entry.getValue()) {
-                        try {
-                            ul.unsolReceived(ur.getType(), ur.getValue());
-                        }
-                        catch (final Throwable th) {
-                            LOG.warn("Exception during UnsolListener.unsolReceived()", th);
-                        }
-                    }
+                    matched.addAll(entry.getValue());
                 }
                 else {
                     LOG.debug("Pattern " + pattern + " does not match");
                 }
             }
         }
+
+        // Lazy listeners decode the value themselves, on their own threads;
+        // it is only decoded here if another listener needs it
+        final List<UnsolListener> plain = new ArrayList<UnsolListener>(matched.size());
+        for (final UnsolListener ul : matched) {
+            if (ul instanceof LazyUnsolListener) {
+                try {
+                    ((LazyUnsolListener)ul).unsolReceived(ur);
+                }
+                catch (final Throwable th) {
+                    LOG.warn("Exception during LazyUnsolListener.unsolReceived()", th);
+                }
+            }
+            else {
+                plain.add(ul);
+            }
+        }
+
+        if (plain.isEmpty()) {
+            return;
+        }
+
+        final Object value;
+        try {
+            value = ur.decodeValue();
+        }
+        catch (final SyntaxException se) {
+            LOG.warn("Unable to decode an unsolicited message of type " + ur.getType() + ": " + se.getMessage(), se);
+            return;
+        }
+
+        for (final UnsolListener ul : plain) {
+            try {
+                ul.unsolReceived(ur.getType(), value);
+            }
+            catch (final Throwable th) {
+                LOG.warn("Exception during UnsolListener.unsolReceived()", th);
+            }
+        }
     }
 
     /**
@@ -1,19 +1,34 @@
 package net.jonp.armi.comm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.rmi.AlreadyBoundException;
 import java.rmi.NotBoundException;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import net.jonp.armi.base.ObservableRegistry;
 import net.jonp.armi.base.Registry;
+import net.jonp.armi.base.RegistryListener;
 
 /**
  * A simple, generic {@link Registry} implementation backed by a {@link HashMap}
  * . Uses the same synchronization semantics as {@link HashMap}.
+ * 
+ * Changes made through {@link #put(String, Object)}, {@link #putAll(Map)},
+ * {@link #remove(Object)}, {@link #clear()}, and the {@link Registry} methods
+ * are reported to {@link RegistryListener}s. Changes made through the views
+ * of the map (such as {@link #keySet()}) are not.
  */
 public class SimpleRegistry<T>
     extends HashMap<String, T>
-    implements Registry<T>
+    implements ObservableRegistry<T>
 {
+    /** Not serialized or cloned; a copy of the registry starts with none. */
+    private transient List<RegistryListener> listeners = new CopyOnWriteArrayList<RegistryListener>();
+
     @Override
     public void bind(final String name, final T object)
         throws AlreadyBoundException
@@ -58,4 +73,78 @@ public class SimpleRegistry<T>
 
         remove(name);
     }
+
+    @Override
+    public void addRegistryListener(final RegistryListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRegistryListener(final RegistryListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public T put(final String name, final T object)
+    {
+        final T previous = super.put(name, object);
+        fireRegistryChanged(name);
+        return previous;
+    }
+
+    @Override
+    public void putAll(final Map<? extends String, ? extends T> map)
+    {
+        super.putAll(map);
+        fireRegistryChanged(null);
+    }
+
+    @Override
+    public T remove(final Object name)
+    {
+        final boolean bound = containsKey(name);
+        final T previous = super.remove(name);
+        if (bound) {
+            fireRegistryChanged((String)name);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        fireRegistryChanged(null);
+    }
+
+    private void fireRegistryChanged(final String name)
+    {
+        for (final RegistryListener listener : listeners) {
+            listener.registryChanged(this, name);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.HashMap#clone()
+     */
+    @Override
+    public Object clone()
+    {
+        @SuppressWarnings("unchecked")
+        final SimpleRegistry<T> copy = (SimpleRegistry<T>)super.clone();
+        copy.listeners = new CopyOnWriteArrayList<RegistryListener>();
+        return copy;
+    }
+
+    private void readObject(final ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        listeners = new CopyOnWriteArrayList<RegistryListener>();
+    }
 }
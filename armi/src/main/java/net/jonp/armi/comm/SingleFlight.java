@@ -0,0 +1,21 @@
+package net.jonp.armi.comm;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an API method whose concurrent calls with the same arguments may share
+ * one invocation: while a call is running, identical calls wait for it and
+ * receive the same result (or exception), rather than calling the method
+ * again. See {@link InFlightCalls}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SingleFlight
+{
+    // Nothing to configure
+}
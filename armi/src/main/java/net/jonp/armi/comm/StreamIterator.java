@@ -0,0 +1,247 @@
+package net.jonp.armi.comm;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.jonp.armi.base.response.ChunkResponse;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ValueResponse;
+
+/**
+ * Iterates over a result streamed from the server (see
+ * {@link ResponseDispatcher#callStream(net.jonp.armi.base.command.CallCommand)}
+ * ).
+ * 
+ * At most <code>readAhead</code> chunks are held waiting to be consumed. Once
+ * that many are waiting, the {@link ResponseDispatcher} stops reading until
+ * the caller catches up, which in turn holds back the server. Note that this
+ * also holds back every other response on the same connection, so a stream
+ * should either be consumed promptly or closed. A chunk which cannot be queued
+ * within the timeout (the same one the caller waits for each chunk with) is
+ * taken to mean the caller has gone away: the stream is closed, so that the
+ * rest of the connection carries on, and the caller is told so if it comes
+ * back.
+ * 
+ * If the server does not stream the result (because the method does not
+ * return an {@link Iterator} or {@link Iterable}), the single value it sends
+ * is iterated instead: an array or {@link Iterable} element by element, and
+ * anything else as a single element.
+ */
+public class StreamIterator
+    implements Iterator<Object>, Closeable
+{
+    private final ResponseDispatcher _dispatcher;
+    private final String _label;
+    private final long _timeout;
+    private final BlockingQueue<Response> queue;
+
+    private volatile boolean closed = false;
+    private volatile boolean stalled = false;
+    private boolean finished = false;
+    private Object[] current = new Object[0];
+    private int position = 0;
+
+    /**
+     * Construct a new StreamIterator.
+     * 
+     * @param dispatcher The dispatcher which will deliver the chunks.
+     * @param label The label of the call whose result is being streamed.
+     * @param timeout How long to wait for each chunk, in milliseconds.
+     * @param readAhead The maximum number of chunks to hold before they are
+     *            consumed.
+     */
+    StreamIterator(final ResponseDispatcher dispatcher, final String label, final long timeout, final int readAhead)
+    {
+        _dispatcher = dispatcher;
+        _label = label;
+        _timeout = timeout;
+        queue = new ArrayBlockingQueue<Response>(readAhead);
+    }
+
+    /**
+     * Get the listener which receives chunks from the
+     * {@link ResponseDispatcher}.
+     * 
+     * @return The listener.
+     */
+    ResponseDispatcher.ResponseListener getListener()
+    {
+        return new ResponseDispatcher.ResponseListener() {
+            @Override
+            public void response(final Response response)
+            {
+                received(response);
+            }
+        };
+    }
+
+    /**
+     * Called, on the {@link ResponseDispatcher} thread, when a chunk arrives.
+     * Blocks while the read-ahead queue is full, for at most the timeout,
+     * after which the stream is closed.
+     * 
+     * @param response The chunk, or the value or error ending the stream.
+     */
+    private void received(final Response response)
+    {
+        if (isLast(response)) {
+            _dispatcher.delResponseListener(_label);
+        }
+
+        if (closed) {
+            return;
+        }
+
+        final long limit = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout);
+        try {
+            while (!queue.offer(response, 100, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return;
+                }
+                else if (System.nanoTime() - limit >= 0) {
+                    stalled = true;
+                    close();
+                    return;
+                }
+            }
+        }
+        catch (final InterruptedException ie) {
+            // The dispatcher is shutting down; the caller will time out
+        }
+    }
+
+    private boolean isLast(final Response response)
+    {
+        return (!(response instanceof ChunkResponse) || ((ChunkResponse)response).isEnd());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext()
+    {
+        while (position >= current.length && !finished) {
+            if (stalled) {
+                throw new RemoteStreamException("Stream abandoned, no chunk was read for " + _timeout + " ms",
+                                                new TimeoutException());
+            }
+            else if (closed) {
+                throw new IllegalStateException("Stream is closed");
+            }
+
+            final Response response;
+            try {
+                response = queue.poll(_timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException ie) {
+                throw new RemoteStreamException("Interrupted waiting for streamed result", ie);
+            }
+
+            if (null == response) {
+                throw new RemoteStreamException("Timeout waiting for streamed result", new TimeoutException());
+            }
+
+            finished = isLast(response);
+            position = 0;
+
+            if (response instanceof ChunkResponse) {
+                current = ((ChunkResponse)response).getElements();
+            }
+            else if (response instanceof ValueResponse) {
+                current = toElements(((ValueResponse)response).getValue());
+            }
+            else if (response instanceof ErrorResponse) {
+                final Throwable th = ((ErrorResponse)response).getException();
+                throw new RemoteStreamException("Remote exception: " + th.getMessage(), th);
+            }
+            else {
+                throw new RemoteStreamException("Unrecognized result type: " + response.getClass().getName());
+            }
+        }
+
+        return (position < current.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public Object next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return current[position++];
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Streamed results cannot be modified");
+    }
+
+    /**
+     * Stop iterating. Any chunks still to come from the server are discarded
+     * as they arrive, so the {@link ResponseDispatcher} is not held up waiting
+     * for them to be consumed. If the stream has not ended, and the dispatcher
+     * {@link ResponseDispatcher#isSendCancels()}, the server is told to stop
+     * streaming it.
+     */
+    @Override
+    public void close()
+    {
+        final boolean wasClosed = closed;
+        closed = true;
+        queue.clear();
+
+        if (!wasClosed && !finished) {
+            _dispatcher.abandon(_label);
+        }
+    }
+
+    /**
+     * Convert a single value, sent by a server that did not stream the result,
+     * into elements.
+     * 
+     * @param value The value.
+     * @return The elements of the value.
+     */
+    private Object[] toElements(final Object value)
+    {
+        if (null == value) {
+            return new Object[0];
+        }
+        else if (value instanceof Object[]) {
+            return (Object[])value;
+        }
+        else if (value instanceof Iterable) {
+            final List<Object> elements = new ArrayList<Object>();
+            for (final Object element : (Iterable<?>)value) {
+                elements.add(element);
+            }
+
+            return elements.toArray();
+        }
+        else {
+            return new Object[] {
+                value
+            };
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.jonp.armi.comm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jonp.armi.base.response.DeltaEncoder;
+import net.jonp.armi.base.response.DeltaResponse;
+
+/**
+ * The types of unsolicited response that a server sends as deltas, to clients
+ * which ask for them (see {@link Handshake#DELTA}).
+ * 
+ * Each type is registered with a {@link KeyExtractor}, which identifies the
+ * object a value describes. Each connection keeps its own
+ * {@link DeltaEncoder}, which remembers the last value sent for each type and
+ * key, and sends a {@link DeltaResponse} holding only the fields which have
+ * changed since then, with a full snapshot every
+ * {@link #getSnapshotInterval()} updates. The client applies each delta to its
+ * own copy of the last value, so listeners still receive complete values.
+ * 
+ * One instance may be shared by every connection of a server. Types may be
+ * registered and unregistered at any time, but this only affects unsolicited
+ * responses sent afterwards.
+ */
+public class UnsolDeltas
+{
+    private final ConcurrentMap<String, KeyExtractor> extractors = new ConcurrentHashMap<String, KeyExtractor>();
+    private final int _snapshotInterval;
+
+    /**
+     * Construct a new UnsolDeltas with the default snapshot interval.
+     */
+    public UnsolDeltas()
+    {
+        this(DeltaEncoder.DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Construct a new UnsolDeltas.
+     * 
+     * @param snapshotInterval The number of deltas to send for a key before
+     *            sending it in full again.
+     */
+    public UnsolDeltas(final int snapshotInterval)
+    {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("Bad snapshot interval: " + snapshotInterval);
+        }
+
+        _snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Get the number of deltas sent for a key before sending it in full again.
+     * 
+     * @return The snapshot interval.
+     */
+    public int getSnapshotInterval()
+    {
+        return _snapshotInterval;
+    }
+
+    /**
+     * Send unsolicited responses of a type as deltas.
+     * 
+     * @param type The type of unsolicited response.
+     * @param extractor Finds the key of each value of that type.
+     */
+    public void register(final String type, final KeyExtractor extractor)
+    {
+        if (null == extractor) {
+            throw new NullPointerException("extractor");
+        }
+
+        extractors.put(type, extractor);
+    }
+
+    /**
+     * Stop sending unsolicited responses of a type as deltas.
+     * 
+     * @param type The type of unsolicited response.
+     */
+    public void unregister(final String type)
+    {
+        extractors.remove(type);
+    }
+
+    /**
+     * Get the key extractor for a type.
+     * 
+     * @param type The type of unsolicited response.
+     * @return The key extractor, or <code>null</code> if that type is not sent
+     *         as deltas.
+     */
+    public KeyExtractor getKeyExtractor(final String type)
+    {
+        return extractors.get(type);
+    }
+}
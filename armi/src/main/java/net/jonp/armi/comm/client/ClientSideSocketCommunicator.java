@@ -1,15 +1,36 @@
 package net.jonp.armi.comm.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.rmi.NotBoundException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
 
 import net.jonp.armi.base.ClassRegistry;
 import net.jonp.armi.base.SyntaxException;
 import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.io.FramedStatementReader;
+import net.jonp.armi.base.io.StatementDictionary;
+import net.jonp.armi.base.io.StatementEncoder;
+import net.jonp.armi.base.response.DeltaResponse;
 import net.jonp.armi.base.response.Response;
 import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.comm.CommunicatorTimeoutException;
+import net.jonp.armi.comm.Compression;
+import net.jonp.armi.comm.Handshake;
+
+import org.apache.log4j.Logger;
 
 /**
  * A {@link ClientSideCommunicator} that works over a {@link Socket}.
@@ -17,9 +38,28 @@ import net.jonp.armi.base.response.ResponseParser;
 public class ClientSideSocketCommunicator
     implements ClientSideCommunicator
 {
+    private static final Logger LOG = Logger.getLogger(ClientSideSocketCommunicator.class);
+
     private final Socket _sock;
     private final ResponseParser _parser;
     private final OutputStream _responseStream;
+    private final boolean _compressed;
+    private final boolean _deltaEncoded;
+
+    /** Reads responses, if the server agreed to framing; or <code>null</code>. */
+    private final FramedStatementReader _frames;
+
+    /**
+     * Statements the server sent before its handshake reply, unframed, to be
+     * read before any framed ones.
+     */
+    private final Queue<String> _early = new LinkedList<String>();
+
+    /** Encodes commands, under the lock on <code>this</code>; or <code>null</code>. */
+    private final StatementDictionary _dictionary;
+
+    /** Writes commands as UTF-8, under the lock on <code>this</code>. */
+    private final StatementEncoder _encoder = new StatementEncoder();
 
     /**
      * Construct a new SocketCommunicator.
@@ -30,10 +70,228 @@ public class ClientSideSocketCommunicator
      */
     public ClientSideSocketCommunicator(final Socket sock, final ClassRegistry registry)
         throws IOException
+    {
+        this(sock, registry, null);
+    }
+
+    /**
+     * Construct a new SocketCommunicator, asking the server to compress the
+     * connection. Blocks until the server replies (see {@link Handshake}).
+     * 
+     * @param sock The socket to use for low-level communications.
+     * @param registry The class registry.
+     * @param compression The compression settings for statements sent to the
+     *            server, or <code>null</code> to not ask for compression. If
+     *            the server declines, the connection is left uncompressed.
+     * @throws IOException If there was a problem setting up communications.
+     * @throws CommunicatorTimeoutException If the server did not reply within
+     *             {@link Handshake#DEFAULT_TIMEOUT} milliseconds.
+     */
+    public ClientSideSocketCommunicator(final Socket sock, final ClassRegistry registry, final Compression compression)
+        throws IOException
+    {
+        this(sock, registry, compression, 0);
+    }
+
+    /**
+     * Construct a new SocketCommunicator, asking the server to compress the
+     * connection and/or to keep a {@link StatementDictionary} in each
+     * direction. Blocks until the server replies (see {@link Handshake}).
+     * 
+     * @param sock The socket to use for low-level communications.
+     * @param registry The class registry.
+     * @param compression The compression settings for statements sent to the
+     *            server, or <code>null</code> to not ask for compression. If
+     *            the server declines, the connection is left uncompressed.
+     * @param dictionarySize The number of words to ask the server to keep in
+     *            each dictionary, or 0 to not ask for dictionaries. The server
+     *            may agree to fewer, or decline.
+     * @throws IOException If there was a problem setting up communications.
+     * @throws CommunicatorTimeoutException If the server did not reply within
+     *             {@link Handshake#DEFAULT_TIMEOUT} milliseconds.
+     */
+    public ClientSideSocketCommunicator(final Socket sock, final ClassRegistry registry, final Compression compression,
+                                        final int dictionarySize)
+        throws IOException
+    {
+        this(sock, registry, compression, dictionarySize, false);
+    }
+
+    /**
+     * Construct a new SocketCommunicator, asking the server for any of
+     * compression, a {@link StatementDictionary} in each direction, and
+     * unsolicited responses sent as deltas. Blocks until the server replies
+     * (see {@link Handshake}).
+     * 
+     * @param sock The socket to use for low-level communications.
+     * @param registry The class registry.
+     * @param compression The compression settings for statements sent to the
+     *            server, or <code>null</code> to not ask for compression. If
+     *            the server declines, the connection is left uncompressed.
+     * @param dictionarySize The number of words to ask the server to keep in
+     *            each dictionary, or 0 to not ask for dictionaries. The server
+     *            may agree to fewer, or decline.
+     * @param deltas True to ask the server to send those unsolicited responses
+     *            it has keys for as a {@link DeltaResponse}. Deltas are
+     *            applied as they are read, so listeners still receive complete
+     *            values.
+     * @throws IOException If there was a problem setting up communications.
+     * @throws CommunicatorTimeoutException If the server did not reply within
+     *             {@link Handshake#DEFAULT_TIMEOUT} milliseconds.
+     */
+    public ClientSideSocketCommunicator(final Socket sock, final ClassRegistry registry, final Compression compression,
+                                        final int dictionarySize, final boolean deltas)
+        throws IOException
+    {
+        this(sock, registry, compression, dictionarySize, deltas, false);
+    }
+
+    /**
+     * Construct a new SocketCommunicator, asking the server for any of
+     * compression, a {@link StatementDictionary} in each direction, and
+     * unsolicited responses sent as deltas, and length-prefixed statements.
+     * Blocks until the server replies (see {@link Handshake}).
+     * 
+     * @param sock The socket to use for low-level communications.
+     * @param registry The class registry.
+     * @param compression The compression settings for statements sent to the
+     *            server, or <code>null</code> to not ask for compression. If
+     *            the server declines, the connection is left uncompressed.
+     * @param dictionarySize The number of words to ask the server to keep in
+     *            each dictionary, or 0 to not ask for dictionaries. The server
+     *            may agree to fewer, or decline.
+     * @param deltas True to ask the server to send those unsolicited responses
+     *            it has keys for as a {@link DeltaResponse}. Deltas are
+     *            applied as they are read, so listeners still receive complete
+     *            values.
+     * @param framed True to ask the server to precede each statement with its
+     *            length (see {@link Handshake#FRAMED}), so that they can be
+     *            read in bulk and string values may contain newlines.
+     * @throws IOException If there was a problem setting up communications.
+     * @throws CommunicatorTimeoutException If the server did not reply within
+     *             {@link Handshake#DEFAULT_TIMEOUT} milliseconds.
+     */
+    public ClientSideSocketCommunicator(final Socket sock, final ClassRegistry registry, final Compression compression,
+                                        final int dictionarySize, final boolean deltas, final boolean framed)
+        throws IOException
     {
         _sock = sock;
-        _responseStream = _sock.getOutputStream();
-        _parser = new ResponseParser(_sock.getInputStream(), registry);
+
+        if (null == compression && dictionarySize <= 0 && !deltas && !framed) {
+            _compressed = false;
+            _deltaEncoded = false;
+            _frames = null;
+            _dictionary = null;
+            _responseStream = _sock.getOutputStream();
+            _parser = new ResponseParser(_sock.getInputStream(), registry);
+        }
+        else {
+            final Set<String> requested = new TreeSet<String>();
+            if (null != compression) {
+                requested.add(Handshake.DEFLATE);
+            }
+            if (dictionarySize > 0) {
+                requested.add(Handshake.dictionary(dictionarySize));
+            }
+            if (deltas) {
+                requested.add(Handshake.DELTA);
+            }
+            if (framed) {
+                requested.add(Handshake.FRAMED);
+            }
+
+            final Set<String> accepted = negotiate(registry, requested, _early);
+
+            _compressed = (null != compression && accepted.contains(Handshake.DEFLATE));
+            _deltaEncoded = (deltas && accepted.contains(Handshake.DELTA));
+            LOG.debug("Server accepted features " + accepted);
+
+            InputStream in = _sock.getInputStream();
+            if (_compressed) {
+                _responseStream = compression.wrap(_sock.getOutputStream());
+                in = Compression.wrap(in);
+            }
+            else {
+                _responseStream = _sock.getOutputStream();
+            }
+
+            // Anything the server sent before its reply comes first (it was
+            // not encoded, but decoding leaves it as it is)
+            if (framed && accepted.contains(Handshake.FRAMED)) {
+                _frames = new FramedStatementReader(in);
+                _parser = new ResponseParser(registry);
+            }
+            else {
+                if (!_early.isEmpty()) {
+                    final ByteArrayOutputStream early = new ByteArrayOutputStream();
+                    while (!_early.isEmpty()) {
+                        early.write((_early.remove() + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+
+                    in = new SequenceInputStream(new ByteArrayInputStream(early.toByteArray()), in);
+                }
+
+                _frames = null;
+                _parser = new ResponseParser(in, registry);
+            }
+
+            final int size = Math.min(dictionarySize, Handshake.dictionarySize(accepted));
+            if (size > 0) {
+                _dictionary = new StatementDictionary(size);
+                _parser.setDictionary(new StatementDictionary(size));
+            }
+            else {
+                _dictionary = null;
+            }
+        }
+    }
+
+    /**
+     * Send the hello and wait for the reply.
+     * 
+     * @param registry The class registry.
+     * @param requested The features to ask for.
+     * @param early Receives any statements the server sent before its reply.
+     * @return The features accepted by the server.
+     * @throws IOException If there was a problem.
+     */
+    private Set<String> negotiate(final ClassRegistry registry, final Set<String> requested, final Queue<String> early)
+        throws IOException
+    {
+        final OutputStream out = _sock.getOutputStream();
+        final InputStream in = _sock.getInputStream();
+
+        try {
+            out.write(Handshake.hello(requested, registry).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        catch (final NotBoundException nbe) {
+            // Should not happen, the hello only contains a string
+            throw new IllegalStateException("Failed to build handshake: " + nbe.getMessage(), nbe);
+        }
+
+        final int timeout = _sock.getSoTimeout();
+        _sock.setSoTimeout(Handshake.DEFAULT_TIMEOUT);
+        try {
+            while (true) {
+                final String line = Handshake.readLine(in);
+                if (null == line) {
+                    throw new EOFException("Connection closed during handshake");
+                }
+                else if (Handshake.isReply(line)) {
+                    return Handshake.accepted(line, registry);
+                }
+                else {
+                    early.add(line);
+                }
+            }
+        }
+        catch (final SocketTimeoutException ste) {
+            throw new CommunicatorTimeoutException("No handshake reply from server", ste);
+        }
+        finally {
+            _sock.setSoTimeout(timeout);
+        }
     }
 
     /**
@@ -46,11 +304,70 @@ public class ClientSideSocketCommunicator
         return _sock;
     }
 
+    /**
+     * Test whether the server agreed to compress this connection.
+     * 
+     * @return True if statements in both directions are compressed.
+     */
+    public boolean isCompressed()
+    {
+        return _compressed;
+    }
+
+    /**
+     * Test whether the server agreed to send unsolicited responses as deltas.
+     * 
+     * @return True if the server may send a {@link DeltaResponse}.
+     */
+    public boolean isDeltaEncoded()
+    {
+        return _deltaEncoded;
+    }
+
+    /**
+     * Test whether the server agreed to length-prefixed statements.
+     * 
+     * @return True if statements in both directions are framed.
+     */
+    public boolean isFramed()
+    {
+        return (null != _frames);
+    }
+
+    /**
+     * Get the size of the dictionaries the server agreed to keep.
+     * 
+     * @return The number of words in each dictionary, or 0 if statements are
+     *         sent in full.
+     */
+    public int getDictionarySize()
+    {
+        return (null == _dictionary ? 0 : _dictionary.getSize());
+    }
+
+    /**
+     * Set whether response values are decoded only when they are first
+     * needed. See {@link ResponseParser#setLazy(boolean)}.
+     * 
+     * @param lazy True to defer decoding values.
+     */
+    public void setLazy(final boolean lazy)
+    {
+        _parser.setLazy(lazy);
+    }
+
     @Override
     public void close()
         throws IOException
     {
-        _sock.close();
+        try {
+            if (_compressed) {
+                _responseStream.close();
+            }
+        }
+        finally {
+            _sock.close();
+        }
     }
 
     @Override
@@ -63,16 +380,39 @@ public class ClientSideSocketCommunicator
     public Response readNextResponse()
         throws IOException, SyntaxException
     {
-        return _parser.readNextResponse();
+        if (null == _frames) {
+            return _parser.readNextResponse();
+        }
+
+        Response response;
+        do {
+            final String early = _early.poll();
+            final ByteBuffer statement =
+                (null == early ? _frames.next() : ByteBuffer.wrap(early.getBytes(StandardCharsets.UTF_8)));
+            response = _parser.parseResponse(statement);
+        } while (null == response);
+
+        return response;
     }
 
     @Override
     public void sendCommand(final Command command)
         throws IOException, NotBoundException
     {
-        _responseStream.write(command.toStatement(getClassRegistry()).getBytes());
-        _responseStream.write('\n');
-        _responseStream.flush();
+        final String statement = command.toStatement(getClassRegistry());
+
+        synchronized (this) {
+            // The server decodes in the order we write, so encode in that order
+            final String encoded = (null == _dictionary ? statement : _dictionary.encode(statement));
+            if (null == _frames) {
+                _encoder.write(_responseStream, encoded);
+            }
+            else {
+                _encoder.writeFramed(_responseStream, encoded);
+            }
+
+            _responseStream.flush();
+        }
     }
 
     @Override
@@ -0,0 +1,20 @@
+package net.jonp.armi.comm.client;
+
+import java.io.IOException;
+
+/**
+ * Opens new connections to a server, for users (such as
+ * {@link net.jonp.armi.comm.DispatcherPool}) which need to open more than one,
+ * or to reopen one that has failed.
+ */
+public interface CommunicatorFactory
+{
+    /**
+     * Open a new connection to the server.
+     * 
+     * @return A new, open {@link ClientSideCommunicator}.
+     * @throws IOException If the connection could not be opened.
+     */
+    public ClientSideCommunicator connect()
+        throws IOException;
+}
@@ -0,0 +1,75 @@
+package net.jonp.armi.comm.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.comm.Compression;
+
+/**
+ * Opens {@link ClientSideSocketCommunicator}s to a single server.
+ */
+public class SocketCommunicatorFactory
+    implements CommunicatorFactory
+{
+    private final InetAddress _addr;
+    private final int _port;
+    private final ClassRegistry _registry;
+    private final Compression _compression;
+    private final int _dictionarySize;
+
+    /**
+     * Construct a new SocketCommunicatorFactory.
+     * 
+     * @param addr The address of the server.
+     * @param port The port of the server.
+     * @param registry The class registry each communicator will use.
+     * @param compression The compression to request from the server, or
+     *            <code>null</code> to send commands uncompressed.
+     */
+    public SocketCommunicatorFactory(final InetAddress addr, final int port, final ClassRegistry registry,
+                                     final Compression compression)
+    {
+        this(addr, port, registry, compression, 0);
+    }
+
+    /**
+     * Construct a new SocketCommunicatorFactory.
+     * 
+     * @param addr The address of the server.
+     * @param port The port of the server.
+     * @param registry The class registry each communicator will use.
+     * @param compression The compression to request from the server, or
+     *            <code>null</code> to send commands uncompressed.
+     * @param dictionarySize The dictionary size to request from the server,
+     *            or 0 to send statements in full.
+     */
+    public SocketCommunicatorFactory(final InetAddress addr, final int port, final ClassRegistry registry,
+                                     final Compression compression, final int dictionarySize)
+    {
+        _addr = addr;
+        _port = port;
+        _registry = registry;
+        _compression = compression;
+        _dictionarySize = dictionarySize;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.jonp.armi.comm.client.CommunicatorFactory#connect()
+     */
+    @Override
+    public ClientSideCommunicator connect()
+        throws IOException
+    {
+        final Socket sock = new Socket(_addr, _port);
+        try {
+            return new ClientSideSocketCommunicator(sock, _registry, _compression, _dictionarySize);
+        }
+        catch (final IOException ioe) {
+            sock.close();
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package net.jonp.armi.comm.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.rmi.NotBoundException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.StreamResponse;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link ServerSideCommunicator} that queues outgoing responses and writes
+ * them to another communicator asynchronously, so that
+ * {@link #sendResponse(Response)} returns without waiting for the client to
+ * read. Each connection keeps its own bounded queue, drained on an
+ * {@link Executor}; responses are always written in order, and never by more
+ * than one thread at a time. Commands are read straight from the wrapped
+ * communicator.
+ * 
+ * When the queue is full, the {@link OverflowPolicy} decides what happens.
+ * Only {@link OverflowPolicy#BLOCK} ever makes
+ * {@link #sendResponse(Response)} wait, so use one of the other policies if
+ * the thread sending (for example, one broadcasting to every client) must
+ * never be held up by a slow client.
+ * 
+ * The executor must have a thread free for each connection whose client is
+ * slow, since draining a queue holds its thread while the write blocks; the
+ * default executor creates threads as needed.
+ * 
+ * A {@link StreamResponse} which will never be written, because the
+ * connection closed before it was or because it was refused, is abandoned,
+ * so that whatever is tracking it (such as a command executor) lets it go.
+ */
+public class QueuedServerSideCommunicator
+    implements ServerSideCommunicator
+{
+    private static final Logger LOG = Logger.getLogger(QueuedServerSideCommunicator.class);
+
+    /** Default number of responses that may wait to be written. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * What to do with a new response when the queue is full.
+     */
+    public static enum OverflowPolicy
+    {
+        /** Wait for the client to make room in the queue. */
+        BLOCK,
+
+        /**
+         * Discard new unsolicited responses. Other responses are always
+         * queued, discarding the oldest queued unsolicited response to make
+         * room if there is one; since each answers a command from the client,
+         * the client limits how many of them can wait.
+         */
+        DROP_UNSOLICITED,
+
+        /**
+         * Replace the queued unsolicited response of the same type, if there
+         * is one, with the new one; otherwise discard the oldest queued
+         * unsolicited response to make room. Other responses are always
+         * queued, as with {@link #DROP_UNSOLICITED}.
+         */
+        CONFLATE,
+
+        /** Close the connection. */
+        DISCONNECT;
+    }
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger nextThread = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+            final Thread th = new Thread(r, "QueuedServerSideCommunicator-" + nextThread.getAndIncrement());
+            th.setDaemon(true);
+            return th;
+        }
+    });
+
+    private final ServerSideCommunicator _delegate;
+    private final Executor _executor;
+    private final int _capacity;
+    private final OverflowPolicy _policy;
+
+    /** Pending responses. */
+    private final ArrayDeque<Slot> queue = new ArrayDeque<Slot>();
+
+    /** The queued slot of each unsolicited type, used by the CONFLATE policy. */
+    private final Map<String, Slot> conflated = new HashMap<String, Slot>();
+
+    /** True while a drain task is submitted to, or running on, the executor. */
+    private boolean scheduled = false;
+
+    private boolean closed = false;
+    private int highWater = 0;
+    private long sent = 0;
+    private long dropped = 0;
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    };
+
+    /**
+     * Construct a new {@link QueuedServerSideCommunicator} with the default
+     * capacity ({@link #DEFAULT_CAPACITY}), draining on threads created as
+     * needed.
+     * 
+     * @param delegate The communicator that will write the responses.
+     * @param policy What to do with new responses when the queue is full.
+     */
+    public QueuedServerSideCommunicator(final ServerSideCommunicator delegate, final OverflowPolicy policy)
+    {
+        this(delegate, DEFAULT_EXECUTOR, DEFAULT_CAPACITY, policy);
+    }
+
+    /**
+     * Construct a new {@link QueuedServerSideCommunicator}.
+     * 
+     * @param delegate The communicator that will write the responses.
+     * @param executor The executor on which responses will be written. It may
+     *            be shared between many connections.
+     * @param capacity The maximum number of responses that may wait to be
+     *            written. Must be positive.
+     * @param policy What to do with new responses when the queue is full.
+     */
+    public QueuedServerSideCommunicator(final ServerSideCommunicator delegate, final Executor executor,
+                                        final int capacity, final OverflowPolicy policy)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        if (null == delegate || null == executor || null == policy) {
+            throw new NullPointerException("Delegate, executor, and policy must not be null");
+        }
+
+        _delegate = delegate;
+        _executor = executor;
+        _capacity = capacity;
+        _policy = policy;
+    }
+
+    /**
+     * Get the communicator to which responses are written.
+     * 
+     * @return The wrapped communicator.
+     */
+    public ServerSideCommunicator getDelegate()
+    {
+        return _delegate;
+    }
+
+    /**
+     * Get the maximum number of responses that may wait to be written.
+     * 
+     * @return The capacity of the queue.
+     */
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * Get the policy applied when the queue is full.
+     * 
+     * @return The overflow policy.
+     */
+    public OverflowPolicy getPolicy()
+    {
+        return _policy;
+    }
+
+    /**
+     * Get the number of responses currently waiting to be written, not
+     * counting one being written.
+     * 
+     * @return The depth of the queue.
+     */
+    public synchronized int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Get the greatest number of responses that have waited at once.
+     * 
+     * @return The high-water mark of the queue depth.
+     */
+    public synchronized int getHighWater()
+    {
+        return highWater;
+    }
+
+    /**
+     * Get the number of responses written to the wrapped communicator.
+     * 
+     * @return The number of responses sent.
+     */
+    public synchronized long getSent()
+    {
+        return sent;
+    }
+
+    /**
+     * Get the number of unsolicited responses that were discarded without
+     * being written, either because the queue overflowed or because a newer
+     * value replaced them.
+     * 
+     * @return The number of discarded responses.
+     */
+    public synchronized long getDropped()
+    {
+        return dropped;
+    }
+
+    @Override
+    public ClassRegistry getClassRegistry()
+    {
+        return _delegate.getClassRegistry();
+    }
+
+    @Override
+    public Command readNextCommand()
+        throws IOException, SyntaxException
+    {
+        return _delegate.readNextCommand();
+    }
+
+    /**
+     * Queue a response to be sent to the client.
+     * 
+     * @param response The response to send.
+     * @throws IOException If the connection is closed, or was closed because
+     *             the queue overflowed under the
+     *             {@link OverflowPolicy#DISCONNECT} policy, or if interrupted
+     *             while waiting for room under the {@link OverflowPolicy#BLOCK}
+     *             policy. Problems writing the response are not reported
+     *             here; they close the connection.
+     */
+    @Override
+    public void sendResponse(final Response response)
+        throws IOException
+    {
+        boolean overflowed = false;
+        synchronized (this) {
+            if (closed) {
+                abandon(response);
+                throw new IOException("Connection closed: " + getServerSideName());
+            }
+
+            if (queue.size() < _capacity) {
+                enqueue(response);
+            }
+            else {
+                switch (_policy) {
+                    case BLOCK:
+                        while (!closed && queue.size() >= _capacity) {
+                            try {
+                                wait();
+                            }
+                            catch (final InterruptedException ie) {
+                                Thread.currentThread().interrupt();
+                                abandon(response);
+                                throw new InterruptedIOException("Interrupted waiting for room in the queue");
+                            }
+                        }
+
+                        if (closed) {
+                            abandon(response);
+                            throw new IOException("Connection closed: " + getServerSideName());
+                        }
+
+                        enqueue(response);
+                        break;
+                    case DROP_UNSOLICITED:
+                        if (response instanceof UnsolicitedResponse) {
+                            dropped++;
+                        }
+                        else {
+                            dropOldestUnsolicited();
+                            enqueue(response);
+                        }
+                        break;
+                    case CONFLATE:
+                        if (response instanceof UnsolicitedResponse) {
+                            final Slot slot = conflated.get(((UnsolicitedResponse)response).getType());
+                            if (null != slot) {
+                                slot.response = response;
+                                dropped++;
+                                break;
+                            }
+                        }
+
+                        dropOldestUnsolicited();
+                        enqueue(response);
+                        break;
+                    case DISCONNECT:
+                        overflowed = true;
+                        break;
+                }
+            }
+
+            if (!overflowed) {
+                if (scheduled) {
+                    return;
+                }
+
+                scheduled = true;
+            }
+        }
+
+        if (overflowed) {
+            LOG.warn("Outbound queue full (" + _capacity + "), disconnecting " + getServerSideName());
+            abandon(response);
+            disconnect();
+            throw new IOException("Outbound queue full, disconnected: " + getServerSideName());
+        }
+
+        try {
+            _executor.execute(drainer);
+        }
+        catch (final RejectedExecutionException ree) {
+            LOG.warn("Executor rejected writing responses to " + getServerSideName(), ree);
+            synchronized (this) {
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Add a response to the end of the queue. Called while synchronized.
+     */
+    private void enqueue(final Response response)
+    {
+        final Slot slot = new Slot(response);
+        queue.add(slot);
+        highWater = Math.max(highWater, queue.size());
+
+        if (_policy == OverflowPolicy.CONFLATE && response instanceof UnsolicitedResponse) {
+            conflated.put(((UnsolicitedResponse)response).getType(), slot);
+        }
+    }
+
+    /**
+     * Discard the oldest queued unsolicited response, if there is one. Called
+     * while synchronized.
+     */
+    private void dropOldestUnsolicited()
+    {
+        for (final Iterator<Slot> it = queue.iterator(); it.hasNext();) {
+            final Slot slot = it.next();
+            if (slot.response instanceof UnsolicitedResponse) {
+                it.remove();
+                forget(slot);
+                dropped++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop tracking a slot which has left the queue. Called while
+     * synchronized.
+     */
+    private void forget(final Slot slot)
+    {
+        if (slot.response instanceof UnsolicitedResponse) {
+            final String type = ((UnsolicitedResponse)slot.response).getType();
+            if (conflated.get(type) == slot) {
+                conflated.remove(type);
+            }
+        }
+    }
+
+    /**
+     * Write queued responses to the wrapped communicator until the queue is
+     * empty.
+     */
+    void drain()
+    {
+        while (true) {
+            final Response response;
+            synchronized (this) {
+                final Slot slot = queue.poll();
+                if (null == slot || closed) {
+                    scheduled = false;
+                    return;
+                }
+
+                forget(slot);
+                response = slot.response;
+
+                // Wake up anybody waiting for room under the BLOCK policy
+                notifyAll();
+            }
+
+            try {
+                try {
+                    _delegate.sendResponse(response);
+                }
+                catch (final NotBoundException nbe) {
+                    LOG.warn("Unable to send " + response + " to " + getServerSideName(), nbe);
+                    if (null != response.getLabel() && !(response instanceof UnsolicitedResponse)) {
+                        // Do not leave the caller waiting
+                        _delegate.sendResponse(new ErrorResponse(response.getLabel(), nbe));
+                    }
+                }
+
+                synchronized (this) {
+                    sent++;
+                }
+            }
+            catch (final Exception e) {
+                LOG.warn("Error writing to " + getServerSideName() + ", disconnecting", e);
+                abandon(response);
+                try {
+                    close();
+                }
+                catch (final IOException ioe) {
+                    LOG.debug("IOException closing " + getServerSideName(), ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the connection without waiting for the wrapped communicator,
+     * which may be blocked writing to the slow client.
+     */
+    private void disconnect()
+    {
+        discard();
+
+        final Runnable closer = new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    _delegate.close();
+                }
+                catch (final IOException ioe) {
+                    LOG.debug("IOException closing " + getServerSideName(), ioe);
+                }
+            }
+        };
+
+        try {
+            _executor.execute(closer);
+        }
+        catch (final RejectedExecutionException ree) {
+            closer.run();
+        }
+    }
+
+    /**
+     * Mark the connection closed and discard the queue, abandoning any
+     * streamed results in it so that they stop being tracked (see
+     * {@link StreamResponse#abandon()}).
+     */
+    private void discard()
+    {
+        final Slot[] discarded;
+        synchronized (this) {
+            closed = true;
+            discarded = queue.toArray(new Slot[queue.size()]);
+            queue.clear();
+            conflated.clear();
+            notifyAll();
+        }
+
+        // Outside the lock, since a stream may be busy producing a chunk
+        for (final Slot slot : discarded) {
+            abandon(slot.response);
+        }
+    }
+
+    /**
+     * Abandon a response which will not be written, if it is a streamed
+     * result.
+     */
+    private static void abandon(final Response response)
+    {
+        if (response instanceof StreamResponse) {
+            ((StreamResponse)response).abandon();
+        }
+    }
+
+    @Override
+    public synchronized boolean isClosed()
+    {
+        return closed || _delegate.isClosed();
+    }
+
+    /**
+     * Close the connection, discarding any responses not yet written.
+     * 
+     * @throws IOException If there was a problem closing the wrapped
+     *             communicator.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        discard();
+        _delegate.close();
+    }
+
+    @Override
+    public String getServerSideName()
+    {
+        return _delegate.getServerSideName();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("QueuedServerSideCommunicator[%s, %s/%d]", getServerSideName(), _policy, _capacity);
+    }
+
+    /**
+     * A queued response, which the CONFLATE policy may replace in place.
+     */
+    private static class Slot
+    {
+        Response response;
+
+        Slot(final Response _response)
+        {
+            response = _response;
+        }
+    }
+}
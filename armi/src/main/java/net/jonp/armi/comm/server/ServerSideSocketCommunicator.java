@@ -1,28 +1,88 @@
 package net.jonp.armi.comm.server;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.rmi.NotBoundException;
+import java.util.Set;
+import java.util.TreeSet;
 
 import net.jonp.armi.base.ClassRegistry;
 import net.jonp.armi.base.SyntaxException;
 import net.jonp.armi.base.command.Command;
 import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.base.io.CompressedFrameOutputStream;
+import net.jonp.armi.base.io.FramedStatementReader;
+import net.jonp.armi.base.io.StatementDictionary;
+import net.jonp.armi.base.io.StatementEncoder;
+import net.jonp.armi.base.response.DeltaEncoder;
+import net.jonp.armi.base.response.DeltaResponse;
+import net.jonp.armi.base.response.ErrorResponse;
 import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.StreamResponse;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+import net.jonp.armi.comm.Compression;
+import net.jonp.armi.comm.Handshake;
+import net.jonp.armi.comm.KeyExtractor;
+import net.jonp.armi.comm.UnsolDeltas;
+
+import org.apache.log4j.Logger;
 
 /**
  * A {@link ServerSideCommunicator} that works over a {@link Socket}.
+ * 
+ * If the first statement from the client is a {@link Handshake}, it is
+ * answered (rather than returned from {@link #readNextCommand()}) and the
+ * agreed features are turned on. Clients that do not send one are served
+ * exactly as before.
  */
 public class ServerSideSocketCommunicator
     implements ServerSideCommunicator
 {
+    private static final Logger LOG = Logger.getLogger(ServerSideSocketCommunicator.class);
+
     private final Socket _sock;
-    private final CommandParser _parser;
-    private final OutputStream _responseStream;
+    private final ClassRegistry _registry;
+    private final Compression _compression;
+    private final int _maxDictionarySize;
+
+    /** Set before the first call to {@link #readNextCommand()}, if at all. */
+    private volatile UnsolDeltas _deltas = null;
+
+    /** Set before the first call to {@link #readNextCommand()}, if at all. */
+    private volatile boolean _framingAllowed = true;
+
+    /** Created on the first call to {@link #readNextCommand()}. */
+    private CommandParser _parser = null;
 
     /**
-     * Construct a new SocketCommunicator.
+     * Reads commands, if the client asked for framing; created on the first
+     * call to {@link #readNextCommand()}.
+     */
+    private FramedStatementReader _frames = null;
+
+    /** Guarded by <code>this</code>. */
+    private OutputStream _responseStream;
+
+    /** Encodes responses; guarded by <code>this</code>. */
+    private StatementDictionary _dictionary = null;
+
+    /** Encodes deltas, if the client asked; guarded by <code>this</code>. */
+    private DeltaEncoder _deltaEncoder = null;
+
+    /** Writes statements as UTF-8; guarded by <code>this</code>. */
+    private final StatementEncoder _encoder = new StatementEncoder();
+
+    /** Whether responses are length-prefixed; guarded by <code>this</code>. */
+    private boolean _framed = false;
+
+    /**
+     * Construct a new SocketCommunicator which will compress the connection
+     * with the default settings if the client asks.
      * 
      * @param sock The socket to use for low-level communications.
      * @param registry The class registry.
@@ -30,10 +90,48 @@ public class ServerSideSocketCommunicator
      */
     public ServerSideSocketCommunicator(final Socket sock, final ClassRegistry registry)
         throws IOException
+    {
+        this(sock, registry, Compression.DEFAULT);
+    }
+
+    /**
+     * Construct a new SocketCommunicator.
+     * 
+     * @param sock The socket to use for low-level communications.
+     * @param registry The class registry.
+     * @param compression The compression settings for responses sent to the
+     *            client, if it asks for compression, or <code>null</code> to
+     *            refuse compression.
+     * @throws IOException If there was a problem setting up communications.
+     */
+    public ServerSideSocketCommunicator(final Socket sock, final ClassRegistry registry, final Compression compression)
+        throws IOException
+    {
+        this(sock, registry, compression, StatementDictionary.DEFAULT_SIZE);
+    }
+
+    /**
+     * Construct a new SocketCommunicator.
+     * 
+     * @param sock The socket to use for low-level communications.
+     * @param registry The class registry.
+     * @param compression The compression settings for responses sent to the
+     *            client, if it asks for compression, or <code>null</code> to
+     *            refuse compression.
+     * @param maxDictionarySize The most words to keep in each
+     *            {@link StatementDictionary}, if the client asks for them, or 0
+     *            to refuse dictionaries.
+     * @throws IOException If there was a problem setting up communications.
+     */
+    public ServerSideSocketCommunicator(final Socket sock, final ClassRegistry registry, final Compression compression,
+                                        final int maxDictionarySize)
+        throws IOException
     {
         _sock = sock;
+        _registry = registry;
+        _compression = compression;
+        _maxDictionarySize = maxDictionarySize;
         _responseStream = _sock.getOutputStream();
-        _parser = new CommandParser(_sock.getInputStream(), registry);
     }
 
     /**
@@ -46,35 +144,304 @@ public class ServerSideSocketCommunicator
         return _sock;
     }
 
+    /**
+     * Test whether this connection has been compressed at the client's
+     * request. Always false until the first call to {@link #readNextCommand()}
+     * .
+     * 
+     * @return True if statements in both directions are compressed.
+     */
+    public synchronized boolean isCompressed()
+    {
+        return (_responseStream instanceof CompressedFrameOutputStream);
+    }
+
+    /**
+     * Get the size of the dictionaries agreed with the client. Always 0 until
+     * the first call to {@link #readNextCommand()}.
+     * 
+     * @return The number of words in each dictionary, or 0 if statements are
+     *         sent in full.
+     */
+    public synchronized int getDictionarySize()
+    {
+        return (null == _dictionary ? 0 : _dictionary.getSize());
+    }
+
+    /**
+     * Send unsolicited responses of some types as a {@link DeltaResponse}, if
+     * the client asks. Must be called before the first call to
+     * {@link #readNextCommand()}.
+     * 
+     * @param deltas The types to send as deltas, or <code>null</code> to
+     *            refuse deltas (the default).
+     */
+    public void setUnsolDeltas(final UnsolDeltas deltas)
+    {
+        _deltas = deltas;
+    }
+
+    /**
+     * Test whether unsolicited responses are sent as deltas at the client's
+     * request. Always false until the first call to {@link #readNextCommand()}.
+     * 
+     * @return True if the types in the {@link UnsolDeltas} are sent as deltas.
+     */
+    public synchronized boolean isDeltaEncoded()
+    {
+        return (null != _deltaEncoder);
+    }
+
+    /**
+     * Set whether statements are length-prefixed if the client asks (see
+     * {@link Handshake#FRAMED}). Must be called before the first call to
+     * {@link #readNextCommand()}.
+     * 
+     * @param framingAllowed True to agree to framing (the default), false to
+     *            refuse it.
+     */
+    public void setFramingAllowed(final boolean framingAllowed)
+    {
+        _framingAllowed = framingAllowed;
+    }
+
+    /**
+     * Test whether statements are length-prefixed at the client's request.
+     * Always false until the first call to {@link #readNextCommand()}.
+     * 
+     * @return True if statements in both directions are framed.
+     */
+    public synchronized boolean isFramed()
+    {
+        return _framed;
+    }
+
     @Override
     public void close()
         throws IOException
     {
-        _sock.close();
+        try {
+            synchronized (this) {
+                if (_responseStream instanceof CompressedFrameOutputStream) {
+                    _responseStream.close();
+                }
+            }
+        }
+        finally {
+            _sock.close();
+        }
     }
 
     @Override
     public ClassRegistry getClassRegistry()
     {
-        return _parser.getClassRegistry();
+        return _registry;
     }
 
     @Override
     public Command readNextCommand()
         throws IOException, SyntaxException
     {
-        return _parser.readNextCommand();
+        if (null == _parser) {
+            final InputStream in = negotiate();
+            if (isFramed()) {
+                _frames = new FramedStatementReader(in);
+                _parser = new CommandParser(_registry);
+            }
+            else {
+                _parser = new CommandParser(in, _registry);
+            }
+
+            final int size = getDictionarySize();
+            if (size > 0) {
+                _parser.setDictionary(new StatementDictionary(size));
+            }
+        }
+
+        if (null == _frames) {
+            return _parser.readNextCommand();
+        }
+
+        Command command;
+        do {
+            command = _parser.parseCommand(_frames.next());
+        } while (null == command);
+
+        return command;
     }
 
+    /**
+     * Read the first line from the client, and if it is a {@link Handshake},
+     * reply to it and turn on the agreed features.
+     * 
+     * @return The stream from which to read commands.
+     * @throws IOException If there was a problem.
+     */
+    private InputStream negotiate()
+        throws IOException
+    {
+        final InputStream in = _sock.getInputStream();
+        final String line = Handshake.readLine(in);
+        if (null == line) {
+            return in;
+        }
+        else if (!Handshake.isHello(line)) {
+            // An ordinary command, put it back
+            return new SequenceInputStream(new ByteArrayInputStream((line + "\n").getBytes(StandardCharsets.UTF_8)), in);
+        }
+
+        final Set<String> requested = Handshake.requested(line, _registry);
+        final Set<String> accepted = new TreeSet<String>();
+        if (null != _compression && requested.contains(Handshake.DEFLATE)) {
+            accepted.add(Handshake.DEFLATE);
+        }
+
+        final int dictionarySize = Math.min(_maxDictionarySize, Handshake.dictionarySize(requested));
+        if (dictionarySize > 0) {
+            accepted.add(Handshake.dictionary(dictionarySize));
+        }
+
+        final UnsolDeltas deltas = _deltas;
+        if (null != deltas && requested.contains(Handshake.DELTA)) {
+            accepted.add(Handshake.DELTA);
+        }
+
+        if (_framingAllowed && requested.contains(Handshake.FRAMED)) {
+            accepted.add(Handshake.FRAMED);
+        }
+
+        LOG.debug("Client requested features " + requested + ", accepted " + accepted);
+
+        synchronized (this) {
+            try {
+                _responseStream.write(Handshake.reply(accepted, _registry).getBytes(StandardCharsets.UTF_8));
+                _responseStream.flush();
+            }
+            catch (final NotBoundException nbe) {
+                // Should not happen, the reply only contains a string
+                throw new IllegalStateException("Failed to build handshake reply: " + nbe.getMessage(), nbe);
+            }
+
+            if (accepted.contains(Handshake.DEFLATE)) {
+                _responseStream = _compression.wrap(_responseStream);
+            }
+
+            if (dictionarySize > 0) {
+                _dictionary = new StatementDictionary(dictionarySize);
+            }
+
+            if (accepted.contains(Handshake.DELTA)) {
+                _deltaEncoder = new DeltaEncoder(deltas.getSnapshotInterval());
+            }
+
+            _framed = accepted.contains(Handshake.FRAMED);
+        }
+
+        if (accepted.contains(Handshake.DEFLATE)) {
+            return Compression.wrap(in);
+        }
+        else {
+            return in;
+        }
+    }
+
+    /**
+     * Send a response to the client. An {@link UnsolicitedResponse} of a type
+     * registered with the {@link UnsolDeltas} is sent as a
+     * {@link DeltaResponse}, if the client asked. A {@link StreamResponse} is
+     * sent one chunk at a time, pulling each chunk from its iterator only once
+     * the previous chunk has been written, so a slow client holds back the
+     * producer rather than letting the results pile up in memory. Other
+     * responses may be sent (from other threads) between chunks.
+     * 
+     * @param response The response to send.
+     * @throws IOException If there was a problem writing the response.
+     * @throws NotBoundException If thrown by
+     *             {@link Response#toStatement(ClassRegistry)}. If this happens
+     *             in the middle of a stream, the stream is ended with an
+     *             {@link ErrorResponse} first.
+     */
     @Override
     public void sendResponse(final Response response)
         throws IOException, NotBoundException
     {
-        _responseStream.write(response.toStatement(getClassRegistry()).getBytes());
-        _responseStream.write('\n');
-        _responseStream.flush();
+        if (response instanceof StreamResponse) {
+            sendStream((StreamResponse)response);
+        }
+        else if (response instanceof UnsolicitedResponse) {
+            sendUnsolicited((UnsolicitedResponse)response);
+        }
+        else {
+            send(response.toStatement(getClassRegistry()));
+        }
     }
 
+    private void sendUnsolicited(final UnsolicitedResponse unsol)
+        throws IOException, NotBoundException
+    {
+        final UnsolDeltas deltas = _deltas;
+        final KeyExtractor extractor = (null == deltas ? null : deltas.getKeyExtractor(unsol.getType()));
+        final Object value = (null == extractor ? null : unsol.getValue());
+        if (null == value) {
+            send(unsol.toStatement(getClassRegistry()));
+            return;
+        }
+
+        final Object key = extractor.getKey(value);
+        synchronized (this) {
+            // The client applies deltas in the order we write, so encode in
+            // that order
+            if (null == _deltaEncoder) {
+                send(unsol.toStatement(getClassRegistry()));
+            }
+            else {
+                send(_deltaEncoder.encode(unsol.getType(), key, value, getClassRegistry()));
+            }
+        }
+    }
+
+    private void sendStream(final StreamResponse stream)
+        throws IOException, NotBoundException
+    {
+        boolean sent = false;
+        try {
+            Response chunk;
+            while (null != (chunk = stream.nextChunk())) {
+                try {
+                    send(chunk.toStatement(getClassRegistry()));
+                }
+                catch (final NotBoundException nbe) {
+                    stream.abandon();
+                    send(new ErrorResponse(stream.getLabel(), nbe).toStatement(getClassRegistry()));
+                    throw nbe;
+                }
+            }
+
+            sent = true;
+        }
+        finally {
+            if (!sent) {
+                stream.abandon();
+            }
+        }
+    }
+
+    private void send(final String statement)
+        throws IOException
+    {
+        synchronized (this) {
+            // The client decodes in the order we write, so encode in that order
+            final String encoded = (null == _dictionary ? statement : _dictionary.encode(statement));
+            if (_framed) {
+                _encoder.writeFramed(_responseStream, encoded);
+            }
+            else {
+                _encoder.write(_responseStream, encoded);
+            }
+
+            _responseStream.flush();
+        }
+    }
 
     @Override
     public boolean isClosed()
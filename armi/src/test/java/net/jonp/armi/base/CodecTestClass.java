@@ -0,0 +1,51 @@
+package net.jonp.armi.base;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class with a generated {@link ObjectCodec}.
+ */
+@GenerateCodec
+public class CodecTestClass
+    extends CodecTestSuperclass
+{
+    public static int ignored = 0;
+
+    String shared;
+    int count;
+    long total;
+    Integer boxed;
+    List<String> tags = new ArrayList<String>();
+    CodecTestClass next;
+    transient int cache;
+
+    public CodecTestClass()
+    {
+        // For deserialization
+    }
+
+    public CodecTestClass(final boolean initialize)
+    {
+        if (initialize) {
+            shared = "Subclass";
+            ((CodecTestSuperclass)this).shared = "Superclass";
+            ratio = 0.25;
+            count = 42;
+            total = 1L << 40;
+            tags.add("tag");
+            cache = 7;
+        }
+    }
+
+    /**
+     * A nested class, also with a codec.
+     */
+    @GenerateCodec
+    public static class Nested
+    {
+        char letter;
+        boolean flag;
+        byte[] raw;
+    }
+}
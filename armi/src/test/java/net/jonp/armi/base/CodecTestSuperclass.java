@@ -0,0 +1,16 @@
+package net.jonp.armi.base;
+
+/**
+ * The superclass of {@link CodecTestClass}, which is not itself marked with
+ * {@link GenerateCodec}.
+ */
+public class CodecTestSuperclass
+{
+    String shared;
+    double ratio;
+
+    public CodecTestSuperclass()
+    {
+        // For deserialization
+    }
+}
@@ -0,0 +1,162 @@
+package net.jonp.armi.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Codecs} and the codecs generated for {@link CodecTestClass}.
+ */
+public class CodecsTest
+{
+    private static final String SUB = CodecTestClass.class.getName();
+    private static final String SUPER = CodecTestSuperclass.class.getName();
+
+    @Test
+    public void testLookup()
+    {
+        final ObjectCodec<Object> codec = Codecs.get(CodecTestClass.class);
+        assertNotNull(codec);
+        assertSame(CodecTestClass.class, codec.getType());
+        assertSame(codec, Codecs.get(CodecTestClass.class));
+
+        assertNotNull(Codecs.get(CodecTestClass.Nested.class));
+        assertEquals(CodecTestClass.class.getName() + "_Nested_ArmiCodec", Codecs.codecName(CodecTestClass.Nested.class));
+
+        // Not marked
+        assertNull(Codecs.get(CodecTestSuperclass.class));
+        assertNull(Codecs.get(TestClass.class));
+    }
+
+    @Test
+    public void testFields()
+    {
+        final ObjectCodec<Object> codec = Codecs.get(CodecTestClass.class);
+
+        // The same fields, in the same order, as by reflection
+        final String[] names = {
+            SUB + ".boxed", SUB + ".count", SUB + ".next", SUB + ".shared", SUB + ".tags", SUB + ".total",
+            SUPER + ".ratio", SUPER + ".shared"
+        };
+        assertEquals(names.length, codec.getFieldCount());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], codec.getFieldName(i));
+            assertEquals(i, codec.indexOf(names[i]));
+        }
+
+        // Unqualified names find the lowest field
+        assertEquals(3, codec.indexOf("shared"));
+        assertEquals(6, codec.indexOf("ratio"));
+        assertEquals(-1, codec.indexOf("cache"));
+        assertEquals(-1, codec.indexOf("ignored"));
+
+        final CodecTestClass instance = new CodecTestClass(true);
+        assertEquals("Subclass", codec.get(instance, 3));
+        assertEquals("Superclass", codec.get(instance, 7));
+        assertEquals(Long.valueOf(1L << 40), codec.get(instance, 5));
+
+        codec.set(instance, 1, Integer.valueOf(7));
+        codec.set(instance, 7, "Changed");
+        assertEquals(7, instance.count);
+        assertEquals("Changed", ((CodecTestSuperclass)instance).shared);
+    }
+
+    /**
+     * Test that a codec accepts and rejects the same values for a primitive
+     * field as reflection does.
+     * 
+     * @throws Exception If there was a problem.
+     */
+    @Test
+    public void testConversion()
+        throws Exception
+    {
+        final ObjectCodec<Object> codec = Codecs.get(CodecTestClass.class);
+        final CodecTestClass instance = new CodecTestClass(true);
+
+        // Widening
+        codec.set(instance, 1, Short.valueOf((short)3));
+        codec.set(instance, 5, Integer.valueOf(9));
+        codec.set(instance, 6, Long.valueOf(2));
+        assertEquals(3, instance.count);
+        assertEquals(9, instance.total);
+        assertEquals(2, instance.ratio, 0);
+
+        // Narrowing, and null
+        for (final Object value : new Object[] {
+            Long.valueOf(1L << 40), Double.valueOf(1.5), null
+        }) {
+            try {
+                codec.set(instance, 1, value);
+                fail("Expected IllegalArgumentException");
+            }
+            catch (final IllegalArgumentException iae) {
+                assertEquals(3, instance.count);
+            }
+        }
+
+        // Parsed, with a codec and by reflection
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        for (final String statement : new String[] {
+            "response (" + SUB + " (count = 1099511627776L))", "response (" + SUB + " (count = null))",
+            "response (" + QuoteTestClass.class.getName() + " (volume = 1099511627776L))",
+            "response (" + QuoteTestClass.class.getName() + " (volume = null))",
+        }) {
+            final ResponseParser parser =
+                new ResponseParser(new ByteArrayInputStream((statement + "\n").getBytes()), registry);
+            try {
+                parser.readNextResponse();
+                fail("Expected SyntaxException from " + statement);
+            }
+            catch (final SyntaxException se) {
+                assertEquals(IllegalArgumentException.class, se.getCause().getClass());
+            }
+        }
+    }
+
+    /**
+     * Test that a class with a codec is written exactly as it would be by
+     * reflection, and reads back.
+     * 
+     * @throws Exception If there was a problem.
+     */
+    @Test
+    public void testRoundTrip()
+        throws Exception
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final CodecTestClass value = new CodecTestClass(true);
+        value.next = value;
+
+        final String statement = new ValueResponse(null, value).toStatement(registry);
+        assertEquals("response (" + SUB + " (" + SUB + ".boxed = null, " + SUB + ".count = 42, " + SUB +
+                     ".next = ref 0, " + SUB + ".shared = \"Subclass\", " + SUB +
+                     ".tags = collection(java.util.ArrayList) [\"tag\"], " + SUB + ".total = 1099511627776L, " + SUPER +
+                     ".ratio = 0.25, " + SUPER + ".shared = \"Superclass\"))", statement);
+
+        final ResponseParser parser =
+            new ResponseParser(new ByteArrayInputStream((statement + "\n" + statement.replace(SUB + ".count", "count") +
+                                                         "\n").getBytes()), registry);
+        for (int i = 0; i < 2; i++) {
+            final CodecTestClass parsed = (CodecTestClass)((ValueResponse)parser.readNextResponse()).getValue();
+            assertEquals(42, parsed.count);
+            assertEquals(1L << 40, parsed.total);
+            assertEquals("Subclass", parsed.shared);
+            assertEquals("Superclass", ((CodecTestSuperclass)parsed).shared);
+            assertEquals(0.25, parsed.ratio, 0);
+            assertEquals(1, parsed.tags.size());
+            assertSame(parsed, parsed.next);
+            assertEquals(0, parsed.cache);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package net.jonp.armi.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Numbers}.
+ */
+public class NumbersTest
+{
+    private static final double[] DOUBLES = {
+        0.0, -0.0, 1.0, -1.5, 0.1, 3.141592653589793, 1.0E-10, 6.02214076E23, Double.MAX_VALUE, Double.MIN_VALUE,
+        Double.MIN_NORMAL, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 123456.789, 9007199254740993.0
+    };
+
+    private static final float[] FLOATS = {
+        0.0f, -0.0f, 1.0f, -3.1415927f, 0.1f, 1.0E-10f, Float.MAX_VALUE, Float.MIN_VALUE, Float.MIN_NORMAL, Float.NaN,
+        Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 16777217.0f
+    };
+
+    @Test
+    public void testParseLong()
+    {
+        assertEquals(0, parseLong("0", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(-42, parseLong("-42", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, parseLong(Long.toString(Long.MAX_VALUE), Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Long.MIN_VALUE, parseLong(Long.toString(Long.MIN_VALUE), Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Byte.MIN_VALUE, parseLong("-128", Byte.MIN_VALUE, Byte.MAX_VALUE));
+
+        for (final String bad : new String[] {
+            "", "-", "1.5", "9223372036854775808", "-9223372036854775809"
+        }) {
+            try {
+                parseLong(bad, Long.MIN_VALUE, Long.MAX_VALUE);
+                fail("Parsed " + bad);
+            }
+            catch (final NumberFormatException nfe) {
+                // Expected
+            }
+        }
+
+        try {
+            parseLong("128", Byte.MIN_VALUE, Byte.MAX_VALUE);
+            fail("Parsed 128 as a byte");
+        }
+        catch (final NumberFormatException nfe) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testParseDouble()
+    {
+        for (final double d : DOUBLES) {
+            assertSame(d, parseDouble(Double.toString(d)));
+        }
+
+        assertSame(12.0, parseDouble("0x1.8p3"));
+        assertSame(-0.375, parseDouble("-0x0.Cp-1"));
+        assertSame(Double.MIN_VALUE, parseDouble("0x0.0000000000001p-1022"));
+        assertSame(1e300, parseDouble("1e300"));
+        assertSame(1.5e-3, parseDouble("1.5E-3"));
+        assertSame(2e5, parseDouble("2e+5"));
+        assertSame(0.000123, parseDouble("0.000123"));
+    }
+
+    @Test
+    public void testParseRandom()
+    {
+        final Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            final double d;
+            switch (i % 4) {
+                case 0:
+                    d = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    d = random.nextInt(1000000) / 1000.0;
+                    break;
+                case 2:
+                    d = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+                    break;
+                default:
+                    d = Float.intBitsToFloat(random.nextInt());
+                    break;
+            }
+
+            final String text = Double.toString(d);
+            assertSame(Double.parseDouble(text), parseDouble(text));
+            assertEquals(text, Float.parseFloat(text), parseFloat(text), 0);
+            assertSame(d, parseDouble(Double.toHexString(d)));
+
+            final float f = (float)d;
+            assertEquals(f, parseFloat(Float.toString(f)), 0);
+        }
+    }
+
+    @Test
+    public void testParseFloat()
+    {
+        for (final float f : FLOATS) {
+            assertEquals(f, parseFloat(Float.toString(f)), 0);
+        }
+
+        assertEquals(Float.floatToIntBits(-0.0f), Float.floatToIntBits(parseFloat("-0.0")));
+        assertEquals(3.0f, parseFloat("3"), 0);
+
+        // Half way between two floats once rounded to a double
+        assertEquals(Float.parseFloat("1.00000005960464477539062500000001"),
+                     parseFloat("1.00000005960464477539062500000001"), 0);
+    }
+
+    /**
+     * Test that values survive a trip through a statement and the parser.
+     * 
+     * @throws Exception If there was a problem.
+     */
+    @Test
+    public void testRoundTrip()
+        throws Exception
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final StringBuilder buf = new StringBuilder();
+        for (final double d : DOUBLES) {
+            buf.append(new ValueResponse(null, Double.valueOf(d)).toStatement(registry)).append("\n");
+        }
+        for (final float f : FLOATS) {
+            buf.append(new ValueResponse(null, Float.valueOf(f)).toStatement(registry)).append("\n");
+        }
+
+        final ResponseParser parser = new ResponseParser(new ByteArrayInputStream(buf.toString().getBytes()), registry);
+        for (final double d : DOUBLES) {
+            assertEquals(Double.valueOf(d), ((ValueResponse)parser.readNextResponse()).getValue());
+        }
+        for (final float f : FLOATS) {
+            assertEquals(Float.valueOf(f), ((ValueResponse)parser.readNextResponse()).getValue());
+        }
+    }
+
+    private static void assertSame(final double expected, final double actual)
+    {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static long parseLong(final String text, final long min, final long max)
+    {
+        return Numbers.parseLong(text.toCharArray(), 0, text.length(), min, max);
+    }
+
+    private static double parseDouble(final String text)
+    {
+        // Surround the text, to check that only its own characters are read
+        final String padded = "(" + text + ")";
+        return Numbers.parseDouble(padded.toCharArray(), 1, padded.length() - 1);
+    }
+
+    private static float parseFloat(final String text)
+    {
+        final String padded = "(" + text + ")";
+        return Numbers.parseFloat(padded.toCharArray(), 1, padded.length() - 1);
+    }
+}
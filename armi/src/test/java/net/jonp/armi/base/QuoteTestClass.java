@@ -0,0 +1,57 @@
+package net.jonp.armi.base;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A keyed value, for testing deltas.
+ */
+public class QuoteTestClass
+{
+    public String symbol;
+    public double price;
+    public int volume;
+    public List<String> trades = new ArrayList<String>();
+
+    public QuoteTestClass()
+    {
+        // For deserialization
+    }
+
+    public QuoteTestClass(final String _symbol, final double _price, final int _volume)
+    {
+        symbol = _symbol;
+        price = _price;
+        volume = _volume;
+    }
+
+    public QuoteTestClass(final QuoteTestClass rhs)
+    {
+        this(rhs.symbol, rhs.price, rhs.volume);
+        trades.addAll(rhs.trades);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return symbol.hashCode() ^ volume;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (obj instanceof QuoteTestClass) {
+            final QuoteTestClass rhs = (QuoteTestClass)obj;
+            return (symbol.equals(rhs.symbol) && price == rhs.price && volume == rhs.volume && trades.equals(rhs.trades));
+        }
+        else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(%s, %s, %d, %s)", getClass().getSimpleName(), symbol, price, volume, trades);
+    }
+}
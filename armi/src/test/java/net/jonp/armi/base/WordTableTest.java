@@ -0,0 +1,55 @@
+package net.jonp.armi.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link WordTable}.
+ */
+public class WordTableTest
+{
+    @Test
+    public void testIntern()
+    {
+        final WordTable words = new WordTable();
+        final char[] chars = "java.lang.String java.util.List lang".toCharArray();
+        words.setChars(chars);
+
+        final String lang = words.intern(5, 9);
+        assertEquals("lang", lang);
+        assertEquals("java", words.intern(0, 4));
+        assertSame(lang, words.intern(32, 36));
+        assertSame(words.intern(0, 4), words.intern(17, 21));
+        assertEquals("", words.intern(4, 4));
+        assertEquals(3, words.size());
+
+        // Found by characters, wherever they are
+        words.setChars("xlangx".toCharArray());
+        assertSame(lang, words.intern(1, 5));
+    }
+
+    @Test
+    public void testLimit()
+    {
+        final WordTable words = new WordTable();
+        words.setChars("first".toCharArray());
+        final String first = words.intern(0, 5);
+
+        for (int i = 0; i < WordTable.MAX_WORDS; i++) {
+            final char[] chars = ("w" + i).toCharArray();
+            words.setChars(chars);
+            assertSame(words.intern(0, chars.length), words.intern(0, chars.length));
+        }
+
+        // Everything was forgotten once the table was full
+        assertEquals(1, words.size());
+
+        words.setChars("first".toCharArray());
+        final String again = words.intern(0, 5);
+        assertEquals(first, again);
+        assertNotSame(first, again);
+    }
+}
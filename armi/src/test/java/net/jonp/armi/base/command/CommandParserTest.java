@@ -1,13 +1,17 @@
 package net.jonp.armi.base.command;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.rmi.NotBoundException;
 
+import net.jonp.armi.base.BlankTestClass;
 import net.jonp.armi.base.SyntaxException;
 import net.jonp.armi.base.TestCase;
 import net.jonp.armi.base.TestClass;
@@ -62,6 +66,64 @@ public class CommandParserTest
         assertEquals(true, ((TestClass)callCommand.getArguments()[0]).isValid());
     }
 
+    /**
+     * Test that a parser resolves the same classes and fields again correctly
+     * once it has seen them.
+     * 
+     * @throws IOException If there was a problem building or using the parser.
+     * @throws SyntaxException If there was a problem parsing a command.
+     * @throws NotBoundException If there is a problem with the class registry.
+     */
+    @Test
+    public void testReadNextCallCommandRepeated()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(test.getName(), test.getClass());
+
+        final String commandString = "call label \"label\" object.method (" + test.getCommand() + ")";
+        final InputStream in = new ByteArrayInputStream((commandString + "\n" + commandString + "\n" + commandString).getBytes());
+        final CommandParser parser = new CommandParser(in, registry);
+
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                parser.clearSymbols();
+            }
+
+            final CallCommand callCommand = (CallCommand)parser.readNextCommand();
+            assertEquals(test, callCommand.getArguments()[0]);
+            assertEquals(commandString, callCommand.toStatement(registry));
+            assertEquals(true, ((TestClass)callCommand.getArguments()[0]).isValid());
+        }
+    }
+
+    /**
+     * Test that a parser sees a class name rebound in its class registry
+     * without being told to forget what it has resolved.
+     * 
+     * @throws IOException If there was a problem building or using the parser.
+     * @throws SyntaxException If there was a problem parsing a command.
+     */
+    @Test
+    public void testReadNextCallCommandRebound()
+        throws IOException, SyntaxException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(BlankTestClass.NAME, BlankTestClass.class);
+
+        final String commandString = "call label \"label\" object.method (" + BlankTestClass.COMMAND + ")";
+        final InputStream in = new ByteArrayInputStream((commandString + "\n" + commandString).getBytes());
+        final CommandParser parser = new CommandParser(in, registry);
+
+        CallCommand callCommand = (CallCommand)parser.readNextCommand();
+        assertTrue(callCommand.getArguments()[0] instanceof BlankTestClass);
+
+        registry.remove(BlankTestClass.NAME);
+        registry.put(BlankTestClass.NAME, Rebound.class);
+        callCommand = (CallCommand)parser.readNextCommand();
+        assertTrue(callCommand.getArguments()[0] instanceof Rebound);
+    }
+
     @Test
     public void testReadNextCallCommand2()
         throws IOException, SyntaxException, NotBoundException
@@ -124,4 +186,187 @@ public class CommandParserTest
         assertEquals(null, helpCommand2.getLabel());
         assertEquals("help", helpCommand2.toStatement());
     }
+
+    /**
+     * Test method for {@link CommandParser#parseCommand(ByteBuffer)}.
+     * 
+     * @throws IOException If there was a problem parsing a command.
+     * @throws SyntaxException If there was a problem parsing a command.
+     * @throws NotBoundException If there is a problem with the class registry.
+     */
+    @Test
+    public void testParseCommand()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(test.getName(), test.getClass());
+
+        final String commandString =
+            "call label \"l\u00e4bel\" object.method (" + test.getCommand() + ", \"\u2713 \\\"\u00e9\\\\\")";
+        final byte[] bytes = commandString.getBytes("UTF-8");
+
+        // A slice of a larger direct buffer, as a transport would have it
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 20);
+        buffer.position(10);
+        buffer.put(bytes);
+        buffer.position(10);
+        buffer.limit(10 + bytes.length);
+
+        final CommandParser parser = new CommandParser(registry);
+        for (int i = 0; i < 2; i++) {
+            final CallCommand command = (CallCommand)parser.parseCommand(buffer);
+            assertEquals(10, buffer.position());
+
+            assertEquals("l\u00e4bel", command.getLabel());
+            assertEquals("object", command.getObject());
+            assertEquals("method", command.getMethod());
+            assertEquals(test, command.getArguments()[0]);
+            assertEquals("\u2713 \"\u00e9\\", command.getArguments()[1]);
+        }
+
+        assertEquals(null, parser.parseCommand(ByteBuffer.wrap("  ".getBytes())));
+        assertTrue(parser.parseCommand(ByteBuffer.wrap("help".getBytes())) instanceof HelpCommand);
+
+        try {
+            parser.parseCommand(ByteBuffer.wrap(new byte[] {
+                'h', 'e', (byte)0xC3, 'l', 'p',
+            }));
+            fail("Parsed malformed UTF-8");
+        }
+        catch (final SyntaxException se) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that a call may carry a timeout, and that "timeout" is still legal
+     * as an identifier.
+     * 
+     * @throws IOException If there was a problem parsing a command.
+     * @throws SyntaxException If there was a problem parsing a command.
+     * @throws NotBoundException If there is a problem with the class registry.
+     */
+    @Test
+    public void testParseCallTimeout()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(test.getName(), test.getClass());
+
+        final CommandParser parser = new CommandParser(registry);
+
+        final String commandString = "call label \"l\" timeout 5000 object.method (" + test.getCommand() + ")";
+        final long before = System.nanoTime();
+        final CallCommand command = (CallCommand)parser.parseCommand(ByteBuffer.wrap(commandString.getBytes()));
+        assertEquals(5000, command.getTimeout());
+        assertTrue(command.getDeadline() - before >= 5000000000L);
+        assertFalse(command.isExpired());
+        assertEquals("object", command.getObject());
+        assertEquals(test, command.getArguments()[0]);
+        assertEquals(commandString, command.toStatement(registry));
+
+        final CallCommand plain = (CallCommand)parser.parseCommand(ByteBuffer.wrap("call timeout.timeout ()".getBytes()));
+        assertEquals(0, plain.getTimeout());
+        assertFalse(plain.isExpired());
+        assertEquals("timeout", plain.getObject());
+        assertEquals("timeout", plain.getMethod());
+
+        final CallCommand both = (CallCommand)parser.parseCommand(ByteBuffer.wrap("call timeout 1 timeout.x ()".getBytes()));
+        assertEquals(1, both.getTimeout());
+        assertEquals("timeout", both.getObject());
+
+        for (final String bad : new String[] {
+            "call deadline 5000 object.method ()", "call timeout 0 object.method ()", "call timeout -1 object.method ()",
+        }) {
+            try {
+                parser.parseCommand(ByteBuffer.wrap(bad.getBytes()));
+                fail("Parsed " + bad);
+            }
+            catch (final SyntaxException se) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Test method for the stream clause of a call, and that "stream" is still
+     * legal as an identifier.
+     * 
+     * @throws IOException If there was a problem parsing a command.
+     * @throws SyntaxException If there was a problem parsing a command.
+     * @throws NotBoundException If there is a problem with the class registry.
+     */
+    @Test
+    public void testParseCallStream()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final CommandParser parser = new CommandParser(registry);
+
+        final String commandString = "call label \"l\" timeout 5000 stream object.method ()";
+        final CallCommand command = (CallCommand)parser.parseCommand(ByteBuffer.wrap(commandString.getBytes()));
+        assertTrue(command.isStream());
+        assertEquals(5000, command.getTimeout());
+        assertEquals("object", command.getObject());
+        assertEquals(commandString, command.toStatement(registry));
+
+        final CallCommand plain = (CallCommand)parser.parseCommand(ByteBuffer.wrap("call stream.stream ()".getBytes()));
+        assertFalse(plain.isStream());
+        assertEquals("stream", plain.getObject());
+
+        final CallCommand both = (CallCommand)parser.parseCommand(ByteBuffer.wrap("call stream stream.x ()".getBytes()));
+        assertTrue(both.isStream());
+        assertEquals("stream", both.getObject());
+
+        try {
+            parser.parseCommand(ByteBuffer.wrap("call streamed object.method ()".getBytes()));
+            fail("Parsed an unknown call option");
+        }
+        catch (final SyntaxException se) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test method for {@link CancelCommand}, and that "cancel" is still legal
+     * as an identifier.
+     * 
+     * @throws IOException If there was a problem parsing a command.
+     * @throws SyntaxException If there was a problem parsing a command.
+     * @throws NotBoundException If there is a problem with the class registry.
+     */
+    @Test
+    public void testParseCancel()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final CommandParser parser = new CommandParser(registry);
+
+        final String commandString = "cancel label \"17\"";
+        final Command command = parser.parseCommand(ByteBuffer.wrap(commandString.getBytes()));
+        assertTrue(command instanceof CancelCommand);
+        assertEquals("17", command.getLabel());
+        assertEquals(commandString, command.toStatement(registry));
+
+        final CallCommand call = (CallCommand)parser.parseCommand(ByteBuffer.wrap("call cancel.cancel ()".getBytes()));
+        assertEquals("cancel", call.getObject());
+        assertEquals("cancel", call.getMethod());
+
+        for (final String bad : new String[] {
+            "stop label \"17\"", "cancel",
+        }) {
+            try {
+                parser.parseCommand(ByteBuffer.wrap(bad.getBytes()));
+                fail("Parsed " + bad);
+            }
+            catch (final SyntaxException se) {
+                // Expected
+            }
+        }
+    }
+
+    public static class Rebound
+    {
+        // No fields, like BlankTestClass
+    }
 }
@@ -0,0 +1,242 @@
+package net.jonp.armi.base.command;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import net.jonp.armi.base.Registry;
+import net.jonp.armi.base.response.SharedValue;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.CommandExecutor;
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.SimpleRegistry;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LangAPI}.
+ */
+public class LangAPITest
+{
+    @Test
+    public void testIntrospection()
+        throws Exception
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        final LangAPI lang = new LangAPI(registry);
+        registry.put("lang", lang);
+        registry.put("api", new API());
+
+        assertArrayEquals(new Object[] {
+            "api", "lang",
+        }, lang.getObjects());
+        assertArrayEquals(new Object[] {
+            "getMethods", "getObjects", "getParameters", "getStats",
+        }, filter(lang.getMethods("lang"), "get"));
+        assertArrayEquals(new Object[] {
+            "add", "clear",
+        }, lang.getMethods("api"));
+        assertArrayEquals(new Object[] {
+            "int", "java.lang.String",
+        }, lang.getParameters("api.add"));
+        assertArrayEquals(new Object[0], lang.getParameters("api.clear"));
+
+        try {
+            lang.getParameters("api.hashCode2");
+            fail("Found a missing method");
+        }
+        catch (final NotBoundException nbe) {
+            // Expected
+        }
+
+        try {
+            lang.getMethods("nothing");
+            fail("Found a missing object");
+        }
+        catch (final NotBoundException nbe) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCache()
+        throws Exception
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        final LangAPI lang = new LangAPI(registry);
+        registry.put("api", new API());
+
+        final Object[] objects = lang.getObjects();
+        final Object[] methods = lang.getMethods("api");
+        final Object[] parameters = lang.getParameters("api.add");
+        assertSame(objects, lang.getObjects());
+        assertSame(methods, lang.getMethods("api"));
+        assertSame(parameters, lang.getParameters("api.add"));
+
+        // And sent as shared values
+        assertNotNull(SharedValue.forValue(objects));
+        assertNotNull(SharedValue.forValue(methods));
+        assertNotNull(SharedValue.forValue(parameters));
+
+        // Any change to the registry is seen
+        registry.put("other", new API());
+        assertNotSame(objects, lang.getObjects());
+        assertArrayEquals(new Object[] {
+            "api", "other",
+        }, lang.getObjects());
+
+        registry.remove("api");
+        assertArrayEquals(new Object[] {
+            "other",
+        }, lang.getObjects());
+
+        registry.rebind("other", "text");
+        assertArrayEquals(new Object[] {
+            "int",
+        }, lang.getParameters("other.charAt"));
+
+        registry.clear();
+        assertArrayEquals(new Object[0], lang.getObjects());
+    }
+
+    @Test
+    public void testUnobservedRegistry()
+        throws Exception
+    {
+        final TreeMap<String, Object> map = new TreeMap<String, Object>();
+        final Registry<Object> registry = new Registry<Object>() {
+            @Override
+            public void bind(final String name, final Object object)
+            {
+                map.put(name, object);
+            }
+
+            @Override
+            public String[] list()
+            {
+                return map.keySet().toArray(new String[map.size()]);
+            }
+
+            @Override
+            public Object lookup(final String name)
+                throws NotBoundException
+            {
+                if (!map.containsKey(name)) {
+                    throw new NotBoundException(name);
+                }
+
+                return map.get(name);
+            }
+
+            @Override
+            public void rebind(final String name, final Object object)
+            {
+                map.put(name, object);
+            }
+
+            @Override
+            public void unbind(final String name)
+            {
+                map.remove(name);
+            }
+        };
+
+        final LangAPI lang = new LangAPI(registry);
+        registry.bind("api", new API());
+        assertArrayEquals(new Object[] {
+            "api",
+        }, lang.getObjects());
+
+        registry.bind("other", new API());
+        assertArrayEquals(new Object[] {
+            "api", "other",
+        }, lang.getObjects());
+
+        registry.rebind("api", "text");
+        assertArrayEquals(new Object[] {
+            "int",
+        }, lang.getParameters("api.charAt"));
+    }
+
+    @Test
+    public void testShared()
+        throws Exception
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("api", new API());
+        final SimpleRegistry<Object> other = new SimpleRegistry<Object>();
+        other.put("api", new API());
+
+        // As when each connection has its own LangAPI
+        final LangAPI first = new LangAPI(registry);
+        final LangAPI second = new LangAPI(registry);
+        final LangAPI third = new LangAPI(other);
+
+        assertSame(first.getObjects(), second.getObjects());
+        assertSame(first.getMethods("api"), third.getMethods("api"));
+        assertSame(first.getParameters("api.add"), third.getParameters("api.add"));
+
+        // A change is seen by every LangAPI using the registry
+        registry.put("more", new API());
+        assertArrayEquals(new Object[] {
+            "api", "more",
+        }, second.getObjects());
+        assertArrayEquals(new Object[] {
+            "api",
+        }, third.getObjects());
+    }
+
+    @Test
+    public void testExecuted()
+        throws Exception
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("lang", new LangAPI(registry));
+        registry.put("api", new API());
+        final CommandExecutor executor = new CommandExecutor(registry);
+
+        // Sent as the value it shares
+        final CallCommand command = new CallCommand("1", "lang", "getMethods", new Object[] {
+            "api"
+        });
+        final ValueResponse response = (ValueResponse)executor.executeCommand(command);
+        assertArrayEquals(new Object[] {
+            "add", "clear",
+        }, (Object[])response.getValue());
+        assertEquals("response label \"1\" (array(java.lang.Object) [\"add\", \"clear\"])",
+                     response.toStatement(new DefaultClassRegistry()));
+    }
+
+    private static Object[] filter(final Object[] names, final String prefix)
+    {
+        final List<Object> filtered = new ArrayList<Object>();
+        for (final Object name : names) {
+            if (name.toString().startsWith(prefix)) {
+                filtered.add(name);
+            }
+        }
+
+        return filtered.toArray();
+    }
+
+    public static class API
+    {
+        public void add(final String name, final int count)
+        {
+            // Nothing to do
+        }
+
+        public void clear()
+        {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package net.jonp.armi.base.command;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jonp.armi.base.QuoteTestClass;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link PreparedCall}.
+ */
+public class PreparedCallTest
+{
+    private DefaultClassRegistry registry;
+
+    @Before
+    public void setUp()
+    {
+        registry = new DefaultClassRegistry();
+        registry.put("Quote", QuoteTestClass.class);
+    }
+
+    /**
+     * Test that a bound call writes the same statement as a
+     * {@link CallCommand}.
+     */
+    @Test
+    public void testToStatement()
+        throws Exception
+    {
+        final PreparedCall prepared =
+            new PreparedCall("name.of", "method", String.class, Integer.TYPE, Double.TYPE, Boolean.class, Long.TYPE,
+                             Float.TYPE, Short.TYPE, Byte.TYPE, Object.class, Number.class, CharSequence.class,
+                             QuoteTestClass.class);
+
+        final List<Object[]> calls = new ArrayList<Object[]>();
+        calls.add(new Object[] {
+            "arg1", 2, 3.4, true, 5L, 6.5F, (short)7, (byte)8, "object", 9, "chars", new QuoteTestClass("Q", 1, 2),
+        });
+        calls.add(new Object[] {
+            "a \"quoted\" \\ string", -2, Double.NaN, false, Long.MIN_VALUE, Float.NEGATIVE_INFINITY, (short)-7,
+            (byte)-8, Arrays.asList("x", "y"), 9.5, new StringBuilder("built"), null,
+        });
+        calls.add(new Object[] {
+            null, 0, -0.0, null, 0L, Float.NaN, (short)0, (byte)0, null, null, null, null,
+        });
+
+        for (final Object[] args : calls) {
+            final CallCommand expected = new CallCommand("label", "name.of", "method", args);
+            final CallCommand bound = prepared.bind(args);
+            bound.setLabel("label");
+
+            assertEquals(expected.toStatement(registry), bound.toStatement(registry));
+            assertEquals(expected.toString(), bound.toString());
+
+            bound.setLabel(null);
+            expected.setLabel(null);
+            assertEquals(expected.toStatement(registry), bound.toStatement(registry));
+
+            bound.setTimeout(250);
+            expected.setTimeout(250);
+            assertEquals(expected.toStatement(registry), bound.toStatement(registry));
+        }
+    }
+
+    /**
+     * Test that a bound call can be read back.
+     */
+    @Test
+    public void testParse()
+        throws Exception
+    {
+        final PreparedCall prepared = new PreparedCall("quotes", "update", String.class, Integer.TYPE, Object.class);
+        final Object[] args = new Object[] {
+            "\\\"", 42, new QuoteTestClass("ACME", 10.5, 100),
+        };
+
+        final CallCommand bound = prepared.bind(args);
+        bound.setLabel("7");
+
+        final CommandParser parser =
+            new CommandParser(new ByteArrayInputStream(bound.toStatement(registry).getBytes()), registry);
+        final CallCommand read = (CallCommand)parser.readNextCommand();
+
+        assertEquals("7", read.getLabel());
+        assertEquals("quotes", read.getObject());
+        assertEquals("update", read.getMethod());
+        assertArrayEquals(args, read.getArguments());
+    }
+
+    /**
+     * Test that arguments are checked against the parameter types.
+     */
+    @Test
+    public void testBind()
+    {
+        final PreparedCall prepared = new PreparedCall("object", "method", Integer.TYPE, String.class);
+
+        assertEquals("object.method(int, java.lang.String)", prepared.toString());
+        assertArrayEquals(new Object[] {
+            1, null,
+        }, prepared.bind(1, null).getArguments());
+
+        final Object[][] bad = new Object[][] {
+            {
+                1,
+            }, {
+                1, "two", 3,
+            }, {
+                null, "two",
+            }, {
+                1L, "two",
+            }, {
+                1, 2,
+            },
+        };
+
+        for (final Object[] args : bad) {
+            try {
+                prepared.bind(args);
+                fail("Bound " + Arrays.toString(args));
+            }
+            catch (final IllegalArgumentException iae) {
+                // Expected
+            }
+        }
+    }
+}
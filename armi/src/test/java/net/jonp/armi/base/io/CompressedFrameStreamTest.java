@@ -0,0 +1,86 @@
+package net.jonp.armi.base.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+public class CompressedFrameStreamTest
+{
+    private static final String STATEMENT =
+        "unsol (\"chat.chatmessage\", net.jonp.armi.example.api.ChatMessage (net.jonp.armi.example.api.ChatMessage.from = \"Chatter 1\", net.jonp.armi.example.api.ChatMessage.message = \"hello\", net.jonp.armi.example.api.ChatMessage.timestamp = 1300000000000L))\n";
+
+    @Test
+    public void testRoundTrip()
+        throws Exception
+    {
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        final CompressedFrameOutputStream out = new CompressedFrameOutputStream(wire, Deflater.DEFAULT_COMPRESSION, 32);
+
+        // Below the threshold, so sent raw
+        out.write("help\n".getBytes());
+        out.flush();
+        assertEquals(CompressedFrameOutputStream.RAW, wire.toByteArray()[0]);
+        assertEquals(5 + 5, wire.size());
+
+        out.write(STATEMENT.getBytes());
+        out.flush();
+        final int first = wire.size() - 10;
+        assertEquals(CompressedFrameOutputStream.DEFLATED, wire.toByteArray()[10]);
+
+        // The dictionary carries over, so a repeat is much smaller
+        out.write(STATEMENT.getBytes());
+        out.flush();
+        final int second = wire.size() - 10 - first;
+        assertTrue("Second frame " + second + " not smaller than first " + first, second < first / 2);
+
+        // Empty flushes write nothing
+        out.flush();
+        assertEquals(10 + first + second, wire.size());
+        assertEquals(5 + 2 * STATEMENT.length(), out.getBytesIn());
+        assertEquals(wire.size(), out.getBytesOut());
+
+        out.close();
+
+        final InputStreamReader in =
+            new InputStreamReader(new CompressedFrameInputStream(new ByteArrayInputStream(wire.toByteArray())));
+        final StringBuilder buf = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            buf.append((char)c);
+        }
+
+        assertEquals("help\n" + STATEMENT + STATEMENT, buf.toString());
+    }
+
+    @Test
+    public void testLargeStatement()
+        throws Exception
+    {
+        final StringBuilder statement = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            statement.append(i).append(", ");
+        }
+
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        final CompressedFrameOutputStream out = new CompressedFrameOutputStream(wire, Deflater.BEST_SPEED, 0);
+        out.write(statement.toString().getBytes());
+        out.flush();
+
+        final CompressedFrameInputStream in = new CompressedFrameInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        final byte[] read = new byte[statement.length()];
+        int n = 0;
+        while (n < read.length) {
+            n += in.read(read, n, read.length - n);
+        }
+
+        assertEquals(statement.toString(), new String(read));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+}
@@ -0,0 +1,141 @@
+package net.jonp.armi.base.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Test;
+
+public class FramedStatementReaderTest
+{
+    @Test
+    public void testNext()
+        throws IOException
+    {
+        final StringBuilder big = new StringBuilder();
+        while (big.length() < 3 * FramedStatementReader.DEFAULT_BUFFER_SIZE) {
+            big.append("grüße 😀 ");
+        }
+
+        final String[] statements = {
+            "response label \"1\" (\"plain\")", "", "multi\nline\r\nstatement", big.toString(), "last",
+        };
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StatementEncoder encoder = new StatementEncoder(16);
+        for (final String statement : statements) {
+            encoder.writeFramed(out, statement);
+        }
+
+        // Read in bulk, and a byte at a time
+        for (final boolean trickle : new boolean[] {
+            false, true
+        }) {
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            if (trickle) {
+                in = new Trickle(in);
+            }
+
+            final FramedStatementReader reader = new FramedStatementReader(in);
+            for (final String statement : statements) {
+                assertEquals(statement, decode(reader.next()));
+            }
+
+            try {
+                reader.next();
+                fail("Expected EOFException");
+            }
+            catch (final EOFException eofe) {
+                assertNull(eofe.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testBadStream()
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StatementEncoder().writeFramed(out, "statement");
+        final byte[] bytes = out.toByteArray();
+
+        // Ends part way through the header, and the statement
+        for (final int length : new int[] {
+            2, bytes.length - 1
+        }) {
+            try {
+                new FramedStatementReader(new ByteArrayInputStream(Arrays.copyOf(bytes, length))).next();
+                fail("Expected EOFException");
+            }
+            catch (final EOFException eofe) {
+                assertEquals("Stream ended part way through a statement", eofe.getMessage());
+            }
+        }
+
+        // Longer than the maximum
+        try {
+            new FramedStatementReader(new ByteArrayInputStream(bytes), 8).next();
+            fail("Expected IOException");
+        }
+        catch (final IOException ioe) {
+            assertEquals("Bad statement length: 9", ioe.getMessage());
+        }
+    }
+
+    @Test
+    public void testParse()
+        throws Exception
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StatementEncoder encoder = new StatementEncoder();
+        encoder.writeFramed(out, "call label \"1\" echo.echo(\"two\nlines\")");
+        encoder.writeFramed(out, "call echo.echo(\"one line\")");
+
+        final FramedStatementReader reader = new FramedStatementReader(new ByteArrayInputStream(out.toByteArray()));
+        final CommandParser parser = new CommandParser(registry);
+
+        final CallCommand first = (CallCommand)parser.parseCommand(reader.next());
+        assertEquals("1", first.getLabel());
+        assertEquals("two\nlines", first.getArguments()[0]);
+        assertEquals("one line", ((CallCommand)parser.parseCommand(reader.next())).getArguments()[0]);
+    }
+
+    private static String decode(final ByteBuffer statement)
+    {
+        return StandardCharsets.UTF_8.decode(statement).toString();
+    }
+
+    /**
+     * Returns at most one byte from each read.
+     */
+    private static class Trickle
+        extends FilterInputStream
+    {
+        Trickle(final InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+            throws IOException
+        {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
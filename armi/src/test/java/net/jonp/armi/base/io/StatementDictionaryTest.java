@@ -0,0 +1,85 @@
+package net.jonp.armi.base.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class StatementDictionaryTest
+{
+    @Test
+    public void testEncode()
+        throws IOException
+    {
+        final StatementDictionary encoder = new StatementDictionary(16);
+        final StatementDictionary decoder = new StatementDictionary(16);
+
+        final String first = "response label \"1\" (net.jonp.Status (net.jonp.Status.name = \"connected\", net.jonp.Status.code = 12))";
+        final String second = "response label \"2\" (net.jonp.Status (net.jonp.Status.name = \"connected\", net.jonp.Status.code = 1.5E-3))";
+
+        final String encodedFirst = encoder.encode(first);
+        assertEquals("@0:response label \"1\" (@1:net.jonp.Status (@2:net.jonp.Status.name = @3:\"connected\", " +
+                     "@4:net.jonp.Status.code = 12))", encodedFirst);
+        assertEquals(first, decoder.decode(encodedFirst));
+
+        final String encodedSecond = encoder.encode(second);
+        assertEquals("@0 label \"2\" (@1 (@2 = @3, @4 = 1.5E-3))", encodedSecond);
+        assertEquals(second, decoder.decode(encodedSecond));
+    }
+
+    @Test
+    public void testStrings()
+        throws IOException
+    {
+        final StatementDictionary encoder = new StatementDictionary(16);
+        final StatementDictionary decoder = new StatementDictionary(16);
+
+        final String statement = "call api.send (\"user@example.com\", \"a \\\"quoted\\\" @1 word\", \"user@example.com\")";
+        final String encoded = encoder.encode(statement);
+        assertEquals("call @0:api.send (@1:\"user@example.com\", @2:\"a \\\"quoted\\\" @1 word\", @1)", encoded);
+        assertEquals(statement, decoder.decode(encoded));
+
+        // Not encoded, so decodes to itself
+        assertEquals(statement, new StatementDictionary(16).decode(statement));
+    }
+
+    @Test
+    public void testEviction()
+        throws IOException
+    {
+        final StatementDictionary encoder = new StatementDictionary(2);
+        final StatementDictionary decoder = new StatementDictionary(2);
+
+        final String[] statements = {
+            "(\"aaaaaaaa\", \"bbbbbbbb\")", "(\"aaaaaaaa\", \"cccccccc\")", "(\"bbbbbbbb\", \"aaaaaaaa\")"
+        };
+        // The third statement evicts both earlier words
+        final String[] expected = {
+            "(@0:\"aaaaaaaa\", @1:\"bbbbbbbb\")", "(@0, @1:\"cccccccc\")", "(@0:\"bbbbbbbb\", @1:\"aaaaaaaa\")"
+        };
+
+        for (int i = 0; i < statements.length; i++) {
+            final String encoded = encoder.encode(statements[i]);
+            assertEquals(expected[i], encoded);
+            assertEquals(statements[i], decoder.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testBadEntries()
+    {
+        for (final String bad : new String[] {
+            "(@0)", "(@16:\"aaaaaaaa\")", "(@)", "(@0:)"
+        }) {
+            try {
+                new StatementDictionary(16).decode(bad);
+                fail("Decoded " + bad);
+            }
+            catch (final IOException ioe) {
+                // Expected
+            }
+        }
+    }
+}
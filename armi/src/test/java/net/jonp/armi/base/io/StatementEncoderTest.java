@@ -0,0 +1,126 @@
+package net.jonp.armi.base.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Test;
+
+public class StatementEncoderTest
+{
+    private static final String[] STATEMENTS = {
+        "", "response label \"1\" (\"plain\")", "unsol (chat, \"grüße 你好 😀\")",
+        "éééééééé", "€€€€€€",
+        "😀😀😀😀x",
+    };
+
+    @Test
+    public void testWrite()
+        throws IOException
+    {
+        // Small buffers put every kind of character on a buffer boundary
+        for (int size = 4; size < 12; size++) {
+            final StatementEncoder encoder = new StatementEncoder(size);
+            for (final String statement : STATEMENTS) {
+                for (int offset = 0; offset < size; offset++) {
+                    final String text = "          ".substring(0, offset) + statement;
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    encoder.write(out, text);
+                    assertArrayEquals(text, (text + "\n").getBytes(StandardCharsets.UTF_8), out.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteFramed()
+        throws IOException
+    {
+        for (int size = 4; size < 12; size++) {
+            final StatementEncoder encoder = new StatementEncoder(size);
+            for (final String statement : STATEMENTS) {
+                for (int offset = 0; offset < size; offset++) {
+                    final String text = "          ".substring(0, offset) + statement;
+                    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                    new DataOutputStream(expected).writeInt(bytes.length);
+                    expected.write(bytes);
+
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    encoder.writeFramed(out, text);
+                    assertArrayEquals(text, expected.toByteArray(), out.toByteArray());
+                }
+            }
+        }
+
+        // Unpaired surrogates are measured as they are written
+        final String text = "a\ud83db\ude00c\ud83d" + new String(new char[20]).replace('\0', '\u00e9');
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StatementEncoder(8).writeFramed(out, text);
+        assertEquals(6 + 40, new DataInputStream(new ByteArrayInputStream(out.toByteArray())).readInt());
+        assertEquals(4 + 6 + 40, out.size());
+    }
+
+    @Test
+    public void testUnpairedSurrogates()
+        throws IOException
+    {
+        final String text = "a\ud83db\ude00c\ud83d";
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StatementEncoder().write(out, text);
+        assertEquals("a?b?c?\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertArrayEquals((text + "\n").getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void testSingleWrite()
+        throws IOException
+    {
+        final int[] writes = new int[1];
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(final int b)
+            {
+                writes[0]++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+            {
+                writes[0]++;
+            }
+        };
+
+        new StatementEncoder().write(out, STATEMENTS[2]);
+        assertEquals(1, writes[0]);
+    }
+
+    @Test
+    public void testRoundTrip()
+        throws IOException, SyntaxException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StatementEncoder encoder = new StatementEncoder();
+        for (final String statement : STATEMENTS) {
+            encoder.write(out, "response label \"x\" (\"" + statement.replace("\"", "\\\"") + "\")");
+        }
+
+        final ResponseParser parser =
+            new ResponseParser(new ByteArrayInputStream(out.toByteArray()), new DefaultClassRegistry());
+        for (final String statement : STATEMENTS) {
+            assertEquals(statement, ((ValueResponse)parser.readNextResponse()).getValue());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package net.jonp.armi.base.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jonp.armi.base.QuoteTestClass;
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.comm.DefaultClassRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link DeltaEncoder} and the reading of {@link DeltaResponse}s.
+ */
+public class DeltaEncoderTest
+{
+    private static final String QUOTE = QuoteTestClass.class.getName();
+
+    private DefaultClassRegistry registry;
+
+    @Before
+    public void setUp()
+    {
+        registry = new DefaultClassRegistry();
+        registry.put("Quote", QuoteTestClass.class);
+    }
+
+    @Test
+    public void testEncode()
+        throws Exception
+    {
+        final DeltaEncoder encoder = new DeltaEncoder(2);
+        final QuoteTestClass quote = new QuoteTestClass("ACME", 10.5, 100);
+
+        assertEquals("delta (quote, \"ACME\", Quote (" + QUOTE + ".price = 10.5, " + QUOTE + ".symbol = ref 0, " +
+                     QUOTE + ".trades = collection(java.util.ArrayList) [], " + QUOTE + ".volume = 100))",
+                     encoder.encode("quote", "ACME", quote, registry));
+
+        // Only changed fields, and fields which may have been changed in place
+        quote.price = 11.0;
+        assertEquals("delta (quote, \"ACME\", (" + QUOTE + ".price = 11.0, " + QUOTE +
+                     ".trades = collection(java.util.ArrayList) []))", encoder.encode("quote", "ACME", quote, registry));
+
+        quote.trades.add("buy");
+        assertEquals("delta (quote, \"ACME\", (" + QUOTE + ".trades = collection(java.util.ArrayList) [\"buy\"]))",
+                     encoder.encode("quote", "ACME", quote, registry));
+
+        // After two patches, a snapshot
+        assertEquals("delta (quote, \"ACME\", Quote (" + QUOTE + ".price = 11.0, " + QUOTE + ".symbol = ref 0, " + QUOTE +
+                     ".trades = collection(java.util.ArrayList) [\"buy\"], " + QUOTE + ".volume = 100))",
+                     encoder.encode("quote", "ACME", quote, registry));
+
+        // Keys are independent
+        assertEquals("delta (quote, \"OTHER\", Quote (" + QUOTE + ".price = 1.0, " + QUOTE + ".symbol = ref 0, " +
+                     QUOTE + ".trades = collection(java.util.ArrayList) [], " + QUOTE + ".volume = 0))",
+                     encoder.encode("quote", "OTHER", new QuoteTestClass("OTHER", 1.0, 0), registry));
+
+        encoder.forget("quote", "ACME");
+        assertEquals(true, encoder.encode("quote", "ACME", quote, registry).contains("Quote ("));
+
+        // Not a plain object
+        assertEquals("delta (quote, \"ACME\", \"text\")", encoder.encode("quote", "ACME", "text", registry));
+    }
+
+    @Test
+    public void testParse()
+        throws Exception
+    {
+        final DeltaEncoder encoder = new DeltaEncoder(DeltaEncoder.DEFAULT_SNAPSHOT_INTERVAL);
+        final QuoteTestClass quote = new QuoteTestClass("ACME", 10.5, 100);
+        final List<QuoteTestClass> sent = new ArrayList<QuoteTestClass>();
+
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            quote.volume += i;
+            if (i == 3) {
+                quote.trades.add("sell");
+            }
+
+            buf.append(encoder.encode("quote", "ACME", quote, registry)).append("\n");
+            sent.add(new QuoteTestClass(quote));
+        }
+
+        final ResponseParser parser = new ResponseParser(new ByteArrayInputStream(buf.toString().getBytes()), registry);
+        Object previous = null;
+        for (final QuoteTestClass expected : sent) {
+            final UnsolicitedResponse response = (UnsolicitedResponse)parser.readNextResponse();
+            assertEquals("quote", response.getType());
+            assertEquals(expected, response.getValue());
+
+            // Patches are applied to a copy
+            assertNotSame(previous, response.getValue());
+            previous = response.getValue();
+        }
+
+        assertEquals(10.5, ((QuoteTestClass)previous).price, 0);
+    }
+
+    @Test
+    public void testMaxKeys()
+        throws Exception
+    {
+        final DeltaEncoder encoder = new DeltaEncoder(DeltaEncoder.DEFAULT_SNAPSHOT_INTERVAL, 2);
+        final QuoteTestClass a = new QuoteTestClass("A", 1.0, 1);
+        final QuoteTestClass b = new QuoteTestClass("B", 2.0, 2);
+        final QuoteTestClass c = new QuoteTestClass("C", 3.0, 3);
+        final List<String> statements = new ArrayList<String>();
+        final List<QuoteTestClass> sent = new ArrayList<QuoteTestClass>();
+
+        final Object[][] updates = {
+            // B is sent least recently when C is first sent, so is forgotten
+            {
+                a, "A"
+            }, {
+                b, "B"
+            }, {
+                a, "A"
+            }, {
+                c, "C"
+            }, {
+                b, "B"
+            }, {
+                a, "A"
+            },
+        };
+        for (final Object[] update : updates) {
+            final QuoteTestClass quote = (QuoteTestClass)update[0];
+            quote.volume++;
+            statements.add(encoder.encode("quote", update[1], quote, registry));
+            sent.add(new QuoteTestClass(quote));
+        }
+
+        assertFalse(statements.get(2).contains("Quote ("));
+        assertTrue(statements.get(4).contains("Quote ("));
+
+        // A was forgotten when B was sent again
+        assertTrue(statements.get(5).contains("Quote ("));
+
+        final StringBuilder buf = new StringBuilder();
+        for (final String statement : statements) {
+            buf.append(statement).append("\n");
+        }
+
+        final ResponseParser parser = new ResponseParser(new ByteArrayInputStream(buf.toString().getBytes()), registry);
+        parser.setMaxDeltaKeys(2);
+        for (final QuoteTestClass expected : sent) {
+            assertEquals(expected, ((UnsolicitedResponse)parser.readNextResponse()).getValue());
+        }
+    }
+
+    @Test
+    public void testPatchWithoutSnapshot()
+        throws Exception
+    {
+        final String statements = "delta (quote, \"ACME\", (" + QUOTE + ".volume = 5))\n" +
+                                  "delta (quote, \"ACME\", Quote (" + QUOTE + ".price = 2.0, " + QUOTE +
+                                  ".symbol = \"ACME\", " + QUOTE + ".volume = 1))\n" + "delta (quote, \"ACME\", (" +
+                                  QUOTE + ".volume = 5))\n";
+        final ResponseParser parser = new ResponseParser(new ByteArrayInputStream(statements.getBytes()), registry);
+
+        try {
+            parser.readNextResponse();
+            fail("Applied a patch with no snapshot");
+        }
+        catch (final SyntaxException se) {
+            // Expected
+        }
+
+        assertEquals(1, ((QuoteTestClass)((UnsolicitedResponse)parser.readNextResponse()).getValue()).volume);
+
+        final QuoteTestClass patched = (QuoteTestClass)((UnsolicitedResponse)parser.readNextResponse()).getValue();
+        assertEquals(5, patched.volume);
+        assertEquals(2.0, patched.price, 0);
+        assertEquals("ACME", patched.symbol);
+    }
+}
@@ -1,10 +1,14 @@
 package net.jonp.armi.base.response;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.rmi.NotBoundException;
 
 import net.jonp.armi.base.SyntaxException;
@@ -121,4 +125,173 @@ public class ResponseParserTest
         assertEquals(commandString, unsol.toStatement(registry));
         assertEquals("type.of.message(value)", unsol.toString());
     }
+
+    /**
+     * Test that chunks of a streamed result are parsed, including the empty
+     * chunk which ends the stream.
+     * 
+     * @throws IOException If there is a was a problem building the response
+     *             parser.
+     * @throws SyntaxException If there was a problem parsing the response.
+     * @throws NotBoundException If there was a problem with the class registry.
+     */
+    @Test
+    public void testReadNextChunk()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(test.getName(), test.getClass());
+
+        final String chunk = "stream label \"label\" (" + test.getCommand() + ", " + test.getCommand() + ")";
+        final String end = new ChunkResponse("label", new Object[0]).toStatement(registry);
+        assertEquals("stream label \"label\" ()", end);
+
+        final InputStream in = new ByteArrayInputStream((chunk + "\n" + end).getBytes());
+        final ResponseParser parser = new ResponseParser(in, registry);
+
+        final ChunkResponse first = (ChunkResponse)parser.readNextResponse();
+        assertEquals("label", first.getLabel());
+        assertFalse(first.isEnd());
+        assertEquals(2, first.getElements().length);
+        assertEquals(test, first.getElements()[0]);
+        assertEquals(test, first.getElements()[1]);
+
+        final ChunkResponse last = (ChunkResponse)parser.readNextResponse();
+        assertEquals("label", last.getLabel());
+        assertTrue(last.isEnd());
+    }
+
+    /**
+     * Test method for {@link ResponseParser#setLazy(boolean)}.
+     * 
+     * @throws IOException If there is a was a problem building the response
+     *             parser.
+     * @throws SyntaxException If there was a problem parsing the response.
+     * @throws NotBoundException If there was a problem with the class registry.
+     */
+    @Test
+    public void testReadNextValueLazy()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(test.getName(), test.getClass());
+
+        final String commandString = "response label \"label\" (" + test.getCommand() + ")";
+        final InputStream in = new ByteArrayInputStream((commandString + "\n" + commandString).getBytes());
+        final ResponseParser parser = new ResponseParser(in, registry);
+        parser.setLazy(true);
+
+        // Relaying does not decode the value
+        final ValueResponse relayed = (ValueResponse)parser.readNextResponse();
+        assertEquals("label", relayed.getLabel());
+        assertEquals(commandString, relayed.toStatement(registry));
+        assertFalse(relayed.isDecoded());
+
+        final ValueResponse value = (ValueResponse)parser.readNextResponse();
+        assertEquals(test, value.getValue());
+        assertTrue(value.isDecoded());
+        assertEquals(commandString, value.toStatement(registry));
+        assertEquals(test.getString(), value.toString());
+    }
+
+    /**
+     * Test method for {@link ResponseParser#setLazy(boolean)}.
+     * 
+     * @throws IOException If there is a was a problem building the response
+     *             parser.
+     * @throws SyntaxException If there was a problem parsing the response.
+     * @throws NotBoundException If there was a problem with the class registry.
+     */
+    @Test
+    public void testReadNextUnsolicitedLazy()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final String commandString = " unsol ( type . of.message ,\"va)lue\\\"\" ) # comment";
+        final InputStream in = new ByteArrayInputStream(commandString.getBytes());
+        final ResponseParser parser = new ResponseParser(in, registry);
+        parser.setLazy(true);
+
+        final UnsolicitedResponse unsol = (UnsolicitedResponse)parser.readNextResponse();
+        assertEquals("type.of.message", unsol.getType());
+        assertFalse(unsol.isDecoded());
+        assertEquals("unsol (type.of.message, \"va)lue\\\"\")", unsol.toStatement(registry));
+        assertEquals("va)lue\"", unsol.getValue());
+        assertTrue(unsol.isDecoded());
+    }
+
+    /**
+     * Test method for {@link ResponseParser#setLazy(boolean)}.
+     * 
+     * @throws IOException If there is a was a problem building the response
+     *             parser.
+     * @throws SyntaxException If there was a problem parsing the response.
+     */
+    @Test
+    public void testLazyErrors()
+        throws IOException, SyntaxException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final String commandString = "response label \"1\" (no.such.Clazz ())\n" + //
+                                     "error label \"2\" (null)\n";
+        final InputStream in = new ByteArrayInputStream(commandString.getBytes());
+        final ResponseParser parser = new ResponseParser(in, registry);
+        parser.setLazy(true);
+
+        // The bad value is not noticed until it is decoded
+        final ValueResponse bad = (ValueResponse)parser.readNextResponse();
+        assertEquals("1", bad.getLabel());
+        try {
+            bad.getValue();
+            fail("Decoded an unknown class");
+        }
+        catch (final IllegalStateException ise) {
+            assertTrue(ise.getCause() instanceof SyntaxException);
+        }
+
+        try {
+            bad.decodeValue();
+            fail("Decoded an unknown class");
+        }
+        catch (final SyntaxException se) {
+            // Expected
+        }
+
+        // Errors are never lazy
+        final ErrorResponse error = (ErrorResponse)parser.readNextResponse();
+        assertEquals("2", error.getLabel());
+    }
+
+    /**
+     * Test method for {@link ResponseParser#parseResponse(ByteBuffer)}.
+     * 
+     * @throws IOException If there was a problem parsing the response.
+     * @throws SyntaxException If there was a problem parsing the response.
+     * @throws NotBoundException If there was a problem with the class registry.
+     */
+    @Test
+    public void testParseResponse()
+        throws IOException, SyntaxException, NotBoundException
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        registry.put(test.getName(), test.getClass());
+
+        final String commandString = "response label \"\u00fcber\" (" + test.getCommand() + ")";
+        final ByteBuffer buffer = ByteBuffer.wrap(("\n" + commandString + "\n").getBytes("UTF-8"));
+        buffer.position(1);
+        buffer.limit(buffer.limit() - 1);
+
+        final ResponseParser parser = new ResponseParser(registry);
+        final ValueResponse value = (ValueResponse)parser.parseResponse(buffer);
+        assertEquals(1, buffer.position());
+        assertEquals("\u00fcber", value.getLabel());
+        assertEquals(test, value.getValue());
+        assertEquals(commandString, value.toStatement(registry));
+
+        parser.setLazy(true);
+        final ValueResponse lazy = (ValueResponse)parser.parseResponse(buffer);
+        assertFalse(lazy.isDecoded());
+        assertEquals("\u00fcber", lazy.getLabel());
+        assertEquals(test, lazy.getValue());
+    }
 }
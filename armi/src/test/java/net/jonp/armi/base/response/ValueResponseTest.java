@@ -82,6 +82,24 @@ public class ValueResponseTest
         assertEquals(expected, value.getLabel());
     }
 
+    /**
+     * Test that equal strings (not only the same string) are sent as
+     * back-references, when that is shorter.
+     * 
+     * @throws NotBoundException If there was a problem with the class registry.
+     */
+    @Test
+    public void testEqualStrings()
+        throws NotBoundException
+    {
+        final String[] strings = {
+            new String("connected"), new String("connected"), new String("ok"), new String("ok")
+        };
+
+        assertEquals("response (array(java.lang.String) [\"connected\", ref 1, \"ok\", \"ok\"])",
+                     new ValueResponse(null, strings).toStatement(new DefaultClassRegistry()));
+    }
+
     private ValueResponse getTestValue()
     {
         return new ValueResponse("label", test);
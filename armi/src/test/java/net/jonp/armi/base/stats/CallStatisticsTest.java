@@ -0,0 +1,135 @@
+package net.jonp.armi.base.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.LangAPI;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.CommandExecutor;
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.SimpleRegistry;
+
+import org.junit.Test;
+
+public class CallStatisticsTest
+{
+    @Test
+    public void testBuckets()
+    {
+        long last = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            final long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue("Bucket " + bucket + " is empty", upper > last);
+            assertEquals(bucket, LatencyHistogram.bucketFor(last + 1));
+            assertEquals(bucket, LatencyHistogram.bucketFor(upper));
+            last = upper;
+        }
+
+        assertEquals(LatencyHistogram.MAX_VALUE, last);
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.bucketFor(-5));
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram(4);
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1000000);
+        }
+
+        final long[] buckets = histogram.getBuckets();
+        assertEquals(1000, LatencyHistogram.count(buckets));
+        assertEquals(990 * 1000L + 10 * 1000000L, histogram.getTotal());
+
+        // Percentiles are reported as the upper bound of their bucket
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucketFor(1000)),
+                     LatencyHistogram.percentile(buckets, 50));
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucketFor(1000)),
+                     LatencyHistogram.percentile(buckets, 99));
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucketFor(1000000)),
+                     LatencyHistogram.percentile(buckets, 99.9));
+        assertTrue(LatencyHistogram.percentile(buckets, 50) < 1250);
+    }
+
+    @Test
+    public void testExecutorRecordsCalls()
+        throws Exception
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        final CommandExecutor executor = new CommandExecutor(registry);
+        registry.put("lang", new LangAPI(registry, executor.getStatistics()));
+        registry.put("api", new API());
+
+        executor.executeCommand(new CallCommand("1", "api", "ok", new Object[0]));
+        executor.executeCommand(new CallCommand("2", "api", "ok", new Object[0]));
+        executor.executeCommand(new CallCommand("3", "api", "fail", new Object[0]));
+
+        // Unknown objects and methods are not recorded
+        executor.executeCommand(new CallCommand("4", "nothing", "ok", new Object[0]));
+        executor.executeCommand(new CallCommand("5", "api", "nothing", new Object[0]));
+
+        final CallStatistics statistics = executor.getStatistics();
+        assertNull(statistics.getStatistics("nothing", "ok"));
+        assertNull(statistics.getStatistics("api", "nothing"));
+
+        final MethodStatistics ok = statistics.getStatistics("api", "ok");
+        assertEquals(2, ok.getCalls());
+        assertEquals(0, ok.getErrors());
+
+        final MethodStatistics fail = statistics.getStatistics("api", "fail");
+        assertEquals(1, fail.getCalls());
+        assertEquals(1, fail.getErrors());
+        assertEquals(Long.valueOf(1), fail.getErrorsByType().get(UnsupportedOperationException.class.getName()));
+
+        // Stats are available remotely, and survive a round trip
+        final ValueResponse response =
+            (ValueResponse)executor.executeCommand(new CallCommand("6", "lang", "getStats", new Object[0]));
+        final DefaultClassRegistry classRegistry = new DefaultClassRegistry();
+        final String statement = response.toStatement(classRegistry);
+        final ResponseParser parser =
+            new ResponseParser(new ByteArrayInputStream((statement + "\n").getBytes()), classRegistry);
+        final Object[] stats = (Object[])((ValueResponse)parser.readNextResponse()).getValue();
+
+        // Includes the call to getStats() itself, which had not finished
+        assertEquals(3, stats.length);
+        assertEquals("getStats", ((MethodStatistics)stats[2]).getMethod());
+        assertEquals("fail", ((MethodStatistics)stats[0]).getMethod());
+        assertEquals("ok", ((MethodStatistics)stats[1]).getMethod());
+        assertEquals(2, ((MethodStatistics)stats[1]).getCalls());
+        assertEquals(ok.getTotalNanos(), ((MethodStatistics)stats[1]).getTotalNanos());
+
+        statistics.reset();
+        assertEquals(0, statistics.getStatistics("api", "ok").getCalls());
+    }
+
+    @Test
+    public void testNoStatistics()
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        assertEquals(0, new LangAPI(registry).getStats().length);
+        assertTrue(new CommandExecutor(registry).executeCommand(new CallCommand("1", "x", "y", new Object[0])) instanceof ErrorResponse);
+    }
+
+    public static class API
+    {
+        public void ok()
+        {
+            // Nothing to do
+        }
+
+        public void fail()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
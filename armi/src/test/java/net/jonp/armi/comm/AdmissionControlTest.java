@@ -0,0 +1,337 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ValueResponse;
+
+import org.junit.Test;
+
+public class AdmissionControlTest
+{
+    @Test
+    public void testGlobalLimit()
+        throws OverloadedException
+    {
+        final AdmissionControl control = new AdmissionControl(2, 0, 0);
+
+        final AdmissionControl.Permit a = control.admit("x");
+        final AdmissionControl.Permit b = control.admit("y");
+        assertEquals(2, control.getActive());
+        assertRejected(control, "x");
+
+        // lang is exempt, and does not count
+        control.admit("lang").release();
+        assertEquals(2, control.getActive());
+
+        a.release();
+        a.release();
+        assertEquals(1, control.getActive());
+        control.admit("x");
+        b.release();
+
+        assertEquals(3, control.getAdmitted());
+        assertEquals(1, control.getRejected());
+    }
+
+    @Test
+    public void testObjectLimit()
+        throws OverloadedException
+    {
+        final AdmissionControl control = new AdmissionControl(10, 0, 0);
+        control.setObjectLimit("x", 1);
+
+        final AdmissionControl.Permit a = control.admit("x");
+        assertRejected(control, "x");
+        control.admit("y");
+
+        a.release();
+        control.admit("x");
+
+        control.setObjectLimit("x", 0);
+        control.admit("x");
+        assertEquals(3, control.getActive());
+    }
+
+    @Test
+    public void testQueue()
+        throws Exception
+    {
+        final AdmissionControl control = new AdmissionControl(1, 1, 5000);
+        final AdmissionControl.Permit a = control.admit("x");
+
+        final CountDownLatch admitted = new CountDownLatch(1);
+        final Thread waiter = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    control.admit("x").release();
+                    admitted.countDown();
+                }
+                catch (final OverloadedException oe) {
+                    // Leave the latch alone
+                }
+            }
+        };
+        waiter.start();
+
+        final long start = System.nanoTime();
+        while (control.getWaiting() == 0 && System.nanoTime() - start < 5000000000L) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, control.getWaiting());
+
+        // The queue is full
+        assertRejected(control, "y");
+
+        a.release();
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        assertEquals(0, control.getWaiting());
+        assertEquals(0, control.getActive());
+
+        // A waiter gives up after the maximum wait
+        final AdmissionControl impatient = new AdmissionControl(1, 1, 20);
+        impatient.admit("x");
+        assertRejected(impatient, "x");
+    }
+
+    @Test
+    public void testQueueAsync()
+        throws Exception
+    {
+        final AdmissionControl control = new AdmissionControl(1, 1, 5000);
+        final AdmissionControl.Permit a = control.admit("x");
+
+        // Queued without waiting
+        final Outcome outcome = new Outcome();
+        assertNull(control.admit("x", outcome));
+        assertEquals(1, control.getWaiting());
+
+        // The queue is full
+        try {
+            control.admit("y", new Outcome());
+            fail("Admitted a call to y");
+        }
+        catch (final OverloadedException oe) {
+            // Expected
+        }
+
+        // Admitted on the releasing thread
+        a.release();
+        assertTrue(outcome.take() instanceof AdmissionControl.Permit);
+        assertEquals(0, control.getWaiting());
+        assertEquals(1, control.getActive());
+
+        // A queued call is rejected after the maximum wait
+        final AdmissionControl impatient = new AdmissionControl(1, 1, 20);
+        impatient.admit("x");
+        final Outcome rejected = new Outcome();
+        assertNull(impatient.admit("x", rejected));
+        assertTrue(rejected.take() instanceof OverloadedException);
+        assertEquals(0, impatient.getWaiting());
+        assertEquals(1, impatient.getRejected());
+    }
+
+    @Test
+    public void testAdaptive()
+        throws OverloadedException, InterruptedException
+    {
+        final AdmissionControl control = new AdmissionControl(10, 0, 0);
+        control.setAdaptive(2, 12, 10);
+
+        // Slow calls bring the limit down, but not below the minimum
+        for (int i = 0; i < 30; i++) {
+            final AdmissionControl.Permit permit = control.admit("x");
+            Thread.sleep(11);
+            permit.release();
+        }
+        assertEquals(2, control.getLimit());
+
+        // Fast calls which use the limit raise it again, up to the maximum
+        for (int i = 0; i < 100; i++) {
+            final AdmissionControl.Permit[] permits = new AdmissionControl.Permit[control.getLimit()];
+            for (int j = 0; j < permits.length; j++) {
+                permits[j] = control.admit("x");
+            }
+            for (final AdmissionControl.Permit permit : permits) {
+                permit.release();
+            }
+        }
+        assertEquals(12, control.getLimit());
+
+        // Fast calls which leave the limit mostly unused do not
+        control.setAdaptive(2, 100, 10);
+        for (int i = 0; i < 200; i++) {
+            control.admit("x").release();
+        }
+        assertEquals(12, control.getLimit());
+    }
+
+    @Test
+    public void testBackOffOncePerWindow()
+        throws OverloadedException, InterruptedException
+    {
+        final AdmissionControl control = new AdmissionControl(10, 0, 0);
+        control.setAdaptive(2, 12, 10);
+
+        // A burst of slow calls, all admitted before any finished
+        final AdmissionControl.Permit[] permits = new AdmissionControl.Permit[10];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = control.admit("x");
+        }
+        Thread.sleep(11);
+        for (final AdmissionControl.Permit permit : permits) {
+            permit.release();
+        }
+        assertEquals(9, control.getLimit());
+
+        // A slow call admitted since then lowers it again
+        final AdmissionControl.Permit permit = control.admit("x");
+        Thread.sleep(11);
+        permit.release();
+        assertEquals(8, control.getLimit());
+    }
+
+    @Test
+    public void testCommandExecutor()
+        throws OverloadedException
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("echo", new Echo());
+        registry.put("lang", new Echo());
+
+        final CommandExecutor executor = new CommandExecutor(registry);
+        final AdmissionControl control = new AdmissionControl(1, 0, 0);
+        executor.setAdmissionControl(control);
+
+        assertTrue(executor.executeCommand(echo("1", "echo")) instanceof ValueResponse);
+        assertEquals(0, control.getActive());
+
+        final AdmissionControl.Permit busy = control.admit("echo");
+        final Response response = executor.executeCommand(echo("2", "echo"));
+        assertEquals("2", response.getLabel());
+        assertTrue(((ErrorResponse)response).getException() instanceof OverloadedException);
+
+        final Response[] async = new Response[1];
+        executor.executeCommand(echo("3", "echo"), new CommandExecutor.ResponseCallback() {
+            @Override
+            public void response(final Response _response)
+            {
+                async[0] = _response;
+            }
+        });
+        assertTrue(((ErrorResponse)async[0]).getException() instanceof OverloadedException);
+
+        assertTrue(executor.executeCommand(echo("4", "lang")) instanceof ValueResponse);
+
+        busy.release();
+        assertTrue(executor.executeCommand(echo("5", "echo")) instanceof ValueResponse);
+        assertEquals(2, control.getRejected());
+    }
+
+    @Test
+    public void testCommandExecutorQueued()
+        throws Exception
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("echo", new Echo());
+        registry.put("lang", new Echo());
+
+        final CommandExecutor executor = new CommandExecutor(registry);
+        final AdmissionControl control = new AdmissionControl(1, 4, 5000);
+        executor.setAdmissionControl(control);
+
+        final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+        final CommandExecutor.ResponseCallback callback = new CommandExecutor.ResponseCallback() {
+            @Override
+            public void response(final Response response)
+            {
+                responses.add(response);
+            }
+        };
+
+        // A queued call does not hold up the caller
+        final AdmissionControl.Permit busy = control.admit("echo");
+        executor.executeCommand(echo("1", "echo"), callback);
+        executor.executeCommand(echo("2", "echo"), callback);
+        assertEquals(2, control.getWaiting());
+        assertTrue(responses.isEmpty());
+
+        // Nor does it hold up later exempt calls or cancellations
+        executor.executeCommand(echo("3", "lang"), callback);
+        assertEquals("3", responses.poll(5, TimeUnit.SECONDS).getLabel());
+        assertTrue(executor.cancel("1"));
+
+        // Once admitted, the cancelled call is skipped and the other is run
+        busy.release();
+        final Response response = responses.poll(5, TimeUnit.SECONDS);
+        assertTrue(response instanceof ValueResponse);
+        assertEquals("2", response.getLabel());
+        assertNull(responses.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, control.getWaiting());
+    }
+
+    private static void assertRejected(final AdmissionControl control, final String object)
+    {
+        try {
+            control.admit(object);
+            fail("Admitted a call to " + object);
+        }
+        catch (final OverloadedException oe) {
+            // Expected
+        }
+    }
+
+    /**
+     * Records the outcome of a queued admission: a permit, or an exception.
+     */
+    private static class Outcome
+        implements AdmissionControl.Admission
+    {
+        private final BlockingQueue<Object> outcome = new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void admitted(final AdmissionControl.Permit permit)
+        {
+            outcome.add(permit);
+        }
+
+        @Override
+        public void rejected(final OverloadedException oe)
+        {
+            outcome.add(oe);
+        }
+
+        Object take()
+            throws InterruptedException
+        {
+            return outcome.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static CallCommand echo(final String label, final String object)
+    {
+        return new CallCommand(label, object, "echo", new Object[] {
+            label
+        });
+    }
+
+    public static class Echo
+    {
+        public String echo(final String s)
+        {
+            return s;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.base.stats.CallStatistics;
+import net.jonp.armi.comm.CallScheduler.Mode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallSchedulerTest
+{
+    private static final int CALLS = 200;
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp()
+    {
+        pool = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSerial()
+        throws InterruptedException
+    {
+        final CallScheduler scheduler = new CallScheduler(pool, Mode.SERIAL);
+        final Counter counter = new Counter();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+        run(scheduler, counter, order);
+
+        assertEquals(1, counter.maxActive.get());
+
+        // Calls on one object run in the order they were submitted
+        for (int i = 0; i < CALLS; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testLimited()
+        throws InterruptedException
+    {
+        final CallScheduler scheduler = new CallScheduler(pool, Mode.SERIAL);
+        final Counter counter = new Counter();
+        scheduler.setMode(counter, Mode.LIMITED, 3);
+
+        run(scheduler, counter, null);
+
+        assertTrue(counter.maxActive.get() <= 3);
+        assertTrue(counter.maxActive.get() > 1);
+    }
+
+    @Test
+    public void testConcurrent()
+        throws InterruptedException
+    {
+        final CallScheduler scheduler = new CallScheduler(pool, Mode.SERIAL);
+        final ConcurrentCounter counter = new ConcurrentCounter();
+
+        run(scheduler, counter, null);
+
+        assertTrue(counter.maxActive.get() > 3);
+        assertEquals(0, scheduler.getQueued(counter));
+    }
+
+    @Test
+    public void testDefaultExecutorToleratesBlocking()
+        throws InterruptedException
+    {
+        final CallScheduler scheduler = new CallScheduler();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        // Block more calls than there are processors
+        final int blocked = 2 * Runtime.getRuntime().availableProcessors() + 1;
+        for (int i = 0; i < blocked; i++) {
+            scheduler.submit(new ConcurrentCounter(), new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        release.await();
+                    }
+                    catch (final InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        try {
+            scheduler.submit(new Counter(), new Runnable() {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                }
+            });
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testAnnotation()
+        throws InterruptedException
+    {
+        final CallScheduler scheduler = new CallScheduler(pool, Mode.CONCURRENT);
+        final LimitedCounter counter = new LimitedCounter();
+
+        run(scheduler, counter, null);
+
+        assertTrue(counter.maxActive.get() <= 2);
+
+        // An explicit mode overrides the annotation
+        final LimitedCounter serial = new LimitedCounter();
+        scheduler.setMode(serial, Mode.SERIAL, 0);
+        run(scheduler, serial, null);
+
+        assertEquals(1, serial.maxActive.get());
+    }
+
+    @Test
+    public void testCommandExecutor()
+        throws InterruptedException
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        final Counter counter = new Counter();
+        registry.put("counter", counter);
+
+        final CommandExecutor executor =
+            new CommandExecutor(registry, new CallStatistics(), new ResponseCache(), new InFlightCalls(),
+                                new CallScheduler(pool, Mode.SERIAL));
+
+        final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+        final CommandExecutor.ResponseCallback callback = new CommandExecutor.ResponseCallback() {
+            @Override
+            public void response(final Response response)
+            {
+                responses.add(response);
+            }
+        };
+
+        for (int i = 0; i < CALLS; i++) {
+            executor.executeCommand(new CallCommand(Integer.toString(i), "counter", "count", new Object[] {
+                i
+            }), callback);
+        }
+
+        for (int i = 0; i < CALLS; i++) {
+            final Response response = responses.poll(5, TimeUnit.SECONDS);
+            assertEquals(Integer.toString(i), response.getLabel());
+            assertEquals(i, ((ValueResponse)response).getValue());
+        }
+
+        assertEquals(1, counter.maxActive.get());
+
+        // Unbound objects are answered straight away
+        executor.executeCommand(new CallCommand("x", "nobody", "count", new Object[] {
+            0
+        }), callback);
+        assertTrue(responses.poll() instanceof ErrorResponse);
+
+        executor.executeCommand(new CallCommand("y", "counter", "missing", new Object[0]), callback);
+        assertTrue(responses.poll(5, TimeUnit.SECONDS) instanceof ErrorResponse);
+    }
+
+    /**
+     * Submit {@link #CALLS} calls to <code>count</code>, and wait for them.
+     */
+    private void run(final CallScheduler scheduler, final Counter counter, final List<Integer> order)
+        throws InterruptedException
+    {
+        final CountDownLatch done = new CountDownLatch(CALLS);
+        for (int i = 0; i < CALLS; i++) {
+            final int n = i;
+            scheduler.submit(counter, new Runnable() {
+                @Override
+                public void run()
+                {
+                    counter.count(n);
+                    if (null != order) {
+                        order.add(n);
+                    }
+
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Records how many calls overlap.
+     */
+    public static class Counter
+    {
+        final AtomicInteger active = new AtomicInteger(0);
+        final AtomicInteger maxActive = new AtomicInteger(0);
+
+        public int count(final int n)
+        {
+            final int now = active.incrementAndGet();
+            while (true) {
+                final int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+
+            try {
+                Thread.sleep(1);
+            }
+            catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            active.decrementAndGet();
+            return n;
+        }
+    }
+
+    @Concurrency(Mode.CONCURRENT)
+    public static class ConcurrentCounter
+        extends Counter
+    {
+        // Nothing to add
+    }
+
+    @Concurrency(value = Mode.LIMITED, limit = 2)
+    public static class LimitedCounter
+        extends Counter
+    {
+        // Nothing to add
+    }
+}
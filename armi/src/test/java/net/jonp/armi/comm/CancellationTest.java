@@ -0,0 +1,335 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.ChunkResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.StreamResponse;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.base.stats.CallStatistics;
+import net.jonp.armi.comm.CallScheduler.Mode;
+
+import org.junit.Test;
+
+public class CancellationTest
+{
+    @Test
+    public void testCancelQueued()
+    {
+        final ManualExecutor pool = new ManualExecutor();
+        final Worker worker = new Worker();
+        final CommandExecutor executor = executor(worker, pool);
+        final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+        executor.executeCommand(work("1", 0), callback(responses));
+        executor.executeCommand(work("2", 0), callback(responses));
+
+        assertTrue(executor.cancel("1"));
+        assertFalse(executor.cancel("nothing"));
+        pool.runAll();
+
+        // The cancelled call never ran, and was not answered
+        assertEquals(1, worker.calls.get());
+        assertEquals(1, responses.size());
+        assertEquals("2", responses.poll().getLabel());
+        assertEquals(1, executor.getCancelled());
+
+        // Once answered, a call is no longer cancellable
+        assertFalse(executor.cancel("2"));
+    }
+
+    @Test
+    public void testCancelRunning()
+        throws InterruptedException
+    {
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            final Worker worker = new Worker();
+            final CommandExecutor executor = executor(worker, pool);
+            final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+            executor.executeCommand(work("1", 10000), callback(responses));
+            assertTrue(worker.started.await(5, TimeUnit.SECONDS));
+
+            assertTrue(executor.cancel("1"));
+
+            final long start = System.nanoTime();
+            while (worker.interrupted.get() == 0 && System.nanoTime() - start < 5000000000L) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, worker.interrupted.get());
+
+            // The interrupt is not left behind for the next call on the thread
+            executor.executeCommand(work("2", 50), callback(responses));
+            final Response response = responses.poll(5, TimeUnit.SECONDS);
+            assertEquals("2", response.getLabel());
+            assertEquals(50L, ((ValueResponse)response).getValue());
+            assertEquals(1, worker.interrupted.get());
+            assertNull(responses.poll());
+            assertFalse(executor.cancel("1"));
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelStream()
+    {
+        final CommandExecutor executor = executor(new Worker(), new ManualExecutor());
+
+        final StreamResponse stream = (StreamResponse)executor.executeCommand(stream("1", "count"));
+        assertTrue(((ChunkResponse)stream.nextChunk()).getElements().length > 0);
+
+        assertTrue(executor.cancel("1"));
+        assertNull(stream.nextChunk());
+        assertFalse(executor.cancel("1"));
+
+        // A stream which ends is no longer cancellable
+        final StreamResponse ended = (StreamResponse)executor.executeCommand(stream("2", "few"));
+        while (null != ended.nextChunk()) {
+            // Drain it
+        }
+        assertFalse(executor.cancel("2"));
+    }
+
+    @Test
+    public void testCancelAll()
+    {
+        final ManualExecutor pool = new ManualExecutor();
+        final Worker worker = new Worker();
+        final CommandExecutor executor = executor(worker, pool);
+        final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+        // A stream nobody drains, and a call still queued, as when the
+        // connection closes
+        final StreamResponse stream = (StreamResponse)executor.executeCommand(stream("1", "count"));
+        executor.executeCommand(work("2", 0), callback(responses));
+
+        assertEquals(2, executor.cancelAll());
+        assertNull(stream.nextChunk());
+        assertFalse(executor.cancel("1"));
+        assertFalse(executor.cancel("2"));
+        assertEquals(0, executor.cancelAll());
+
+        pool.runAll();
+        assertEquals(0, worker.calls.get());
+        assertNull(responses.poll());
+        assertEquals(2, executor.getCancelled());
+    }
+
+    @Test
+    public void testCancelLeader()
+        throws InterruptedException
+    {
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            final Worker worker = new Worker();
+            final CommandExecutor executor = executor(worker, pool);
+            final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+            executor.executeCommand(shared("1", 1000), callback(responses));
+            assertTrue(worker.started.await(5, TimeUnit.SECONDS));
+            executor.executeCommand(shared("2", 1000), callback(responses));
+            awaitCoalesced(executor);
+
+            // The follower did not cancel, so runs the method itself
+            assertTrue(executor.cancel("1"));
+            final Response response = responses.poll(5, TimeUnit.SECONDS);
+            assertEquals("2", response.getLabel());
+            assertEquals(1000L, ((ValueResponse)response).getValue());
+            assertEquals(2, worker.calls.get());
+            assertNull(responses.poll());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelFollower()
+        throws InterruptedException
+    {
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            final Worker worker = new Worker();
+            final CommandExecutor executor = executor(worker, pool);
+            final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+
+            executor.executeCommand(shared("1", 300), callback(responses));
+            assertTrue(worker.started.await(5, TimeUnit.SECONDS));
+            executor.executeCommand(shared("2", 300), callback(responses));
+            awaitCoalesced(executor);
+
+            // The follower gives up without running the method
+            assertTrue(executor.cancel("2"));
+            final Response response = responses.poll(5, TimeUnit.SECONDS);
+            assertEquals("1", response.getLabel());
+            assertEquals(300L, ((ValueResponse)response).getValue());
+            Thread.sleep(50);
+            assertEquals(1, worker.calls.get());
+            assertEquals(0, worker.interrupted.get());
+            assertNull(responses.poll());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void awaitCoalesced(final CommandExecutor executor)
+        throws InterruptedException
+    {
+        final long start = System.nanoTime();
+        while (executor.getInFlightCalls().getCoalesced() == 0 && System.nanoTime() - start < 5000000000L) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(1, executor.getInFlightCalls().getCoalesced());
+    }
+
+    private static CommandExecutor executor(final Worker worker, final Executor pool)
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("worker", worker);
+
+        return new CommandExecutor(registry, new CallStatistics(), new ResponseCache(), new InFlightCalls(),
+                                   new CallScheduler(pool, Mode.CONCURRENT));
+    }
+
+    private static CallCommand work(final String label, final long ms)
+    {
+        return new CallCommand(label, "worker", "work", new Object[] {
+            ms
+        });
+    }
+
+    private static CallCommand shared(final String label, final long ms)
+    {
+        return new CallCommand(label, "worker", "shared", new Object[] {
+            ms
+        });
+    }
+
+    private static CallCommand stream(final String label, final String method)
+    {
+        final CallCommand command = new CallCommand(label, "worker", method, new Object[0]);
+        command.setStream(true);
+        return command;
+    }
+
+    private static CommandExecutor.ResponseCallback callback(final BlockingQueue<Response> responses)
+    {
+        return new CommandExecutor.ResponseCallback() {
+            @Override
+            public void response(final Response response)
+            {
+                responses.add(response);
+            }
+        };
+    }
+
+    /**
+     * An executor that queues its tasks until told to run them.
+     */
+    private static class ManualExecutor
+        implements Executor
+    {
+        final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public synchronized void execute(final Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        void runAll()
+        {
+            Runnable task;
+            while (null != (task = poll())) {
+                task.run();
+            }
+        }
+
+        private synchronized Runnable poll()
+        {
+            return tasks.poll();
+        }
+    }
+
+    public static class Worker
+    {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final AtomicInteger interrupted = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        public long work(final long ms)
+            throws InterruptedException
+        {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                Thread.sleep(ms);
+            }
+            catch (final InterruptedException ie) {
+                interrupted.incrementAndGet();
+                throw ie;
+            }
+
+            return ms;
+        }
+
+        @SingleFlight
+        public long shared(final long ms)
+            throws InterruptedException
+        {
+            return work(ms);
+        }
+
+        public Iterator<Integer> count()
+        {
+            return new Iterator<Integer>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return true;
+                }
+
+                @Override
+                public Integer next()
+                {
+                    return next++;
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public Iterable<Integer> few()
+        {
+            return Arrays.asList(1, 2, 3);
+        }
+    }
+}
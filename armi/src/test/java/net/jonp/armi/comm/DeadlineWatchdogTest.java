@@ -0,0 +1,216 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ValueResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeadlineWatchdogTest
+{
+    private DeadlineWatchdog watchdog;
+    private Sleeper sleeper;
+    private CommandExecutor executor;
+
+    @Before
+    public void setUp()
+    {
+        watchdog = new DeadlineWatchdog();
+        sleeper = new Sleeper();
+
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("sleeper", sleeper);
+        executor = new CommandExecutor(registry);
+    }
+
+    @After
+    public void tearDown()
+    {
+        watchdog.shutdown();
+    }
+
+    @Test
+    public void testExpiredNotCalled()
+        throws InterruptedException
+    {
+        final CallCommand command = sleep("1", 0);
+        command.setTimeout(1);
+        Thread.sleep(5);
+        assertTrue(command.isExpired());
+
+        final Response response = executor.executeCommand(command);
+        assertEquals("1", response.getLabel());
+        assertTrue(((ErrorResponse)response).getException() instanceof DeadlineExceededException);
+        assertEquals(0, sleeper.calls.get());
+        assertEquals(1, executor.getExpired());
+
+        // Calls without a timeout, or with time left, run as usual
+        assertTrue(executor.executeCommand(sleep("2", 0)) instanceof ValueResponse);
+        final CallCommand later = sleep("3", 0);
+        later.setTimeout(60000);
+        assertTrue(executor.executeCommand(later) instanceof ValueResponse);
+        assertEquals(2, sleeper.calls.get());
+        assertEquals(1, executor.getExpired());
+    }
+
+    @Test
+    public void testWatchdogInterrupts()
+    {
+        executor.setWatchdog(watchdog);
+
+        final CallCommand command = sleep("1", 10000);
+        command.setTimeout(50);
+
+        final long start = System.nanoTime();
+        final Response response = executor.executeCommand(command);
+        assertTrue(System.nanoTime() - start < 5000000000L);
+        assertTrue(((ErrorResponse)response).getException() instanceof DeadlineExceededException);
+        assertEquals(1, sleeper.interrupted.get());
+        assertEquals(1, executor.getExpired());
+
+        // The interrupt is not left behind for the next call on the thread
+        assertFalse(Thread.currentThread().isInterrupted());
+
+        // A call which finishes in time is left alone, then and afterwards
+        final CallCommand quick = sleep("2", 0);
+        quick.setTimeout(100);
+        assertEquals(0L, ((ValueResponse)executor.executeCommand(quick)).getValue());
+        assertTrue(((ValueResponse)executor.executeCommand(sleep("3", 200))).getValue() instanceof Long);
+        assertEquals(1, sleeper.interrupted.get());
+    }
+
+    @Test
+    public void testNoWatchdog()
+    {
+        final CallCommand command = sleep("1", 100);
+        command.setTimeout(10);
+
+        // Without a watchdog a running call is not interrupted
+        assertTrue(executor.executeCommand(command) instanceof ValueResponse);
+        assertEquals(0, sleeper.interrupted.get());
+        assertEquals(0, executor.getExpired());
+    }
+
+    @Test
+    public void testLeaderExpires()
+        throws InterruptedException
+    {
+        executor.setWatchdog(watchdog);
+
+        final CallCommand leader = shared("1", 1000);
+        leader.setTimeout(200);
+        final Response[] leaderResponse = new Response[1];
+        final Thread leaderThread = execute(leader, leaderResponse);
+        awaitCalls(1);
+
+        // The leader's expiry is its own; the follower runs the method itself
+        final Response response = executor.executeCommand(shared("2", 1000));
+        assertEquals(1000L, ((ValueResponse)response).getValue());
+        assertEquals(2, sleeper.calls.get());
+        assertEquals(1, executor.getInFlightCalls().getCoalesced());
+
+        leaderThread.join(5000);
+        assertTrue(((ErrorResponse)leaderResponse[0]).getException() instanceof DeadlineExceededException);
+    }
+
+    @Test
+    public void testFollowerExpires()
+        throws InterruptedException
+    {
+        executor.setWatchdog(watchdog);
+
+        final Response[] leaderResponse = new Response[1];
+        final Thread leaderThread = execute(shared("1", 1000), leaderResponse);
+        awaitCalls(1);
+
+        // The follower gives up at its own deadline, without calling the method
+        final CallCommand follower = shared("2", 1000);
+        follower.setTimeout(100);
+        final long start = System.nanoTime();
+        final Response response = executor.executeCommand(follower);
+        assertTrue(System.nanoTime() - start < 900000000L);
+        assertTrue(((ErrorResponse)response).getException() instanceof DeadlineExceededException);
+        assertFalse(Thread.currentThread().isInterrupted());
+
+        leaderThread.join(5000);
+        assertEquals(1000L, ((ValueResponse)leaderResponse[0]).getValue());
+        assertEquals(1, sleeper.calls.get());
+        assertEquals(0, sleeper.interrupted.get());
+    }
+
+    private Thread execute(final CallCommand command, final Response[] response)
+    {
+        final Thread thread = new Thread() {
+            @Override
+            public void run()
+            {
+                response[0] = executor.executeCommand(command);
+            }
+        };
+
+        thread.start();
+        return thread;
+    }
+
+    private void awaitCalls(final int calls)
+        throws InterruptedException
+    {
+        final long start = System.nanoTime();
+        while (sleeper.calls.get() < calls && System.nanoTime() - start < 5000000000L) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(calls, sleeper.calls.get());
+    }
+
+    private static CallCommand shared(final String label, final long ms)
+    {
+        return new CallCommand(label, "sleeper", "shared", new Object[] {
+            ms
+        });
+    }
+
+    private static CallCommand sleep(final String label, final long ms)
+    {
+        return new CallCommand(label, "sleeper", "sleep", new Object[] {
+            ms
+        });
+    }
+
+    public static class Sleeper
+    {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final AtomicInteger interrupted = new AtomicInteger(0);
+
+        public long sleep(final long ms)
+            throws InterruptedException
+        {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(ms);
+            }
+            catch (final InterruptedException ie) {
+                interrupted.incrementAndGet();
+                throw ie;
+            }
+
+            return ms;
+        }
+
+        @SingleFlight
+        public long shared(final long ms)
+            throws InterruptedException
+        {
+            return sleep(ms);
+        }
+    }
+}
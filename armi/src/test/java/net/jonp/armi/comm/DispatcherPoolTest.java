@@ -0,0 +1,222 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.command.PreparedCall;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.client.ClientSideCommunicator;
+import net.jonp.armi.comm.client.CommunicatorFactory;
+
+import org.junit.Test;
+
+public class DispatcherPoolTest
+{
+    @Test
+    public void testSpreadsCalls()
+        throws Exception
+    {
+        final PipeFactory factory = new PipeFactory();
+        final DispatcherPool pool = new DispatcherPool(factory, 3, 3000, 50);
+        try {
+            assertEquals(3, pool.getConnected());
+
+            for (int i = 0; i < 6; i++) {
+                assertEquals("echo" + i, pool.call(echo("echo" + i)));
+            }
+
+            // Idle connections take turns
+            synchronized (factory.served) {
+                assertEquals(3, factory.served.size());
+                for (final int[] served : factory.served) {
+                    assertEquals(2, served[0]);
+                }
+            }
+
+            assertEquals(0, pool.getOutstanding());
+        }
+        finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testReplacesClosedConnections()
+        throws Exception
+    {
+        final PipeFactory factory = new PipeFactory();
+        final DispatcherPool pool = new DispatcherPool(factory, 2, 3000, 50);
+        try {
+            // Hold off the reconnector until the closed connection is seen
+            factory.refuse = true;
+            factory.pipes.get(0).close();
+            assertEquals(1, pool.getConnected());
+
+            // Calls go to the connection that is still open
+            assertEquals("alive", pool.call(echo("alive")));
+            factory.refuse = false;
+
+            final long limit = System.currentTimeMillis() + 5000;
+            while (pool.getConnected() < 2 && System.currentTimeMillis() < limit) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(2, pool.getConnected());
+            assertEquals(3, factory.pipes.size());
+            assertEquals("replaced", pool.call(echo("replaced")));
+        }
+        finally {
+            pool.close();
+        }
+
+        for (final CommunicatorPipe pipe : factory.pipes) {
+            assertTrue(pipe.isClosed());
+        }
+    }
+
+    @Test
+    public void testKeepsConnectionOnRemoteException()
+        throws Exception
+    {
+        final PipeFactory factory = new PipeFactory();
+        final DispatcherPool pool = new DispatcherPool(factory, 1, 3000, 50);
+        try {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    pool.call(echo(PipeFactory.FAIL));
+                    fail("Expected RemoteException");
+                }
+                catch (final RemoteException re) {
+                    assertEquals(IllegalStateException.class, re.getCause().getClass());
+                }
+            }
+
+            assertEquals("alive", pool.call(echo("alive")));
+            assertEquals(1, pool.getConnected());
+            assertEquals(1, factory.pipes.size());
+            assertFalse(factory.pipes.get(0).isClosed());
+        }
+        finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPreparedCall()
+        throws Exception
+    {
+        final PipeFactory factory = new PipeFactory();
+        final DispatcherPool pool = new DispatcherPool(factory, 2, 3000, 50);
+        try {
+            final PreparedCall prepared = new PreparedCall("test", "echo", String.class);
+            assertEquals("one", pool.call(prepared, "one"));
+            assertEquals("two", pool.call(prepared, "two"));
+        }
+        finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testNoneStayOpen()
+        throws Exception
+    {
+        final PipeFactory factory = new PipeFactory();
+        factory.hangUp = true;
+        try {
+            new DispatcherPool(factory, 2, 3000, 50).close();
+            fail("Expected IOException");
+        }
+        catch (final IOException ioe) {
+            assertEquals("No pooled connection stayed open", ioe.getMessage());
+        }
+
+        assertEquals(2, factory.pipes.size());
+    }
+
+    private CallCommand echo(final String value)
+    {
+        return new CallCommand(null, "test", "echo", new Object[] {
+            value
+        });
+    }
+
+    /**
+     * Opens pipes, each served by a thread which echoes the first argument of
+     * each command.
+     */
+    private static class PipeFactory
+        implements CommunicatorFactory
+    {
+        /** An argument which makes the server respond with an error. */
+        static final String FAIL = "fail";
+
+        final List<CommunicatorPipe> pipes = new ArrayList<CommunicatorPipe>();
+        final List<int[]> served = new ArrayList<int[]>();
+        volatile boolean refuse = false;
+
+        /** Close each connection as soon as it is opened. */
+        volatile boolean hangUp = false;
+
+        @Override
+        public ClientSideCommunicator connect()
+            throws IOException
+        {
+            if (refuse) {
+                throw new IOException("Refusing connections");
+            }
+
+            final CommunicatorPipe pipe = new CommunicatorPipe(new DefaultClassRegistry(), 0);
+            final int[] count = new int[1];
+            synchronized (served) {
+                pipes.add(pipe);
+                served.add(count);
+            }
+
+            if (hangUp) {
+                pipe.close();
+                return pipe;
+            }
+
+            final Thread server = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        Command command;
+                        while (null != (command = pipe.readNextCommand())) {
+                            synchronized (served) {
+                                count[0]++;
+                            }
+
+                            final Object arg = ((CallCommand)command).getArguments()[0];
+                            if (FAIL.equals(arg)) {
+                                pipe.sendResponse(new ErrorResponse(command.getLabel(), new IllegalStateException(FAIL)));
+                            }
+                            else {
+                                pipe.sendResponse(new ValueResponse(command.getLabel(), arg));
+                            }
+                        }
+                    }
+                    catch (final IOException ioe) {
+                        throw new RuntimeException("Unexpected IOException: " + ioe.getMessage(), ioe);
+                    }
+                }
+            };
+            server.setDaemon(true);
+            server.start();
+
+            return pipe;
+        }
+    }
+}
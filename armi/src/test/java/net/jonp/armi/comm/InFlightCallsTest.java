@@ -0,0 +1,229 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.base.stats.MethodStatistics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InFlightCallsTest
+{
+    private static final int CALLERS = 5;
+
+    private BlockingAPI api;
+    private CommandExecutor executor;
+
+    @Before
+    public void setUp()
+    {
+        api = new BlockingAPI();
+
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("api", api);
+
+        executor = new CommandExecutor(registry);
+    }
+
+    @Test
+    public void testCoalesced()
+        throws Exception
+    {
+        final Response[] responses = callConcurrently("slow", "a");
+
+        assertEquals(1, api.calls.get());
+        assertEquals(CALLERS - 1, executor.getInFlightCalls().getCoalesced());
+        for (int i = 0; i < CALLERS; i++) {
+            assertEquals(Integer.toString(i), responses[i].getLabel());
+            assertEquals("a!", ((ValueResponse)responses[i]).getValue());
+        }
+
+        // Every call is recorded, not just the one which invoked the method
+        final MethodStatistics stats = executor.getStatistics().getStatistics("api", "slow");
+        assertEquals(CALLERS, stats.getCalls());
+        assertEquals(CALLERS - 1, stats.getCoalesced());
+        assertEquals(0, stats.getErrors());
+
+        // Once finished, the next call invokes the method again
+        api.release.countDown();
+        executor.executeCommand(command("next", "slow", "a"));
+        assertEquals(2, api.calls.get());
+    }
+
+    @Test
+    public void testErrorsCoalesced()
+        throws Exception
+    {
+        final Response[] responses = callConcurrently("slow", null);
+
+        assertEquals(1, api.calls.get());
+        for (int i = 0; i < CALLERS; i++) {
+            assertEquals(Integer.toString(i), responses[i].getLabel());
+            assertEquals(ErrorResponse.class, responses[i].getClass());
+        }
+
+        final MethodStatistics stats = executor.getStatistics().getStatistics("api", "slow");
+        assertEquals(CALLERS, stats.getErrors());
+        assertEquals(Long.valueOf(CALLERS), stats.getErrorsByType().get(IllegalArgumentException.class.getName()));
+    }
+
+    @Test
+    public void testCoalescedScheduled()
+        throws Exception
+    {
+        // Enough to pin a pool with a thread per processor, if each waiting
+        // call held a thread
+        final int callers = 4 * Runtime.getRuntime().availableProcessors() + 1;
+        final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+        final CommandExecutor.ResponseCallback callback = new CommandExecutor.ResponseCallback() {
+            @Override
+            public void response(final Response response)
+            {
+                responses.add(response);
+            }
+        };
+
+        final ThreadPoolExecutor pool = (ThreadPoolExecutor)executor.getScheduler().getExecutor();
+        final int busy = pool.getActiveCount();
+
+        executor.executeCommand(command("0", "slow", "a"), callback);
+        api.started.await();
+        for (int i = 1; i < callers; i++) {
+            executor.executeCommand(command(Integer.toString(i), "slow", "a"), callback);
+        }
+
+        waitForCoalesced(callers - 1);
+        assertEquals(callers - 1, executor.getInFlightCalls().getCoalesced());
+
+        // The waiting calls hold no threads; only the leader does
+        final long limit = System.currentTimeMillis() + 5000;
+        while (pool.getActiveCount() > busy + 1 && System.currentTimeMillis() < limit) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(pool.getActiveCount() <= busy + 1);
+        executor.executeCommand(command("quick", "quick", "b"), callback);
+        assertEquals("quick", responses.poll(5, TimeUnit.SECONDS).getLabel());
+
+        api.release.countDown();
+        final Set<String> labels = new HashSet<String>();
+        for (int i = 0; i < callers; i++) {
+            final Response response = responses.poll(5, TimeUnit.SECONDS);
+            assertEquals("a!", ((ValueResponse)response).getValue());
+            labels.add(response.getLabel());
+        }
+
+        assertEquals(callers, labels.size());
+        assertEquals(1, api.calls.get());
+        assertEquals(callers, executor.getStatistics().getStatistics("api", "slow").getCalls());
+    }
+
+    @Test
+    public void testRegistered()
+        throws Exception
+    {
+        executor.getInFlightCalls().register("api", "other");
+        callConcurrently("other", "a");
+
+        assertEquals(1, api.calls.get());
+    }
+
+    /**
+     * Start one call, wait until the others have joined it, and then let it
+     * finish.
+     */
+    private Response[] callConcurrently(final String method, final String arg)
+        throws InterruptedException
+    {
+        final Response[] responses = new Response[CALLERS];
+        final Thread[] threads = new Thread[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    responses[index] = executor.executeCommand(command(Integer.toString(index), method, arg));
+                }
+            };
+
+            threads[i].start();
+            if (i == 0) {
+                api.started.await();
+            }
+        }
+
+        waitForCoalesced(CALLERS - 1);
+
+        api.release.countDown();
+        for (final Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        return responses;
+    }
+
+    private void waitForCoalesced(final int count)
+        throws InterruptedException
+    {
+        final long limit = System.currentTimeMillis() + 5000;
+        while (executor.getInFlightCalls().getCoalesced() < count && System.currentTimeMillis() < limit) {
+            Thread.sleep(1);
+        }
+    }
+
+    private CallCommand command(final String label, final String method, final String arg)
+    {
+        return new CallCommand(label, "api", method, new Object[] {
+            arg
+        });
+    }
+
+    @Concurrency(CallScheduler.Mode.CONCURRENT)
+    public static class BlockingAPI
+    {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @SingleFlight
+        public String slow(final String s)
+            throws InterruptedException
+        {
+            return other(s);
+        }
+
+        public String other(final String s)
+            throws InterruptedException
+        {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+
+            if (null == s) {
+                throw new IllegalArgumentException("Nothing to say");
+            }
+
+            return s + "!";
+        }
+
+        public String quick(final String s)
+        {
+            return s;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import net.jonp.armi.base.SyntaxException;
+import net.jonp.armi.base.response.ResponseParser;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+import net.jonp.armi.comm.QueuedUnsolListener.OverflowPolicy;
+
+import org.junit.Test;
+
+public class QueuedUnsolListenerTest
+{
+    @Test
+    public void testDeliversInOrder()
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingListener delegate = new RecordingListener();
+        final QueuedUnsolListener listener = new QueuedUnsolListener(delegate, executor, 10, OverflowPolicy.BLOCK);
+
+        listener.unsolReceived("a", 1);
+        listener.unsolReceived("b", 2);
+        listener.unsolReceived("a", 3);
+
+        // Nothing is delivered on the calling thread, and only one drain task
+        // is scheduled no matter how many messages are queued
+        assertEquals(0, delegate.received.size());
+        assertEquals(1, executor.tasks.size());
+        assertEquals(3, listener.getQueued());
+
+        executor.runAll();
+
+        assertEquals("[a=1, b=2, a=3]", delegate.received.toString());
+        assertEquals(0, listener.getQueued());
+        assertEquals(0, listener.getDropped());
+    }
+
+    @Test
+    public void testDropOldest()
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingListener delegate = new RecordingListener();
+        final QueuedUnsolListener listener = new QueuedUnsolListener(delegate, executor, 2, OverflowPolicy.DROP_OLDEST);
+
+        listener.unsolReceived("a", 1);
+        listener.unsolReceived("a", 2);
+        listener.unsolReceived("a", 3);
+
+        executor.runAll();
+
+        assertEquals("[a=2, a=3]", delegate.received.toString());
+        assertEquals(1, listener.getDropped());
+    }
+
+    @Test
+    public void testConflate()
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingListener delegate = new RecordingListener();
+        final QueuedUnsolListener listener = new QueuedUnsolListener(delegate, executor, 10, OverflowPolicy.CONFLATE);
+
+        listener.unsolReceived("a", 1);
+        listener.unsolReceived("b", 2);
+        listener.unsolReceived("a", 3);
+        listener.unsolReceived("b", 4);
+        listener.unsolReceived("c", 5);
+
+        assertEquals(3, listener.getQueued());
+
+        executor.runAll();
+
+        assertEquals("[a=3, b=4, c=5]", delegate.received.toString());
+        assertEquals(2, listener.getDropped());
+
+        // Once drained, the next message schedules delivery again
+        listener.unsolReceived("a", 6);
+        executor.runAll();
+
+        assertEquals("[a=3, b=4, c=5, a=6]", delegate.received.toString());
+    }
+
+    @Test
+    public void testDecodesOnExecutor()
+        throws IOException, SyntaxException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingListener delegate = new RecordingListener();
+        final QueuedUnsolListener listener = new QueuedUnsolListener(delegate, executor, 1, OverflowPolicy.DROP_OLDEST);
+
+        final UnsolicitedResponse dropped = lazy("unsol (a, \"1\")");
+        final UnsolicitedResponse kept = lazy("unsol (a, \"2\")");
+        listener.unsolReceived(dropped);
+        listener.unsolReceived(kept);
+        assertFalse(kept.isDecoded());
+
+        // Only a message which is delivered is decoded, and not until then
+        executor.runAll();
+        assertFalse(dropped.isDecoded());
+        assertTrue(kept.isDecoded());
+        assertEquals("[a=2]", delegate.received.toString());
+
+        // One which cannot be decoded is dropped
+        listener.unsolReceived(lazy("unsol (b, no.such.Clazz ())"));
+        executor.runAll();
+        assertEquals("[a=2]", delegate.received.toString());
+        assertEquals(2, listener.getDropped());
+    }
+
+    @Test
+    public void testRemoveWrappedListener()
+    {
+        final ResponseDispatcher dispatcher = new ResponseDispatcher(new CommunicatorPipe(new DefaultClassRegistry()));
+        final RecordingListener delegate = new RecordingListener();
+
+        dispatcher.addUnsolListener(".*", delegate, new ManualExecutor(), 10, OverflowPolicy.CONFLATE);
+        assertEquals(1, dispatcher.getUnsolListeners().size());
+
+        dispatcher.removeUnsolListener(delegate);
+        assertEquals(0, dispatcher.getUnsolListeners().size());
+    }
+
+    private static UnsolicitedResponse lazy(final String statement)
+        throws IOException, SyntaxException
+    {
+        final ResponseParser parser = new ResponseParser(new DefaultClassRegistry());
+        parser.setLazy(true);
+        return (UnsolicitedResponse)parser.parseResponse(ByteBuffer.wrap(statement.getBytes()));
+    }
+
+    /**
+     * An executor that queues its tasks until told to run them.
+     */
+    private static class ManualExecutor
+        implements Executor
+    {
+        final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(final Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        void runAll()
+        {
+            Runnable task;
+            while (null != (task = tasks.poll())) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Records every message it receives.
+     */
+    private static class RecordingListener
+        implements UnsolListener
+    {
+        final List<String> received = new ArrayList<String>();
+
+        @Override
+        public void unsolReceived(final String type, final Object value)
+        {
+            received.add(type + "=" + value);
+        }
+    }
+}
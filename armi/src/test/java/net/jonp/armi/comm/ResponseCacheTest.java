@@ -0,0 +1,249 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.jonp.armi.base.QuoteTestClass;
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.base.stats.MethodStatistics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseCacheTest
+{
+    private CountingAPI api;
+    private CommandExecutor executor;
+    private ResponseCache cache;
+
+    @Before
+    public void setUp()
+    {
+        api = new CountingAPI();
+
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("api", api);
+
+        executor = new CommandExecutor(registry);
+        cache = executor.getCache();
+    }
+
+    @Test
+    public void testAnnotated()
+        throws Exception
+    {
+        assertEquals("a!", call("1", "shout", "a"));
+        assertEquals("a!", call("2", "shout", "a"));
+        assertEquals("b!", call("3", "shout", "b"));
+
+        assertEquals(2, api.calls);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getSize());
+
+        // Hits are recorded as calls, though the method was not called
+        final MethodStatistics stats = executor.getStatistics().getStatistics("api", "shout");
+        assertEquals(3, stats.getCalls());
+        assertEquals(1, stats.getHits());
+        assertEquals(0, stats.getCoalesced());
+
+        // Uncached methods are not counted
+        call("4", "count", "a");
+        call("5", "count", "a");
+        assertEquals(4, api.calls);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testSerializedOnce()
+        throws Exception
+    {
+        final DefaultClassRegistry registry = new DefaultClassRegistry();
+        final Response first = executor.executeCommand(command("1", "shout", "a"));
+        final Response second = executor.executeCommand(command("2", "shout", "a"));
+
+        assertEquals("response label \"1\" (\"a!\")", first.toStatement(registry));
+        assertEquals("response label \"2\" (\"a!\")", second.toStatement(registry));
+        assertEquals(1, api.calls);
+    }
+
+    @Test
+    public void testSerializedPerRegistry()
+        throws Exception
+    {
+        final DefaultClassRegistry first = new DefaultClassRegistry();
+        first.put("Quote", QuoteTestClass.class);
+        final DefaultClassRegistry second = new DefaultClassRegistry();
+        second.put("Other", QuoteTestClass.class);
+
+        // Each registry gets its own encoding, however they are interleaved
+        for (int i = 0; i < 2; i++) {
+            final Response response = executor.executeCommand(command(Integer.toString(i), "quote", "a"));
+            assertTrue(response.toStatement(first).contains("Quote"));
+            assertTrue(response.toStatement(second).contains("Other"));
+        }
+        assertEquals(1, api.calls);
+    }
+
+    @Test
+    public void testRegistered()
+        throws Exception
+    {
+        cache.register("api", "count", 60000, 10);
+
+        call("1", "count", "a");
+        call("2", "count", "a");
+        assertEquals(1, api.calls);
+
+        cache.unregister("api", "count");
+        call("3", "count", "a");
+        assertEquals(2, api.calls);
+    }
+
+    @Test
+    public void testInvalidate()
+        throws Exception
+    {
+        call("1", "shout", "a");
+        cache.invalidate("api", "shout");
+        call("2", "shout", "a");
+        assertEquals(2, api.calls);
+
+        cache.invalidate("api");
+        call("3", "shout", "a");
+        assertEquals(3, api.calls);
+
+        cache.invalidateAll();
+        call("4", "shout", "a");
+        assertEquals(4, api.calls);
+    }
+
+    @Test
+    public void testInvalidateWhileRunning()
+        throws Exception
+    {
+        // The result was read before the invalidation, so must not be kept
+        api.during = new Runnable() {
+            @Override
+            public void run()
+            {
+                cache.invalidate("api", "shout");
+            }
+        };
+        assertEquals("a!", call("1", "shout", "a"));
+        assertEquals(0, cache.getSize());
+
+        api.during = null;
+        call("2", "shout", "a");
+        call("3", "shout", "a");
+        assertEquals(2, api.calls);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testExpiry()
+        throws Exception
+    {
+        cache.register("api", "shout", 20, 10);
+
+        call("1", "shout", "a");
+        Thread.sleep(50);
+        call("2", "shout", "a");
+        assertEquals(2, api.calls);
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testMaxSize()
+        throws Exception
+    {
+        cache.register("api", "shout", 60000, 2);
+
+        call("1", "shout", "a");
+        call("2", "shout", "b");
+        call("3", "shout", "c");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testLeastRecentlyUsed()
+        throws Exception
+    {
+        cache.register("api", "shout", 60000, 2);
+
+        call("1", "shout", "a");
+        call("2", "shout", "b");
+        call("3", "shout", "a");
+        call("4", "shout", "c");
+        assertEquals(3, api.calls);
+
+        // b was used least recently, so was the one discarded
+        call("5", "shout", "a");
+        call("6", "shout", "c");
+        assertEquals(3, api.calls);
+        call("7", "shout", "b");
+        assertEquals(4, api.calls);
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testErrorsNotCached()
+        throws Exception
+    {
+        executor.executeCommand(command("1", "shout", null));
+        executor.executeCommand(command("2", "shout", null));
+
+        assertEquals(2, api.calls);
+        assertEquals(0, cache.getSize());
+    }
+
+    private Object call(final String label, final String method, final String arg)
+    {
+        return ((ValueResponse)executor.executeCommand(command(label, method, arg))).getValue();
+    }
+
+    private CallCommand command(final String label, final String method, final String arg)
+    {
+        return new CallCommand(label, "api", method, new Object[] {
+            arg
+        });
+    }
+
+    public static class CountingAPI
+    {
+        int calls = 0;
+        Runnable during = null;
+
+        @Cacheable
+        public String shout(final String s)
+        {
+            calls++;
+            if (null != during) {
+                during.run();
+            }
+
+            if (null == s) {
+                throw new IllegalArgumentException("Nothing to shout");
+            }
+
+            return s + "!";
+        }
+
+        @Cacheable
+        public QuoteTestClass quote(final String symbol)
+        {
+            calls++;
+            return new QuoteTestClass(symbol, 1, 2);
+        }
+
+        public int count(final String s)
+        {
+            return ++calls;
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package net.jonp.armi.comm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.util.Collections;
@@ -14,9 +17,12 @@ import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
 import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.SyntaxException;
 import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.CancelCommand;
 import net.jonp.armi.base.command.Command;
 import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.ResponseParser;
 import net.jonp.armi.base.response.UnsolicitedResponse;
 import net.jonp.armi.base.response.ValueResponse;
 
@@ -128,6 +134,54 @@ public class ResponseDispatcherTest
         }
     }
 
+    @Test
+    public void testFireUnsolicitedLazily()
+        throws IOException, SyntaxException
+    {
+        final ClassRegistry registry = new DefaultClassRegistry();
+        final ResponseDispatcher dispatcher = new ResponseDispatcher(new CommunicatorPipe(registry));
+        final ResponseParser parser = new ResponseParser(registry);
+        parser.setLazy(true);
+
+        final UnsolicitedResponse[] lazy = new UnsolicitedResponse[1];
+        dispatcher.addUnsolListener("test", new LazyUnsolListener() {
+            @Override
+            public void unsolReceived(final String type, final Object value)
+            {
+                fail("Decoded for a lazy listener");
+            }
+
+            @Override
+            public void unsolReceived(final UnsolicitedResponse response)
+            {
+                lazy[0] = response;
+            }
+        });
+
+        // A lazy listener is handed the message undecoded
+        final UnsolicitedResponse first =
+            (UnsolicitedResponse)parser.parseResponse(ByteBuffer.wrap("unsol (test, \"1\")".getBytes()));
+        dispatcher.fireUnsolicitedResponse(first);
+        assertSame(first, lazy[0]);
+        assertFalse(first.isDecoded());
+
+        // Any other listener needs it decoded
+        final Object[] value = new Object[1];
+        dispatcher.addUnsolListener("test", new UnsolListener() {
+            @Override
+            public void unsolReceived(final String type, final Object _value)
+            {
+                value[0] = _value;
+            }
+        });
+
+        final UnsolicitedResponse second =
+            (UnsolicitedResponse)parser.parseResponse(ByteBuffer.wrap("unsol (test, \"2\")".getBytes()));
+        dispatcher.fireUnsolicitedResponse(second);
+        assertSame(second, lazy[0]);
+        assertEquals("2", value[0]);
+    }
+
     @Test
     public void testCallCallCommand()
         throws RemoteException, IOException, NotBoundException, TimeoutException
@@ -232,6 +286,50 @@ public class ResponseDispatcherTest
         }
     }
 
+    @Test
+    public void testCallTimeoutCancels()
+        throws Exception
+    {
+        final ClassRegistry registry = new DefaultClassRegistry();
+        final CommunicatorPipe pipe = new CommunicatorPipe(registry);
+        final ResponseDispatcher dispatcher = new ResponseDispatcher(pipe, 0);
+        dispatcher.setSendCancels(true);
+
+        final Command[] received = new Command[2];
+        final Thread server = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    received[0] = pipe.readNextCommand();
+                    received[1] = pipe.readNextCommand();
+                }
+                catch (final IOException ioe) {
+                    throw new RuntimeException("Unexpected IOException: " + ioe.getMessage(), ioe);
+                }
+            }
+        };
+        server.start();
+
+        dispatcher.start();
+        try {
+            try {
+                dispatcher.call(new CallCommand(null, "test", "test", new Object[0]), 10);
+                fail("Expected TimeoutException");
+            }
+            catch (final TimeoutException te) {
+                // This was expected
+            }
+
+            server.join(5000);
+            assertTrue(received[1] instanceof CancelCommand);
+            assertEquals(received[0].getLabel(), received[1].getLabel());
+        }
+        finally {
+            pipe.close();
+        }
+    }
+
     @Test
     public void testCallNoResponse()
         throws IOException, NotBoundException
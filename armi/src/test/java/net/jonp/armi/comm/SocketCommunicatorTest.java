@@ -0,0 +1,493 @@
+package net.jonp.armi.comm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.command.CommandParser;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.client.ClientSideSocketCommunicator;
+import net.jonp.armi.comm.server.ServerSideSocketCommunicator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SocketCommunicatorTest
+{
+    private ServerSocket lsock;
+    private Socket clientSock;
+    private Socket serverSock;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        lsock = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        clientSock = new Socket(lsock.getInetAddress(), lsock.getLocalPort());
+        serverSock = lsock.accept();
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        clientSock.close();
+        serverSock.close();
+        lsock.close();
+    }
+
+    @Test
+    public void testCompressed()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), new Compression(1, 0));
+
+        // Sent before the handshake, so never compressed
+        server.sendResponse(new UnsolicitedResponse("early", "value"));
+
+        final Thread serverThread = serve(server, 2);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), Compression.DEFAULT);
+        assertTrue(client.isCompressed());
+
+        assertEquals("value", ((UnsolicitedResponse)client.readNextResponse()).getValue());
+        roundTrip(client);
+        roundTrip(client);
+
+        serverThread.join(3000);
+        assertTrue(server.isCompressed());
+    }
+
+    @Test
+    public void testDeclined()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server = new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), null);
+        final Thread serverThread = serve(server, 1);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), Compression.DEFAULT);
+        assertFalse(client.isCompressed());
+
+        roundTrip(client);
+
+        serverThread.join(3000);
+        assertFalse(server.isCompressed());
+    }
+
+    @Test
+    public void testUncompressedClient()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server = new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry());
+        final Thread serverThread = serve(server, 1);
+        final ClientSideSocketCommunicator client = new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry());
+
+        roundTrip(client);
+
+        serverThread.join(3000);
+        assertFalse(server.isCompressed());
+    }
+
+    @Test
+    public void testServerWithoutHandshake()
+        throws Exception
+    {
+        // A server which does not understand the handshake answers it with an
+        // error, like any other call to an unknown object
+        final Thread oldServer = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    final InputStream in = serverSock.getInputStream();
+                    final OutputStream out = serverSock.getOutputStream();
+                    final CallCommand command =
+                        (CallCommand)new CommandParser(in, new DefaultClassRegistry()).readNextCommand();
+                    out.write(new ErrorResponse(command.getLabel(), new NotBoundException(command.getObject())).toStatement(new DefaultClassRegistry()).getBytes());
+                    out.write('\n');
+                    out.flush();
+                }
+                catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        oldServer.start();
+
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), Compression.DEFAULT);
+        assertFalse(client.isCompressed());
+
+        oldServer.join(3000);
+    }
+
+    @Test
+    public void testDictionary()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), null, 4);
+        final Thread serverThread = serve(server, 3);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), null, 16);
+        assertEquals(4, client.getDictionarySize());
+        assertFalse(client.isCompressed());
+
+        roundTrip(client);
+        roundTrip(client);
+        roundTrip(client);
+
+        serverThread.join(3000);
+        assertEquals(4, server.getDictionarySize());
+    }
+
+    @Test
+    public void testDictionaryDeclined()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), Compression.DEFAULT, 0);
+        final Thread serverThread = serve(server, 1);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), Compression.DEFAULT, 16);
+        assertEquals(0, client.getDictionarySize());
+        assertTrue(client.isCompressed());
+
+        roundTrip(client);
+
+        serverThread.join(3000);
+        assertEquals(0, server.getDictionarySize());
+    }
+
+    @Test
+    public void testDeltas()
+        throws Exception
+    {
+        final UnsolDeltas deltas = new UnsolDeltas(2);
+        deltas.register("point", new KeyExtractor() {
+            @Override
+            public Object getKey(final Object value)
+            {
+                return ((Point)value).name;
+            }
+        });
+
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), null, 0);
+        server.setUnsolDeltas(deltas);
+        final Thread serverThread = serve(server, 1);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), null, 0, true);
+        assertTrue(client.isDeltaEncoded());
+
+        roundTrip(client);
+        serverThread.join(3000);
+        assertTrue(server.isDeltaEncoded());
+
+        final Point point = new Point();
+        point.name = "origin";
+        for (int i = 0; i < 5; i++) {
+            point.x = i;
+            server.sendResponse(new UnsolicitedResponse("point", point));
+        }
+        server.sendResponse(new UnsolicitedResponse("other", "value"));
+
+        for (int i = 0; i < 5; i++) {
+            final Point received = (Point)((UnsolicitedResponse)client.readNextResponse()).getValue();
+            assertEquals("origin", received.name);
+            assertEquals(i, received.x);
+        }
+        assertEquals("value", ((UnsolicitedResponse)client.readNextResponse()).getValue());
+    }
+
+    @Test
+    public void testDeltasDeclined()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), null, 0);
+        final Thread serverThread = serve(server, 1);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), null, 0, true);
+        assertFalse(client.isDeltaEncoded());
+
+        roundTrip(client);
+        serverThread.join(3000);
+        assertFalse(server.isDeltaEncoded());
+    }
+
+    @Test
+    public void testFramed()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), Compression.DEFAULT, 4);
+
+        // Sent before the handshake, so without framing
+        server.sendResponse(new UnsolicitedResponse("early", "value"));
+
+        final Thread serverThread = serve(server, 3);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), Compression.DEFAULT, 16, false, true);
+        assertTrue(client.isFramed());
+        assertTrue(client.isCompressed());
+        assertEquals("value", ((UnsolicitedResponse)client.readNextResponse()).getValue());
+
+        roundTrip(client);
+        roundTrip(client);
+
+        // Strings may span lines
+        final String message = "First line\nSecond line\r\n\nLast line";
+        client.sendCommand(new CallCommand("2", "echo", "echo", new Object[] {
+            message
+        }));
+        assertEquals(message, ((ValueResponse)client.readNextResponse()).getValue());
+
+        serverThread.join(3000);
+        assertTrue(server.isFramed());
+    }
+
+    @Test
+    public void testFramingDeclined()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server =
+            new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry(), null, 0);
+        server.setFramingAllowed(false);
+        final Thread serverThread = serve(server, 1);
+        final ClientSideSocketCommunicator client =
+            new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry(), null, 0, false, true);
+        assertFalse(client.isFramed());
+
+        roundTrip(client);
+        serverThread.join(3000);
+        assertFalse(server.isFramed());
+    }
+
+    @Test
+    public void testStream()
+        throws Exception
+    {
+        final ServerSideSocketCommunicator server = new ServerSideSocketCommunicator(serverSock, new DefaultClassRegistry());
+        final Thread serverThread = execute(server, 7);
+        final ClientSideSocketCommunicator client = new ClientSideSocketCommunicator(clientSock, new DefaultClassRegistry());
+        final ResponseDispatcher dispatcher = new ResponseDispatcher(client, 3000);
+        dispatcher.start();
+
+        try {
+            // Several chunks, read one at a time
+            final List<Object> values = new ArrayList<Object>();
+            final StreamIterator it = dispatcher.callStream(new CallCommand(null, "stream", "range", new Object[0]), 3000, 1);
+            while (it.hasNext()) {
+                values.add(it.next());
+            }
+
+            assertEquals(StreamAPI.COUNT, values.size());
+            for (int i = 0; i < StreamAPI.COUNT; i++) {
+                assertEquals(i, values.get(i));
+            }
+
+            // An exception part-way through ends the stream
+            final StreamIterator failing = dispatcher.callStream(new CallCommand(null, "stream", "failing", new Object[0]));
+            assertEquals(0, failing.next());
+            try {
+                failing.next();
+                fail("Expected RemoteStreamException");
+            }
+            catch (final RemoteStreamException rse) {
+                assertEquals(IllegalStateException.class, rse.getCause().getClass());
+            }
+
+            // Other calls still work once a stream has been closed early
+            final StreamIterator closed = dispatcher.callStream(new CallCommand(null, "stream", "range", new Object[0]), 3000, 1);
+            assertEquals(0, closed.next());
+            closed.close();
+
+            assertEquals(StreamAPI.COUNT, dispatcher.call(new CallCommand(null, "stream", "size", new Object[0])));
+
+            // A stream which is neither consumed nor closed is abandoned, and
+            // does not hold up the connection for good
+            final StreamIterator forgotten =
+                dispatcher.callStream(new CallCommand(null, "stream", "range", new Object[0]), 200, 1);
+            assertEquals(StreamAPI.COUNT, dispatcher.call(new CallCommand(null, "stream", "size", new Object[0])));
+            try {
+                forgotten.next();
+                fail("Expected RemoteStreamException");
+            }
+            catch (final RemoteStreamException rse) {
+                assertEquals(TimeoutException.class, rse.getCause().getClass());
+            }
+
+            // Without asking for a stream, the result is sent as one value
+            final Object[] whole = (Object[])dispatcher.call(new CallCommand(null, "stream", "first", new Object[] {
+                3
+            }));
+            assertEquals(3, whole.length);
+            assertEquals(2, whole[2]);
+        }
+        finally {
+            client.close();
+        }
+
+        serverThread.join(3000);
+    }
+
+    private void roundTrip(final ClientSideSocketCommunicator client)
+        throws Exception
+    {
+        final String message = "A message long enough to be worth compressing, with some repetition repetition";
+        client.sendCommand(new CallCommand("1", "echo", "echo", new Object[] {
+            message
+        }));
+
+        final ValueResponse response = (ValueResponse)client.readNextResponse();
+        assertEquals("1", response.getLabel());
+        assertEquals(message, response.getValue());
+    }
+
+    /**
+     * Start a thread which echoes the first argument of each command.
+     */
+    private Thread serve(final ServerSideSocketCommunicator server, final int count)
+    {
+        final Thread thread = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        final CallCommand command = (CallCommand)server.readNextCommand();
+                        server.sendResponse(new ValueResponse(command.getLabel(), command.getArguments()[0]));
+                    }
+                }
+                catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Start a thread which executes each command against a
+     * {@link StreamAPI}.
+     */
+    private Thread execute(final ServerSideSocketCommunicator server, final int count)
+    {
+        final SimpleRegistry<Object> registry = new SimpleRegistry<Object>();
+        registry.put("stream", new StreamAPI());
+        final CommandExecutor executor = new CommandExecutor(registry);
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        final Command command = server.readNextCommand();
+                        server.sendResponse(executor.executeCommand((CallCommand)command));
+                    }
+                }
+                catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * A keyed value, sent as deltas.
+     */
+    public static class Point
+    {
+        String name;
+        int x;
+        int y;
+    }
+
+    /**
+     * Methods with streamed results.
+     */
+    public static class StreamAPI
+    {
+        static final int COUNT = 250;
+
+        public Iterable<Integer> range()
+        {
+            final List<Integer> range = new ArrayList<Integer>();
+            for (int i = 0; i < COUNT; i++) {
+                range.add(i);
+            }
+
+            return range;
+        }
+
+        public Iterator<Integer> failing()
+        {
+            return new Iterator<Integer>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return true;
+                }
+
+                @Override
+                public Integer next()
+                {
+                    if (next > 0) {
+                        throw new IllegalStateException("Failed");
+                    }
+
+                    return next++;
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public Iterator<Integer> first(final int n)
+        {
+            final List<Integer> first = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                first.add(i);
+            }
+
+            return first.iterator();
+        }
+
+        public int size()
+        {
+            return COUNT;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package net.jonp.armi.comm.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import net.jonp.armi.base.ClassRegistry;
+import net.jonp.armi.base.command.Command;
+import net.jonp.armi.base.response.ErrorResponse;
+import net.jonp.armi.base.response.Response;
+import net.jonp.armi.base.response.StreamResponse;
+import net.jonp.armi.base.response.UnsolicitedResponse;
+import net.jonp.armi.base.response.ValueResponse;
+import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.server.QueuedServerSideCommunicator.OverflowPolicy;
+
+import org.junit.Test;
+
+public class QueuedServerSideCommunicatorTest
+{
+    @Test
+    public void testSendsInOrder()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 10, OverflowPolicy.BLOCK);
+
+        comm.sendResponse(new ValueResponse("1", "x"));
+        comm.sendResponse(new UnsolicitedResponse("a", 1));
+        comm.sendResponse(new ValueResponse("2", "y"));
+
+        // Nothing is written on the calling thread, and only one drain task is
+        // scheduled no matter how many responses are queued
+        assertEquals(0, delegate.sent.size());
+        assertEquals(1, executor.tasks.size());
+        assertEquals(3, comm.getQueued());
+
+        executor.runAll();
+
+        assertEquals("[1:x, a=1, 2:y]", delegate.sent.toString());
+        assertEquals(0, comm.getQueued());
+        assertEquals(3, comm.getHighWater());
+        assertEquals(3, comm.getSent());
+        assertEquals(0, comm.getDropped());
+    }
+
+    @Test
+    public void testDropUnsolicited()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 2, OverflowPolicy.DROP_UNSOLICITED);
+
+        comm.sendResponse(new UnsolicitedResponse("a", 1));
+        comm.sendResponse(new UnsolicitedResponse("a", 2));
+        comm.sendResponse(new UnsolicitedResponse("a", 3));
+        comm.sendResponse(new ValueResponse("1", "x"));
+        comm.sendResponse(new ValueResponse("2", "y"));
+        comm.sendResponse(new ValueResponse("3", "z"));
+
+        executor.runAll();
+
+        // Responses are never dropped, even past the capacity
+        assertEquals("[1:x, 2:y, 3:z]", delegate.sent.toString());
+        assertEquals(3, comm.getDropped());
+        assertEquals(3, comm.getHighWater());
+    }
+
+    @Test
+    public void testConflate()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 3, OverflowPolicy.CONFLATE);
+
+        comm.sendResponse(new UnsolicitedResponse("a", 1));
+        comm.sendResponse(new UnsolicitedResponse("b", 2));
+        comm.sendResponse(new ValueResponse("1", "x"));
+        comm.sendResponse(new UnsolicitedResponse("c", 3));
+        comm.sendResponse(new UnsolicitedResponse("b", 4));
+
+        assertEquals(3, comm.getQueued());
+
+        executor.runAll();
+
+        // c=3 made room by dropping a=1; b=4 replaced b=2 in place
+        assertEquals("[b=4, 1:x, c=3]", delegate.sent.toString());
+        assertEquals(2, comm.getDropped());
+
+        // Once drained, a type is queued afresh
+        comm.sendResponse(new UnsolicitedResponse("b", 5));
+        executor.runAll();
+
+        assertEquals("[b=4, 1:x, c=3, b=5]", delegate.sent.toString());
+    }
+
+    @Test
+    public void testDisconnect()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 1, OverflowPolicy.DISCONNECT);
+
+        comm.sendResponse(new UnsolicitedResponse("a", 1));
+        try {
+            comm.sendResponse(new UnsolicitedResponse("a", 2));
+            fail("Overflowed without disconnecting");
+        }
+        catch (final IOException ioe) {
+            // Expected
+        }
+
+        assertTrue(comm.isClosed());
+        assertEquals(0, comm.getQueued());
+
+        // The close happens on the executor, not on the sending thread
+        assertFalse(delegate.closed);
+        executor.runAll();
+        assertTrue(delegate.closed);
+        assertEquals(0, delegate.sent.size());
+
+        try {
+            comm.sendResponse(new ValueResponse("1", "x"));
+            fail("Sent on a closed connection");
+        }
+        catch (final IOException ioe) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testBlock()
+        throws Exception
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 1, OverflowPolicy.BLOCK);
+
+        comm.sendResponse(new ValueResponse("1", "x"));
+
+        final Thread producer = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    comm.sendResponse(new ValueResponse("2", "y"));
+                }
+                catch (final IOException ioe) {
+                    throw new RuntimeException(ioe);
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        // Draining makes room; the second response is written by the same
+        // drain task, or by one the producer schedules afterwards
+        executor.runAll();
+        producer.join(3000);
+        assertFalse(producer.isAlive());
+        executor.runAll();
+
+        assertEquals("[1:x, 2:y]", delegate.sent.toString());
+    }
+
+    @Test
+    public void testWriteFailureCloses()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        delegate.fail = true;
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 10, OverflowPolicy.DROP_UNSOLICITED);
+
+        comm.sendResponse(new ValueResponse("1", "x"));
+        comm.sendResponse(new ValueResponse("2", "y"));
+        executor.runAll();
+
+        assertTrue(comm.isClosed());
+        assertTrue(delegate.closed);
+        assertEquals(0, comm.getSent());
+    }
+
+    @Test
+    public void testCloseAbandonsStreams()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 10, OverflowPolicy.BLOCK);
+
+        final StreamResponse queued = new StreamResponse("1", Arrays.asList(1, 2, 3).iterator());
+        comm.sendResponse(queued);
+        comm.close();
+        assertNull(queued.nextChunk());
+
+        // Refused once closed
+        final StreamResponse refused = new StreamResponse("2", Arrays.asList(1, 2, 3).iterator());
+        try {
+            comm.sendResponse(refused);
+            fail("Sent on a closed connection");
+        }
+        catch (final IOException ioe) {
+            // Expected
+        }
+        assertNull(refused.nextChunk());
+    }
+
+    @Test
+    public void testUnboundSendsError()
+        throws IOException
+    {
+        final ManualExecutor executor = new ManualExecutor();
+        final RecordingCommunicator delegate = new RecordingCommunicator();
+        final QueuedServerSideCommunicator comm =
+            new QueuedServerSideCommunicator(delegate, executor, 10, OverflowPolicy.DROP_UNSOLICITED);
+
+        comm.sendResponse(new ValueResponse("1", delegate));
+        comm.sendResponse(new ValueResponse("2", "y"));
+        executor.runAll();
+
+        assertEquals("[1:error, 2:y]", delegate.sent.toString());
+        assertFalse(comm.isClosed());
+    }
+
+    /**
+     * An executor that queues its tasks until told to run them.
+     */
+    private static class ManualExecutor
+        implements Executor
+    {
+        final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public synchronized void execute(final Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        void runAll()
+        {
+            Runnable task;
+            while (null != (task = poll())) {
+                task.run();
+            }
+        }
+
+        private synchronized Runnable poll()
+        {
+            return tasks.poll();
+        }
+    }
+
+    /**
+     * Records every response it is asked to send. Refuses to serialize values
+     * which are themselves a {@link RecordingCommunicator}.
+     */
+    private static class RecordingCommunicator
+        implements ServerSideCommunicator
+    {
+        final List<String> sent = new ArrayList<String>();
+        boolean fail = false;
+        boolean closed = false;
+
+        @Override
+        public ClassRegistry getClassRegistry()
+        {
+            return new DefaultClassRegistry();
+        }
+
+        @Override
+        public Command readNextCommand()
+        {
+            return null;
+        }
+
+        @Override
+        public void sendResponse(final Response response)
+            throws IOException, NotBoundException
+        {
+            if (fail) {
+                throw new IOException("Broken pipe");
+            }
+            else if (response instanceof UnsolicitedResponse) {
+                final UnsolicitedResponse unsol = (UnsolicitedResponse)response;
+                sent.add(unsol.getType() + "=" + unsol.getValue());
+            }
+            else if (response instanceof ErrorResponse) {
+                sent.add(response.getLabel() + ":error");
+            }
+            else {
+                final Object value = ((ValueResponse)response).getValue();
+                if (value instanceof RecordingCommunicator) {
+                    throw new NotBoundException(value.getClass().getName());
+                }
+
+                sent.add(response.getLabel() + ":" + value);
+            }
+        }
+
+        @Override
+        public boolean isClosed()
+        {
+            return closed;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        @Override
+        public String getServerSideName()
+        {
+            return "recorder";
+        }
+    }
+}
@@ -23,6 +23,7 @@ import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
+import net.jonp.armi.comm.Compression;
 import net.jonp.armi.comm.DefaultClassRegistry;
 import net.jonp.armi.comm.ResponseDispatcher;
 import net.jonp.armi.comm.UnsolListener;
@@ -59,7 +60,7 @@ public class ChatClient
         classRegistry.put(NameChange.class.getSimpleName(), NameChange.class);
         classRegistry.put(Chatter.class.getSimpleName(), Chatter.class);
 
-        _comm = new ClientSideSocketCommunicator(sock, classRegistry);
+        _comm = new ClientSideSocketCommunicator(sock, classRegistry, Compression.DEFAULT);
 
         _dispatcher = new ResponseDispatcher(_comm);
         _api = new ClientAPI(_dispatcher);
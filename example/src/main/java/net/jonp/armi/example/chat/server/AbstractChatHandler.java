@@ -2,14 +2,17 @@ package net.jonp.armi.example.chat.server;
 
 import java.io.IOException;
 import java.rmi.NotBoundException;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.jonp.armi.base.SyntaxException;
 import net.jonp.armi.base.command.CallCommand;
+import net.jonp.armi.base.command.CancelCommand;
 import net.jonp.armi.base.command.Command;
 import net.jonp.armi.base.command.HelpCommand;
 import net.jonp.armi.base.command.LangAPI;
 import net.jonp.armi.base.response.ErrorResponse;
 import net.jonp.armi.base.response.Response;
+import net.jonp.armi.comm.CallScheduler;
 import net.jonp.armi.comm.CommandExecutor;
 import net.jonp.armi.comm.DefaultClassRegistry;
 import net.jonp.armi.comm.SimpleRegistry;
@@ -32,7 +35,7 @@ public abstract class AbstractChatHandler
     protected final SimpleRegistry<Object> apiRegistry;
     protected final CommandExecutor executor;
 
-    private boolean connected = true;
+    private volatile boolean connected = true;
     private Command currentCommand;
 
     protected AbstractChatHandler(final ServerSideCommunicator _client)
@@ -41,9 +44,9 @@ public abstract class AbstractChatHandler
         classRegistry = (DefaultClassRegistry)client.getClassRegistry();
 
         apiRegistry = new SimpleRegistry<Object>();
-        apiRegistry.put("lang", new LangAPI(apiRegistry));
-
         executor = new CommandExecutor(apiRegistry);
+
+        apiRegistry.put("lang", new LangAPI(apiRegistry, executor.getStatistics()));
     }
 
     /**
@@ -126,7 +129,12 @@ public abstract class AbstractChatHandler
                 }
                 else if (currentCommand instanceof CallCommand) {
                     LOG.debug("Executing CallCommand " + currentCommand.toString());
-                    sendResponse(executor.executeCommand((CallCommand)currentCommand));
+                    execute((CallCommand)currentCommand);
+                }
+                else if (currentCommand instanceof CancelCommand) {
+                    // Calls run off this thread, so this one may still be
+                    // queued or running
+                    executor.cancel(currentCommand.getLabel());
                 }
                 else {
                     LOG.error("Unrecognized command type '" + currentCommand.getClass().getName() + "', escalating");
@@ -136,6 +144,31 @@ public abstract class AbstractChatHandler
         }
     }
 
+    /**
+     * Execute a call on the executor's scheduler, leaving this thread free to
+     * read the next command (which may cancel it). Calls on the same API
+     * object still run in the order they were read (see {@link CallScheduler}).
+     * The response is sent from whichever thread ran the call.
+     * 
+     * @param command The call.
+     */
+    private void execute(final CallCommand command)
+    {
+        try {
+            executor.executeCommand(command, new CommandExecutor.ResponseCallback() {
+                @Override
+                public void response(final Response response)
+                {
+                    sendResponse(response);
+                }
+            });
+        }
+        catch (final RejectedExecutionException ree) {
+            LOG.warn("Unable to schedule " + command + " from " + getChatterName(), ree);
+            sendResponse(new ErrorResponse(command.getLabel(), ree));
+        }
+    }
+
     /**
      * Check whether this handler should continue running.
      * 
@@ -157,6 +190,9 @@ public abstract class AbstractChatHandler
     {
         connected = false;
 
+        // Nobody is left to read the results of calls still running
+        executor.cancelAll();
+
         subDisconnect();
 
         try {
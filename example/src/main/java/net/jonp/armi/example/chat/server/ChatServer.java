@@ -14,6 +14,9 @@ import java.util.Set;
 
 import net.jonp.armi.base.response.UnsolicitedResponse;
 import net.jonp.armi.comm.DefaultClassRegistry;
+import net.jonp.armi.comm.server.QueuedServerSideCommunicator;
+import net.jonp.armi.comm.server.QueuedServerSideCommunicator.OverflowPolicy;
+import net.jonp.armi.comm.server.ServerSideCommunicator;
 import net.jonp.armi.comm.server.ServerSideSocketCommunicator;
 import net.jonp.armi.example.api.ChatMessage;
 import net.jonp.armi.example.chat.Shared;
@@ -123,16 +126,16 @@ public class ChatServer
     }
 
     /**
-     * Broadcast an unsolicited message to all {@link ChatHandler}s.
+     * Broadcast an unsolicited message to all {@link ChatHandler}s. Each
+     * client's messages are queued, so a slow client does not hold up the
+     * others; one that falls too far behind is disconnected.
      * 
      * @param unsol The unsolicited message to broadcast.
      */
     public void broadcast(final UnsolicitedResponse unsol)
     {
-        synchronized (_clients) {
-            for (final ChatHandler handler : _clients) {
-                handler.sendResponse(unsol);
-            }
+        for (final ChatHandler handler : getClients()) {
+            handler.sendResponse(unsol);
         }
     }
 
@@ -150,7 +153,12 @@ public class ChatServer
 
                 LOG.info("New connection received, starting ChatHandler " + name);
 
-                final ChatHandler client = new ChatHandler(new ServerSideSocketCommunicator(sock, new DefaultClassRegistry()), name, this);
+                // Chat messages must not be lost, so a client that cannot
+                // keep up is disconnected rather than sent a partial history
+                final ServerSideCommunicator comm =
+                    new QueuedServerSideCommunicator(new ServerSideSocketCommunicator(sock, new DefaultClassRegistry()),
+                                                     OverflowPolicy.DISCONNECT);
+                final ChatHandler client = new ChatHandler(comm, name, this);
                 synchronized (_clients) {
                     _clients.add(client);
                 }